@@ -0,0 +1,33 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+
+import java.io.File;
+import java.net.URL;
+
+/**
+ * Shared setup for the generation benchmarks.
+ */
+public class BenchmarkSupport {
+
+    public static final long SEED = 20161027L;
+
+    /**
+     * Get generation parameters for the tiny profile that discard their
+     * output so that the benchmarks measure generation cost only.
+     * @return New generation parameters.
+     * @throws Exception
+     */
+    public static GenerationParameters getTinyParameters() throws Exception {
+        URL props = BenchmarkSupport.class.getResource("/tiny-generation.properties");
+        if (props == null) {
+            throw new RuntimeException("Failed to load resource /tiny-generation.properties");
+        }
+        GenerationParameters genParms = new GenerationParameters(new File(props.getFile()));
+        genParms.setOutputDirectory(new File("export"));
+        genParms.setProperty("output", "null");
+        genParms.setProperty("seed", "" + SEED);
+        genParms.setProperty("threads", "1");
+        return genParms;
+    }
+}
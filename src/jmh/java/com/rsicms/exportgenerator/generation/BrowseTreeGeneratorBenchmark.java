@@ -0,0 +1,50 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.api.MoType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for browse tree generation. Each invocation generates one
+ * top-level container subtree over a fixed set of XML MOs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrowseTreeGeneratorBenchmark {
+
+    private static final int XML_MO_COUNT = 1000;
+
+    private DefaultBrowseTreeGenerator browseGenerator;
+    private File outDir;
+    private long containerKey;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        // Fresh parameters for each iteration so the MO registry doesn't
+        // grow over the run. Each invocation registers its subtree's
+        // containers and MOREFs, but the XML MOs the containers refer to,
+        // and so the work per subtree, stay the same.
+        GenerationParameters genParms = BenchmarkSupport.getTinyParameters();
+        genParms.setProperty("browseWidth", "4");
+        genParms.setProperty("browseDepth", "3");
+        genParms.setProperty("maxContainerChildren", "20");
+        for (int i = 0; i < XML_MO_COUNT; i++) {
+            genParms.addMo(genParms.getNextMoId(), MoType.XML, null);
+        }
+        browseGenerator = new DefaultBrowseTreeGenerator(genParms);
+        outDir = new File(genParms.getOutputDirectory(), "rsuite.content");
+        containerKey = RandomStreams.childContainerKey(RandomStreams.rootContainerKey(BenchmarkSupport.SEED), 0);
+    }
+
+    @Benchmark
+    public ManagedObject makeContainerSubtree() throws Exception {
+        return browseGenerator.makeContainer(1, outDir, containerKey);
+    }
+}
@@ -0,0 +1,39 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for DITA topic generation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DitaManagedObjectGeneratorBenchmark {
+
+    private DitaManagedObjectGenerator moGenerator;
+    private SplittableRandom random;
+    private File resultFile;
+    private String title;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        GenerationParameters genParms = BenchmarkSupport.getTinyParameters();
+        moGenerator = new DitaManagedObjectGenerator(genParms);
+        random = new SplittableRandom(BenchmarkSupport.SEED);
+        resultFile = new File(genParms.getOutputDirectory(), "content.xml");
+        title = GenerationHelper.getRandomWords(random, 2, 5);
+    }
+
+    @Benchmark
+    public void makeTopic() throws Exception {
+        moGenerator.makeTopic(GenerationParameters.FIRST_MO_ID, resultFile, title, random);
+    }
+}
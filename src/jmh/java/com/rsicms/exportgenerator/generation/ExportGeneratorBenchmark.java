@@ -0,0 +1,31 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.ExportGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmark: generates a complete export for the tiny
+ * profile, discarding the output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportGeneratorBenchmark {
+
+    private ExportGenerator exportGenerator;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Exception {
+        exportGenerator = new ExportGenerator(BenchmarkSupport.getTinyParameters());
+    }
+
+    @Benchmark
+    public void generateTinyExport() throws Exception {
+        exportGenerator.generateExport();
+    }
+}
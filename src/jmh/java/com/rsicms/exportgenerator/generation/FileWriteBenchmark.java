@@ -0,0 +1,127 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.api.OutputSink;
+import com.rsicms.exportgenerator.output.FileSystemOutputSink;
+import com.rsicms.exportgenerator.output.NullOutputSink;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing a generated XML file through a new stream, buffered
+ * stream and StAX factory per file with rendering it into the thread's
+ * reused render buffer and writing it with one call, either with a StAX
+ * writer or with the XML emitter. Run with the gc profiler to compare the
+ * allocation per file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileWriteBenchmark {
+
+    @Param({ "filesystem", "null" })
+    public String output;
+
+    private File outDir;
+    private OutputSink sink;
+    private File file;
+    private SplittableRandom random;
+    // Cached, as the render context cached it when it made the StAX writers.
+    private XMLOutputFactory outputFactory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        outDir = Files.createTempDirectory("rsi-write-benchmark-").toFile();
+        sink = "null".equals(output) ? new NullOutputSink(outDir) : new FileSystemOutputSink(outDir);
+        file = new File(outDir, "content.xml");
+        random = new SplittableRandom(BenchmarkSupport.SEED);
+        outputFactory = XMLOutputFactory.newInstance();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(outDir);
+    }
+
+    private void writeDocument(XMLStreamWriter writer) throws Exception {
+        writer.writeStartDocument();
+        writer.writeStartElement("topic");
+        writer.writeAttribute("id", "topic-1000");
+        writer.writeStartElement("body");
+        for (int i = 0; i < 5; i++) {
+            writer.writeStartElement("p");
+            StaxWords.writeRandomWords(writer, random, 7, 30);
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+    }
+
+    private void writeDocument(XmlEmitter xml) {
+        xml.startDocument();
+        xml.startElement("topic");
+        xml.attribute("id", "topic-1000");
+        xml.startElement("body");
+        for (int i = 0; i < 5; i++) {
+            xml.startElement("p");
+            // The same draws as StaxWords.writeRandomWords(writer, random, 7, 30).
+            xml.randomWords(random, random.nextInt(7, 31));
+            xml.endElement();
+        }
+        xml.endElement();
+        xml.endElement();
+        xml.endDocument();
+    }
+
+    @Benchmark
+    public void streamPerFile() throws Exception {
+        OutputStream fos = sink.newOutputStream(file);
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().
+                createXMLStreamWriter(new BufferedOutputStream(fos), "UTF-8");
+        try {
+            writeDocument(writer);
+        } finally {
+            writer.flush();
+            writer.close();
+            fos.close();
+        }
+    }
+
+    @Benchmark
+    public void renderContext() throws Exception {
+        RenderContext context = RenderContext.get();
+        RenderBuffer buffer = context.acquireBuffer();
+        try {
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(buffer.asOutputStream(), "UTF-8");
+            writeDocument(writer);
+            writer.close();
+            GenerationHelper.writeFile(sink, file, buffer);
+        } finally {
+            context.releaseBuffer(buffer);
+        }
+    }
+
+    @Benchmark
+    public void emitter() throws Exception {
+        RenderContext context = RenderContext.get();
+        RenderBuffer buffer = context.acquireBuffer();
+        try {
+            writeDocument(new XmlEmitter(buffer));
+            GenerationHelper.writeFile(sink, file, buffer);
+        } finally {
+            context.releaseBuffer(buffer);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.api.MoType;
+import com.rsicms.exportgenerator.api.OutputSink;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the shared text and resource file generation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerationHelperBenchmark {
+
+    private SplittableRandom random;
+    private XMLStreamWriter writer;
+    private RenderBuffer buffer;
+    private OutputSink sink;
+    private ManagedObject mo;
+    private ArrayList<String> versionSpecs;
+    private File moDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        random = new SplittableRandom(BenchmarkSupport.SEED);
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(NullOutputStream.NULL_OUTPUT_STREAM, "UTF-8");
+        writer.writeStartDocument();
+        writer.writeStartElement("versions");
+        buffer = new RenderBuffer();
+        GenerationParameters genParms = BenchmarkSupport.getTinyParameters();
+        sink = genParms.getOutputSink();
+        mo = new ManagedObject(GenerationParameters.FIRST_MO_ID, MoType.XML,
+                GenerationHelper.getRandomWords(random, 2, 5));
+        versionSpecs = new ArrayList<String>();
+        versionSpecs.add("1.0");
+        versionSpecs.add("1.1");
+        versionSpecs.add("1.2");
+        moDir = new File(genParms.getOutputDirectory(), "" + mo.getID());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        writer.close();
+    }
+
+    @Benchmark
+    public String getRandomWords() {
+        return GenerationHelper.getRandomWords(random, 7, 30);
+    }
+
+    @Benchmark
+    public void writeRandomWords() throws Exception {
+        StaxWords.writeRandomWords(writer, random, 7, 30);
+    }
+
+    @Benchmark
+    public void makeVersionEntry() throws Exception {
+        GenerationHelper.makeVersionEntry(buffer.reset(), mo.getDisplayName(), "1.0", "topic", "fakeexportuser", random);
+    }
+
+    @Benchmark
+    public void makeResourceFileForMo() throws Exception {
+        GenerationHelper.makeResourceFileForMo(sink, moDir, mo, versionSpecs, random);
+    }
+}
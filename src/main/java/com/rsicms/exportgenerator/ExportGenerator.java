@@ -3,15 +3,27 @@ package com.rsicms.exportgenerator;
 import com.rsicms.exportgenerator.api.BrowseTreeGenerator;
 import com.rsicms.exportgenerator.api.ManagedObjectGenerator;
 import com.rsicms.exportgenerator.api.MoType;
+import com.rsicms.exportgenerator.api.OutputSink;
 import com.rsicms.exportgenerator.generation.DefaultBrowseTreeGenerator;
 import com.rsicms.exportgenerator.generation.DitaManagedObjectGenerator;
+import com.rsicms.exportgenerator.generation.ExportAppender;
+import com.rsicms.exportgenerator.generation.ExportEstimator;
+import com.rsicms.exportgenerator.generation.ExportReadBenchmark;
+import com.rsicms.exportgenerator.generation.ExportVerifier;
+import com.rsicms.exportgenerator.generation.GenerationCheckpoint;
+import com.rsicms.exportgenerator.generation.GenerationHelper;
+import com.rsicms.exportgenerator.generation.RenderBuffer;
+import com.rsicms.exportgenerator.generation.RenderContext;
+import com.rsicms.exportgenerator.generation.XmlEmitter;
+import com.rsicms.exportgenerator.metrics.GenerationMetrics;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamWriter;
 import java.io.*;
 import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Generates a fake export data set in order to then do scale
@@ -27,7 +39,11 @@ public class ExportGenerator
 
 
     public ExportGenerator(File parametersFile) throws Exception {
-        this.generationParameters = new GenerationParameters(parametersFile);
+        this(new GenerationParameters(parametersFile));
+    }
+
+    public ExportGenerator(GenerationParameters generationParameters) throws Exception {
+        this.generationParameters = generationParameters;
 
         String outdirPath = generationParameters.getOutdir();
         if (outdirPath == null || "".equals(outdirPath.trim())) {
@@ -37,7 +53,7 @@ public class ExportGenerator
         if (!outdir.isAbsolute()) {
             outdir = FileSystems.getDefault().getPath(outdirPath).toFile();
         }
-        if (!outdir.exists() && !outdir.mkdirs()) {
+        if (generationParameters.isOutputDirectoryRequired() && !outdir.exists() && !outdir.mkdirs()) {
             throw new RuntimeException("Failed to create output directory \"" + outdir.getAbsolutePath() + "\"");
         }
         this.outdir = outdir;
@@ -47,7 +63,16 @@ public class ExportGenerator
     public static void main(String[] args )
     {
         if (args.length < 1) {
-            System.out.println("Usage:\n\n   ExportGenerator {generation parameters file}");
+            System.out.println("Usage:\n\n   ExportGenerator {generation parameters file} [options]\n\n" +
+                    "Options:\n\n" +
+                    "   --shard {i}/{N}       Generate only the managed objects for shard i (0-based) of N\n" +
+                    "   --merge [{shard dir}...] Merge generated shards and generate the browse tree\n" +
+                    "   --regenerate {moid}   Regenerate a single MO of an existing export (requires the seed)\n" +
+                    "   --resume              Resume an interrupted generation from its checkpoint\n" +
+                    "   --append              Append new versions, MOs and containers to an existing export\n" +
+                    "   --verify              Check that an existing export is complete and consistent\n" +
+                    "   --read-benchmark [{stream|nio|mmap}] Time reading an existing export as the importer would\n" +
+                    "   --estimate [{samples}] Estimate the size of the export without generating it");
             System.exit(1);
         }
 
@@ -64,8 +89,55 @@ public class ExportGenerator
 
 
         try {
+            if (args.length > 1 && "--estimate".equals(args[1])) {
+                int sampleSize = ExportEstimator.DEFAULT_SAMPLE_SIZE;
+                if (args.length > 2) {
+                    if (!args[2].matches("\\d+")) {
+                        System.out.println("The --estimate option takes an optional sample size");
+                        System.exit(1);
+                    }
+                    sampleSize = Integer.parseInt(args[2]);
+                }
+                // Nothing is written so the output directory is not made.
+                new ExportEstimator(new GenerationParameters(inFile), sampleSize).estimate().printEstimate(System.out);
+                return;
+            }
             ExportGenerator app = new ExportGenerator(inFile);
-            app.generateExport();
+            if (args.length > 1 && "--shard".equals(args[1])) {
+                if (args.length < 3 || !args[2].matches("\\d+/\\d+")) {
+                    System.out.println("The --shard option requires a shard specification of the form {i}/{N}");
+                    System.exit(1);
+                }
+                String[] shardSpec = args[2].split("/");
+                app.generateShard(Integer.parseInt(shardSpec[0]), Integer.parseInt(shardSpec[1]));
+            } else if (args.length > 1 && "--merge".equals(args[1])) {
+                List<File> shardDirs = new ArrayList<File>();
+                for (int i = 2; i < args.length; i++) {
+                    shardDirs.add(FileSystems.getDefault().getPath(args[i]).toFile());
+                }
+                app.mergeShards(shardDirs);
+            } else if (args.length > 1 && "--regenerate".equals(args[1])) {
+                if (args.length < 3 || !args[2].matches("\\d+")) {
+                    System.out.println("The --regenerate option requires an MO ID");
+                    System.exit(1);
+                }
+                app.regenerateManagedObject(Integer.parseInt(args[2]));
+            } else if (args.length > 1 && "--resume".equals(args[1])) {
+                app.resumeExport();
+            } else if (args.length > 1 && "--append".equals(args[1])) {
+                app.appendExport();
+            } else if (args.length > 1 && "--read-benchmark".equals(args[1])) {
+                if (args.length > 2) {
+                    app.generationParameters.setProperty("readStrategy", args[2]);
+                }
+                app.readBenchmark();
+            } else if (args.length > 1 && "--verify".equals(args[1])) {
+                if (!app.verifyExport()) {
+                    System.exit(1);
+                }
+            } else {
+                app.generateExport();
+            }
         } catch (Exception e) {
             System.err.println(e.getClass().getSimpleName() + " generating fake export: " + e.getMessage());
             e.printStackTrace();
@@ -79,46 +151,262 @@ public class ExportGenerator
      */
     public void generateExport() throws Exception {
         log.info("Starting export generation to directory \"" + outdir.getAbsolutePath() + "\"...");
+        GenerationCheckpoint checkpoint = null;
+        if (isCheckpointed()) {
+            checkpoint = new GenerationCheckpoint(outdir, generationParameters.getSeed(),
+                    GenerationParameters.FIRST_MO_ID,
+                    (int)(GenerationParameters.FIRST_MO_ID + generationParameters.getMaxMoCount()),
+                    generationParameters.getCheckpointInterval());
+            generationParameters.setCheckpoint(checkpoint);
+            checkpoint.write();
+        }
+        startMetrics();
 
         ManagedObjectGenerator moGenerator = new DitaManagedObjectGenerator(generationParameters);
 
         moGenerator.generateManagedObjects();
+        finishExport(checkpoint);
+
+        log.info("Export generation done.");
+    }
+
+    /**
+     * Resume a generation that was interrupted, from the checkpoint in the
+     * output directory. The generation parameters must be those of the
+     * interrupted run.
+     */
+    public void resumeExport() throws Exception {
+        GenerationCheckpoint checkpoint = GenerationCheckpoint.read(outdir, generationParameters.getCheckpointInterval());
+        String seedProp = generationParameters.getProperty("seed");
+        if (seedProp != null && !"".equals(seedProp.trim()) && Long.parseLong(seedProp.trim()) != checkpoint.getSeed()) {
+            throw new RuntimeException("The seed parameter " + seedProp.trim() +
+                    " does not match the checkpoint's seed " + checkpoint.getSeed());
+        }
+        if (checkpoint.getFirstMoId() != GenerationParameters.FIRST_MO_ID ||
+                checkpoint.getEndMoId() != GenerationParameters.FIRST_MO_ID + generationParameters.getMaxMoCount()) {
+            throw new RuntimeException("The checkpoint in \"" + outdir.getAbsolutePath() +
+                    "\" is for a different number of managed objects");
+        }
+        generationParameters.setSeed(checkpoint.getSeed());
+        if (GenerationCheckpoint.PHASE_DONE.equals(checkpoint.getPhase())) {
+            log.info("Export generation in directory \"" + outdir.getAbsolutePath() + "\" is already complete.");
+            return;
+        }
+        log.info("Resuming export generation in directory \"" + outdir.getAbsolutePath() + "\" in phase " +
+                checkpoint.getPhase() + "...");
+        generationParameters.setCheckpoint(checkpoint);
+        startMetrics();
+
+        DitaManagedObjectGenerator moGenerator = new DitaManagedObjectGenerator(generationParameters);
+        if (GenerationCheckpoint.PHASE_MANAGED_OBJECTS.equals(checkpoint.getPhase())) {
+            moGenerator.generateManagedObjects();
+        } else {
+            // The MOs are all done, only the browse tree is generated again.
+            moGenerator.resumeFromCheckpoint(checkpoint);
+        }
+        finishExport(checkpoint);
+
+        log.info("Export generation done.");
+    }
+
+    /**
+     * Append an increment of new versions, MOs and containers to the
+     * existing export in the output directory.
+     */
+    public void appendExport() throws Exception {
+        ExportAppender appender = new ExportAppender(generationParameters);
+        startMetrics();
+
+        appender.append();
+        generationParameters.getOutputSink().close();
+        finishMetrics();
+
+        printSummary();
+
+        log.info("Export append done.");
+    }
+
+    /**
+     * Read the existing export in the output directory, printing the read
+     * rates and latencies.
+     */
+    public void readBenchmark() throws Exception {
+        new ExportReadBenchmark(generationParameters).run().printReport(System.out);
+    }
+
+    /**
+     * Verify the existing export in the output directory, printing a
+     * report of what was checked and any problems found.
+     * @return True if no problems were found.
+     */
+    public boolean verifyExport() throws Exception {
+        ExportVerifier verifier = new ExportVerifier(generationParameters);
+        boolean ok = verifier.verify();
+        verifier.printReport(System.out);
+        return ok;
+    }
+
+    /**
+     * Generate the browse tree and write the ids.xml file once the MOs
+     * are generated, recording each phase in the checkpoint if there is one.
+     */
+    private void finishExport(GenerationCheckpoint checkpoint) throws Exception {
+        if (checkpoint != null) {
+            checkpoint.setPhase(GenerationCheckpoint.PHASE_BROWSE_TREE);
+        }
         BrowseTreeGenerator browseGenerator = new DefaultBrowseTreeGenerator(generationParameters);
         browseGenerator.generateBrowseTree();
 
         // Now write the ids.xml file:
 
         writeIdsXml(generationParameters);
+        generationParameters.getOutputSink().close();
+        if (checkpoint != null) {
+            checkpoint.setPhase(GenerationCheckpoint.PHASE_DONE);
+        }
+        finishMetrics();
 
-        System.out.println("Generation summary:");
-        System.out.println("    Total MOs: " + generationParameters.getManagedObjectCount());
-        System.out.println("      XML MOs: " + generationParameters.getManagedObjectsOfType(MoType.XML).size());
-        System.out.println("  Non-XML MOs: " + generationParameters.getManagedObjectsOfType(MoType.NONXML).size());
-        System.out.println("          CAs: " + generationParameters.getManagedObjectsOfType(MoType.CA).size());
-        System.out.println("       MORefs: " + generationParameters.getManagedObjectsOfType(MoType.MOREF).size());
+        printSummary();
+    }
+
+    /**
+     * Checkpoints are only kept when the files are written straight to the
+     * file system, as an archive or a write queue can't be picked up again,
+     * and not at all when checkpointInterval is 0.
+     * @return True if the run keeps a checkpoint.
+     */
+    private boolean isCheckpointed() {
+        if (generationParameters.getCheckpointInterval() <= 0 || generationParameters.isSharded() ||
+                !"filesystem".equals(generationParameters.getOutputType())) {
+            return false;
+        }
+        if (generationParameters.getWriterThreads() > 0) {
+            log.info("Checkpoints are not kept when writerThreads is set, the run cannot be resumed");
+            return false;
+        }
+        return true;
+    }
 
+    /**
+     * Generate the managed objects for a single shard of a multi-node
+     * generation. The shard's managed objects are written to its own
+     * shard directory within the output directory.
+     * @param shardIndex Zero-based index of the shard to generate
+     * @param shardCount Total number of shards
+     */
+    public void generateShard(int shardIndex, int shardCount) throws Exception {
+        generationParameters.setShard(shardIndex, shardCount);
+        File shardDir = new File(outdir, ShardMerger.getShardDirName(shardIndex, shardCount));
+        generationParameters.setOutputDirectory(shardDir);
+        log.info("Starting generation of shard " + shardIndex + "/" + shardCount + " to directory \"" +
+                shardDir.getAbsolutePath() + "\", MO IDs from " + generationParameters.getShardFirstMoId() + "...");
+        startMetrics();
 
-        log.info("Export generation done.");
+        ManagedObjectGenerator moGenerator = new DitaManagedObjectGenerator(generationParameters);
+        moGenerator.generateManagedObjects();
+        generationParameters.getOutputSink().close();
+        ShardMerger.writeShardManifest(generationParameters, shardDir);
+        finishMetrics();
+
+        printSummary();
+
+        log.info("Shard generation done.");
     }
 
-    private void writeIdsXml(GenerationParameters generationParameters) throws Exception {
+    /**
+     * Merge the managed objects generated by a set of shards, then generate
+     * the browse tree over all the merged MOs and write the ids.xml file.
+     * @param shardDirs The shard directories to merge. If empty, the shard
+     * directories within the output directory are merged.
+     */
+    public void mergeShards(List<File> shardDirs) throws Exception {
+        if (shardDirs.isEmpty()) {
+            shardDirs = ShardMerger.findShardDirs(outdir);
+        }
+        log.info("Merging " + shardDirs.size() + " shards into directory \"" + outdir.getAbsolutePath() + "\"...");
+        startMetrics();
+
+        new ShardMerger(generationParameters).merge(shardDirs);
+        BrowseTreeGenerator browseGenerator = new DefaultBrowseTreeGenerator(generationParameters);
+        browseGenerator.generateBrowseTree();
+
+        writeIdsXml(generationParameters);
+        generationParameters.getOutputSink().close();
+        finishMetrics();
+
+        printSummary();
+
+        log.info("Shard merge done.");
+    }
+
+    /**
+     * Regenerate a single managed object of an existing export. The
+     * "seed" parameter must be the seed the export was generated with.
+     * @param moid ID of the MO to regenerate.
+     */
+    public void regenerateManagedObject(int moid) throws Exception {
+        if (generationParameters.getProperty("seed") == null) {
+            throw new RuntimeException("The seed parameter must be set to regenerate a managed object");
+        }
+        DitaManagedObjectGenerator moGenerator = new DitaManagedObjectGenerator(generationParameters);
+        File moDir = moGenerator.regenerateManagedObject(moid);
+        generationParameters.getOutputSink().close();
+        log.info("Regenerated MO " + moid + " in directory \"" + moDir.getAbsolutePath() + "\"");
+    }
+
+    private void startMetrics() {
+        GenerationMetrics metrics = generationParameters.getMetrics();
+        metrics.setOutputSink(generationParameters.getOutputSink());
+        metrics.start(generationParameters.getMetricsInterval());
+    }
+
+    /**
+     * Stop the metrics and write the metrics summary to the output directory,
+     * next to ids.xml. This is done once the output sink is closed so that
+     * the file and byte counts are final.
+     */
+    private void finishMetrics() throws IOException {
+        GenerationMetrics metrics = generationParameters.getMetrics();
+        metrics.stop();
+        metrics.writeSummary(generationParameters.getOutputDirectory());
+    }
+
+    private void printSummary() {
+        System.out.println("Generation summary:");
+        System.out.println("    Total MOs: " + generationParameters.getManagedObjectCount());
+        System.out.println("      XML MOs: " + generationParameters.getManagedObjectCount(MoType.XML));
+        System.out.println("  Non-XML MOs: " + generationParameters.getManagedObjectCount(MoType.NONXML));
+        System.out.println("          CAs: " + generationParameters.getManagedObjectCount(MoType.CA));
+        System.out.println("       MORefs: " + generationParameters.getManagedObjectCount(MoType.MOREF));
+        OutputSink sink = generationParameters.getOutputSink();
+        System.out.println("        Files: " + sink.getFileCount());
+        System.out.println("  Directories: " + sink.getDirectoryCount());
+        System.out.println("        Bytes: " + sink.getByteCount());
+        System.out.println("Registry heap: " + generationParameters.getManagedObjectRegistryBytes() + " bytes");
+        System.out.println(String.format(Locale.ROOT, "      Elapsed: %.1f seconds",
+                generationParameters.getMetrics().getElapsedSeconds()));
+    }
+
+    /**
+     * Write the ids.xml file, which holds the next free MO ID, to the output directory.
+     * @param generationParameters The generation's parameters
+     */
+    public static void writeIdsXml(GenerationParameters generationParameters) throws Exception {
         File resultFile = new File(generationParameters.getOutputDirectory(), "ids.xml");
-        FileOutputStream fos = new FileOutputStream(resultFile);
-        XMLStreamWriter writer = XMLOutputFactory.newInstance().
-                createXMLStreamWriter(new BufferedOutputStream(
-                        fos), "UTF-8");
+        RenderContext context = RenderContext.get();
+        RenderBuffer buffer = context.acquireBuffer();
         try {
-            writer.writeStartDocument();
-            writer.writeStartElement("ids");
-            writer.writeCharacters("" + generationParameters.getNextMoId());
-            writer.writeEndElement();
+            XmlEmitter xml = new XmlEmitter(buffer);
+            xml.startDocument();
+            xml.startElement("ids");
+            xml.characters(generationParameters.getNextMoId());
+            xml.endElement();
+            GenerationHelper.writeFile(generationParameters.getOutputSink(), resultFile, buffer);
         } catch (Exception e) {
             log.error("makeResourceFileForXmlMo(): " + e.getClass().getSimpleName() + " Writing ids.xml file: " + e.getMessage());
             throw e;
         } finally {
-            writer.flush();
-            writer.close();
-            fos.close();
+            context.releaseBuffer(buffer);
         }
     }
 
@@ -1,27 +1,51 @@
 package com.rsicms.exportgenerator;
 
+import com.rsicms.exportgenerator.api.BucketLayout;
 import com.rsicms.exportgenerator.api.MoType;
+import com.rsicms.exportgenerator.api.OutputSink;
+import com.rsicms.exportgenerator.distribution.Distribution;
+import com.rsicms.exportgenerator.generation.BalancedBucketLayout;
+import com.rsicms.exportgenerator.generation.GenerationCheckpoint;
 import com.rsicms.exportgenerator.generation.ManagedObject;
+import com.rsicms.exportgenerator.generation.ManagedObjectRegistry;
+import com.rsicms.exportgenerator.generation.RandomBucketLayout;
+import com.rsicms.exportgenerator.metrics.GenerationMetrics;
+import com.rsicms.exportgenerator.output.AsyncOutputSink;
+import com.rsicms.exportgenerator.output.FileSystemOutputSink;
+import com.rsicms.exportgenerator.output.MemoryOutputSink;
+import com.rsicms.exportgenerator.output.NullOutputSink;
+import com.rsicms.exportgenerator.output.TarOutputSink;
+import com.rsicms.exportgenerator.output.ZipOutputSink;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by ekimber on 10/27/16.
  */
 public class GenerationParameters extends Properties {
 
-    private int moid = 1000; // Start with MO 1000 so MO IDs look realistic.
-    private int progressCtr = 0;
-    private int dotCtr = 0;
+    private static Log log = LogFactory.getLog(GenerationParameters.class);
+
+    public static final int FIRST_MO_ID = 1000; // Start with MO 1000 so MO IDs look realistic.
+
+    private final AtomicInteger moid = new AtomicInteger(FIRST_MO_ID);
 
     long maxXmlMOs = -1;
     long maxBinaryMOs = -1;
     int maxVersions = -1;
-    private Map<String, ManagedObject> mosById = new HashMap<String, ManagedObject>();
-    private Map<MoType, ArrayList> mosByType = new HashMap<MoType, ArrayList>();
+    private final ManagedObjectRegistry registry = new ManagedObjectRegistry();
+    private final GenerationMetrics metrics = new GenerationMetrics();
+    private GenerationCheckpoint checkpoint = null;
     private File outputDirectory;
+    private OutputSink outputSink;
+    private int shardIndex = 0;
+    private int shardCount = 1;
+    private Long seed = null;
 
     public GenerationParameters(File generationParameters) throws Exception {
         this.load(new FileInputStream(generationParameters));
@@ -29,21 +53,111 @@ public class GenerationParameters extends Properties {
 
     }
 
+    /**
+     * Make parameters with the same settings as another set of parameters
+     * but none of the other's generation state.
+     * @param properties The settings to copy
+     */
+    public GenerationParameters(Properties properties) {
+        this.putAll(properties);
+    }
+
+    /**
+     * Allocate the next managed object ID. Safe to call from
+     * multiple generation threads.
+     * @return The newly-allocated ID.
+     */
     public int getNextMoId() {
-        // Show progress as MO IDs are consumed.
-        // This will have the effect of showing the
-        // progress as things are constructed.
-        progressCtr++;
-        if (progressCtr % 100 == 0) {
-            System.out.print(".");
-            dotCtr++;
-            if (dotCtr >= 60) {
-                System.out.print("\n");
-                dotCtr = 0;
-            }
+        return moid.getAndIncrement();
+    }
+
+    /**
+     * Peek at the next MO ID without allocating it.
+     * @return The ID the next call to getNextMoId() will return.
+     */
+    public int peekNextMoId() {
+        return moid.get();
+    }
+
+    /**
+     * Allocate a contiguous block of MO IDs in one step, e.g., for a
+     * subtree of containers whose IDs are assigned before the subtree is
+     * generated.
+     * @param count Number of IDs to allocate
+     * @return The first ID of the block.
+     */
+    public int reserveMoIds(int count) {
+        return moid.getAndAdd(count);
+    }
+
+    /**
+     * Set the next MO ID to be allocated, e.g., when continuing
+     * from a set of previously-generated MOs.
+     * @param nextMoId The next ID to allocate.
+     */
+    public void setNextMoId(int nextMoId) {
+        moid.set(nextMoId);
+    }
+
+    /**
+     * Restrict MO generation to one shard of a multi-node generation.
+     * Each shard gets a disjoint, contiguous range of MO IDs so that
+     * the shards can be generated independently and then merged.
+     * @param shardIndex Zero-based index of this shard
+     * @param shardCount Total number of shards
+     */
+    public void setShard(int shardIndex, int shardCount) {
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalArgumentException("Invalid shard " + shardIndex + "/" + shardCount);
         }
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+        setNextMoId(getShardFirstMoId());
+    }
 
-        return moid++;
+    public boolean isSharded() {
+        return this.shardCount > 1;
+    }
+
+    public int getShardIndex() {
+        return this.shardIndex;
+    }
+
+    public int getShardCount() {
+        return this.shardCount;
+    }
+
+    /**
+     * Get the size of the MO ID range reserved for each shard.
+     * @return Number of IDs per shard.
+     */
+    public long getShardSize() {
+        return (getMaxMoCount() + shardCount - 1) / shardCount;
+    }
+
+    /**
+     * Get the first MO ID of this shard's range.
+     * @return The first ID.
+     */
+    public int getShardFirstMoId() {
+        long firstId = FIRST_MO_ID + shardIndex * getShardSize();
+        if (firstId > Integer.MAX_VALUE) {
+            throw new RuntimeException("MO ID range for shard " + shardIndex + "/" + shardCount + " exceeds the maximum MO ID");
+        }
+        return (int)firstId;
+    }
+
+    /**
+     * Get the number of MOs to generate in this run. This is the total MO
+     * count unless generation is restricted to a shard.
+     * @return Number of MOs to generate.
+     */
+    public long getMoCountToGenerate() {
+        if (!isSharded()) {
+            return getMaxMoCount();
+        }
+        long remaining = getMaxMoCount() - shardIndex * getShardSize();
+        return Math.max(0, Math.min(getShardSize(), remaining));
     }
 
 
@@ -78,6 +192,86 @@ public class GenerationParameters extends Properties {
         return maxBinaryMOs;
     }
 
+    /**
+     * Get the type of the managed object with the specified ID. The non-XML
+     * MOs are spread evenly through the ID range so that the type of any MO
+     * can be worked out from its ID alone. MOs appended after the initial
+     * range repeat the same pattern.
+     * @param moid The MO's ID
+     * @return MoType.NONXML or MoType.XML.
+     */
+    public MoType getMoType(int moid) {
+        long position = (long)moid - FIRST_MO_ID;
+        long total = getMaxMoCount();
+        long binaryCount = getMaxBinaryMOs();
+        if (position < 0 || total <= 0 || binaryCount <= 0) {
+            return MoType.XML;
+        }
+        // MOs appended to an export after the initial range repeat its mix of types.
+        position = position % total;
+        // The MO is non-XML if the running share of non-XML MOs steps up at its position.
+        return (position + 1) * binaryCount / total > position * binaryCount / total ?
+                MoType.NONXML : MoType.XML;
+    }
+
+    /**
+     * Get how the content of the versions of an MO relates to its current
+     * content: "distinct" (the default) for independently-generated content
+     * for each version, "identical" for the same content for every version,
+     * written once and hard-linked, or "delta" for versions that each add a
+     * little to a shared base document, with the current content hard-linked
+     * to the latest version.
+     * @return The version content type.
+     */
+    public String getVersionContent() {
+        String versionContent = this.getProperty("versionContent", "distinct").trim();
+        if (!"distinct".equals(versionContent) && !"identical".equals(versionContent) &&
+                !"delta".equals(versionContent)) {
+            throw new RuntimeException("Unrecognized version content type \"" + versionContent + "\"");
+        }
+        return versionContent;
+    }
+
+    /**
+     * Get the MIME types of the non-XML MOs, chosen at random for each MO.
+     * @return List of MIME types.
+     */
+    public List<String> getBinaryMimeTypes() {
+        String propStr = this.getProperty("binaryMimeTypes",
+                "image/jpeg,image/png,application/pdf,application/zip");
+        List<String> mimeTypes = new ArrayList<String>();
+        for (String mimeType : propStr.split(",")) {
+            if (!"".equals(mimeType.trim())) {
+                mimeTypes.add(mimeType.trim());
+            }
+        }
+        return mimeTypes;
+    }
+
+    /**
+     * @return The minimum size in bytes of a non-XML MO's content.
+     */
+    public long getBinaryMinSize() {
+        return Long.parseLong(this.getProperty("binaryMinSize", "1024").trim());
+    }
+
+    /**
+     * @return The maximum size in bytes of a non-XML MO's content.
+     */
+    public long getBinaryMaxSize() {
+        return Long.parseLong(this.getProperty("binaryMaxSize", "1048576").trim());
+    }
+
+    /**
+     * Get how the content of non-XML MOs is made: "blobs" (the default) to
+     * copy it from a pool of sample blobs with realistic file headers or
+     * "sparse" for sparse files of zero bytes.
+     * @return The payload type.
+     */
+    public String getBinaryPayload() {
+        return this.getProperty("binaryPayload", "blobs").trim();
+    }
+
     public int getMaxVersions() {
         if (this.maxVersions == -1) {
             String temp = (String)get("maxVersions");
@@ -90,32 +284,118 @@ public class GenerationParameters extends Properties {
 
     }
 
-    public ManagedObject addMo(int moid, MoType moType, String displayName) {
-        ManagedObject mo = new ManagedObject(moid, moType, displayName);
+    /**
+     * Get the number of worker threads to use for generation. Defaults to
+     * the number of available processors.
+     * @return Number of threads, always at least 1.
+     */
+    public int getThreads() {
+        String propStr = this.getProperty("threads");
+        if (propStr == null || "".equals(propStr.trim())) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        int propVal = Integer.parseInt(propStr.trim());
+        return Math.max(1, propVal);
+    }
 
-        this.mosById.put("" + moid, mo);
-        ArrayList mosOfType = this.mosByType.get(moType);
-        if (null == mosOfType) {
-            mosOfType = new ArrayList<ManagedObject>();
-            this.mosByType.put(moType, mosOfType);
+    /**
+     * Get the seed all the random content is derived from. If the "seed"
+     * parameter is not set, a seed is chosen at random and logged so that
+     * the run can be reproduced.
+     * @return The seed.
+     */
+    public synchronized long getSeed() {
+        if (this.seed == null) {
+            String propStr = this.getProperty("seed");
+            if (propStr == null || "".equals(propStr.trim())) {
+                this.seed = new Random().nextLong();
+                log.info("No seed parameter specified, using seed=" + this.seed);
+            } else {
+                this.seed = Long.parseLong(propStr.trim());
+            }
         }
-        mosOfType.add(mo);
-        return mo;
+        return this.seed;
     }
 
-    public ManagedObject getManagedObject(int moid) {
-        ManagedObject mo = this.mosById.get("" + moid);
-        return mo;
+    public synchronized void setSeed(long seed) {
+        this.seed = seed;
+        this.setProperty("seed", "" + seed);
     }
 
-    public ArrayList<ManagedObject> getManagedObjectsOfType(MoType moType) {
-        ArrayList<ManagedObject> resultArray = this.mosByType.get(moType);
-        if (null == resultArray) {
-            resultArray = new ArrayList<ManagedObject>();
-            this.mosByType.put(moType, resultArray);
+    /**
+     * Determine whether to make all the managed-objects bucket directories
+     * up front rather than as MOs are put in them.
+     * @return True to make the bucket directories up front.
+     */
+    public boolean isPrecreateBucketDirectories() {
+        return Boolean.parseBoolean(this.getProperty("precreateBucketDirectories", "false").trim());
+    }
+
+    /**
+     * Get the layout that places MOs in the managed-objects bucket
+     * directories: "random" (the default) for the original seeded layout
+     * of 1000 x 101 buckets, or "balanced" to spread the MOs evenly,
+     * breadth-first, over bucketTopCount (default 1000) top-level buckets
+     * of bucketChildCount (default 100) child buckets each.
+     * @return The bucket layout.
+     */
+    public BucketLayout getBucketLayout() {
+        String layout = this.getProperty("bucketLayout", "random").trim();
+        if ("random".equals(layout)) {
+            return new RandomBucketLayout(getSeed());
+        }
+        if ("balanced".equals(layout)) {
+            return new BalancedBucketLayout(
+                    Integer.parseInt(this.getProperty("bucketTopCount", "1000").trim()),
+                    Integer.parseInt(this.getProperty("bucketChildCount", "100").trim()));
         }
+        throw new RuntimeException("Unrecognized bucket layout \"" + layout + "\"");
+    }
 
-        return resultArray;
+    public ManagedObject addMo(int moid, MoType moType, String displayName) {
+        return this.registry.add(moid, moType, displayName);
+    }
+
+    /**
+     * Find a managed object by ID. MOREFs are only counted so can't be found.
+     * @param moid The MO's ID
+     * @return The managed object or null if there isn't one.
+     */
+    public ManagedObject getManagedObject(int moid) {
+        return this.registry.get(moid);
+    }
+
+    /**
+     * Get the managed objects of a type.
+     * @param moType The MO type, not MOREF as MOREFs are only counted
+     * @return Read-only view of the MOs of the type.
+     */
+    public List<ManagedObject> getManagedObjectsOfType(MoType moType) {
+        return this.registry.getManagedObjectsOfType(moType);
+    }
+
+    /**
+     * @param moType The MO type
+     * @return Number of managed objects of the type registered.
+     */
+    public long getManagedObjectCount(MoType moType) {
+        return this.registry.getManagedObjectCount(moType);
+    }
+
+    /**
+     * Put the managed objects of a type in ID order, e.g., after they
+     * have been registered in any order by parallel generation.
+     * @param moType The MO type
+     */
+    public void sortManagedObjectsById(MoType moType) {
+        this.registry.sortById(moType);
+    }
+
+    /**
+     * @return Approximate number of heap bytes used to keep track of the managed objects.
+     */
+    public long getManagedObjectRegistryBytes() {
+        return this.registry.getHeapBytes();
     }
 
     /**
@@ -133,6 +413,178 @@ public class GenerationParameters extends Properties {
         return this.outputDirectory;
     }
 
+    /**
+     * Get the kind of output to produce: "filesystem" (the default),
+     * "zip" or "tar" (rolling archives in the output directory),
+     * "memory" or "null" (discard the output but count it).
+     * @return The output type.
+     */
+    public String getOutputType() {
+        return this.getProperty("output", "filesystem").trim();
+    }
+
+    /**
+     * @return True if the output type writes to the output directory.
+     */
+    public boolean isOutputDirectoryRequired() {
+        String outputType = getOutputType();
+        return !"memory".equals(outputType) && !"null".equals(outputType);
+    }
+
+    /**
+     * Get the maximum number of entries per archive for archive output.
+     * @return The maximum, 0 for no limit.
+     */
+    public long getArchiveMaxEntries() {
+        return Long.parseLong(this.getProperty("archiveMaxEntries", "0").trim());
+    }
+
+    /**
+     * Get the maximum number of uncompressed bytes per archive for archive output.
+     * @return The maximum, 0 for no limit.
+     */
+    public long getArchiveMaxBytes() {
+        return Long.parseLong(this.getProperty("archiveMaxBytes", "0").trim());
+    }
+
+    /**
+     * Get the Deflater compression level for archive output.
+     * @return The level, 0 for no compression, -1 for the default level.
+     */
+    public int getArchiveCompression() {
+        return Integer.parseInt(this.getProperty("archiveCompression", "0").trim());
+    }
+
+    /**
+     * Get the number of writer threads files are handed to once generated.
+     * @return The number of writer threads, 0 (the default) to write files
+     * on the generation threads.
+     */
+    public int getWriterThreads() {
+        return Integer.parseInt(this.getProperty("writerThreads", "0").trim());
+    }
+
+    /**
+     * Get the maximum number of generated files waiting for a writer thread
+     * before the generation threads have to wait.
+     * @return The queue size.
+     */
+    public int getWriterQueueSize() {
+        return Integer.parseInt(this.getProperty("writerQueueSize", "1024").trim());
+    }
+
+    /**
+     * Get the sink all generated files are written to. Unless set explicitly,
+     * the sink is created on first use from the "output" parameter, so the
+     * output directory must be set first. If writer threads are configured
+     * the sink writes asynchronously.
+     * @return The output sink.
+     */
+    public synchronized OutputSink getOutputSink() {
+        if (this.outputSink == null) {
+            String outputType = getOutputType();
+            if ("filesystem".equals(outputType)) {
+                this.outputSink = new FileSystemOutputSink(getOutputDirectory());
+            } else if ("zip".equals(outputType)) {
+                this.outputSink = new ZipOutputSink(getOutputDirectory(),
+                        getArchiveMaxEntries(), getArchiveMaxBytes(), getArchiveCompression());
+            } else if ("tar".equals(outputType)) {
+                this.outputSink = new TarOutputSink(getOutputDirectory(),
+                        getArchiveMaxEntries(), getArchiveMaxBytes(), getArchiveCompression());
+            } else if ("memory".equals(outputType)) {
+                this.outputSink = new MemoryOutputSink(getOutputDirectory());
+            } else if ("null".equals(outputType)) {
+                this.outputSink = new NullOutputSink(getOutputDirectory());
+            } else {
+                throw new RuntimeException("Unrecognized output type \"" + outputType + "\"");
+            }
+            if (getWriterThreads() > 0) {
+                this.outputSink = new AsyncOutputSink(this.outputSink, getWriterThreads(), getWriterQueueSize());
+            }
+            metrics.setOutputSink(this.outputSink);
+        }
+        return this.outputSink;
+    }
+
+    public synchronized void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+        metrics.setOutputSink(outputSink);
+    }
+
+    /**
+     * @return The metrics of the generation run.
+     */
+    public GenerationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The checkpoint of the run, null if no checkpoints are kept.
+     */
+    public synchronized GenerationCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    public synchronized void setCheckpoint(GenerationCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @return True if the run is resuming an earlier run from its checkpoint,
+     * so that files and directories from the earlier run may already exist.
+     */
+    public synchronized boolean isResuming() {
+        return checkpoint != null && checkpoint.isResumed();
+    }
+
+    /**
+     * Get the number of seconds between checkpoints while the MOs are
+     * generated. Checkpoints are only kept for file system output.
+     * @return The interval, 0 for no checkpoints.
+     */
+    public double getCheckpointInterval() {
+        return Double.parseDouble(this.getProperty("checkpointInterval", "60").trim());
+    }
+
+    /**
+     * Get the number of seconds between progress reports.
+     * @return The interval, 0 for no progress reports.
+     */
+    public long getMetricsInterval() {
+        return Long.parseLong(this.getProperty("metricsInterval", "10").trim());
+    }
+
+    /**
+     * Get the number of new MOs to add when appending an increment to an
+     * existing export.
+     * @return Number of MOs to add.
+     */
+    public long getAppendMOs() {
+        return Long.parseLong(this.getProperty("appendMOs", "0").trim());
+    }
+
+    /**
+     * Get the share of an existing export's MOs that get new versions when
+     * an increment is appended to it.
+     * @return The share, between 0 and 1.
+     */
+    public double getAppendVersionFraction() {
+        double fraction = Double.parseDouble(this.getProperty("appendVersionFraction", "0.1").trim());
+        if (fraction < 0 || fraction > 1) {
+            throw new RuntimeException("appendVersionFraction must be between 0 and 1, not " + fraction);
+        }
+        return fraction;
+    }
+
+    /**
+     * Get the max number of versions to add to each MO that gets new
+     * versions when an increment is appended to an existing export.
+     * @return The max number of new versions, at least 1.
+     */
+    public int getAppendMaxVersions() {
+        return Math.max(1, Integer.parseInt(this.getProperty("appendMaxVersions", "1").trim()));
+    }
+
     /**
      * Get the max number of containers to have at any point in the browse tree.
      * @return
@@ -160,6 +612,134 @@ public class GenerationParameters extends Properties {
         return propVal;
     }
 
+    /**
+     * Get the distribution of the number of paragraphs in a topic, from the
+     * "paragraphsDistribution" parameter.
+     * @return The distribution, uniform from 1 to 9 by default.
+     */
+    public Distribution getParagraphsDistribution() {
+        return getDistribution("paragraphsDistribution", "uniform(1,9)");
+    }
+
+    /**
+     * Get the distribution of the number of words in a paragraph, from the
+     * "paragraphWordsDistribution" parameter.
+     * @return The distribution, uniform from 7 to 30 by default.
+     */
+    public Distribution getParagraphWordsDistribution() {
+        return getDistribution("paragraphWordsDistribution", "uniform(7,30)");
+    }
+
+    /**
+     * Get the distribution of the number of versions of an MO, from the
+     * "versionsDistribution" parameter. Every MO has at least one version.
+     * @return The distribution, uniform from 1 to maxVersions by default.
+     */
+    public Distribution getVersionsDistribution() {
+        return getDistribution("versionsDistribution", "uniform(1," + getMaxVersions() + ")");
+    }
+
+    /**
+     * Get the distribution of the number of MOs in a container, from the
+     * "containerChildrenDistribution" parameter.
+     * @return The distribution, uniform from 0 to maxContainerChildren by default.
+     */
+    public Distribution getContainerChildrenDistribution() {
+        return getDistribution("containerChildrenDistribution", "uniform(0," + getMaxContainerChildren() + ")");
+    }
+
+    /**
+     * Get how containers pick the XML MOs they refer to: "uniform" (the
+     * default) for every MO equally likely or "hotspot" for skewed reuse,
+     * orphan MOs and clustered references. See ReferenceModel.
+     * @return The reference model.
+     */
+    public String getReferenceModel() {
+        String model = this.getProperty("referenceModel", "uniform").trim();
+        if (!"uniform".equals(model) && !"hotspot".equals(model)) {
+            throw new RuntimeException("Unrecognized reference model \"" + model + "\"");
+        }
+        return model;
+    }
+
+    /**
+     * @return The Zipf exponent of MO reuse for the hotspot reference model,
+     * 0 for no skew (default 1).
+     */
+    public double getReferenceSkew() {
+        return Double.parseDouble(this.getProperty("referenceSkew", "1").trim());
+    }
+
+    /**
+     * @return The share of XML MOs no container refers to for the hotspot
+     * reference model (default 0.1).
+     */
+    public double getOrphanShare() {
+        double share = Double.parseDouble(this.getProperty("orphanShare", "0.1").trim());
+        if (share < 0 || share >= 1) {
+            throw new RuntimeException("orphanShare must be at least 0 and less than 1, not " + share);
+        }
+        return share;
+    }
+
+    /**
+     * @return The chance that each MO a container refers to after the first
+     * is near the one before it, for the hotspot reference model (default 0.5).
+     */
+    public double getReferenceLocality() {
+        return Double.parseDouble(this.getProperty("referenceLocality", "0.5").trim());
+    }
+
+    /**
+     * @return How far apart, in the list of XML MOs, nearby references can
+     * be for the hotspot reference model (default 20).
+     */
+    public int getReferenceWindow() {
+        return Integer.parseInt(this.getProperty("referenceWindow", "20").trim());
+    }
+
+    /**
+     * Get how the read benchmark reads files: "stream" (the default) for a
+     * FileInputStream, "nio" for a FileChannel into a direct buffer or
+     * "mmap" for a memory-mapped FileChannel. See ExportReadBenchmark.
+     * @return The read strategy.
+     */
+    public String getReadStrategy() {
+        String strategy = this.getProperty("readStrategy", "stream").trim();
+        if (!"stream".equals(strategy) && !"nio".equals(strategy) && !"mmap".equals(strategy)) {
+            throw new RuntimeException("Unrecognized read strategy \"" + strategy + "\"");
+        }
+        return strategy;
+    }
+
+    /**
+     * Get the number of threads the read benchmark reads with. Defaults to
+     * the number of generation threads.
+     * @return Number of threads, always at least 1.
+     */
+    public int getReadThreads() {
+        String propStr = this.getProperty("readThreads");
+        if (propStr == null || "".equals(propStr.trim())) {
+            return getThreads();
+        }
+        return Math.max(1, Integer.parseInt(propStr.trim()));
+    }
+
+    /**
+     * Get a distribution from its parameter. See Distribution.parse() for
+     * the form of the parameter.
+     * @param name The parameter's name
+     * @param defaultSpec The distribution to use if the parameter isn't set
+     * @return The distribution.
+     */
+    public Distribution getDistribution(String name, String defaultSpec) {
+        String spec = this.getProperty(name);
+        if (spec == null || "".equals(spec.trim())) {
+            spec = defaultSpec;
+        }
+        return Distribution.parse(spec);
+    }
+
     public String getUser() {
         return "fakeuser";
     }
@@ -177,6 +757,6 @@ public class GenerationParameters extends Properties {
     }
 
     public int getManagedObjectCount() {
-        return this.mosById.size();
+        return (int)this.registry.size();
     }
 }
@@ -0,0 +1,191 @@
+package com.rsicms.exportgenerator;
+
+import com.rsicms.exportgenerator.generation.ManagedObjectGeneratorBase;
+import com.rsicms.exportgenerator.generation.RandomStreams;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Manages the per-shard output of a sharded generation and merges
+ * the shards' managed objects into a single export.
+ * <p>Each shard writes its slice of rsuite.content/managed-objects
+ * to its own shard directory along with a shard.properties manifest
+ * recording the shard's MO ID range.</p>
+ */
+public class ShardMerger {
+
+    private static Log log = LogFactory.getLog(ShardMerger.class);
+
+    public static final String SHARD_MANIFEST = "shard.properties";
+
+    private final GenerationParameters generationParameters;
+
+    public ShardMerger(GenerationParameters generationParameters) {
+        this.generationParameters = generationParameters;
+    }
+
+    /**
+     * Get the name of the directory a shard's output goes to.
+     * @param shardIndex Zero-based shard index
+     * @param shardCount Total number of shards
+     * @return The directory name.
+     */
+    public static String getShardDirName(int shardIndex, int shardCount) {
+        return "shard-" + shardIndex + "-of-" + shardCount;
+    }
+
+    /**
+     * Find the shard output directories within the specified directory.
+     * @param outdir Directory to look in.
+     * @return List, possibly empty, of shard directories.
+     */
+    public static List<File> findShardDirs(File outdir) {
+        List<File> result = new ArrayList<File>();
+        File[] candidates = outdir.listFiles();
+        if (candidates != null) {
+            for (File candidate : candidates) {
+                if (candidate.isDirectory() && new File(candidate, SHARD_MANIFEST).exists()) {
+                    result.add(candidate);
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Write the manifest for a shard once its managed objects have been
+     * generated.
+     * @param generationParameters Parameters used to generate the shard
+     * @param shardDir The shard's output directory
+     * @throws IOException
+     */
+    public static void writeShardManifest(GenerationParameters generationParameters, File shardDir) throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("shardIndex", "" + generationParameters.getShardIndex());
+        manifest.setProperty("shardCount", "" + generationParameters.getShardCount());
+        manifest.setProperty("firstMoId", "" + generationParameters.getShardFirstMoId());
+        manifest.setProperty("nextMoId", "" + generationParameters.peekNextMoId());
+        manifest.setProperty("moCount", "" + generationParameters.getManagedObjectCount());
+        manifest.setProperty("seed", "" + generationParameters.getSeed());
+        OutputStream out = new FileOutputStream(new File(shardDir, SHARD_MANIFEST));
+        try {
+            manifest.store(out, "Export generator shard manifest");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Merge the managed objects from the shard directories into the output directory,
+     * registering each MO and setting the next MO ID to follow the highest
+     * shard's range. The shard directories are removed once merged.
+     * @param shardDirs The shard directories to merge.
+     * @throws Exception
+     */
+    public void merge(List<File> shardDirs) throws Exception {
+        if (shardDirs.isEmpty()) {
+            throw new RuntimeException("No shard directories to merge");
+        }
+        List<Properties> manifests = new ArrayList<Properties>();
+        for (File shardDir : shardDirs) {
+            manifests.add(readShardManifest(shardDir));
+        }
+        checkShards(shardDirs, manifests);
+        // The MO titles are recovered from the seed the shards were generated with.
+        long seed = Long.parseLong(manifests.get(0).getProperty("seed"));
+        generationParameters.setSeed(seed);
+
+        File mosDir = new File(new File(generationParameters.getOutputDirectory(), "rsuite.content"), "managed-objects");
+        if (!mosDir.mkdirs() && !mosDir.isDirectory()) {
+            throw new RuntimeException("Failed to create directory \"" + mosDir.getAbsolutePath() + "\"");
+        }
+
+        int nextMoId = GenerationParameters.FIRST_MO_ID;
+        for (int i = 0; i < shardDirs.size(); i++) {
+            File shardDir = shardDirs.get(i);
+            log.info("Merging shard \"" + shardDir.getAbsolutePath() + "\"...");
+            File shardMosDir = new File(new File(shardDir, "rsuite.content"), "managed-objects");
+            mergeManagedObjects(shardMosDir, mosDir, seed);
+            nextMoId = Math.max(nextMoId, getIntProperty(manifests.get(i), "nextMoId"));
+            FileUtils.deleteDirectory(shardDir);
+        }
+        generationParameters.setNextMoId(nextMoId);
+    }
+
+    private void mergeManagedObjects(File shardMosDir, File mosDir, long seed) throws IOException {
+        File[] topDirs = shardMosDir.listFiles();
+        if (topDirs == null) {
+            return;
+        }
+        for (File topDir : topDirs) {
+            File[] childDirs = topDir.listFiles();
+            if (childDirs == null) {
+                continue;
+            }
+            for (File childDir : childDirs) {
+                File[] moDirs = childDir.listFiles();
+                if (moDirs == null) {
+                    continue;
+                }
+                File targetDir = new File(new File(mosDir, topDir.getName()), childDir.getName());
+                for (File moDir : moDirs) {
+                    int moid = Integer.parseInt(moDir.getName());
+                    FileUtils.moveDirectoryToDirectory(moDir, targetDir, true);
+                    String title = ManagedObjectGeneratorBase.makeTitle(RandomStreams.forManagedObject(seed, moid));
+                    generationParameters.addMo(moid, generationParameters.getMoType(moid), title);
+                }
+            }
+        }
+    }
+
+    private void checkShards(List<File> shardDirs, List<Properties> manifests) {
+        int shardCount = getIntProperty(manifests.get(0), "shardCount");
+        String seed = manifests.get(0).getProperty("seed");
+        if (manifests.size() != shardCount) {
+            throw new RuntimeException("Expected " + shardCount + " shards but found " + manifests.size());
+        }
+        boolean[] seen = new boolean[shardCount];
+        for (int i = 0; i < manifests.size(); i++) {
+            Properties manifest = manifests.get(i);
+            int shardIndex = getIntProperty(manifest, "shardIndex");
+            if (seed == null || !seed.equals(manifest.getProperty("seed"))) {
+                throw new RuntimeException("Shard \"" + shardDirs.get(i).getAbsolutePath() +
+                        "\" was not generated with the same seed as the other shards");
+            }
+            if (getIntProperty(manifest, "shardCount") != shardCount ||
+                    shardIndex < 0 || shardIndex >= shardCount || seen[shardIndex]) {
+                throw new RuntimeException("Shard \"" + shardDirs.get(i).getAbsolutePath() +
+                        "\" does not belong to a " + shardCount + "-shard generation or is a duplicate");
+            }
+            seen[shardIndex] = true;
+        }
+    }
+
+    private static Properties readShardManifest(File shardDir) throws IOException {
+        File manifestFile = new File(shardDir, SHARD_MANIFEST);
+        if (!manifestFile.exists()) {
+            throw new RuntimeException("Shard manifest \"" + manifestFile.getAbsolutePath() + "\" does not exist");
+        }
+        Properties manifest = new Properties();
+        InputStream in = new FileInputStream(manifestFile);
+        try {
+            manifest.load(in);
+        } finally {
+            in.close();
+        }
+        return manifest;
+    }
+
+    private static int getIntProperty(Properties props, String name) {
+        String value = props.getProperty(name);
+        if (value == null) {
+            throw new RuntimeException("Shard manifest is missing property \"" + name + "\"");
+        }
+        return Integer.parseInt(value.trim());
+    }
+}
@@ -0,0 +1,36 @@
+package com.rsicms.exportgenerator.api;
+
+/**
+ * Places managed objects in the two-level tree of bucket directories
+ * (managed-objects/{top}/{child}/{moid}).
+ * <p>A layout works out an MO's bucket from its ID alone, with no state
+ * and no file system calls, so any number of generation threads,
+ * processes or shards can place MOs without coordinating.</p>
+ */
+public interface BucketLayout {
+
+    /**
+     * @return The number of top-level buckets (numbered from 0).
+     */
+    int getTopCount();
+
+    /**
+     * @return The number of child buckets within each top-level bucket (numbered from 0).
+     */
+    int getChildCount();
+
+    /**
+     * Get the bucket an MO goes in.
+     * @param moid The MO's ID
+     * @return The bucket: top * getChildCount() + child.
+     */
+    int getBucket(int moid);
+
+    /**
+     * Get the number of bucket directories, top-level and child, expected
+     * to hold a number of MOs with consecutive IDs.
+     * @param moCount The number of MOs
+     * @return The expected number of directories.
+     */
+    double getExpectedBucketDirectoryCount(long moCount);
+}
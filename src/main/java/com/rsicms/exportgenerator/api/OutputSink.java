@@ -0,0 +1,102 @@
+package com.rsicms.exportgenerator.api;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Destination for all the files and directories making up a generated
+ * export. Generators address files by their location within the output
+ * directory; what actually happens to the data is up to the sink.
+ * <p>Sinks must be safe to use from multiple generation threads.</p>
+ */
+public interface OutputSink extends Closeable {
+
+    /**
+     * Make a directory and any missing parent directories.
+     * @param dir The directory to make
+     * @return True if the directory was created, false if it already existed.
+     * @throws IOException If the directory could not be created.
+     */
+    boolean makeDirectory(File dir) throws IOException;
+
+    /**
+     * Make a single new directory whose parent directory already exists.
+     * This is cheaper than makeDirectory() for directories that are
+     * expected to be new.
+     * @param dir The directory to make
+     * @return True if the directory was created, false if it already existed.
+     * @throws IOException If the directory could not be created.
+     */
+    boolean makeNewDirectory(File dir) throws IOException;
+
+    /**
+     * Open a new file for writing. The file's directory must already
+     * have been made.
+     * @param file The file to write
+     * @return Stream to write the file's content to. Closing the stream
+     * completes the file.
+     * @throws IOException
+     */
+    OutputStream newOutputStream(File file) throws IOException;
+
+    /**
+     * Write a whole file from a buffer. Sinks that write to the file
+     * system write it with a single call rather than through a stream.
+     * @param file The file to write. Its directory must already have been made.
+     * @param content The buffer holding the file's content
+     * @param length Number of bytes of the buffer to write
+     * @throws IOException
+     */
+    void writeFile(File file, byte[] content, int length) throws IOException;
+
+    /**
+     * Write a file of a given length whose content is the content of a
+     * sample blob repeated as often as needed. Sinks that write to the
+     * file system copy the blob within the kernel so that large files
+     * cost almost no CPU.
+     * @param file The file to write
+     * @param blob Channel to read the sample blob from. Only positional
+     * reads are used so the channel can be shared between threads. If
+     * null, the file is all zero bytes and is written as a sparse file
+     * where possible.
+     * @param length Length of the file in bytes
+     * @throws IOException
+     */
+    void writePayload(File file, FileChannel blob, long length) throws IOException;
+
+    /**
+     * Make a file with the same content as a file already written to this
+     * sink, as a hard link where possible. A link counts as a file but adds
+     * no bytes written.
+     * @param link The file to make
+     * @param target The existing file
+     * @return True if the file was made, false if the sink can't make links
+     * and the caller must write the file itself.
+     * @throws IOException
+     */
+    boolean linkFile(File link, File target) throws IOException;
+
+    /**
+     * @return Number of files written so far.
+     */
+    long getFileCount();
+
+    /**
+     * @return Number of directories made so far.
+     */
+    long getDirectoryCount();
+
+    /**
+     * @return Number of bytes written so far.
+     */
+    long getByteCount();
+
+    /**
+     * Finish any pending output and release the sink's resources.
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,204 @@
+package com.rsicms.exportgenerator.distribution;
+
+import java.util.SplittableRandom;
+
+/**
+ * A distribution over a table of values, each with its own probability,
+ * sampled with Vose's alias method.
+ * <p>The table is split into equal-probability columns, each holding at
+ * most two values: its own and an alias. Drawing a value picks a column
+ * and then one of its two values, so it takes one draw from the random
+ * stream and constant time whatever the shape of the distribution.</p>
+ */
+public class AliasDistribution extends Distribution {
+
+    private final int[] values;
+    // For each column, the chance of its own value rather than its alias.
+    private final double[] probabilities;
+    private final int[] aliases;
+    private final double mean;
+    private final int min;
+    private final int max;
+
+    /**
+     * @param values The values
+     * @param weights The relative weight of each value. The weights need not add up to 1.
+     */
+    public AliasDistribution(int[] values, double[] weights) {
+        int n = values.length;
+        if (n == 0 || n != weights.length) {
+            throw new RuntimeException("Expected a weight for each of at least one value");
+        }
+        if (n > MAX_TABLE_SIZE) {
+            throw new RuntimeException("More than " + MAX_TABLE_SIZE + " values");
+        }
+        double total = 0;
+        double weightedTotal = 0;
+        int minValue = Integer.MAX_VALUE;
+        int maxValue = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            if (!(weights[i] >= 0) || Double.isInfinite(weights[i])) {
+                throw new RuntimeException("Invalid weight " + weights[i] + " for value " + values[i]);
+            }
+            total += weights[i];
+            weightedTotal += weights[i] * values[i];
+            if (weights[i] > 0) {
+                minValue = Math.min(minValue, values[i]);
+                maxValue = Math.max(maxValue, values[i]);
+            }
+        }
+        if (total <= 0) {
+            throw new RuntimeException("The weights are all 0");
+        }
+        this.values = values.clone();
+        this.probabilities = new double[n];
+        this.aliases = new int[n];
+        this.mean = weightedTotal / total;
+        this.min = minValue;
+        this.max = maxValue;
+
+        // Scale the weights so that the average column is 1, then fill each
+        // under-full column from an over-full one.
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // What's left is full, give or take rounding.
+        while (largeCount > 0) {
+            int i = large[--largeCount];
+            probabilities[i] = 1;
+            aliases[i] = i;
+        }
+        while (smallCount > 0) {
+            int i = small[--smallCount];
+            probabilities[i] = 1;
+            aliases[i] = i;
+        }
+    }
+
+    /**
+     * Make a normal distribution over the whole numbers from min to max.
+     * @param mean The mean
+     * @param stddev The standard deviation
+     * @param min The smallest value
+     * @param max The largest value
+     * @return The distribution.
+     */
+    public static AliasDistribution normal(double mean, double stddev, int min, int max) {
+        if (!(stddev > 0)) {
+            throw new RuntimeException("The standard deviation must be more than 0");
+        }
+        int[] values = range(min, max);
+        double[] weights = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            double z = (values[i] - mean) / stddev;
+            weights[i] = Math.exp(-z * z / 2);
+        }
+        return new AliasDistribution(values, weights);
+    }
+
+    /**
+     * Make a log-normal distribution over the whole numbers from min to max.
+     * Values below 1 are never drawn.
+     * @param mu The mean of the value's natural log
+     * @param sigma The standard deviation of the value's natural log
+     * @param min The smallest value
+     * @param max The largest value
+     * @return The distribution.
+     */
+    public static AliasDistribution logNormal(double mu, double sigma, int min, int max) {
+        if (!(sigma > 0)) {
+            throw new RuntimeException("Sigma must be more than 0");
+        }
+        int[] values = range(min, max);
+        double[] weights = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] > 0) {
+                double z = (Math.log(values[i]) - mu) / sigma;
+                weights[i] = Math.exp(-z * z / 2) / values[i];
+            }
+        }
+        return new AliasDistribution(values, weights);
+    }
+
+    /**
+     * Make a Zipf distribution over the whole numbers from min to max: the
+     * value min + k - 1 has weight 1/k^exponent.
+     * @param exponent The exponent, 0 for a uniform distribution
+     * @param min The smallest and most likely value
+     * @param max The largest value
+     * @return The distribution.
+     */
+    public static AliasDistribution zipf(double exponent, int min, int max) {
+        if (!(exponent >= 0)) {
+            throw new RuntimeException("The exponent must not be negative");
+        }
+        int[] values = range(min, max);
+        double[] weights = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            weights[i] = Math.pow(i + 1, -exponent);
+        }
+        return new AliasDistribution(values, weights);
+    }
+
+    private static int[] range(int min, int max) {
+        if (max < min) {
+            throw new RuntimeException("Max " + max + " is less than min " + min);
+        }
+        if ((long)max - min + 1 > MAX_TABLE_SIZE) {
+            throw new RuntimeException("More than " + MAX_TABLE_SIZE + " values from " + min + " to " + max);
+        }
+        int[] values = new int[max - min + 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = min + i;
+        }
+        return values;
+    }
+
+    @Override
+    public int sample(SplittableRandom random) {
+        // The whole part picks the column, the fraction its value or alias.
+        double u = random.nextDouble() * values.length;
+        int column = (int)u;
+        if (column >= values.length) {
+            column = values.length - 1;
+        }
+        return u - column < probabilities[column] ? values[column] : values[aliases[column]];
+    }
+
+    @Override
+    public double getMean() {
+        return mean;
+    }
+
+    @Override
+    public int getMin() {
+        return min;
+    }
+
+    @Override
+    public int getMax() {
+        return max;
+    }
+}
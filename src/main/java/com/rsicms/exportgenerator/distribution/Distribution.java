@@ -0,0 +1,126 @@
+package com.rsicms.exportgenerator.distribution;
+
+import java.util.SplittableRandom;
+
+/**
+ * A distribution of whole numbers that a shape of the generated content,
+ * e.g., the number of paragraphs in a topic, is drawn from.
+ * <p>Distributions are given in the generation parameters as specs:</p>
+ * <ul>
+ * <li>uniform(min,max): every value from min to max equally likely</li>
+ * <li>fixed(value): always the same value</li>
+ * <li>normal(mean,stddev[,min,max]): normal, by default cut off four
+ * standard deviations from the mean and at 0</li>
+ * <li>lognormal(mu,sigma[,min,max]): log-normal, where mu and sigma are
+ * the mean and standard deviation of the value's natural log, by default
+ * cut off at 1 and four standard deviations above mu</li>
+ * <li>zipf(s,max) or zipf(s,min,max): Zipf with exponent s, min (default
+ * 1) the most likely value and each value after it less likely</li>
+ * <li>empirical(value:weight,...): a histogram, each value drawn in
+ * proportion to its weight</li>
+ * </ul>
+ * <p>Apart from uniform and fixed, the probabilities of all the values
+ * are worked out up front into an alias table, so drawing a value takes
+ * constant time however long the tail. Distributions are immutable and
+ * can be shared between threads.</p>
+ */
+public abstract class Distribution {
+
+    // Most values a distribution's table can have.
+    static final int MAX_TABLE_SIZE = 1 << 20;
+
+    /**
+     * Draw a value.
+     * @param random The random stream to draw from
+     * @return The value.
+     */
+    public abstract int sample(SplittableRandom random);
+
+    /**
+     * @return The mean value.
+     */
+    public abstract double getMean();
+
+    public abstract int getMin();
+
+    public abstract int getMax();
+
+    /**
+     * Make a distribution from its spec.
+     * @param spec The spec, e.g., "lognormal(1.5,0.8)"
+     * @return The distribution.
+     */
+    public static Distribution parse(String spec) {
+        String trimmed = spec.trim();
+        int open = trimmed.indexOf('(');
+        if (open < 0 || !trimmed.endsWith(")")) {
+            throw new RuntimeException("Unrecognized distribution \"" + spec + "\"");
+        }
+        String name = trimmed.substring(0, open).trim().toLowerCase();
+        String[] args = trimmed.substring(open + 1, trimmed.length() - 1).split(",");
+        try {
+            if ("uniform".equals(name)) {
+                checkArgCount(spec, args, 2, 2);
+                return new UniformDistribution(parseInt(args[0]), parseInt(args[1]));
+            }
+            if ("fixed".equals(name)) {
+                checkArgCount(spec, args, 1, 1);
+                return new FixedDistribution(parseInt(args[0]));
+            }
+            if ("normal".equals(name)) {
+                checkArgCount(spec, args, 2, 4);
+                double mean = parseDouble(args[0]);
+                double stddev = parseDouble(args[1]);
+                int min = args.length > 2 ? parseInt(args[2]) : (int)Math.max(0, Math.floor(mean - 4 * stddev));
+                int max = args.length > 3 ? parseInt(args[3]) : (int)Math.ceil(mean + 4 * stddev);
+                return AliasDistribution.normal(mean, stddev, min, max);
+            }
+            if ("lognormal".equals(name)) {
+                checkArgCount(spec, args, 2, 4);
+                double mu = parseDouble(args[0]);
+                double sigma = parseDouble(args[1]);
+                int min = args.length > 2 ? parseInt(args[2]) : 1;
+                int max = args.length > 3 ? parseInt(args[3]) : (int)Math.ceil(Math.exp(mu + 4 * sigma));
+                return AliasDistribution.logNormal(mu, sigma, min, max);
+            }
+            if ("zipf".equals(name)) {
+                checkArgCount(spec, args, 2, 3);
+                double exponent = parseDouble(args[0]);
+                int min = args.length > 2 ? parseInt(args[1]) : 1;
+                int max = parseInt(args[args.length - 1]);
+                return AliasDistribution.zipf(exponent, min, max);
+            }
+            if ("empirical".equals(name)) {
+                int[] values = new int[args.length];
+                double[] weights = new double[args.length];
+                for (int i = 0; i < args.length; i++) {
+                    String[] pair = args[i].split(":");
+                    if (pair.length != 2) {
+                        throw new RuntimeException("Expected value:weight, not \"" + args[i].trim() + "\"");
+                    }
+                    values[i] = parseInt(pair[0]);
+                    weights[i] = parseDouble(pair[1]);
+                }
+                return new AliasDistribution(values, weights);
+            }
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Invalid distribution \"" + spec + "\": " + e.getMessage(), e);
+        }
+        throw new RuntimeException("Unrecognized distribution \"" + spec + "\"");
+    }
+
+    private static void checkArgCount(String spec, String[] args, int min, int max) {
+        if (args.length < min || args.length > max) {
+            throw new RuntimeException("Expected " + (min == max ? "" + min : min + " to " + max) +
+                    " arguments, not " + args.length);
+        }
+    }
+
+    private static int parseInt(String arg) {
+        return Integer.parseInt(arg.trim());
+    }
+
+    private static double parseDouble(String arg) {
+        return Double.parseDouble(arg.trim());
+    }
+}
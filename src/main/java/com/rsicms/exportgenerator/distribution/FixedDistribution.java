@@ -0,0 +1,40 @@
+package com.rsicms.exportgenerator.distribution;
+
+import java.util.SplittableRandom;
+
+/**
+ * Always the same value. Draws nothing from the random stream.
+ */
+public class FixedDistribution extends Distribution {
+
+    private final int value;
+
+    public FixedDistribution(int value) {
+        this.value = value;
+    }
+
+    @Override
+    public int sample(SplittableRandom random) {
+        return value;
+    }
+
+    @Override
+    public double getMean() {
+        return value;
+    }
+
+    @Override
+    public int getMin() {
+        return value;
+    }
+
+    @Override
+    public int getMax() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "fixed(" + value + ")";
+    }
+}
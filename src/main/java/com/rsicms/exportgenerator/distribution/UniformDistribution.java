@@ -0,0 +1,50 @@
+package com.rsicms.exportgenerator.distribution;
+
+import java.util.SplittableRandom;
+
+/**
+ * Every value from min to max equally likely. Makes the same draw as
+ * random.nextInt(min, max + 1), so content generated with the uniform
+ * defaults is the same as before distributions could be set.
+ */
+public class UniformDistribution extends Distribution {
+
+    private final int min;
+    private final int max;
+
+    public UniformDistribution(int min, int max) {
+        if (max < min) {
+            throw new RuntimeException("Max " + max + " is less than min " + min);
+        }
+        if ((long)max + 1 > Integer.MAX_VALUE) {
+            throw new RuntimeException("Max " + max + " is too large");
+        }
+        this.min = min;
+        this.max = max;
+    }
+
+    @Override
+    public int sample(SplittableRandom random) {
+        return random.nextInt(min, max + 1);
+    }
+
+    @Override
+    public double getMean() {
+        return (min + (double)max) / 2;
+    }
+
+    @Override
+    public int getMin() {
+        return min;
+    }
+
+    @Override
+    public int getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "uniform(" + min + "," + max + ")";
+    }
+}
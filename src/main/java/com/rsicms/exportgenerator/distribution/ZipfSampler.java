@@ -0,0 +1,109 @@
+package com.rsicms.exportgenerator.distribution;
+
+import java.util.SplittableRandom;
+
+/**
+ * Draws ranks from 1 to n with a Zipf distribution, rank k having weight
+ * 1/k^exponent, for any n up to Integer.MAX_VALUE.
+ * <p>An alias table would need a column per rank, so instead this uses
+ * Hormann and Derflinger's rejection-inversion method: a rank is drawn by
+ * inverting the integral of a continuous envelope of the weights and is
+ * rejected only rarely, so drawing a rank takes constant expected time and
+ * no memory however large n is.</p>
+ */
+public class ZipfSampler {
+
+    private final int n;
+    private final double exponent;
+    private final double hIntegralX1;
+    private final double hIntegralN;
+    private final double s;
+
+    /**
+     * @param n The number of ranks
+     * @param exponent The exponent, 0 for every rank equally likely
+     */
+    public ZipfSampler(int n, double exponent) {
+        if (n < 1) {
+            throw new RuntimeException("A Zipf distribution needs at least one rank");
+        }
+        if (!(exponent >= 0)) {
+            throw new RuntimeException("The exponent must not be negative");
+        }
+        this.n = n;
+        this.exponent = exponent;
+        this.hIntegralX1 = hIntegral(1.5) - 1;
+        this.hIntegralN = hIntegral(n + 0.5);
+        this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * Draw a rank.
+     * @param random The random stream to draw from
+     * @return The rank, from 1 to n.
+     */
+    public int sample(SplittableRandom random) {
+        if (exponent == 0) {
+            return random.nextInt(0, n) + 1;
+        }
+        while (true) {
+            double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+            double x = hIntegralInverse(u);
+            int k = (int)(x + 0.5);
+            if (k < 1) {
+                k = 1;
+            } else if (k > n) {
+                k = n;
+            }
+            if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                return k;
+            }
+        }
+    }
+
+    /**
+     * The integral of the envelope from 1 to x, shifted so that the
+     * envelope is 1 at x = 1.
+     */
+    private double hIntegral(double x) {
+        double logX = Math.log(x);
+        return helper2((1 - exponent) * logX) * logX;
+    }
+
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegralInverse(double x) {
+        double t = x * (1 - exponent);
+        if (t < -1) {
+            // Rounding can take t just below -1.
+            t = -1;
+        }
+        return Math.exp(helper1(t) * x);
+    }
+
+    /**
+     * log(1 + x) / x, accurate for x near 0.
+     */
+    private static double helper1(double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.log1p(x) / x;
+        }
+        return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+    }
+
+    /**
+     * (exp(x) - 1) / x, accurate for x near 0.
+     */
+    private static double helper2(double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.expm1(x) / x;
+        }
+        return 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+    }
+}
@@ -0,0 +1,55 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.api.BucketLayout;
+
+/**
+ * Spreads MOs evenly over the bucket directories, breadth-first, the way
+ * RSuite does: consecutive MOs go in consecutive top-level buckets, so
+ * the first topCount MOs each get a top-level bucket of their own, the
+ * next topCount go in the second child bucket of each and so on, and
+ * only once every bucket has an MO does a bucket get a second one.
+ * <p>Any run of consecutive IDs is spread so that no two top-level
+ * buckets, and no two child buckets, differ by more than one MO. The
+ * bucket is worked out from the ID with a division and a remainder.</p>
+ */
+public class BalancedBucketLayout implements BucketLayout {
+
+    private final int topCount;
+    private final int childCount;
+
+    /**
+     * @param topCount Number of top-level buckets
+     * @param childCount Number of child buckets within each top-level bucket
+     */
+    public BalancedBucketLayout(int topCount, int childCount) {
+        if (topCount < 1 || childCount < 1) {
+            throw new RuntimeException("A bucket layout needs at least one top-level and one child bucket");
+        }
+        if ((long)topCount * childCount > Integer.MAX_VALUE) {
+            throw new RuntimeException("Too many buckets: " + topCount + " x " + childCount);
+        }
+        this.topCount = topCount;
+        this.childCount = childCount;
+    }
+
+    public int getTopCount() {
+        return topCount;
+    }
+
+    public int getChildCount() {
+        return childCount;
+    }
+
+    public int getBucket(int moid) {
+        // The first MO goes in the first bucket.
+        long ordinal = (long)moid - GenerationParameters.FIRST_MO_ID;
+        int top = (int)Math.floorMod(ordinal, (long)topCount);
+        int child = (int)Math.floorMod(Math.floorDiv(ordinal, (long)topCount), (long)childCount);
+        return top * childCount + child;
+    }
+
+    public double getExpectedBucketDirectoryCount(long moCount) {
+        return Math.min(topCount, moCount) + Math.min((long)topCount * childCount, moCount);
+    }
+}
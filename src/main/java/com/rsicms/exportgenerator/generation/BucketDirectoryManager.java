@@ -0,0 +1,129 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.api.OutputSink;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Manages the two-level tree of bucket directories the MO directories
+ * are placed in (managed-objects/{top}/{child}/{moid}).
+ * <p>Each bucket directory is made at most once, either lazily the first
+ * time an MO is put in it or all up front, and is then remembered so
+ * that placing an MO needs no further file system calls for the buckets.
+ * The manager is safe to use from multiple generation threads.</p>
+ */
+public class BucketDirectoryManager {
+
+    private static Log log = LogFactory.getLog(BucketDirectoryManager.class);
+
+    private final OutputSink sink;
+    private final File mosDir;
+    private final int topCount;
+    private final int childCount;
+
+    // Bucket directories known to exist, indexed by top * childCount + child,
+    // in pages that are only allocated once one of their buckets is used,
+    // so that a layout with a great many buckets costs nothing up front.
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private final AtomicReferenceArray<AtomicReferenceArray<File>> pages;
+
+    /**
+     * @param sink The sink to make the directories with
+     * @param mosDir The managed-objects directory
+     * @param topCount Number of top-level buckets (numbered from 0)
+     * @param childCount Number of child buckets within each top-level bucket (numbered from 0)
+     */
+    public BucketDirectoryManager(OutputSink sink, File mosDir, int topCount, int childCount) {
+        this.sink = sink;
+        this.mosDir = mosDir;
+        this.topCount = topCount;
+        this.childCount = childCount;
+        long bucketCount = (long)topCount * childCount;
+        if (topCount < 1 || childCount < 1 || bucketCount > Integer.MAX_VALUE) {
+            throw new RuntimeException("Unsupported number of buckets: " + topCount + " x " + childCount);
+        }
+        this.pages = new AtomicReferenceArray<AtomicReferenceArray<File>>(
+                (int)((bucketCount + PAGE_SIZE - 1) >>> PAGE_BITS));
+    }
+
+    private AtomicReferenceArray<File> getPage(int ndx) {
+        AtomicReferenceArray<File> page = pages.get(ndx >>> PAGE_BITS);
+        if (page == null) {
+            pages.compareAndSet(ndx >>> PAGE_BITS, null, new AtomicReferenceArray<File>(PAGE_SIZE));
+            page = pages.get(ndx >>> PAGE_BITS);
+        }
+        return page;
+    }
+
+    public int getTopCount() {
+        return topCount;
+    }
+
+    public int getChildCount() {
+        return childCount;
+    }
+
+    /**
+     * Get a bucket directory, making it if it hasn't been made yet.
+     * @param top The top-level bucket number
+     * @param child The child bucket number
+     * @return The bucket directory.
+     * @throws IOException If the directory can't be made
+     */
+    public File getBucketDir(int top, int child) throws IOException {
+        int ndx = top * childCount + child;
+        AtomicReferenceArray<File> page = getPage(ndx);
+        File dir = page.get(ndx & (PAGE_SIZE - 1));
+        if (dir == null) {
+            dir = new File(new File(mosDir, "" + top), "" + child);
+            // Two threads may both make the same bucket, which is harmless.
+            sink.makeDirectory(dir);
+            page.set(ndx & (PAGE_SIZE - 1), dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Make all the bucket directories up front, in parallel.
+     * @param threads Number of threads to use
+     * @throws Exception
+     */
+    public void makeAllBucketDirs(int threads) throws Exception {
+        log.info("Making " + ((long)topCount * childCount) + " bucket directories...");
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int top = 0; top < topCount; top++) {
+                final int topNum = top;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int child = 0; child < childCount; child++) {
+                            getBucketDir(topNum, child);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception)e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
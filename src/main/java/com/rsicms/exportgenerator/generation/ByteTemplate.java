@@ -0,0 +1,84 @@
+package com.rsicms.exportgenerator.generation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A fixed-structure document, or part of one, pre-encoded as UTF-8
+ * byte segments with slots for the variable values between them.
+ * <p>Templates are written as the literal markup with slots marked
+ * as "${name}". The markup is used as is, so it must already be
+ * exactly what the StAX writer would produce. Templates are filled in
+ * using {@link RenderBuffer#begin(ByteTemplate)} and the buffer's fill
+ * methods, one per slot, in order.</p>
+ */
+public final class ByteTemplate {
+
+    private static final Pattern SLOT_PATTERN = Pattern.compile("\\$\\{([A-Za-z0-9_]+)\\}");
+
+    private final String name;
+    private final byte[][] segments;
+    private final String[] slotNames;
+
+    private ByteTemplate(String name, List<String> segments, List<String> slotNames) {
+        this.name = name;
+        this.segments = new byte[segments.size()][];
+        for (int i = 0; i < segments.size(); i++) {
+            this.segments[i] = segments.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        this.slotNames = slotNames.toArray(new String[slotNames.size()]);
+    }
+
+    /**
+     * Compile a template.
+     * @param name Name of the template, for error messages
+     * @param template The template markup
+     * @return The compiled template.
+     */
+    public static ByteTemplate compile(String name, String template) {
+        List<String> segments = new ArrayList<String>();
+        List<String> slotNames = new ArrayList<String>();
+        Matcher matcher = SLOT_PATTERN.matcher(template);
+        int pos = 0;
+        while (matcher.find()) {
+            segments.add(template.substring(pos, matcher.start()));
+            slotNames.add(matcher.group(1));
+            pos = matcher.end();
+        }
+        segments.add(template.substring(pos));
+        return new ByteTemplate(name, segments, slotNames);
+    }
+
+    /**
+     * @return Number of slots in the template.
+     */
+    public int getSlotCount() {
+        return slotNames.length;
+    }
+
+    /**
+     * @param slot Index of the slot
+     * @return The slot's name.
+     */
+    public String getSlotName(int slot) {
+        return slotNames[slot];
+    }
+
+    /**
+     * Get the encoded segment that precedes a slot. Segment getSlotCount()
+     * is the segment that follows the last slot.
+     * @param segment Index of the segment
+     * @return The segment's bytes.
+     */
+    byte[] getSegment(int segment) {
+        return segments[segment];
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
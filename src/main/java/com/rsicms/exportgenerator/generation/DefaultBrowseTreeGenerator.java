@@ -3,24 +3,37 @@ package com.rsicms.exportgenerator.generation;
 import com.rsicms.exportgenerator.GenerationParameters;
 import com.rsicms.exportgenerator.api.BrowseTreeGenerator;
 import com.rsicms.exportgenerator.api.MoType;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
+import com.rsicms.exportgenerator.distribution.Distribution;
+import com.rsicms.exportgenerator.metrics.GenerationMetrics;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamWriter;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.util.ArrayList;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Generates a random browse tree.
+ * <p>The tree is generated in two passes. The first pass plans the shape
+ * of the tree (each container's name, MO children and child containers)
+ * and assigns the container and MOREF IDs in the same order a depth-first
+ * generation would. The second pass writes the container files, with each
+ * container's subtree generated as a separate fork/join task so that the
+ * writing is spread over all the generation threads. The result does not
+ * depend on the number of threads.</p>
  */
 public class DefaultBrowseTreeGenerator implements BrowseTreeGenerator {
 
+    private static Log log = LogFactory.getLog(DefaultBrowseTreeGenerator.class);
+
     private final int browseWidth;
     private final int browseDepth;
-    private final int maxChildren;
+    private final Distribution containerChildren;
+    private ReferenceModel references = null;
 
     private final GenerationParameters generationParameters;
 
@@ -28,175 +41,549 @@ public class DefaultBrowseTreeGenerator implements BrowseTreeGenerator {
         this.generationParameters = generationParameters;
         browseWidth = generationParameters.getBrowseWidth();
         browseDepth = generationParameters.getBrowseDepth();
-        maxChildren = generationParameters.getMaxContainerChildren();
+        containerChildren = generationParameters.getContainerChildrenDistribution();
     }
 
     public void generateBrowseTree() throws Exception {
 
-        System.out.print("\nBrowse tree: ");
+        log.info("Generating browse tree...");
         int depth = 0;
         File outDir = new File(generationParameters.getOutputDirectory(), "rsuite.content");
-        ManagedObject root = new ManagedObject(4, MoType.CA, "/");
-        makeContainers(root, depth, outDir);
+        ManagedObject root = newRootContainer();
+        // MOs may have been registered in any order by parallel or sharded
+        // generation so put them in ID order to make the tree reproducible.
+        generationParameters.sortManagedObjectsById(MoType.XML);
+        List<ManagedObject> xmlMos = generationParameters.getManagedObjectsOfType(MoType.XML);
+        makeContainers(root, depth, outDir, RandomStreams.rootContainerKey(generationParameters.getSeed()), xmlMos);
+
+    }
+
+    /**
+     * Generate a tree of new containers for the XML MOs registered by an
+     * increment appended to an existing export. The new top-level containers
+     * go alongside the export's existing ones and are added to the root
+     * container's rsuite.node file.
+     * @param containerKey Key of the increment's root container
+     * @return The new top-level containers.
+     */
+    public List<ManagedObject> appendBrowseTree(long containerKey) throws Exception {
+        log.info("Generating browse tree containers for the new managed objects...");
+        final File outDir = new File(generationParameters.getOutputDirectory(), "rsuite.content");
+        generationParameters.sortManagedObjectsById(MoType.XML);
+        List<ManagedObject> xmlMos = generationParameters.getManagedObjectsOfType(MoType.XML);
+        final ArrayList<ManagedObject> containers = new ArrayList<ManagedObject>();
+        if (xmlMos.isEmpty()) {
+            return containers;
+        }
+        final BrowseTreePlan tree = planTree(0, containerKey, xmlMos);
+        runTask(new GenerationTask() {
+            @Override
+            protected void generate() throws Exception {
+                joinAll(forkContainerTasks(tree.plans, outDir, containers));
+            }
+        });
+        addToRSuiteNodeFile(outDir, containers);
+        return containers;
+    }
 
+    /**
+     * Add children to an existing rsuite.node file.
+     * @param outDir The directory holding the file
+     * @param children The new children
+     */
+    private void addToRSuiteNodeFile(File outDir, List<ManagedObject> children) throws Exception {
+        File nodeFile = new File(outDir, "rsuite.node");
+        byte[] node = FileUtils.readFileToByteArray(nodeFile);
+        // ISO-8859-1 maps each byte to one char, so string indexes are byte offsets.
+        int nestedIdsEnd = new String(node, "ISO-8859-1").indexOf("</nestedIds>");
+        if (nestedIdsEnd < 0) {
+            throw new RuntimeException("No nested IDs in \"" + nodeFile.getAbsolutePath() + "\"");
+        }
+        RenderContext context = RenderContext.get();
+        RenderBuffer buffer = context.acquireBuffer();
+        try {
+            buffer.append(node, 0, nestedIdsEnd);
+            for (ManagedObject child : children) {
+                buffer.begin(NODE_NESTED_ID).fill(child.getDisplayName());
+            }
+            buffer.append(node, nestedIdsEnd, node.length - nestedIdsEnd);
+            GenerationHelper.writeFile(generationParameters.getOutputSink(), nodeFile, buffer);
+        } finally {
+            context.releaseBuffer(buffer);
+        }
     }
 
 
-    private void makeContainers(ManagedObject parent, int depth, File outDir) throws Exception {
+    /**
+     * @return The root container of the browse tree.
+     */
+    static ManagedObject newRootContainer() {
+        return new ManagedObject(4, MoType.CA, "/");
+    }
+
+    private void makeContainers(final ManagedObject parent, int depth, final File outDir, long containerKey,
+                                List<ManagedObject> xmlMos) throws Exception {
         if (depth > browseDepth) return;
 
-        int numContainers = ThreadLocalRandom.current().nextInt(0, browseWidth+1);
-        ArrayList<ManagedObject> containers = new ArrayList<ManagedObject>();
+        final BrowseTreePlan tree = planTree(depth, containerKey, xmlMos);
+
+        runTask(new GenerationTask() {
+            @Override
+            protected void generate() throws Exception {
+                ArrayList<ManagedObject> containers = new ArrayList<ManagedObject>();
+                List<ContainerTask> subtasks = forkContainerTasks(tree.plans, outDir, containers);
+                // Now write the rsuite.node file for the root container.
+                makeRSuiteNodeFile(outDir, parent, containers, tree.random);
+                joinAll(subtasks);
+            }
+        });
+    }
+
+    /**
+     * Plan the whole browse tree, registering the containers and assigning
+     * their IDs, without generating any of it. Used to estimate the size
+     * of the tree.
+     * @param xmlMos The XML MOs the containers refer to. Only the size of
+     * the list is used.
+     * @return The plan of the tree.
+     */
+    BrowseTreePlan planBrowseTree(List<ManagedObject> xmlMos) {
+        return planTree(0, RandomStreams.rootContainerKey(generationParameters.getSeed()), xmlMos);
+    }
+
+    /**
+     * Plan the containers below a container, reserving and assigning the
+     * IDs for all of them.
+     */
+    private BrowseTreePlan planTree(int depth, long containerKey, List<ManagedObject> xmlMos) {
+        SplittableRandom random = RandomStreams.forContainer(containerKey);
+        int numContainers = random.nextInt(0, browseWidth+1);
+        ContainerPlan[] plans = new ContainerPlan[numContainers];
+        int idCount = 0;
         for (int i = 0; i < numContainers; i++) {
-            containers.add(makeContainer(depth + 1, outDir));
+            plans[i] = planContainer(depth + 1, RandomStreams.childContainerKey(containerKey, i), xmlMos);
+            idCount += plans[i].idCount;
         }
-        // Now write the rsuite.node file for the root container.
+        int nextId = generationParameters.reserveMoIds(idCount);
+        for (ContainerPlan plan : plans) {
+            nextId = assignIds(plan, nextId);
+        }
+        return new BrowseTreePlan(random, plans);
+    }
 
-        makeRSuiteNodeFile(outDir, parent, containers);
+    /**
+     * The planned containers below the root container.
+     */
+    static class BrowseTreePlan {
+        // The root container's random stream, ready for writing its rsuite.node file.
+        final SplittableRandom random;
+        final ContainerPlan[] plans;
+
+        BrowseTreePlan(SplittableRandom random, ContainerPlan[] plans) {
+            this.random = random;
+            this.plans = plans;
+        }
+    }
+
+    /**
+     * The planned shape of a container and its subtree.
+     */
+    static class ContainerPlan {
+        final SplittableRandom random;
+        final String name;
+        final int[] childMos;
+        final ContainerPlan[] childContainers;
+        // Number of IDs the container and its subtree need: one for the
+        // container, one for each MOREF and those of the child containers.
+        final int idCount;
+        ManagedObject container;
+        int firstMorefId;
+
+        ContainerPlan(SplittableRandom random, String name, int[] childMos, ContainerPlan[] childContainers) {
+            this.random = random;
+            this.name = name;
+            this.childMos = childMos;
+            this.childContainers = childContainers;
+            int count = 1 + childMos.length + childContainers.length;
+            for (ContainerPlan child : childContainers) {
+                count += child.idCount;
+            }
+            this.idCount = count;
+        }
+    }
+
+    /**
+     * Plan a container and, depth permitting, its subtree of child containers.
+     * Makes all the draws from the container's random stream that determine
+     * the shape of the tree, leaving the stream ready for writing the
+     * container's files.
+     */
+    private ContainerPlan planContainer(int depth, long containerKey, List<ManagedObject> xmlMos) {
+        SplittableRandom random = RandomStreams.forContainer(containerKey);
+        String containerName = GenerationHelper.getRandomWords(random, 1, 4);
+
+        int numChildren = Math.max(0, containerChildren.sample(random));
+        // With no XML MOs there is nothing to refer to.
+        int[] childMos = new int[xmlMos.isEmpty() ? 0 : numChildren];
+        if (childMos.length > 0) {
+            getReferenceModel(xmlMos.size()).pickReferences(random, childMos);
+        }
+
+        ContainerPlan[] childContainers = new ContainerPlan[0];
+        if (depth < browseDepth) {
+            int numChildContainers = random.nextInt(0, browseWidth + 1);
+            childContainers = new ContainerPlan[numChildContainers];
+            for (int i = 0; i < numChildContainers; i++) {
+                childContainers[i] = planContainer(depth + 1, RandomStreams.childContainerKey(containerKey, i), xmlMos);
+            }
+        }
+        return new ContainerPlan(random, containerName, childMos, childContainers);
     }
 
-    private void makeRSuiteNodeFile(File outDir, ManagedObject container, ArrayList<ManagedObject> children)
+    /**
+     * Get the model that picks the MOs the containers refer to.
+     * @param moCount Number of XML MOs
+     * @return The reference model.
+     */
+    private synchronized ReferenceModel getReferenceModel(int moCount) {
+        if (references == null || references.getMoCount() != moCount) {
+            references = new ReferenceModel(generationParameters, moCount);
+        }
+        return references;
+    }
+
+    /**
+     * Assign the IDs for a planned subtree, registering the containers.
+     * The container gets the first ID, then the child container subtrees
+     * and finally the container's MOREFs.
+     * @return The next unassigned ID.
+     */
+    private int assignIds(ContainerPlan plan, int firstId) {
+        plan.container = generationParameters.addMo(firstId, MoType.CA, plan.name);
+        int nextId = firstId + 1;
+        for (ContainerPlan child : plan.childContainers) {
+            nextId = assignIds(child, nextId);
+        }
+        plan.firstMorefId = nextId;
+        return nextId + plan.childMos.length + plan.childContainers.length;
+    }
+
+    private static final ByteTemplate NODE_START = ByteTemplate.compile("nodeStart",
+            "<?xml version=\"1.0\" ?><contentResource><nestedIds>");
+
+    private static final ByteTemplate NODE_NESTED_ID = ByteTemplate.compile("nodeNestedId",
+            "<id>${id}</id>");
+
+    private static final ByteTemplate NODE_METADATA = ByteTemplate.compile("nodeMetadata",
+            "</nestedIds>" +
+            "<systemMetadata>" +
+            "<createdate>2016-09-27T16:30:04.490Z</createdate>" +
+            "<id>${id}</id>" +
+            "<username>system</username>" +
+            "</systemMetadata>" +
+            "<versions>");
+
+    private static final ByteTemplate NODE_END = ByteTemplate.compile("nodeEnd",
+            "</versions></contentResource>");
+
+    private void makeRSuiteNodeFile(File outDir, ManagedObject container, ArrayList<ManagedObject> children,
+                                    SplittableRandom random)
             throws Exception
     {
-        String userName = "fakeexportuser";
-
         File resultFile = new File(outDir, "rsuite.node");
-        FileOutputStream fos = new FileOutputStream(resultFile);
-        XMLStreamWriter writer = XMLOutputFactory.newInstance().
-                createXMLStreamWriter(new BufferedOutputStream(
-                        fos), "UTF-8");
+        RenderContext context = RenderContext.get();
+        RenderBuffer buffer = context.acquireBuffer();
         try {
-            writer.writeStartDocument();
-            writer.writeStartElement("contentResource");
-            writer.writeStartElement("nestedIds");
-            for (ManagedObject child : children) {
-                writer.writeStartElement("id");
-                writer.writeCharacters(child.getDisplayName());
-                writer.writeEndElement(); // id
-            }
-            writer.writeEndElement(); //
-            writer.writeStartElement("systemMetadata");
-            writer.writeStartElement("createdate");
-            writer.writeCharacters("2016-09-27T16:30:04.490Z");
-            writer.writeEndElement(); // createdate
-            writer.writeStartElement("id");
-            writer.writeCharacters("" + container.getID());
-            writer.writeEndElement(); // id
-            writer.writeStartElement("username");
-            writer.writeCharacters("system");
-            writer.writeEndElement(); // "username"
-            writer.writeEndElement(); //
-            writer.writeStartElement("versions");
-            GenerationHelper.makeVersionEntry(writer,
-                    container.getDisplayName(),
-                    "1.0",
-                    "rs_ca",
-                    userName
-                    );
-            writer.writeEndElement(); // "versions"
-            writer.writeEndElement(); // "contentResource"
-
-
-        } catch (Exception e) {
-            throw e;
+            renderRSuiteNodeFile(buffer, container, children, random);
+            GenerationHelper.writeFile(generationParameters.getOutputSink(), resultFile, buffer);
         } finally {
-            writer.flush();
-            writer.close();
-            fos.close();
+            context.releaseBuffer(buffer);
         }
+    }
+
+    /**
+     * Render the rsuite.node file for a container.
+     * @param buffer The buffer to render to
+     * @param container The container
+     * @param children The container's children
+     * @param random The container's random stream
+     */
+    static void renderRSuiteNodeFile(RenderBuffer buffer, ManagedObject container, List<ManagedObject> children,
+                                     SplittableRandom random) {
+        String userName = "fakeexportuser";
 
+        buffer.begin(NODE_START);
+        for (ManagedObject child : children) {
+            buffer.begin(NODE_NESTED_ID).fill(child.getDisplayName());
+        }
+        buffer.begin(NODE_METADATA).fill(container.getID());
+        GenerationHelper.makeVersionEntry(buffer,
+                container.getDisplayName(),
+                "1.0",
+                "rs_ca",
+                userName,
+                random
+                );
+        buffer.begin(NODE_END);
     }
 
-    private ManagedObject makeContainer(int depth, File outDir) throws Exception {
+    /**
+     * Make a container and, depth permitting, its subtree of child containers.
+     * @param depth Depth of the container in the browse tree
+     * @param outDir The directory to make the container's directory in
+     * @param containerKey The container's random stream key
+     * @return The new container.
+     */
+    protected ManagedObject makeContainer(int depth, File outDir, long containerKey) throws Exception {
+        ContainerPlan plan = planContainer(depth, containerKey,
+                generationParameters.getManagedObjectsOfType(MoType.XML));
+        assignIds(plan, generationParameters.reserveMoIds(plan.idCount));
+        runTask(new ContainerTask(plan, outDir));
+        return plan.container;
+    }
 
-        String containerName = GenerationHelper.getRandomWords(1, 4);
-        ManagedObject container = generationParameters.newMo(MoType.CA, containerName);
-        File containerDir = new File(outDir, containerName);
-        if (!containerDir.mkdirs()) {
+    /**
+     * Write the files for a planned container. The child container subtrees
+     * are forked as separate tasks.
+     * @param plan The container's plan
+     * @param outDir The directory to make the container's directory in
+     */
+    private void makeContainer(ContainerPlan plan, File outDir) throws Exception {
+        ManagedObject container = plan.container;
+        File containerDir = new File(outDir, plan.name);
+        long start = System.nanoTime();
+        if (!generationParameters.getOutputSink().makeDirectory(containerDir) && !generationParameters.isResuming()) {
             throw new RuntimeException("Failed to create output directory " +
                     "\"" + containerDir.getAbsolutePath() + "\"" );
         }
+        generationParameters.getMetrics().recordLatency(GenerationMetrics.Phase.DIRECTORY_CREATION, start);
 
-        int numChildren = ThreadLocalRandom.current().nextInt(0, maxChildren+1);
         ArrayList<ManagedObject> children = new ArrayList<ManagedObject>();
-        ArrayList<ManagedObject> xmlMos = generationParameters.getManagedObjectsOfType(MoType.XML);
+        List<ManagedObject> xmlMos = generationParameters.getManagedObjectsOfType(MoType.XML);
+        for (int p : plan.childMos) {
+            children.add(xmlMos.get(p));
+        }
+        List<ContainerTask> subtasks = forkContainerTasks(plan.childContainers, containerDir, children);
+
+        makeContainerDoc(container, children, plan.firstMorefId, containerDir, plan.random);
+        makeRSuiteNodeFile(containerDir, container, children, plan.random);
+        generationParameters.getMetrics().countContainer();
 
-        for (int i = 0; i < numChildren; i++) {
-            int p = ThreadLocalRandom.current().nextInt(0, xmlMos.size());
+        joinAll(subtasks);
+    }
+
+    /**
+     * Write the files for a single planned container, without its subtree,
+     * for an estimate of the size of the tree.
+     * @param plan The container's plan
+     * @param outDir The directory to make the container's directory in
+     * @param xmlMos The XML MOs the containers refer to
+     */
+    void makeContainerFiles(ContainerPlan plan, File outDir, List<ManagedObject> xmlMos) throws Exception {
+        File containerDir = new File(outDir, plan.name);
+        generationParameters.getOutputSink().makeDirectory(containerDir);
+        ArrayList<ManagedObject> children = new ArrayList<ManagedObject>();
+        for (int p : plan.childMos) {
             children.add(xmlMos.get(p));
         }
+        for (ContainerPlan childPlan : plan.childContainers) {
+            children.add(childPlan.container);
+        }
+        makeContainerDoc(plan.container, children, plan.firstMorefId, containerDir, plan.random);
+        makeRSuiteNodeFile(containerDir, plan.container, children, plan.random);
+    }
 
-        if (depth < generationParameters.getBrowseDepth()) {
-            int numChildContainers = ThreadLocalRandom.current().nextInt(0, browseWidth + 1);
-            for (int i = 0; i < numChildContainers; i++) {
-                children.add(makeContainer(depth + 1, containerDir));
+    /**
+     * Write the rsuite.node file for the root container of a planned tree,
+     * for an estimate of the size of the tree.
+     * @param outDir The directory the tree is generated in
+     * @param root The root container
+     * @param tree The planned tree
+     */
+    void makeRootNodeFile(File outDir, ManagedObject root, BrowseTreePlan tree) throws Exception {
+        ArrayList<ManagedObject> containers = new ArrayList<ManagedObject>();
+        for (ContainerPlan plan : tree.plans) {
+            containers.add(plan.container);
+        }
+        makeRSuiteNodeFile(outDir, root, containers, tree.random);
+    }
+
+    /**
+     * Fork a task for each of a set of planned containers.
+     * @param plans The container plans
+     * @param outDir The directory to make the containers' directories in
+     * @param containers List to add the containers to
+     * @return The forked tasks.
+     */
+    private List<ContainerTask> forkContainerTasks(ContainerPlan[] plans, File outDir, List<ManagedObject> containers) {
+        List<ContainerTask> subtasks = new ArrayList<ContainerTask>();
+        for (ContainerPlan childPlan : plans) {
+            containers.add(childPlan.container);
+            ContainerTask subtask = new ContainerTask(childPlan, outDir);
+            subtask.fork();
+            subtasks.add(subtask);
+        }
+        return subtasks;
+    }
+
+    private static void joinAll(List<ContainerTask> subtasks) {
+        for (int i = subtasks.size() - 1; i >= 0; i--) {
+            subtasks.get(i).join();
+        }
+    }
+
+    /**
+     * Run a task in a fork/join pool with one thread per generation thread.
+     * The first failure in any subtask is rethrown.
+     */
+    private void runTask(GenerationTask task) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, generationParameters.getThreads()));
+        try {
+            pool.invoke(task);
+        } catch (GenerationTaskFailure e) {
+            // The pool may have wrapped the failure thrown by the task.
+            Throwable cause = e;
+            while (cause instanceof GenerationTaskFailure) {
+                cause = cause.getCause();
+            }
+            log.error("generateBrowseTree(): " + cause.getClass().getSimpleName() +
+                    " generating browse tree: " + cause.getMessage());
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
             }
+            throw e;
+        } finally {
+            pool.shutdownNow();
         }
+    }
+
+    /**
+     * Carries the exception a generation task failed with out of the pool.
+     */
+    private static class GenerationTaskFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
 
-        makeContainerDoc(container, children, containerDir);
-        makeRSuiteNodeFile(containerDir, container, children);
+        GenerationTaskFailure(Throwable cause) {
+            super(cause);
+        }
+    }
 
-        return container;
+    @SuppressWarnings("serial")
+    private abstract static class GenerationTask extends RecursiveAction {
+        @Override
+        protected final void compute() {
+            try {
+                generate();
+            } catch (Exception e) {
+                throw new GenerationTaskFailure(e);
+            }
+        }
 
+        protected abstract void generate() throws Exception;
+    }
+
+    @SuppressWarnings("serial")
+    private class ContainerTask extends GenerationTask {
+        private final ContainerPlan plan;
+        private final File outDir;
+
+        ContainerTask(ContainerPlan plan, File outDir) {
+            this.plan = plan;
+            this.outDir = outDir;
+        }
+
+        @Override
+        protected void generate() throws Exception {
+            makeContainer(plan, outDir);
+        }
     }
 
     /**
      * Make the CA XML file for the container.
      * @param container The container to make the XML file for
      * @param children The container and MO children of the container
+     * @param firstMorefId ID of the MOREF to the first child. The MOREFs to the
+     * other children get the following IDs.
      * @param outDir The directory to contain the container's data.
+     * @param random The container's random stream
      */
     private void makeContainerDoc(ManagedObject container,
                                   ArrayList<ManagedObject> children,
-                                  File outDir)
+                                  int firstMorefId,
+                                  File outDir,
+                                  SplittableRandom random)
                                                     throws Exception
     {
+        ArrayList<ManagedObject> morefs = new ArrayList<ManagedObject>();
+        int morefId = firstMorefId;
+        for (ManagedObject child : children) {
+            ManagedObject moref = generationParameters.addMo(morefId++, MoType.MOREF, null);
+            morefs.add(moref);
+            // Now write a resource file for the MOREF
+
+            ArrayList<String> versionSpecs = new ArrayList<String>();
+            versionSpecs.add("1.0");
+            GenerationHelper.makeResourceFileForMo(generationParameters.getOutputSink(), outDir, moref, versionSpecs, random);
+        }
+
         File resultFile = new File(outDir, container.getID() + ".xml");
-        FileOutputStream fos = new FileOutputStream(resultFile);
-        XMLStreamWriter writer = XMLOutputFactory.newInstance().
-                createXMLStreamWriter(new BufferedOutputStream(
-                        fos), "UTF-8");
+        RenderContext context = RenderContext.get();
+        RenderBuffer buffer = context.acquireBuffer();
         try {
-            writer.writeStartDocument();
-            writer.writeStartElement("rs_ca_map");
-            writer.writeAttribute("xmlns:ditaarch", "http://dita.oasis-open.org/architecture/2005/");
-            writer.writeAttribute("class", "- map/map rs_ca_map/rs_ca_map ");
-            writer.writeAttribute("domains", "(map rs_ca_map) (map rs_ca-d) (props rs_ca-d-att)");
-            writer.writeAttribute("ditaarch:DITAArchVersion", "1.2");
-            writer.writeStartElement("rs_ca");
-            writer.writeAttribute("xmlns:r", "http://www.rsuitecms.com/rsuite/ns/metadata");
-            writer.writeAttribute("type", "ca");
-            writer.writeAttribute("class", "+ map/topicref rs_ca-d/rs_ca ");
-            writer.writeAttribute("r:rsuiteId", "" + container.getID());
-
-            for (ManagedObject child : children) {
-                ManagedObject moref = generationParameters.newMo(MoType.MOREF, null);
-                writer.writeEmptyElement("moref");
-                writer.writeAttribute("r:rsuiteId", "" + moref.getID());
-                writer.writeAttribute("class", "+ map/topicref rs_ca-d/rs_moref ");
-                writer.writeAttribute("href", "" + child.getID());
-                // Now write a resource file for the MOREF
-
-                ArrayList<String> versionSpecs = new ArrayList<String>();
-                versionSpecs.add("1.0");
-                GenerationHelper.makeResourceFileForMo(outDir, moref, versionSpecs);
-            }
-
-            writer.writeEndElement(); // rs_ca
-            writer.writeEndElement(); // rs_ca_map
-            writer.writeEndDocument();
-        } catch (Exception e) {
-            throw e;
+            renderContainerDoc(buffer, container, morefs, children);
+            GenerationHelper.writeFile(generationParameters.getOutputSink(), resultFile, buffer);
         } finally {
-            writer.flush();
-            writer.close();
-            fos.close();
+            context.releaseBuffer(buffer);
         }
 
         ArrayList<String> versionSpecs = new ArrayList<String>();
         versionSpecs.add("1.0");
 
-        GenerationHelper.makeResourceFileForMo(outDir, container, versionSpecs);
+        GenerationHelper.makeResourceFileForMo(generationParameters.getOutputSink(), outDir, container, versionSpecs, random);
+
+    }
+
+    private static final byte[] DITAARCH_NS = XmlEmitter.safe("http://dita.oasis-open.org/architecture/2005/");
+    private static final byte[] RSUITE_NS = XmlEmitter.safe("http://www.rsuitecms.com/rsuite/ns/metadata");
+    private static final byte[] CA_MAP_CLASS = XmlEmitter.safe("- map/map rs_ca_map/rs_ca_map ");
+    private static final byte[] CA_MAP_DOMAINS = XmlEmitter.safe("(map rs_ca_map) (map rs_ca-d) (props rs_ca-d-att)");
+    private static final byte[] DITA_ARCH_VERSION = XmlEmitter.safe("1.2");
+    private static final byte[] CA_TYPE = XmlEmitter.safe("ca");
+    private static final byte[] CA_CLASS = XmlEmitter.safe("+ map/topicref rs_ca-d/rs_ca ");
+    private static final byte[] MOREF_CLASS = XmlEmitter.safe("+ map/topicref rs_ca-d/rs_moref ");
+
+    /**
+     * Render the CA XML file for a container.
+     * @param buffer The buffer to render to
+     * @param container The container
+     * @param morefs The MOREFs to the container's children
+     * @param children The container's children, in the same order as their MOREFs
+     */
+    static void renderContainerDoc(RenderBuffer buffer, ManagedObject container,
+                                   List<ManagedObject> morefs, List<ManagedObject> children) {
+        XmlEmitter xml = new XmlEmitter(buffer);
+        xml.startDocument();
+        // The namespaces are declared with ordinary attributes.
+        xml.startElement("rs_ca_map");
+        xml.attribute("xmlns:ditaarch", DITAARCH_NS);
+        xml.attribute("class", CA_MAP_CLASS);
+        xml.attribute("domains", CA_MAP_DOMAINS);
+        xml.attribute("ditaarch:DITAArchVersion", DITA_ARCH_VERSION);
+        xml.startElement("rs_ca");
+        xml.attribute("xmlns:r", RSUITE_NS);
+        xml.attribute("type", CA_TYPE);
+        xml.attribute("class", CA_CLASS);
+        xml.attribute("r:rsuiteId", container.getID());
+
+        for (int i = 0; i < morefs.size(); i++) {
+            xml.emptyElement("moref");
+            xml.attribute("r:rsuiteId", morefs.get(i).getID());
+            xml.attribute("class", MOREF_CLASS);
+            xml.attribute("href", children.get(i).getID());
+        }
 
+        xml.endElement(); // rs_ca
+        xml.endElement(); // rs_ca_map
+        xml.endDocument();
     }
 }
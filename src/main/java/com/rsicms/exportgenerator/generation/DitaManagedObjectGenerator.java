@@ -1,16 +1,12 @@
 package com.rsicms.exportgenerator.generation;
 
 import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.distribution.Distribution;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.SplittableRandom;
 
 /**
  * Output generator that generates DITA files (maps, topics, etc.).
@@ -19,63 +15,162 @@ public class DitaManagedObjectGenerator extends ManagedObjectGeneratorBase {
 
     private static Log log = LogFactory.getLog(DitaManagedObjectGenerator.class);
 
+    private static final ByteTemplate PARAGRAPH = ByteTemplate.compile("paragraph",
+            "<p class=\"- topic/p \">${text}</p>");
+
+    private static final ByteTemplate TOPIC_END = ByteTemplate.compile("topicEnd",
+            "</body></topic>");
+
+    private static final byte[] RSUITE_NS = XmlEmitter.safe("http://www.rsuitecms.com/rsuite/ns/metadata");
+    private static final byte[] DITAARCH_NS = XmlEmitter.safe("http://dita.oasis-open.org/architecture/2005/");
+    private static final byte[] TOPIC_CLASS = XmlEmitter.safe("- topic/topic ");
+    private static final byte[] DITA_ARCH_VERSION = XmlEmitter.safe("1.2");
+    private static final byte[] TOPIC_DOMAINS = XmlEmitter.safe("(topic hi-d) (topic ut-d) (topic indexing-d) " +
+            "(topic hazard-d) (topic abbrev-d) (topic pr-d) (topic sw-d) (topic ui-d)");
+    private static final byte[] TITLE_CLASS = XmlEmitter.safe("- topic/title ");
+    private static final byte[] BODY_CLASS = XmlEmitter.safe("- topic/body ");
+    private static final byte[] P_CLASS = XmlEmitter.safe("- topic/p ");
+
+    // The base topic most recently rendered on each thread, so that the
+    // versions of an MO only render it once.
+    private final ThreadLocal<TopicBase> topicBases = new ThreadLocal<TopicBase>();
+
+    private final Distribution paragraphs;
+    private final Distribution paragraphWords;
+
+    private static class TopicBase {
+        final int moid;
+        final long baseSeed;
+        final byte[] bytes;
+
+        TopicBase(int moid, long baseSeed, byte[] bytes) {
+            this.moid = moid;
+            this.baseSeed = baseSeed;
+            this.bytes = bytes;
+        }
+    }
+
     public DitaManagedObjectGenerator(GenerationParameters generationParameters) {
         super(generationParameters);
+        this.paragraphs = generationParameters.getParagraphsDistribution();
+        this.paragraphWords = generationParameters.getParagraphWordsDistribution();
     }
 
-    protected void makeXmlContent(int moid, File resultFile, String title) throws Exception {
+    protected void makeXmlContent(int moid, File resultFile, String title, SplittableRandom random) throws Exception {
         // FIXME: Provide some heuristic for choosing what type of XML file to generate,
         // map or topic.
-        makeTopic(moid, resultFile, title);
+        makeTopic(moid, resultFile, title, random);
     }
 
-    protected void makeTopic(int moid, File resultFile, String title)
+    protected void makeTopic(int moid, File resultFile, String title, SplittableRandom random)
             throws Exception {
-        FileOutputStream fos = new FileOutputStream(resultFile);
-        XMLStreamWriter writer = XMLOutputFactory.newInstance().
-                createXMLStreamWriter(new BufferedOutputStream(
-                        fos), "UTF-8");
+        RenderContext context = RenderContext.get();
+        RenderBuffer buffer = context.acquireBuffer();
         try {
-            writer.writeStartDocument();
-            writer.writeStartElement("topic");
-            writer.writeNamespace("r", "http://www.rsuitecms.com/rsuite/ns/metadata");
-            writer.writeNamespace("ditaarch", "http://dita.oasis-open.org/architecture/2005/");
-            writer.writeAttribute("id", "topic-" + moid);
-            writer.writeAttribute("class", "- topic/topic ");
-            writer.writeAttribute("r", "http://www.rsuitecms.com/rsuite/ns/metadata", "rsuiteId", "" + moid);
-            writer.writeAttribute("ditaarch:DITAArchVersion","1.2");
-            writer.writeAttribute("domains", "(topic hi-d) (topic ut-d) (topic indexing-d) (topic hazard-d) (topic abbrev-d) (topic pr-d) (topic sw-d) (topic ui-d)");
-            // Title
-            writer.writeStartElement("title");
-            writer.writeAttribute("class", "- topic/title ");
-            writer.writeCharacters(title);
-            writer.writeEndElement();
-            // Body
-            writer.writeStartElement("body");
-            writer.writeAttribute("class", "- topic/body ");
-            makeParagraphs(writer);
-            writer.writeEndElement();
-            // End topic
-            writer.writeEndElement();
-            writer.writeEndDocument();
+            renderTopic(buffer, moid, title, random);
+            GenerationHelper.writeFile(generationParameters.getOutputSink(), resultFile, buffer);
         } catch (Exception e) {
             log.error("makeTopic(): " + e.getClass().getSimpleName() + " Writing topic file: " + e.getMessage());
             throw e;
         } finally {
-            writer.flush();
-            writer.close();
-            fos.close();
+            context.releaseBuffer(buffer);
         }
+    }
+
+    /**
+     * Render a topic into a buffer.
+     * @param buffer The buffer to render into
+     * @param moid The MO's ID
+     * @param title The topic title
+     * @param random The random stream to draw the paragraphs from
+     */
+    void renderTopic(RenderBuffer buffer, int moid, String title, SplittableRandom random) {
+        XmlEmitter xml = new XmlEmitter(buffer);
+        writeTopicStart(xml, moid, title);
+        makeParagraphs(xml, random);
+        xml.endElement();
+        // End topic
+        xml.endElement();
+        xml.endDocument();
+    }
+
+    /**
+     * Write a version of a topic as the base topic with a paragraph added
+     * for each version up to and including this one.
+     */
+    @Override
+    protected void makeXmlDeltaContent(int moid, File resultFile, String title, long baseSeed, int versionIndex)
+            throws Exception {
+        byte[] base = getTopicBase(moid, title, baseSeed);
+        RenderContext context = RenderContext.get();
+        RenderBuffer buffer = context.acquireBuffer();
+        try {
+            buffer.append(base);
+            for (int i = 0; i <= versionIndex; i++) {
+                SplittableRandom versionRandom = RandomStreams.forVersion(baseSeed, i);
+                buffer.begin(PARAGRAPH).fillWords(versionRandom, paragraphWords.sample(versionRandom));
+            }
+            buffer.begin(TOPIC_END);
+            GenerationHelper.writeFile(generationParameters.getOutputSink(), resultFile, buffer);
+        } finally {
+            context.releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Get the base topic for an MO's versions: the topic up to the end of
+     * its base paragraphs.
+     */
+    private byte[] getTopicBase(int moid, String title, long baseSeed) {
+        TopicBase topicBase = topicBases.get();
+        if (topicBase == null || topicBase.moid != moid || topicBase.baseSeed != baseSeed) {
+            RenderContext context = RenderContext.get();
+            RenderBuffer buffer = context.acquireBuffer();
+            try {
+                XmlEmitter xml = new XmlEmitter(buffer);
+                writeTopicStart(xml, moid, title);
+                // There is always at least one paragraph so the body start tag is complete.
+                makeParagraphs(xml, new SplittableRandom(baseSeed));
+                topicBase = new TopicBase(moid, baseSeed, buffer.toByteArray());
+            } finally {
+                context.releaseBuffer(buffer);
+            }
+            topicBases.set(topicBase);
+        }
+        return topicBase.bytes;
+    }
 
+    /**
+     * Write the start of a topic: everything up to the start of the body.
+     */
+    private void writeTopicStart(XmlEmitter xml, int moid, String title) {
+        xml.startDocument();
+        xml.startElement("topic");
+        xml.namespace("r", RSUITE_NS);
+        xml.namespace("ditaarch", DITAARCH_NS);
+        xml.attribute("id", "topic-" + moid);
+        xml.attribute("class", TOPIC_CLASS);
+        xml.attribute("r:rsuiteId", moid);
+        xml.attribute("ditaarch:DITAArchVersion", DITA_ARCH_VERSION);
+        xml.attribute("domains", TOPIC_DOMAINS);
+        // Title
+        xml.startElement("title");
+        xml.attribute("class", TITLE_CLASS);
+        xml.characters(title);
+        xml.endElement();
+        // Body
+        xml.startElement("body");
+        xml.attribute("class", BODY_CLASS);
     }
 
-    protected void makeParagraphs(XMLStreamWriter writer) throws XMLStreamException {
-        int paraCnt = ThreadLocalRandom.current().nextInt(1, 10);
+    protected void makeParagraphs(XmlEmitter xml, SplittableRandom random) {
+        // There is always at least one paragraph.
+        int paraCnt = Math.max(1, paragraphs.sample(random));
         for (int i = 0; i < paraCnt; i++) {
-            writer.writeStartElement("p");
-            writer.writeAttribute("class", "- topic/p ");
-            writer.writeCharacters(GenerationHelper.getRandomWords(7, 30));
-            writer.writeEndElement();
+            xml.startElement("p");
+            xml.attribute("class", P_CLASS);
+            xml.randomWords(random, paragraphWords.sample(random));
+            xml.endElement();
         }
     }
 
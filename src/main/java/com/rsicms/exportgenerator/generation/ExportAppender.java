@@ -0,0 +1,227 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.ExportGenerator;
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.output.AsyncOutputSink;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends an increment to an existing export, as for a re-import or an
+ * incremental export.
+ * <p>The increment adds new versions to a share of the export's MOs
+ * (appendVersionFraction, up to appendMaxVersions each), adds appendMOs
+ * new MOs with a tree of new containers for them and updates ids.xml.
+ * The next MO ID is read from the export's ids.xml. The existing MOs are
+ * found by streaming over the managed-objects directories, one directory
+ * at a time, and only their resource files are read, so the existing
+ * export is never held in memory and only the new MOs are registered.</p>
+ * <p>Which MOs get new versions depends only on the seed, the MO's ID and
+ * the first ID of the increment, so appending to the same export with the
+ * same seed always gives the same result, and successive increments
+ * change different MOs. For delta version content the new versions
+ * continue each MO's chain of changes as long as the seed is the one
+ * the export was generated with.</p>
+ * <p>The increment is always written by the threads that generate it, as
+ * if writerThreads were 0.</p>
+ */
+public class ExportAppender {
+
+    private static Log log = LogFactory.getLog(ExportAppender.class);
+
+    private final GenerationParameters generationParameters;
+    private final AtomicLong updatedMos = new AtomicLong();
+    private final AtomicLong addedVersions = new AtomicLong();
+
+    public ExportAppender(GenerationParameters generationParameters) {
+        this.generationParameters = generationParameters;
+        if (!"filesystem".equals(generationParameters.getOutputType())) {
+            throw new RuntimeException("Increments can only be appended to file system output, not \"" +
+                    generationParameters.getOutputType() + "\"");
+        }
+        // New versions are linked to or copied from files written moments
+        // before, which a write queue may not have written yet.
+        if (generationParameters.getWriterThreads() > 0) {
+            log.info("Increments are written without writerThreads");
+            generationParameters.setProperty("writerThreads", "0");
+        }
+        if (generationParameters.getOutputSink() instanceof AsyncOutputSink) {
+            throw new RuntimeException("Increments can't be appended through a write queue");
+        }
+    }
+
+    /**
+     * Append the increment to the export in the output directory.
+     * @throws Exception
+     */
+    public void append() throws Exception {
+        File outDir = generationParameters.getOutputDirectory();
+        int firstNewId = readIdsXml(new File(outDir, "ids.xml"));
+        generationParameters.setNextMoId(firstNewId);
+        log.info("Appending to the export in \"" + outDir.getAbsolutePath() + "\", new MO IDs from " +
+                firstNewId + "...");
+
+        DitaManagedObjectGenerator moGenerator = new DitaManagedObjectGenerator(generationParameters);
+        appendVersions(moGenerator, firstNewId);
+        moGenerator.appendManagedObjects(generationParameters.getAppendMOs());
+        List<ManagedObject> containers = new DefaultBrowseTreeGenerator(generationParameters)
+                .appendBrowseTree(RandomStreams.incrementContainerKey(generationParameters.getSeed(), firstNewId));
+
+        ExportGenerator.writeIdsXml(generationParameters);
+        log.info("Added versions to " + updatedMos.get() + " managed objects (" + addedVersions.get() +
+                " versions), added " + generationParameters.getAppendMOs() + " managed objects and " +
+                containers.size() + " top-level containers");
+    }
+
+    /**
+     * Read the next free MO ID from an ids.xml file.
+     * @param idsFile The file
+     * @return The next MO ID.
+     */
+    static int readIdsXml(File idsFile) throws Exception {
+        if (!idsFile.isFile()) {
+            throw new RuntimeException("No ids.xml file \"" + idsFile.getAbsolutePath() + "\", not an export");
+        }
+        InputStream in = new FileInputStream(idsFile);
+        try {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            try {
+                reader.nextTag();
+                return Integer.parseInt(reader.getElementText().trim());
+            } finally {
+                reader.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Add new versions to a share of the existing MOs, one top-level bucket
+     * directory per task.
+     */
+    private void appendVersions(final DitaManagedObjectGenerator moGenerator, final int firstNewId)
+            throws Exception {
+        File mosDir = moGenerator.getMosDir();
+        if (!mosDir.isDirectory() || generationParameters.getAppendVersionFraction() <= 0) {
+            return;
+        }
+        log.info("Adding versions to existing managed objects...");
+        ExecutorService executor = Executors.newFixedThreadPool(generationParameters.getThreads());
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            DirectoryStream<Path> topDirs = Files.newDirectoryStream(mosDir.toPath());
+            try {
+                for (final Path topDir : topDirs) {
+                    if (!Files.isDirectory(topDir)) {
+                        continue;
+                    }
+                    futures.add(executor.submit(new Callable<Void>() {
+                        public Void call() throws Exception {
+                            appendVersions(moGenerator, topDir, firstNewId);
+                            return null;
+                        }
+                    }));
+                }
+            } finally {
+                topDirs.close();
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    log.error("appendVersions(): " + cause.getClass().getSimpleName() +
+                            " adding versions: " + cause.getMessage());
+                    if (cause instanceof Exception) {
+                        throw (Exception)cause;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Add new versions to a share of the MOs in one top-level bucket directory.
+     */
+    private void appendVersions(DitaManagedObjectGenerator moGenerator, Path topDir, int firstNewId)
+            throws Exception {
+        long seed = generationParameters.getSeed();
+        double fraction = generationParameters.getAppendVersionFraction();
+        int maxVersions = generationParameters.getAppendMaxVersions();
+        DirectoryStream<Path> bucketDirs = Files.newDirectoryStream(topDir);
+        try {
+            for (Path bucketDir : bucketDirs) {
+                if (!Files.isDirectory(bucketDir)) {
+                    continue;
+                }
+                DirectoryStream<Path> moDirs = Files.newDirectoryStream(bucketDir);
+                try {
+                    for (Path moDir : moDirs) {
+                        String name = moDir.getFileName().toString();
+                        if (!name.matches("\\d+") || !Files.isDirectory(moDir)) {
+                            continue;
+                        }
+                        int moid = Integer.parseInt(name);
+                        if (moid >= firstNewId) {
+                            continue;
+                        }
+                        SplittableRandom random = RandomStreams.forIncrement(seed, firstNewId, moid);
+                        if (random.nextDouble() >= fraction) {
+                            continue;
+                        }
+                        int versionCount = random.nextInt(1, maxVersions + 1);
+                        if (moGenerator.appendVersions(moDir.toFile(), moid, versionCount, random)) {
+                            updatedMos.incrementAndGet();
+                            addedVersions.addAndGet(versionCount);
+                        }
+                    }
+                } finally {
+                    moDirs.close();
+                }
+            }
+        } catch (IOException e) {
+            log.error("appendVersions(): " + e.getClass().getSimpleName() + " reading \"" + topDir + "\": " +
+                    e.getMessage());
+            throw e;
+        } finally {
+            bucketDirs.close();
+        }
+    }
+
+    /**
+     * @return Number of existing MOs that got new versions.
+     */
+    public long getUpdatedManagedObjectCount() {
+        return updatedMos.get();
+    }
+
+    /**
+     * @return Number of versions added to existing MOs.
+     */
+    public long getAddedVersionCount() {
+        return addedVersions.get();
+    }
+}
@@ -0,0 +1,448 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.ExportGenerator;
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.api.MoType;
+import com.rsicms.exportgenerator.generation.DefaultBrowseTreeGenerator.BrowseTreePlan;
+import com.rsicms.exportgenerator.generation.DefaultBrowseTreeGenerator.ContainerPlan;
+import com.rsicms.exportgenerator.output.NullOutputSink;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Estimates the size of an export without generating it.
+ * <p>The counts of MOs, containers and MOREFs are exact: the MO counts
+ * come from the parameters and the browse tree is planned in full, which
+ * makes the same random draws as the generation but writes nothing. The
+ * files and bytes are estimated from a sample of the MOs and of the
+ * containers, each generated exactly as it would be but to a sink that
+ * only counts what is written, and scaled up to the full counts. Each
+ * estimate has a 95% confidence margin; when the sample is the whole
+ * population the estimate is exact.</p>
+ * <p>The directory count includes the expected number of bucket
+ * directories the MOs are spread over.</p>
+ */
+public class ExportEstimator {
+
+    private static Log log = LogFactory.getLog(ExportEstimator.class);
+
+    public static final int DEFAULT_SAMPLE_SIZE = 2000;
+
+    // z for a two-sided 95% confidence interval.
+    private static final double Z_95 = 1.96;
+
+    private final GenerationParameters generationParameters;
+    private final int sampleSize;
+    private final EstimateSink sink;
+
+    private long xmlMoCount;
+    private long nonXmlMoCount;
+    private long containerCount;
+    private long morefCount;
+    private int sampledMos;
+    private int sampledContainers;
+    private Estimate files;
+    private Estimate directories;
+    private Estimate bytes;
+    private Estimate inodes;
+
+    /**
+     * @param generationParameters The parameters of the export to estimate.
+     * Nothing is generated with these parameters: the sample is generated
+     * with a copy.
+     * @param sampleSize Maximum number of MOs of each type, and of containers, to sample
+     */
+    public ExportEstimator(GenerationParameters generationParameters, int sampleSize) {
+        this.sampleSize = Math.max(1, sampleSize);
+        this.generationParameters = new GenerationParameters(generationParameters);
+        this.generationParameters.setSeed(generationParameters.getSeed());
+        // The sample blobs would only be copied to a sink that discards them.
+        this.generationParameters.setProperty("binaryPayload", "sparse");
+        this.generationParameters.setProperty("threads", "1");
+        this.generationParameters.setProperty("writerThreads", "0");
+        File outputDirectory = generationParameters.getOutputDirectory();
+        if (outputDirectory == null) {
+            outputDirectory = new File(generationParameters.getOutdir() == null ? "export" : generationParameters.getOutdir());
+        }
+        this.generationParameters.setOutputDirectory(outputDirectory);
+        this.sink = new EstimateSink(outputDirectory);
+        this.generationParameters.setOutputSink(sink);
+    }
+
+    /**
+     * Make the estimate.
+     * @return This estimator, for access to the estimates.
+     * @throws Exception
+     */
+    public ExportEstimator estimate() throws Exception {
+        xmlMoCount = generationParameters.getMaxXmlMOs();
+        nonXmlMoCount = generationParameters.getMaxBinaryMOs();
+        long moCount = xmlMoCount + nonXmlMoCount;
+        log.info("Estimating an export of " + moCount + " MOs from samples of up to " + sampleSize + "...");
+
+        Tally moTally = sampleManagedObjects(MoType.XML, xmlMoCount);
+        moTally.add(sampleManagedObjects(MoType.NONXML, nonXmlMoCount));
+
+        // The browse tree's IDs follow the MOs'.
+        generationParameters.setNextMoId((int)(GenerationParameters.FIRST_MO_ID + moCount));
+        Tally treeTally = new Tally();
+        if (xmlMoCount > 0) {
+            treeTally = sampleBrowseTree();
+        }
+
+        // ids.xml
+        long before = sink.getByteCount();
+        ExportGenerator.writeIdsXml(generationParameters);
+        Tally idsTally = new Tally();
+        idsTally.addExact(1, sink.getByteCount() - before, 0);
+
+        // rsuite.content and managed-objects, the bucket directories and the
+        // container directories, which are counted with the containers.
+        double bucketDirs = generationParameters.getBucketLayout().getExpectedBucketDirectoryCount(moCount);
+        Tally dirTally = new Tally();
+        dirTally.addExact(0, 0, 2 + bucketDirs);
+
+        files = Estimate.sum(moTally.files, treeTally.files, idsTally.files, dirTally.files);
+        bytes = Estimate.sum(moTally.bytes, treeTally.bytes, idsTally.bytes, dirTally.bytes);
+        directories = Estimate.sum(moTally.directories, treeTally.directories, idsTally.directories, dirTally.directories);
+        inodes = Estimate.sum(moTally.inodes, treeTally.inodes, idsTally.inodes, dirTally.inodes);
+        return this;
+    }
+
+    /**
+     * Generate a sample of the MOs of a type, evenly spread over the MOs of
+     * that type, and scale it up to all of them.
+     */
+    private Tally sampleManagedObjects(MoType moType, long count) throws Exception {
+        Tally tally = new Tally();
+        if (count <= 0) {
+            return tally;
+        }
+        int samples = (int)Math.min(sampleSize, count);
+        Sample fileSample = new Sample();
+        Sample byteSample = new Sample();
+        Sample inodeSample = new Sample();
+        DitaManagedObjectGenerator moGenerator = new DitaManagedObjectGenerator(generationParameters);
+        File mosDir = moGenerator.getMosDir();
+        try {
+            for (int i = 0; i < samples; i++) {
+                int moid = getMoId(moType, count * i / samples);
+                long filesBefore = sink.getFileCount();
+                long bytesBefore = sink.getByteCount();
+                long linksBefore = sink.getLinkCount();
+                moGenerator.makeManagedObject(new File(mosDir, "" + moid), moid, moType);
+                long moFiles = sink.getFileCount() - filesBefore;
+                fileSample.add(moFiles);
+                byteSample.add(sink.getByteCount() - bytesBefore);
+                inodeSample.add(moFiles - (sink.getLinkCount() - linksBefore));
+            }
+        } finally {
+            moGenerator.closeNonXmlContentGenerator();
+        }
+        sampledMos += samples;
+        tally.files = fileSample.scale(count);
+        tally.bytes = byteSample.scale(count);
+        // Each MO also has its own directory.
+        tally.directories = new Estimate(count, 0);
+        tally.inodes = Estimate.sum(inodeSample.scale(count), tally.directories);
+        return tally;
+    }
+
+    /**
+     * Plan the whole browse tree, for the exact container and MOREF counts,
+     * then generate a sample of the containers.
+     */
+    private Tally sampleBrowseTree() throws Exception {
+        DefaultBrowseTreeGenerator treeGenerator = new DefaultBrowseTreeGenerator(generationParameters);
+        List<ManagedObject> xmlMos = new XmlManagedObjects();
+        BrowseTreePlan tree = treeGenerator.planBrowseTree(xmlMos);
+        List<ContainerPlan> plans = new ArrayList<ContainerPlan>();
+        collectPlans(tree.plans, plans);
+        containerCount = plans.size();
+        for (ContainerPlan plan : plans) {
+            morefCount += plan.childMos.length + plan.childContainers.length;
+        }
+
+        File outDir = new File(generationParameters.getOutputDirectory(), "rsuite.content");
+        Tally tally = new Tally();
+        long bytesBefore = sink.getByteCount();
+        treeGenerator.makeRootNodeFile(outDir, DefaultBrowseTreeGenerator.newRootContainer(), tree);
+        tally.addExact(1, sink.getByteCount() - bytesBefore, 0);
+        if (plans.isEmpty()) {
+            return tally;
+        }
+
+        int samples = Math.min(sampleSize, plans.size());
+        Sample fileSample = new Sample();
+        Sample byteSample = new Sample();
+        for (int i = 0; i < samples; i++) {
+            ContainerPlan plan = plans.get((int)((long)plans.size() * i / samples));
+            long filesBefore = sink.getFileCount();
+            bytesBefore = sink.getByteCount();
+            treeGenerator.makeContainerFiles(plan, outDir, xmlMos);
+            fileSample.add(sink.getFileCount() - filesBefore);
+            byteSample.add(sink.getByteCount() - bytesBefore);
+        }
+        sampledContainers = samples;
+        Estimate containerFiles = fileSample.scale(plans.size());
+        Estimate containerDirs = new Estimate(plans.size(), 0);
+        tally.files = Estimate.sum(tally.files, containerFiles);
+        tally.bytes = Estimate.sum(tally.bytes, byteSample.scale(plans.size()));
+        tally.directories = containerDirs;
+        tally.inodes = Estimate.sum(tally.inodes, containerFiles, containerDirs);
+        return tally;
+    }
+
+    private static void collectPlans(ContainerPlan[] plans, List<ContainerPlan> result) {
+        for (ContainerPlan plan : plans) {
+            result.add(plan);
+            collectPlans(plan.childContainers, result);
+        }
+    }
+
+    /**
+     * Get the ID of the n-th MO of a type. The non-XML MOs are spread evenly
+     * through the IDs, as GenerationParameters.getMoType() places them.
+     * @param moType XML or NONXML
+     * @param n Zero-based index of the MO among the MOs of its type
+     * @return The MO's ID.
+     */
+    int getMoId(MoType moType, long n) {
+        long total = xmlMoCount + nonXmlMoCount;
+        long binaryCount = nonXmlMoCount;
+        long position;
+        if (moType == MoType.NONXML) {
+            // The first position where the running share of non-XML MOs reaches n + 1.
+            position = ((n + 1) * total + binaryCount - 1) / binaryCount - 1;
+        } else {
+            // The first position where the number of XML MOs up to and including it reaches n + 1.
+            long low = n;
+            long high = total - 1;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                long xmlCount = (mid + 1) - (binaryCount <= 0 ? 0 : (mid + 1) * binaryCount / total);
+                if (xmlCount >= n + 1) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            position = low;
+        }
+        return (int)(GenerationParameters.FIRST_MO_ID + position);
+    }
+
+    public long getManagedObjectCount() {
+        return xmlMoCount + nonXmlMoCount;
+    }
+
+    public long getXmlManagedObjectCount() {
+        return xmlMoCount;
+    }
+
+    public long getNonXmlManagedObjectCount() {
+        return nonXmlMoCount;
+    }
+
+    public long getContainerCount() {
+        return containerCount;
+    }
+
+    public long getMorefCount() {
+        return morefCount;
+    }
+
+    public Estimate getFiles() {
+        return files;
+    }
+
+    public Estimate getDirectories() {
+        return directories;
+    }
+
+    public Estimate getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The estimated number of inodes: files and directories, with
+     * hard-linked files counted once.
+     */
+    public Estimate getInodes() {
+        return inodes;
+    }
+
+    /**
+     * Print the estimate.
+     * @param out The stream to print to
+     */
+    public void printEstimate(PrintStream out) {
+        out.println("Export estimate (sampled " + sampledMos + " MOs and " + sampledContainers + " containers):");
+        out.println("    Total MOs: " + getManagedObjectCount());
+        out.println("      XML MOs: " + xmlMoCount);
+        out.println("  Non-XML MOs: " + nonXmlMoCount);
+        out.println("          CAs: " + containerCount);
+        out.println("       MORefs: " + morefCount);
+        out.println("        Files: " + files);
+        out.println("  Directories: " + directories);
+        out.println("        Bytes: " + bytes);
+        out.println("       Inodes: " + inodes);
+    }
+
+    /**
+     * An estimated total with its 95% confidence margin.
+     */
+    public static class Estimate {
+        private final double value;
+        private final double margin;
+
+        public Estimate(double value, double margin) {
+            this.value = value;
+            this.margin = margin;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * @return The margin either side of the value of the 95% confidence interval.
+         */
+        public double getMargin() {
+            return margin;
+        }
+
+        public long getLow() {
+            return (long)Math.floor(Math.max(0, value - margin));
+        }
+
+        public long getHigh() {
+            return (long)Math.ceil(value + margin);
+        }
+
+        /**
+         * Sum independent estimates. The margins add in quadrature.
+         */
+        static Estimate sum(Estimate... estimates) {
+            double value = 0;
+            double variance = 0;
+            for (Estimate estimate : estimates) {
+                value += estimate.value;
+                variance += estimate.margin * estimate.margin;
+            }
+            return new Estimate(value, Math.sqrt(variance));
+        }
+
+        @Override
+        public String toString() {
+            if (margin == 0) {
+                return String.format(Locale.ROOT, "%.0f", value);
+            }
+            return String.format(Locale.ROOT, "%.0f (95%%: %d - %d)", value, getLow(), getHigh());
+        }
+    }
+
+    /**
+     * Running mean and variance of a per-item quantity.
+     */
+    private static class Sample {
+        private long n = 0;
+        private double mean = 0;
+        private double m2 = 0;
+
+        void add(double x) {
+            n++;
+            double delta = x - mean;
+            mean += delta / n;
+            m2 += delta * (x - mean);
+        }
+
+        /**
+         * Scale the sample up to the total for a population, with the
+         * finite population correction, so a full sample has no margin.
+         */
+        Estimate scale(long population) {
+            if (n == 0) {
+                return new Estimate(0, 0);
+            }
+            double variance = n > 1 ? m2 / (n - 1) : 0;
+            double correction = Math.max(0, 1 - (double)n / population);
+            double margin = Z_95 * population * Math.sqrt(variance / n * correction);
+            return new Estimate(mean * population, margin);
+        }
+    }
+
+    /**
+     * Estimates for one part of the export.
+     */
+    private static class Tally {
+        Estimate files = new Estimate(0, 0);
+        Estimate bytes = new Estimate(0, 0);
+        Estimate directories = new Estimate(0, 0);
+        Estimate inodes = new Estimate(0, 0);
+
+        void addExact(long fileCount, long byteCount, double directoryCount) {
+            files = Estimate.sum(files, new Estimate(fileCount, 0));
+            bytes = Estimate.sum(bytes, new Estimate(byteCount, 0));
+            directories = Estimate.sum(directories, new Estimate(directoryCount, 0));
+            inodes = Estimate.sum(inodes, new Estimate(fileCount + directoryCount, 0));
+        }
+
+        void add(Tally other) {
+            files = Estimate.sum(files, other.files);
+            bytes = Estimate.sum(bytes, other.bytes);
+            directories = Estimate.sum(directories, other.directories);
+            inodes = Estimate.sum(inodes, other.inodes);
+        }
+    }
+
+    /**
+     * The XML MOs in ID order, made on demand from their IDs: a browse
+     * tree's containers refer to the MOs by ID and title, and an MO's
+     * title is the first thing drawn from its random stream.
+     */
+    private class XmlManagedObjects extends AbstractList<ManagedObject> {
+        @Override
+        public ManagedObject get(int index) {
+            int moid = getMoId(MoType.XML, index);
+            SplittableRandom random = RandomStreams.forManagedObject(generationParameters.getSeed(), moid);
+            return new ManagedObject(moid, MoType.XML, ManagedObjectGeneratorBase.makeTitle(random));
+        }
+
+        @Override
+        public int size() {
+            return (int)xmlMoCount;
+        }
+    }
+
+    /**
+     * Sink that counts what is written, including the hard links, and
+     * discards it.
+     */
+    private static class EstimateSink extends NullOutputSink {
+        private long linkCount = 0;
+
+        EstimateSink(File rootDir) {
+            super(rootDir);
+        }
+
+        @Override
+        public boolean linkFile(File link, File target) throws IOException {
+            linkCount++;
+            return super.linkFile(link, target);
+        }
+
+        long getLinkCount() {
+            return linkCount;
+        }
+    }
+}
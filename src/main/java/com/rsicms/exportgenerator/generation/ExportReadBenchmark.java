@@ -0,0 +1,464 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.metrics.LatencyHistogram;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads an existing export the way the RSuite importer walks it, to give a
+ * baseline for how much of an import's time is just reading the files.
+ * <p>First every file in the managed-objects buckets is read, with a task
+ * for each top-level bucket, then the browse tree is followed from the
+ * root rsuite.node through the nestedIds of each container's rsuite.node,
+ * with a task for each container, reading every file in each container
+ * directory. The files are read with readThreads threads using the
+ * readStrategy: a FileInputStream, a FileChannel into a direct buffer or
+ * a memory-mapped FileChannel with every page touched. Nothing is parsed
+ * except the rsuite.node files, and those only after they are timed.</p>
+ * <p>The time to open, read and close each file is recorded in a latency
+ * histogram for each phase, and the report gives the files and bytes per
+ * second and the latency percentiles of each phase. Run it against a cold
+ * cache (after dropping the OS page cache) to see the cost of the disk and
+ * against a warm one to see the cost of the file system calls alone.</p>
+ */
+public class ExportReadBenchmark {
+
+    private static Log log = LogFactory.getLog(ExportReadBenchmark.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PAGE_SIZE = 4096;
+    // Size of the pieces large files are mapped in: whole pages, well short of
+    // Integer.MAX_VALUE so stepping the page index can't overflow.
+    private static final int MAP_CHUNK_SIZE = 1 << 30;
+
+    // Written with what was read from mapped files so the reads can't be optimized away.
+    private static volatile long blackhole;
+
+    /**
+     * How files are read.
+     */
+    enum ReadStrategy {
+        STREAM {
+            long read(File file) throws IOException {
+                byte[] buffer = heapBuffers.get();
+                long total = 0;
+                InputStream in = new FileInputStream(file);
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) >= 0) {
+                        total += n;
+                    }
+                } finally {
+                    in.close();
+                }
+                return total;
+            }
+        },
+        NIO {
+            long read(File file) throws IOException {
+                ByteBuffer buffer = directBuffers.get();
+                long total = 0;
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                try {
+                    while (true) {
+                        buffer.clear();
+                        int n = channel.read(buffer);
+                        if (n < 0) {
+                            break;
+                        }
+                        total += n;
+                    }
+                } finally {
+                    channel.close();
+                }
+                return total;
+            }
+        },
+        MMAP {
+            long read(File file) throws IOException {
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                try {
+                    long size = channel.size();
+                    long sum = 0;
+                    // A mapping is limited to 2GB, so map large files in pieces.
+                    for (long position = 0; position < size; position += MAP_CHUNK_SIZE) {
+                        int length = (int)Math.min(MAP_CHUNK_SIZE, size - position);
+                        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                        for (int i = 0; i < length; i += PAGE_SIZE) {
+                            sum += buffer.get(i);
+                        }
+                    }
+                    blackhole = sum;
+                    return size;
+                } finally {
+                    channel.close();
+                }
+            }
+        };
+
+        /**
+         * Read all of a file.
+         * @return The number of bytes read.
+         */
+        abstract long read(File file) throws IOException;
+    }
+
+    private static final ThreadLocal<byte[]> heapBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<ByteBuffer> directBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * The counts and latencies of one phase of the walk.
+     */
+    public static class PhaseResult {
+        private final String name;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder files = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private long elapsedNanos;
+
+        PhaseResult(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        public long getFileCount() {
+            return files.sum();
+        }
+
+        public long getByteCount() {
+            return bytes.sum();
+        }
+
+        public double getElapsedSeconds() {
+            return elapsedNanos / 1e9;
+        }
+
+        private double rate(long count) {
+            return elapsedNanos <= 0 ? 0 : count / getElapsedSeconds();
+        }
+
+        void print(PrintStream out) {
+            out.println(String.format(Locale.ROOT, "%15s: %d files, %d bytes in %.1f seconds (%.0f files/s, %.1f MB/s)",
+                    name, getFileCount(), getByteCount(), getElapsedSeconds(),
+                    rate(getFileCount()), rate(getByteCount()) / 1e6));
+            out.println(String.format(Locale.ROOT,
+                    "%15s  latency (us): mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f", "",
+                    latencies.getMean() / 1e3, latencies.getPercentile(0.5) / 1e3,
+                    latencies.getPercentile(0.9) / 1e3, latencies.getPercentile(0.99) / 1e3,
+                    latencies.getPercentile(0.999) / 1e3, latencies.getMax() / 1e3));
+        }
+    }
+
+    private final File contentDir;
+    private final ReadStrategy strategy;
+    private final int threads;
+    private final PhaseResult managedObjects = new PhaseResult("managed-objects");
+    private final PhaseResult browseTree = new PhaseResult("browse tree");
+    private final AtomicLong containers = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final ThreadLocal<XMLInputFactory> inputFactories = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            return XMLInputFactory.newInstance();
+        }
+    };
+
+    public ExportReadBenchmark(GenerationParameters generationParameters) {
+        this.contentDir = new File(generationParameters.getOutputDirectory(), "rsuite.content");
+        this.strategy = ReadStrategy.valueOf(generationParameters.getReadStrategy().toUpperCase(Locale.ROOT));
+        this.threads = generationParameters.getReadThreads();
+    }
+
+    /**
+     * Read the export in the output directory.
+     * @return This benchmark, for its results.
+     * @throws Exception
+     */
+    public ExportReadBenchmark run() throws Exception {
+        if (!contentDir.isDirectory()) {
+            throw new RuntimeException("No export to read in \"" + contentDir.getAbsolutePath() + "\"");
+        }
+        log.info("Reading the export in \"" + contentDir.getAbsolutePath() + "\" with " + threads +
+                " threads using the " + strategy.name().toLowerCase(Locale.ROOT) + " read strategy...");
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long start = System.nanoTime();
+            File mosDir = new File(contentDir, "managed-objects");
+            if (mosDir.isDirectory()) {
+                List<ReadTask> tasks = new ArrayList<ReadTask>();
+                DirectoryStream<Path> topDirs = Files.newDirectoryStream(mosDir.toPath());
+                try {
+                    for (Path topDir : topDirs) {
+                        tasks.add(new DirectoryTask(topDir, managedObjects));
+                    }
+                } finally {
+                    topDirs.close();
+                }
+                for (ReadTask task : tasks) {
+                    pool.execute(task);
+                }
+                for (ReadTask task : tasks) {
+                    task.join();
+                }
+            }
+            managedObjects.elapsedNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            pool.invoke(new RootTask());
+            browseTree.elapsedNanos = System.nanoTime() - start;
+        } finally {
+            pool.shutdownNow();
+        }
+        return this;
+    }
+
+    /**
+     * Read a file, timing it.
+     */
+    private void readFile(File file, PhaseResult phase) {
+        long start = System.nanoTime();
+        try {
+            long length = strategy.read(file);
+            phase.latencies.record(System.nanoTime() - start);
+            phase.files.increment();
+            phase.bytes.add(length);
+        } catch (IOException e) {
+            errors.incrementAndGet();
+            log.error("readFile(): " + e.getClass().getSimpleName() + " reading \"" + file.getAbsolutePath() +
+                    "\": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read the files of a container directory.
+     * @return The child container directories listed in the container's rsuite.node.
+     */
+    private List<File> readContainer(File containerDir) throws Exception {
+        List<File> childDirs = new ArrayList<File>();
+        File nodeFile = null;
+        DirectoryStream<Path> entries = Files.newDirectoryStream(containerDir.toPath());
+        try {
+            for (Path entry : entries) {
+                File file = entry.toFile();
+                if (file.isFile()) {
+                    readFile(file, browseTree);
+                    if ("rsuite.node".equals(file.getName())) {
+                        nodeFile = file;
+                    }
+                }
+            }
+        } finally {
+            entries.close();
+        }
+        if (nodeFile != null) {
+            for (String child : readNestedIds(nodeFile)) {
+                File childDir = new File(containerDir, child);
+                // The nested IDs include the MOREFs, which have no directory.
+                if (childDir.isDirectory()) {
+                    childDirs.add(childDir);
+                }
+            }
+        }
+        return childDirs;
+    }
+
+    /**
+     * @return The names in the nestedIds of an rsuite.node file.
+     */
+    private List<String> readNestedIds(File nodeFile) throws Exception {
+        List<String> ids = new ArrayList<String>();
+        InputStream in = new BufferedInputStream(new FileInputStream(nodeFile));
+        try {
+            XMLStreamReader reader = inputFactories.get().createXMLStreamReader(in);
+            try {
+                boolean inNestedIds = false;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        if ("nestedIds".equals(reader.getLocalName())) {
+                            inNestedIds = true;
+                        } else if (inNestedIds && "id".equals(reader.getLocalName())) {
+                            ids.add(reader.getElementText());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && "nestedIds".equals(reader.getLocalName())) {
+                        break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } finally {
+            in.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Print the results of the run.
+     * @param out The stream to print to
+     */
+    public void printReport(PrintStream out) {
+        out.println("Export read benchmark (" + strategy.name().toLowerCase(Locale.ROOT) + ", " +
+                threads + " threads):");
+        managedObjects.print(out);
+        browseTree.print(out);
+        long files = managedObjects.getFileCount() + browseTree.getFileCount();
+        long bytes = managedObjects.getByteCount() + browseTree.getByteCount();
+        double seconds = managedObjects.getElapsedSeconds() + browseTree.getElapsedSeconds();
+        out.println(String.format(Locale.ROOT, "%15s: %d files, %d bytes in %.1f seconds (%.0f files/s, %.1f MB/s)",
+                "total", files, bytes, seconds, seconds <= 0 ? 0 : files / seconds,
+                seconds <= 0 ? 0 : bytes / seconds / 1e6));
+        out.println(String.format(Locale.ROOT, "%15s: %d", "containers", containers.get()));
+        if (errors.get() > 0) {
+            out.println(String.format(Locale.ROOT, "%15s: %d", "read errors", errors.get()));
+        }
+    }
+
+    public PhaseResult getManagedObjectsResult() {
+        return managedObjects;
+    }
+
+    public PhaseResult getBrowseTreeResult() {
+        return browseTree;
+    }
+
+    public long getContainerCount() {
+        return containers.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @SuppressWarnings("serial")
+    private abstract class ReadTask extends RecursiveAction {
+        @Override
+        protected final void compute() {
+            try {
+                read();
+            } catch (Exception e) {
+                errors.incrementAndGet();
+                log.error("compute(): " + e.getClass().getSimpleName() + " reading export: " + e.getMessage());
+            }
+        }
+
+        protected abstract void read() throws Exception;
+    }
+
+    /**
+     * Read every file under a managed-objects bucket.
+     */
+    @SuppressWarnings("serial")
+    private class DirectoryTask extends ReadTask {
+        private final Path dir;
+        private final PhaseResult phase;
+
+        DirectoryTask(Path dir, PhaseResult phase) {
+            this.dir = dir;
+            this.phase = phase;
+        }
+
+        @Override
+        protected void read() throws Exception {
+            readTree(dir);
+        }
+
+        private void readTree(Path path) throws Exception {
+            DirectoryStream<Path> entries = Files.newDirectoryStream(path);
+            try {
+                for (Path entry : entries) {
+                    File file = entry.toFile();
+                    if (file.isDirectory()) {
+                        readTree(entry);
+                    } else {
+                        readFile(file, phase);
+                    }
+                }
+            } finally {
+                entries.close();
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class RootTask extends ReadTask {
+        @Override
+        protected void read() throws Exception {
+            File nodeFile = new File(contentDir, "rsuite.node");
+            if (!nodeFile.isFile()) {
+                return;
+            }
+            readFile(nodeFile, browseTree);
+            List<ContainerTask> subtasks = new ArrayList<ContainerTask>();
+            for (String child : readNestedIds(nodeFile)) {
+                File childDir = new File(contentDir, child);
+                if (childDir.isDirectory()) {
+                    subtasks.add(new ContainerTask(childDir));
+                }
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class ContainerTask extends ReadTask {
+        private final File containerDir;
+
+        ContainerTask(File containerDir) {
+            this.containerDir = containerDir;
+        }
+
+        @Override
+        protected void read() throws Exception {
+            containers.incrementAndGet();
+            List<ContainerTask> subtasks = new ArrayList<ContainerTask>();
+            for (File childDir : readContainer(containerDir)) {
+                subtasks.add(new ContainerTask(childDir));
+            }
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -0,0 +1,669 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Checks that a generated export is internally consistent before it is
+ * imported:
+ * <ul>
+ * <li>Every MO, container and MOREF ID is unique and below the next ID
+ * in ids.xml.</li>
+ * <li>Every MO directory has a resource file for the MO, its content file
+ * and a file for each version listed in the resource file.</li>
+ * <li>Every container has its resource file and one for each of its
+ * MOREFs, and every MOREF refers to an MO or container that exists.</li>
+ * <li>Every XML file is well-formed.</li>
+ * </ul>
+ * <p>The rsuite.content directory is walked in parallel, with a task for
+ * each top-level managed-objects bucket and each container, and every XML
+ * file is parsed with a StAX reader, so memory doesn't grow with the size
+ * of the files. The IDs are tracked in bit sets indexed by ID rather than
+ * in collections of objects, three bits per ID up to the next ID, so even
+ * an export of hundreds of millions of MOs needs only a few hundred MB.</p>
+ */
+public class ExportVerifier {
+
+    private static Log log = LogFactory.getLog(ExportVerifier.class);
+
+    // Most problems kept for the report; the rest are only counted.
+    static final int MAX_REPORTED_PROBLEMS = 100;
+
+    private static final String RSUITE_NS = "http://www.rsuitecms.com/rsuite/ns/metadata";
+
+    private final GenerationParameters generationParameters;
+    private final File contentDir;
+    private final ThreadLocal<XMLInputFactory> inputFactories = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            return XMLInputFactory.newInstance();
+        }
+    };
+
+    private int nextId;
+    // Every ID seen, to find duplicates.
+    private ConcurrentBitSet ids;
+    // The IDs of the MOs and containers, which MOREFs may refer to.
+    private ConcurrentBitSet targets;
+    // The IDs MOREFs refer to.
+    private ConcurrentBitSet referenced;
+
+    private final AtomicLong managedObjects = new AtomicLong();
+    private final AtomicLong containers = new AtomicLong();
+    private final AtomicLong morefs = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong problemCount = new AtomicLong();
+    private final List<String> problems = new ArrayList<String>();
+    private double elapsedSeconds;
+
+    public ExportVerifier(GenerationParameters generationParameters) {
+        this.generationParameters = generationParameters;
+        this.contentDir = new File(generationParameters.getOutputDirectory(), "rsuite.content");
+    }
+
+    /**
+     * Verify the export in the output directory.
+     * @return True if no problems were found.
+     * @throws Exception
+     */
+    public boolean verify() throws Exception {
+        long start = System.nanoTime();
+        File outDir = generationParameters.getOutputDirectory();
+        log.info("Verifying the export in \"" + outDir.getAbsolutePath() + "\"...");
+        File idsFile = new File(outDir, "ids.xml");
+        if (!idsFile.isFile()) {
+            problem("No ids.xml file");
+            return false;
+        }
+        nextId = ExportAppender.readIdsXml(idsFile);
+        countFile(idsFile.length());
+        ids = new ConcurrentBitSet(nextId);
+        targets = new ConcurrentBitSet(nextId);
+        referenced = new ConcurrentBitSet(nextId);
+
+        if (!contentDir.isDirectory()) {
+            problem("No rsuite.content directory");
+            return false;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, generationParameters.getThreads()));
+        try {
+            List<VerifyTask> tasks = new ArrayList<VerifyTask>();
+            File mosDir = new File(contentDir, "managed-objects");
+            if (mosDir.isDirectory()) {
+                DirectoryStream<Path> topDirs = Files.newDirectoryStream(mosDir.toPath());
+                try {
+                    for (Path topDir : topDirs) {
+                        tasks.add(new BucketTask(topDir));
+                    }
+                } finally {
+                    topDirs.close();
+                }
+            } else {
+                problem("No managed-objects directory");
+            }
+            tasks.add(new RootContainerTask());
+            for (VerifyTask task : tasks) {
+                pool.execute(task);
+            }
+            for (VerifyTask task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Only once everything has been seen can the MOREFs be resolved.
+        for (int id = referenced.nextSetBit(0); id >= 0; id = referenced.nextSetBit(id + 1)) {
+            if (!targets.get(id)) {
+                problem("MOREF refers to " + id + ", which is not an MO or container");
+            }
+        }
+        elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        return problemCount.get() == 0;
+    }
+
+    /**
+     * Record a problem with the export.
+     * @param message Description of the problem
+     */
+    private void problem(String message) {
+        problemCount.incrementAndGet();
+        synchronized (problems) {
+            if (problems.size() < MAX_REPORTED_PROBLEMS) {
+                problems.add(message);
+            }
+        }
+    }
+
+    private void countFile(long length) {
+        files.incrementAndGet();
+        bytes.addAndGet(length);
+    }
+
+    /**
+     * Record an ID, which must be unique and below the next ID.
+     * @param id The ID
+     * @param what What has the ID, for the problem report
+     * @param target True if MOREFs may refer to the ID
+     */
+    private void recordId(int id, String what, boolean target) {
+        if (id < 0 || id >= nextId) {
+            problem(what + " has ID " + id + ", which is not below the next ID " + nextId + " in ids.xml");
+            return;
+        }
+        if (!ids.set(id)) {
+            problem(what + " has ID " + id + ", which is already in use");
+        }
+        if (target) {
+            targets.set(id);
+        }
+    }
+
+    /**
+     * Verify the MO directories in a top-level managed-objects bucket.
+     */
+    private void verifyBucket(Path topDir) throws Exception {
+        DirectoryStream<Path> bucketDirs = Files.newDirectoryStream(topDir);
+        try {
+            for (Path bucketDir : bucketDirs) {
+                DirectoryStream<Path> moDirs = Files.newDirectoryStream(bucketDir);
+                try {
+                    for (Path moDir : moDirs) {
+                        verifyManagedObject(moDir.toFile());
+                    }
+                } finally {
+                    moDirs.close();
+                }
+            }
+        } finally {
+            bucketDirs.close();
+        }
+    }
+
+    private void verifyManagedObject(File moDir) throws Exception {
+        String name = moDir.getName();
+        if (!name.matches("\\d+")) {
+            problem("Unexpected file \"" + moDir.getAbsolutePath() + "\" in managed-objects bucket");
+            return;
+        }
+        managedObjects.incrementAndGet();
+        int moid = Integer.parseInt(name);
+        recordId(moid, "MO directory \"" + moDir.getAbsolutePath() + "\"", true);
+        Set<String> fileNames = new HashSet<String>();
+        String[] list = moDir.list();
+        if (list != null) {
+            for (String fileName : list) {
+                fileNames.add(fileName);
+            }
+        }
+        File resourceFile = new File(moDir, moid + ".resource");
+        if (!fileNames.contains(resourceFile.getName())) {
+            problem("MO " + moid + " has no resource file");
+            return;
+        }
+        ResourceInfo resource = parseResource(resourceFile, moid);
+        if (resource == null) {
+            return;
+        }
+        String extension = "xml";
+        if (resource.contentType != null) {
+            extension = null;
+            for (String fileName : fileNames) {
+                if (fileName.startsWith("content.")) {
+                    extension = fileName.substring("content.".length());
+                }
+            }
+            if (extension == null) {
+                problem("Non-XML MO " + moid + " has no content file");
+                return;
+            }
+        }
+        File contentFile = new File(moDir, "content." + extension);
+        if (!fileNames.contains(contentFile.getName())) {
+            problem("MO " + moid + " has no " + contentFile.getName());
+        } else {
+            verifyContentFile(contentFile);
+        }
+        if (resource.versions.isEmpty()) {
+            problem("MO " + moid + " has no versions");
+        }
+        for (String version : resource.versions) {
+            File verFile = new File(moDir, moid + "-" + version + "." + extension);
+            if (!fileNames.contains(verFile.getName())) {
+                problem("MO " + moid + " has no file for version " + version);
+            } else {
+                verifyContentFile(verFile);
+            }
+        }
+    }
+
+    /**
+     * Check an MO content or version file: XML files must be well-formed.
+     */
+    private void verifyContentFile(File file) {
+        if (file.getName().endsWith(".xml")) {
+            parseXml(file, null);
+        } else {
+            countFile(file.length());
+        }
+    }
+
+    /**
+     * What a resource file says about an MO.
+     */
+    private static class ResourceInfo {
+        String id;
+        String contentType;
+        final List<String> versions = new ArrayList<String>();
+    }
+
+    /**
+     * Parse a resource file and check it is for the expected ID.
+     * @return What the file says, or null if it can't be parsed.
+     */
+    private ResourceInfo parseResource(File resourceFile, int expectedId) {
+        final ResourceInfo resource = new ResourceInfo();
+        boolean parsed = parseXml(resourceFile, new ElementHandler() {
+            public void startElement(XMLStreamReader reader, String path) throws XMLStreamException {
+                if ("contentResource/systemMetadata/id".equals(path)) {
+                    resource.id = reader.getElementText().trim();
+                } else if ("contentResource/systemMetadata/contentType".equals(path)) {
+                    resource.contentType = reader.getElementText().trim();
+                } else if ("contentResource/versions/versionEntry/revision".equals(path)) {
+                    resource.versions.add(reader.getElementText().trim());
+                }
+            }
+        });
+        if (!parsed) {
+            return null;
+        }
+        if (!("" + expectedId).equals(resource.id)) {
+            problem("Resource file \"" + resourceFile.getAbsolutePath() + "\" has ID " + resource.id +
+                    ", expected " + expectedId);
+        }
+        return resource;
+    }
+
+    /**
+     * Called for each start element of a parsed file.
+     */
+    private interface ElementHandler {
+        /**
+         * @param reader The reader, positioned at the start element
+         * @param path Slash-separated local names of the elements from the root to this one
+         */
+        void startElement(XMLStreamReader reader, String path) throws XMLStreamException;
+    }
+
+    /**
+     * Parse an XML file with a StAX reader, reporting it as a problem if
+     * it isn't well-formed.
+     * @param file The file
+     * @param handler Handler for the start elements, or null
+     * @return True if the file was parsed.
+     */
+    private boolean parseXml(File file, ElementHandler handler) {
+        countFile(file.length());
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                XMLStreamReader reader = inputFactories.get().createXMLStreamReader(in);
+                try {
+                    StringBuilder path = new StringBuilder();
+                    List<Integer> pathLengths = new ArrayList<Integer>();
+                    while (reader.hasNext()) {
+                        int event = reader.next();
+                        if (event == XMLStreamConstants.START_ELEMENT) {
+                            pathLengths.add(path.length());
+                            if (path.length() > 0) {
+                                path.append('/');
+                            }
+                            path.append(reader.getLocalName());
+                            if (handler != null) {
+                                handler.startElement(reader, path.toString());
+                                // The handler may have read to the end of the element.
+                                if (reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
+                                    path.setLength(pathLengths.remove(pathLengths.size() - 1));
+                                }
+                            }
+                        } else if (event == XMLStreamConstants.END_ELEMENT) {
+                            path.setLength(pathLengths.remove(pathLengths.size() - 1));
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } finally {
+                in.close();
+            }
+            return true;
+        } catch (XMLStreamException e) {
+            problem("\"" + file.getAbsolutePath() + "\" is not well-formed: " + e.getMessage());
+        } catch (IOException e) {
+            problem(e.getClass().getSimpleName() + " reading \"" + file.getAbsolutePath() + "\": " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Verify the root rsuite.node file: each top-level container it lists
+     * must have a directory.
+     */
+    private void verifyRootNode() {
+        File nodeFile = new File(contentDir, "rsuite.node");
+        if (!nodeFile.isFile()) {
+            problem("No root rsuite.node file");
+            return;
+        }
+        final List<String> children = new ArrayList<String>();
+        parseXml(nodeFile, new ElementHandler() {
+            public void startElement(XMLStreamReader reader, String path) throws XMLStreamException {
+                if ("contentResource/nestedIds/id".equals(path)) {
+                    children.add(reader.getElementText());
+                }
+            }
+        });
+        for (String child : children) {
+            if (!new File(contentDir, child).isDirectory()) {
+                problem("Root rsuite.node lists \"" + child + "\", which has no container directory");
+            }
+        }
+    }
+
+    /**
+     * Verify a container directory, not counting its child containers.
+     * @return The child container directories.
+     */
+    private List<File> verifyContainer(File containerDir) throws Exception {
+        containers.incrementAndGet();
+        List<File> childDirs = new ArrayList<File>();
+        Set<String> fileNames = new HashSet<String>();
+        File caFile = null;
+        DirectoryStream<Path> entries = Files.newDirectoryStream(containerDir.toPath());
+        try {
+            for (Path entry : entries) {
+                File file = entry.toFile();
+                if (file.isDirectory()) {
+                    childDirs.add(file);
+                } else {
+                    fileNames.add(file.getName());
+                    if (file.getName().endsWith(".xml")) {
+                        if (caFile != null) {
+                            problem("Container \"" + containerDir.getAbsolutePath() + "\" has more than one CA file");
+                        }
+                        caFile = file;
+                    }
+                }
+            }
+        } finally {
+            entries.close();
+        }
+        if (!fileNames.contains("rsuite.node")) {
+            problem("Container \"" + containerDir.getAbsolutePath() + "\" has no rsuite.node file");
+        } else {
+            parseXml(new File(containerDir, "rsuite.node"), null);
+        }
+        if (caFile == null) {
+            problem("Container \"" + containerDir.getAbsolutePath() + "\" has no CA file");
+            return childDirs;
+        }
+        final String[] caId = new String[1];
+        final List<String[]> containerMorefs = new ArrayList<String[]>();
+        parseXml(caFile, new ElementHandler() {
+            public void startElement(XMLStreamReader reader, String path) throws XMLStreamException {
+                if ("rs_ca_map/rs_ca".equals(path)) {
+                    caId[0] = reader.getAttributeValue(RSUITE_NS, "rsuiteId");
+                } else if ("rs_ca_map/rs_ca/moref".equals(path)) {
+                    containerMorefs.add(new String[] { reader.getAttributeValue(RSUITE_NS, "rsuiteId"),
+                            reader.getAttributeValue(null, "href") });
+                }
+            }
+        });
+        if (caId[0] == null) {
+            problem("CA file \"" + caFile.getAbsolutePath() + "\" has no container ID");
+            return childDirs;
+        }
+        int containerId = parseId(caId[0], "Container in \"" + caFile.getAbsolutePath() + "\"");
+        if (containerId < 0) {
+            return childDirs;
+        }
+        recordId(containerId, "Container \"" + containerDir.getAbsolutePath() + "\"", true);
+        verifyResource(containerDir, fileNames, containerId, "Container");
+        for (String[] moref : containerMorefs) {
+            morefs.incrementAndGet();
+            int morefId = parseId(moref[0], "MOREF in \"" + caFile.getAbsolutePath() + "\"");
+            if (morefId >= 0) {
+                recordId(morefId, "MOREF in \"" + caFile.getAbsolutePath() + "\"", false);
+                verifyResource(containerDir, fileNames, morefId, "MOREF");
+            }
+            int href = parseId(moref[1], "MOREF href in \"" + caFile.getAbsolutePath() + "\"");
+            if (href >= 0 && href < nextId) {
+                referenced.set(href);
+            } else if (href >= nextId) {
+                problem("MOREF " + moref[0] + " refers to " + href + ", which is not below the next ID " + nextId);
+            }
+        }
+        return childDirs;
+    }
+
+    private void verifyResource(File dir, Set<String> fileNames, int id, String what) {
+        String resourceName = id + ".resource";
+        if (!fileNames.contains(resourceName)) {
+            problem(what + " " + id + " has no resource file in \"" + dir.getAbsolutePath() + "\"");
+        } else {
+            parseResource(new File(dir, resourceName), id);
+        }
+    }
+
+    private int parseId(String value, String what) {
+        if (value == null || !value.trim().matches("\\d+")) {
+            problem(what + " has the ID \"" + value + "\", not a number");
+            return -1;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Print the result of the verification.
+     * @param out The stream to print to
+     */
+    public void printReport(PrintStream out) {
+        out.println("Export verification:");
+        out.println("          MOs: " + managedObjects.get());
+        out.println("          CAs: " + containers.get());
+        out.println("       MORefs: " + morefs.get());
+        out.println("        Files: " + files.get());
+        out.println("        Bytes: " + bytes.get());
+        out.println(String.format(Locale.ROOT, "      Elapsed: %.1f seconds (%.0f files/s, %.1f MB/s)",
+                elapsedSeconds, rate(files.get()), rate(bytes.get()) / 1e6));
+        out.println("     Problems: " + problemCount.get());
+        synchronized (problems) {
+            for (String problem : problems) {
+                out.println("  " + problem);
+            }
+        }
+        if (problemCount.get() > problems.size()) {
+            out.println("  ... and " + (problemCount.get() - problems.size()) + " more");
+        }
+    }
+
+    private double rate(long count) {
+        return elapsedSeconds <= 0 ? 0 : count / elapsedSeconds;
+    }
+
+    public long getProblemCount() {
+        return problemCount.get();
+    }
+
+    /**
+     * @return The first problems found, up to MAX_REPORTED_PROBLEMS.
+     */
+    public List<String> getProblems() {
+        synchronized (problems) {
+            return new ArrayList<String>(problems);
+        }
+    }
+
+    public long getManagedObjectCount() {
+        return managedObjects.get();
+    }
+
+    public long getContainerCount() {
+        return containers.get();
+    }
+
+    public long getMorefCount() {
+        return morefs.get();
+    }
+
+    public long getFileCount() {
+        return files.get();
+    }
+
+    public long getByteCount() {
+        return bytes.get();
+    }
+
+    @SuppressWarnings("serial")
+    private abstract class VerifyTask extends RecursiveAction {
+        @Override
+        protected final void compute() {
+            try {
+                verify();
+            } catch (Exception e) {
+                log.error("verify(): " + e.getClass().getSimpleName() + " verifying export: " + e.getMessage());
+                problem(e.getClass().getSimpleName() + " verifying export: " + e.getMessage());
+            }
+        }
+
+        protected abstract void verify() throws Exception;
+    }
+
+    @SuppressWarnings("serial")
+    private class BucketTask extends VerifyTask {
+        private final Path topDir;
+
+        BucketTask(Path topDir) {
+            this.topDir = topDir;
+        }
+
+        @Override
+        protected void verify() throws Exception {
+            verifyBucket(topDir);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class RootContainerTask extends VerifyTask {
+        @Override
+        protected void verify() throws Exception {
+            verifyRootNode();
+            List<ContainerTask> subtasks = new ArrayList<ContainerTask>();
+            File[] dirs = contentDir.listFiles();
+            if (dirs != null) {
+                for (File dir : dirs) {
+                    if (dir.isDirectory() && !"managed-objects".equals(dir.getName())) {
+                        subtasks.add(new ContainerTask(dir));
+                    }
+                }
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class ContainerTask extends VerifyTask {
+        private final File containerDir;
+
+        ContainerTask(File containerDir) {
+            this.containerDir = containerDir;
+        }
+
+        @Override
+        protected void verify() throws Exception {
+            List<ContainerTask> subtasks = new ArrayList<ContainerTask>();
+            for (File childDir : verifyContainer(containerDir)) {
+                subtasks.add(new ContainerTask(childDir));
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    /**
+     * A fixed-size bit set that any number of threads can set bits in.
+     */
+    static class ConcurrentBitSet {
+        private final AtomicLongArray words;
+
+        ConcurrentBitSet(int size) {
+            words = new AtomicLongArray((int)(((long)size + 63) >>> 6));
+        }
+
+        /**
+         * Set a bit.
+         * @return True if the bit was not already set.
+         */
+        boolean set(int index) {
+            int word = index >>> 6;
+            long mask = 1L << index;
+            while (true) {
+                long current = words.get(word);
+                if ((current & mask) != 0) {
+                    return false;
+                }
+                if (words.compareAndSet(word, current, current | mask)) {
+                    return true;
+                }
+            }
+        }
+
+        boolean get(int index) {
+            return (words.get(index >>> 6) & (1L << index)) != 0;
+        }
+
+        /**
+         * @return The index of the first set bit at or after fromIndex, -1 if there is none.
+         */
+        int nextSetBit(int fromIndex) {
+            int word = fromIndex >>> 6;
+            if (word >= words.length()) {
+                return -1;
+            }
+            long bits = words.get(word) & (-1L << fromIndex);
+            while (true) {
+                if (bits != 0) {
+                    return (word << 6) + Long.numberOfTrailingZeros(bits);
+                }
+                if (++word >= words.length()) {
+                    return -1;
+                }
+                bits = words.get(word);
+            }
+        }
+    }
+}
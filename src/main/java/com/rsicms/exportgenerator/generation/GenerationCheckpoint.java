@@ -0,0 +1,234 @@
+package com.rsicms.exportgenerator.generation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Records the progress of a generation run in the output directory so
+ * that a run that dies part way through can be resumed.
+ * <p>Every MO depends only on the seed and its ID, so the state that has
+ * to be kept is small: the seed, the phase the run is in and which MOs
+ * are complete. The MOs are generated in roughly ascending ID order, so
+ * the completed MOs are recorded as the ID below which all MOs are
+ * complete plus the few complete MOs above it. On resume, the registry of
+ * MOs is rebuilt from the completed IDs and every other MO is generated
+ * again, replacing whatever a half-finished MO left behind. The browse
+ * tree is planned and written in one go, so it is simply generated again
+ * if the run died while writing it.</p>
+ * <p>The checkpoint is written every checkpointInterval seconds as MOs
+ * complete and at the end of each phase. A checkpointInterval of 0 keeps
+ * no checkpoint for a new run; a run resumed with it only updates its
+ * checkpoint at the end of each phase. The checkpoint is written to a temporary
+ * file that then replaces the checkpoint, so a crash never leaves a
+ * partial checkpoint.</p>
+ */
+public class GenerationCheckpoint {
+
+    private static Log log = LogFactory.getLog(GenerationCheckpoint.class);
+
+    public static final String CHECKPOINT_FILE_NAME = "checkpoint.properties";
+
+    public static final String PHASE_MANAGED_OBJECTS = "managedObjects";
+    public static final String PHASE_BROWSE_TREE = "browseTree";
+    public static final String PHASE_DONE = "done";
+
+    private final File file;
+    private final long seed;
+    private final int firstMoId;
+    private final int endMoId;
+    private final boolean resumed;
+    private final long intervalNanos;
+    private String phase = PHASE_MANAGED_OBJECTS;
+    // All the MOs below this ID are complete.
+    private int completedBelow;
+    // Complete MOs at or above completedBelow.
+    private final TreeSet<Integer> completedAbove = new TreeSet<Integer>();
+    private long lastWriteNanos = System.nanoTime();
+
+    /**
+     * Start a checkpoint for a new run.
+     * @param dir The output directory
+     * @param seed The run's seed
+     * @param firstMoId ID of the first MO to generate
+     * @param endMoId ID after the last MO to generate
+     * @param intervalSeconds Seconds between checkpoints while the MOs are
+     * generated, greater than 0
+     */
+    public GenerationCheckpoint(File dir, long seed, int firstMoId, int endMoId, double intervalSeconds) {
+        this(dir, seed, firstMoId, endMoId, intervalSeconds, false);
+    }
+
+    private GenerationCheckpoint(File dir, long seed, int firstMoId, int endMoId, double intervalSeconds,
+                                 boolean resumed) {
+        this.file = new File(dir, CHECKPOINT_FILE_NAME);
+        this.seed = seed;
+        this.firstMoId = firstMoId;
+        this.endMoId = endMoId;
+        this.completedBelow = firstMoId;
+        this.intervalNanos = intervalSeconds > 0 ? (long)(intervalSeconds * 1e9) : Long.MAX_VALUE;
+        this.resumed = resumed;
+    }
+
+    /**
+     * Read the checkpoint of an earlier run.
+     * @param dir The output directory of the run
+     * @param intervalSeconds Seconds between checkpoints for the rest of the run,
+     * 0 to only write the checkpoint at the end of each phase
+     * @return The checkpoint.
+     * @throws IOException
+     */
+    public static GenerationCheckpoint read(File dir, double intervalSeconds) throws IOException {
+        File checkpointFile = new File(dir, CHECKPOINT_FILE_NAME);
+        if (!checkpointFile.exists()) {
+            throw new RuntimeException("Checkpoint \"" + checkpointFile.getAbsolutePath() + "\" does not exist");
+        }
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(checkpointFile);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        GenerationCheckpoint checkpoint = new GenerationCheckpoint(dir,
+                Long.parseLong(getProperty(props, "seed")),
+                Integer.parseInt(getProperty(props, "firstMoId")),
+                Integer.parseInt(getProperty(props, "endMoId")),
+                intervalSeconds, true);
+        checkpoint.phase = getProperty(props, "phase");
+        checkpoint.completedBelow = Integer.parseInt(getProperty(props, "completedBelow"));
+        String completed = props.getProperty("completedAbove", "").trim();
+        if (!"".equals(completed)) {
+            for (String moid : completed.split(",")) {
+                checkpoint.completedAbove.add(Integer.parseInt(moid.trim()));
+            }
+        }
+        return checkpoint;
+    }
+
+    private static String getProperty(Properties props, String name) {
+        String value = props.getProperty(name);
+        if (value == null) {
+            throw new RuntimeException("Checkpoint is missing property \"" + name + "\"");
+        }
+        return value.trim();
+    }
+
+    /**
+     * @return True if this checkpoint was read from an earlier run.
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getFirstMoId() {
+        return firstMoId;
+    }
+
+    public int getEndMoId() {
+        return endMoId;
+    }
+
+    public synchronized String getPhase() {
+        return phase;
+    }
+
+    /**
+     * Move to the next phase of the run and write the checkpoint.
+     * @param phase The phase
+     * @throws IOException
+     */
+    public synchronized void setPhase(String phase) throws IOException {
+        this.phase = phase;
+        write();
+    }
+
+    /**
+     * @return The ID below which all MOs are complete.
+     */
+    public synchronized int getCompletedBelow() {
+        return completedBelow;
+    }
+
+    public synchronized boolean isCompleted(int moid) {
+        return moid < completedBelow || completedAbove.contains(moid);
+    }
+
+    /**
+     * @return The number of complete MOs.
+     */
+    public synchronized long getCompletedCount() {
+        return (long)completedBelow - firstMoId + completedAbove.size();
+    }
+
+    /**
+     * Record that an MO is complete, writing the checkpoint if the
+     * checkpoint interval has passed.
+     * @param moid The MO's ID
+     * @throws IOException
+     */
+    public synchronized void markCompleted(int moid) throws IOException {
+        if (moid == completedBelow) {
+            completedBelow++;
+            while (completedAbove.remove(completedBelow)) {
+                completedBelow++;
+            }
+        } else if (moid > completedBelow) {
+            completedAbove.add(moid);
+        }
+        if (System.nanoTime() - lastWriteNanos >= intervalNanos) {
+            write();
+        }
+    }
+
+    /**
+     * Write the checkpoint.
+     * @throws IOException
+     */
+    public synchronized void write() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("seed", "" + seed);
+        props.setProperty("phase", phase);
+        props.setProperty("firstMoId", "" + firstMoId);
+        props.setProperty("endMoId", "" + endMoId);
+        props.setProperty("completedBelow", "" + completedBelow);
+        StringBuilder completed = new StringBuilder();
+        for (Integer moid : completedAbove) {
+            if (completed.length() > 0) {
+                completed.append(",");
+            }
+            completed.append(moid);
+        }
+        props.setProperty("completedAbove", completed.toString());
+
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Failed to create directory \"" + dir.getAbsolutePath() + "\"");
+        }
+        File tempFile = new File(dir, file.getName() + ".tmp");
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            props.store(out, "Export generator checkpoint");
+        } finally {
+            out.close();
+        }
+        Files.move(tempFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastWriteNanos = System.nanoTime();
+        log.debug("Wrote checkpoint: phase " + phase + ", " + getCompletedCount() + " MOs complete");
+    }
+}
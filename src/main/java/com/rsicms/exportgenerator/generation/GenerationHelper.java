@@ -1,15 +1,14 @@
 package com.rsicms.exportgenerator.generation;
 
-import org.apache.commons.lang.StringUtils;
+import com.rsicms.exportgenerator.api.OutputSink;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
 import java.io.*;
 import java.util.ArrayList;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.List;
+import java.util.SplittableRandom;
 
 /**
  * Utilities for output generation.
@@ -18,7 +17,7 @@ public class GenerationHelper {
 
     private static Log log = LogFactory.getLog(ManagedObjectGeneratorBase.class);
 
-    protected static ArrayList<String> wordList = new ArrayList<String>();
+    protected static final WordList wordList;
 
     static {
         String wordsFilePath = "/resources/data-files/words.txt";
@@ -27,151 +26,220 @@ public class GenerationHelper {
             throw new RuntimeException("Failed to load resource " + wordsFilePath);
         }
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inStream));
-            String line = reader.readLine();
-            while (line != null) {
-                if (line.startsWith("#")) {
-                    line = reader.readLine();
-                    continue;
-                }
-                GenerationHelper.wordList.add(line.trim());
-                line = reader.readLine();
-            }
+            wordList = new WordList(inStream);
         } catch (Exception e) {
             throw new RuntimeException("Unexpected " + e.getClass().getSimpleName() +
                     " reading words file: " + e.getMessage(), e);
+        } finally {
+            IOUtils.closeQuietly(inStream);
         }
     }
 
-
+    /**
+     * @return The list of words random text is made from.
+     */
+    public static WordList getWordList() {
+        return wordList;
+    }
 
     /**
      *
+     * @param random The random stream to draw from
      * @param min Minimum number of words to get
      * @param max Maximum number of words to get
      * @return A string of words picked at random with no fewer than min and
      * no more than max words.
      */
-    public static String getRandomWords(int min, int max) {
-        int wordCount = ThreadLocalRandom.current().nextInt(min, max+1);
-        ArrayList<String> words = new ArrayList<String>();
-        for (int i = 0; i < wordCount; i++) {
-            int wordNdx = ThreadLocalRandom.current().nextInt(0, wordList.size());
-            words.add(wordList.get(wordNdx));
-        }
-        return StringUtils.join(words, " ");
+    public static String getRandomWords(SplittableRandom random, int min, int max) {
+        StringBuilder words = new StringBuilder();
+        wordList.appendRandomWords(words, random, min, max);
+        return words.toString();
     }
 
-    protected static void makeVersionEntry(XMLStreamWriter writer,
+    // FIXME: Generate the date within some configured range.
+    // FIXME: Need to find out what the entry types are so this is accurate.
+    // FIXME: Generate some LMD randomly
+    // The namespaceUri is empty as there is no namespace for DITA
+    // and the transactionId seems to always be 0.
+    private static final String VERSION_ENTRY_TAIL =
+            "<dtCommitted>2010-12-16T20:05:41.000Z</dtCommitted>" +
+            "<entryType>2</entryType>" +
+            "<lmd></lmd>" +
+            "<localName>${localName}</localName>" +
+            "<namespaceUri></namespaceUri>" +
+            "<note>${note}</note>" +
+            "<revision>${revision}</revision>" +
+            "<transactionId>0</transactionId>" +
+            "<userId>${userId}</userId>" +
+            "</versionEntry>";
+
+    static final ByteTemplate VERSION_ENTRY = ByteTemplate.compile("versionEntry",
+            "<versionEntry><displayName>${displayName}</displayName>" + VERSION_ENTRY_TAIL);
+
+    static final ByteTemplate UNTITLED_VERSION_ENTRY = ByteTemplate.compile("untitledVersionEntry",
+            "<versionEntry>" + VERSION_ENTRY_TAIL);
+
+    static final ByteTemplate RESOURCE_START = ByteTemplate.compile("resourceStart",
+            "<?xml version=\"1.0\" ?>" +
+            "<contentResource>" +
+            "<acl>" +
+            "<role name=\"RSuiteAdministrator\">admin</role>" +
+            "<role name=\"RSuiteEditor\">edit,copy,delete</role>" +
+            "<role name=\"*\">list,view,reuse</role>" +
+            "</acl>" +
+            "<aliases/>" +
+            "<systemMetadata><id>${id}</id><username>${username}</username></systemMetadata>" +
+            "<versions>");
+
+    static final ByteTemplate NONXML_RESOURCE_START = ByteTemplate.compile("nonXmlResourceStart",
+            "<?xml version=\"1.0\" ?>" +
+            "<contentResource>" +
+            "<acl>" +
+            "<role name=\"RSuiteAdministrator\">admin</role>" +
+            "<role name=\"RSuiteEditor\">edit,copy,delete</role>" +
+            "<role name=\"*\">list,view,reuse</role>" +
+            "</acl>" +
+            "<aliases/>" +
+            "<systemMetadata><id>${id}</id><username>${username}</username>" +
+            "<contentType>${contentType}</contentType>" +
+            "<fileName>${fileName}</fileName>" +
+            "<size>${size}</size></systemMetadata>" +
+            "<versions>");
+
+    static final ByteTemplate RESOURCE_END = ByteTemplate.compile("resourceEnd",
+            "</versions></contentResource>");
+
+    protected static void makeVersionEntry(RenderBuffer buffer,
                                     String title,
                                     String versionSpec,
                                     String moTagName,
-                                    String userName)
-            throws XMLStreamException, FileNotFoundException {
-        writer.writeStartElement("versionEntry");
+                                    String userName,
+                                    SplittableRandom random) {
         if (null != title) {
-            writer.writeStartElement("displayName");
-            writer.writeCharacters(title);
-            writer.writeEndElement();
+            buffer.begin(VERSION_ENTRY).fill(title);
+        } else {
+            buffer.begin(UNTITLED_VERSION_ENTRY);
         }
-        writer.writeStartElement("dtCommitted");
-        // FIXME: Generate the date within some configured range.
-        writer.writeCharacters("2010-12-16T20:05:41.000Z");
-        writer.writeEndElement();
-        writer.writeStartElement("entryType");
-        writer.writeCharacters("2"); // FIXME: Need to find out what the entry types are so this is accurate.
-        writer.writeEndElement();
-        writer.writeStartElement("lmd");
-        writer.writeCharacters(""); // FIXME: Generate some LMD randomly
-        writer.writeEndElement();
-        writer.writeStartElement("localName");
-        writer.writeCharacters(moTagName);
-        writer.writeEndElement();
-        writer.writeStartElement("namespaceUri");
-        writer.writeCharacters(""); // No namespace for DITA.
-        writer.writeEndElement();
-        writer.writeStartElement("note");
-        writer.writeCharacters(GenerationHelper.getRandomWords(1, 4));
-        writer.writeEndElement();
-        writer.writeStartElement("revision");
-        writer.writeCharacters(versionSpec);
-        writer.writeEndElement();
-        writer.writeStartElement("transactionId");
-        writer.writeCharacters("0"); // This seems to always be 0
-        writer.writeEndElement();
-        writer.writeStartElement("userId");
-        writer.writeCharacters(userName);
-        writer.writeEndElement();
-        writer.writeEndElement(); // versionEntry
+        buffer.fill(moTagName)
+                .fillWords(random, 1, 4)
+                .fill(versionSpec)
+                .fill(userName);
+    }
 
+    /**
+     * Render the .resource file for a managed object.
+     * @param buffer The buffer to render to
+     * @param mo The MO
+     * @param versionSpecs The MO's versions
+     * @param random The random stream to draw from
+     */
+    protected static void renderResourceFile(RenderBuffer buffer,
+                                             ManagedObject mo,
+                                             List<String> versionSpecs,
+                                             SplittableRandom random) {
+        String userName = "fakeexportuser";
+        buffer.begin(RESOURCE_START)
+                .fill(mo.getID())
+                .fill(userName);
+        // FIXME: This needs to come from the creator mo object.
+        String moTagName = "topic";
+        for (String versionSpec : versionSpecs) {
+            GenerationHelper.makeVersionEntry(buffer, mo.getDisplayName(), versionSpec, moTagName, userName, random);
+        }
+        buffer.begin(RESOURCE_END);
     }
 
+    /**
+     * Render the .resource file for a non-XML managed object.
+     * @param buffer The buffer to render to
+     * @param mo The MO
+     * @param versionSpecs The MO's versions
+     * @param contentType The MIME type of the MO's content
+     * @param fileName The file name of the MO's content
+     * @param size The size of the MO's current content
+     * @param random The random stream to draw from
+     */
+    protected static void renderNonXmlResourceFile(RenderBuffer buffer,
+                                                   ManagedObject mo,
+                                                   List<String> versionSpecs,
+                                                   String contentType,
+                                                   String fileName,
+                                                   long size,
+                                                   SplittableRandom random) {
+        String userName = "fakeexportuser";
+        buffer.begin(NONXML_RESOURCE_START)
+                .fill(mo.getID())
+                .fill(userName)
+                .fill(contentType)
+                .fill(fileName)
+                .fill(Long.toString(size));
+        for (String versionSpec : versionSpecs) {
+            GenerationHelper.makeVersionEntry(buffer, mo.getDisplayName(), versionSpec, "nonxml", userName, random);
+        }
+        buffer.begin(RESOURCE_END);
+    }
 
-    public static void makeResourceFileForXmlMo(File moDir,
+    /**
+     * Write a rendered file to the output sink.
+     * @param sink The sink to write to
+     * @param file The file to write
+     * @param buffer The file's rendered content
+     * @throws IOException
+     */
+    public static void writeFile(OutputSink sink, File file, RenderBuffer buffer) throws IOException {
+        sink.writeFile(file, buffer.getBytes(), buffer.size());
+    }
+
+    public static void makeResourceFileForXmlMo(OutputSink sink,
+                                                File moDir,
                                                 ManagedObject mo,
-                                                ArrayList<String> versionSpecs)
+                                                ArrayList<String> versionSpecs,
+                                                SplittableRandom random)
             throws Exception {
+        makeResourceFileForMo(sink, moDir, mo, versionSpecs, random);
     }
 
-    public static void makeResourceFileForMo(File moDir,
-                                             ManagedObject mo,
-                                            ArrayList<String> versionSpecs)
+    public static void makeResourceFileForNonXmlMo(OutputSink sink,
+                                                   File moDir,
+                                                   ManagedObject mo,
+                                                   ArrayList<String> versionSpecs,
+                                                   String contentType,
+                                                   String fileName,
+                                                   long size,
+                                                   SplittableRandom random)
             throws Exception {
-        String userName = "fakeexportuser";
+        File resourceFile = new File(moDir, mo.getID() + ".resource");
+        RenderContext context = RenderContext.get();
+        RenderBuffer buffer = context.acquireBuffer();
+        try {
+            renderNonXmlResourceFile(buffer, mo, versionSpecs, contentType, fileName, size, random);
+            writeFile(sink, resourceFile, buffer);
+        } catch (Exception e) {
+            log.error("makeResourceFileForNonXmlMo(): " + e.getClass().getSimpleName() + " Writing resource file: " + e.getMessage());
+            throw e;
+        } finally {
+            context.releaseBuffer(buffer);
+        }
+    }
 
+    public static void makeResourceFileForMo(OutputSink sink,
+                                             File moDir,
+                                             ManagedObject mo,
+                                            ArrayList<String> versionSpecs,
+                                            SplittableRandom random)
+            throws Exception {
         File resourceFile = new File(moDir, mo.getID() + ".resource");
-        FileOutputStream fos = new FileOutputStream(resourceFile);
-        XMLStreamWriter writer = XMLOutputFactory.newInstance().
-                createXMLStreamWriter(new BufferedOutputStream(
-                        fos), "UTF-8");
+        RenderContext context = RenderContext.get();
+        RenderBuffer buffer = context.acquireBuffer();
         try {
-            writer.writeStartDocument();
-            writer.writeStartElement("contentResource");
-            writer.writeStartElement("acl");
-            writer.writeStartElement("role");
-            writer.writeAttribute("name", "RSuiteAdministrator");
-            writer.writeCharacters("admin");
-            writer.writeEndElement();// role
-            writer.writeStartElement("role");
-            writer.writeAttribute("name", "RSuiteEditor");
-            writer.writeCharacters("edit,copy,delete");
-            writer.writeEndElement();// role
-            writer.writeStartElement("role");
-            writer.writeAttribute("name", "*");
-            writer.writeCharacters("list,view,reuse");
-            writer.writeEndElement();// role
-            writer.writeEndElement();// acl
-
-            writer.writeEmptyElement("aliases");
-
-            writer.writeStartElement("systemMetadata");
-            writer.writeStartElement("id");
-            writer.writeCharacters("" + mo.getID());
-            writer.writeEndElement();// id
-            writer.writeStartElement("username");
-            writer.writeCharacters(userName);
-            writer.writeEndElement();// username
-            writer.writeEndElement(); // systemMetadata
-
-            writer.writeStartElement("versions");
-            // FIXME: This needs to come from the creator mo object.
-            String moTagName = "topic";
-            for (String versionSpec : versionSpecs) {
-                GenerationHelper.makeVersionEntry(writer, mo.getDisplayName(), versionSpec, moTagName, userName);
-            }
-            writer.writeEndElement(); // versions
-
-            writer.writeEndElement(); // contentResource
-            writer.writeEndDocument();
+            renderResourceFile(buffer, mo, versionSpecs, random);
+            writeFile(sink, resourceFile, buffer);
         } catch (Exception e) {
             log.error("makeResourceFileForXmlMo(): " + e.getClass().getSimpleName() + " Writing resource file: " + e.getMessage());
             throw e;
         } finally {
-            writer.flush();
-            writer.close();
-            fos.close();
+            context.releaseBuffer(buffer);
         }
-
     }
 
 }
@@ -1,16 +1,22 @@
 package com.rsicms.exportgenerator.generation;
 
 import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.api.BucketLayout;
 import com.rsicms.exportgenerator.api.ManagedObjectGenerator;
 import com.rsicms.exportgenerator.api.MoType;
+import com.rsicms.exportgenerator.api.OutputSink;
+import com.rsicms.exportgenerator.distribution.Distribution;
+import com.rsicms.exportgenerator.metrics.GenerationMetrics;
+import com.rsicms.exportgenerator.metrics.GenerationMetrics.Phase;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamWriter;
 import java.io.*;
 import java.util.ArrayList;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
 
 /**
  * Base superclass for all managed object generators
@@ -22,22 +28,77 @@ public abstract class ManagedObjectGeneratorBase implements ManagedObjectGenerat
     // FIXME: The initial MOID should probably bet part of the generation parameter as should the output directory.
 
     protected final GenerationParameters generationParameters;
+    protected final GenerationMetrics metrics;
+
+    private final BucketLayout bucketLayout;
+    private BucketDirectoryManager bucketDirectories = null;
+    private NonXmlContentGenerator nonXmlContentGenerator = null;
+    private final String versionContent;
+    private final Distribution versions;
 
     public ManagedObjectGeneratorBase(GenerationParameters generationParameters) {
         this.generationParameters = generationParameters;
+        this.versionContent = generationParameters.getVersionContent();
+        this.versions = generationParameters.getVersionsDistribution();
+        this.metrics = generationParameters.getMetrics();
+        this.bucketLayout = generationParameters.getBucketLayout();
     }
 
+    /**
+     * @return The managed-objects directory.
+     */
+    protected File getMosDir() {
+        File contentDir = new File(generationParameters.getOutputDirectory(),
+                "rsuite.content");
+        return new File(contentDir, "managed-objects");
+    }
 
-    protected File getRandomDir(int min, int max, File parent) {
-        int dirNum = ThreadLocalRandom.current().nextInt(min, max+1);
-        File dir = new File(parent, "" + dirNum + "");
-        if (!dir.exists()) {
-            // log.info("Making directory " + dir.getName());
-            if (!dir.mkdirs()) {
-                throw new RuntimeException("Failed to create directory \"" + dir.getAbsolutePath() + "\"");
-            }
+    /**
+     * Get the manager for the bucket directories within the managed-objects directory.
+     * @return The bucket directory manager.
+     */
+    protected synchronized BucketDirectoryManager getBucketDirectories() {
+        if (bucketDirectories == null) {
+            bucketDirectories = new BucketDirectoryManager(generationParameters.getOutputSink(),
+                    getMosDir(), bucketLayout.getTopCount(), bucketLayout.getChildCount());
         }
-        return dir;
+        return bucketDirectories;
+    }
+
+    /**
+     * Get the generator for the content of non-XML MOs, creating it,
+     * and its sample blobs, on first use.
+     * @return The non-XML content generator.
+     */
+    protected synchronized NonXmlContentGenerator getNonXmlContentGenerator() throws IOException {
+        if (nonXmlContentGenerator == null) {
+            nonXmlContentGenerator = new NonXmlContentGenerator(generationParameters);
+        }
+        return nonXmlContentGenerator;
+    }
+
+    /**
+     * Release the non-XML content generator's sample blobs, if they were made.
+     */
+    protected synchronized void closeNonXmlContentGenerator() throws IOException {
+        if (nonXmlContentGenerator != null) {
+            nonXmlContentGenerator.close();
+            nonXmlContentGenerator = null;
+        }
+    }
+
+    /**
+     * Get the directory for a managed object, creating the bucket
+     * directories that contain it as needed. The MO's place in the
+     * tree depends only on the bucket layout and the MO ID.
+     * @param mosDir The managed-objects directory
+     * @param moid The MO's ID
+     * @return The MO's directory (not created).
+     */
+    protected File getMoDir(File mosDir, int moid) throws IOException {
+        int bucket = bucketLayout.getBucket(moid);
+        int childCount = bucketLayout.getChildCount();
+        return new File(getBucketDirectories().getBucketDir(bucket / childCount, bucket % childCount), "" + moid + "");
     }
 
     /**
@@ -45,9 +106,48 @@ public abstract class ManagedObjectGeneratorBase implements ManagedObjectGenerat
      * @param moid
      * @param resultFile
      * @param title
+     * @param random The MO's random stream
+     * @throws Exception
+     */
+    protected abstract void makeXmlContent(int moid, File resultFile, String title, SplittableRandom random) throws Exception;
+
+    /**
+     * Generate the file for one version of an XML managed object whose versions
+     * are small changes to a base document. Each version includes the changes
+     * of the versions before it. The content depends only on the arguments so
+     * the same file can be generated again.
+     * <p>This default makes every version the same as the base document.</p>
+     * @param moid The MO's ID
+     * @param resultFile The file to generate
+     * @param title The MO's title
+     * @param baseSeed Seed of the base document
+     * @param versionIndex Zero-based index of the version
      * @throws Exception
      */
-    protected abstract void makeXmlContent(int moid, File resultFile, String title) throws Exception;
+    protected void makeXmlDeltaContent(int moid, File resultFile, String title, long baseSeed, int versionIndex)
+            throws Exception {
+        makeXmlContent(moid, resultFile, title, new SplittableRandom(baseSeed));
+    }
+
+    /**
+     * Make the content file for an XML MO, timing the rendering.
+     */
+    private void renderXmlContent(int moid, File resultFile, String title, SplittableRandom random)
+            throws Exception {
+        long start = System.nanoTime();
+        makeXmlContent(moid, resultFile, title, random);
+        metrics.recordLatency(Phase.TOPIC_RENDERING, start);
+    }
+
+    /**
+     * Make a version file for an XML MO with delta versions, timing the rendering.
+     */
+    private void renderXmlDeltaContent(int moid, File resultFile, String title, long baseSeed, int versionIndex)
+            throws Exception {
+        long start = System.nanoTime();
+        makeXmlDeltaContent(moid, resultFile, title, baseSeed, versionIndex);
+        metrics.recordLatency(Phase.TOPIC_RENDERING, start);
+    }
 
     public void generateManagedObjects() throws Exception {
         /*
@@ -56,7 +156,7 @@ public abstract class ManagedObjectGeneratorBase implements ManagedObjectGenerat
          * rsuite.content/
          *    managed-objects/
          *      0/
-         *        {n}/ (directories with numbers between 0 and 99, not necessary consecutive)
+         *        {n}/ (directories with numbers between 0 and 99, not necessarily consecutive)
          *          {moid}/ (One or more, usually no more than 2)
          *            {moid}.resource  (system metadata for the MO)
          *            {moid}-{versionid}.xml (XML for a specific version of the MO)
@@ -66,66 +166,487 @@ public abstract class ManagedObjectGeneratorBase implements ManagedObjectGenerat
          */
 
         /*
-         * Since RSuite tries to spread the MOs evenly over the directories, doing
+         * RSuite tries to spread the MOs evenly over the directories, doing
          * a breadth-first traversal of the directories, rather than a depth-first.
+         * The "balanced" bucket layout does the same; the default "random" layout
+         * keeps the original seeded placement. See BucketLayout.
          */
 
-        File contentDir = new File(generationParameters.getOutputDirectory(),
-                "rsuite.content");
-        File mosDir = new File(contentDir, "managed-objects");
-        if (!mosDir.mkdirs()) {
+        File mosDir = getMosDir();
+        if (!generationParameters.getOutputSink().makeDirectory(mosDir) && !generationParameters.isResuming()) {
             throw new RuntimeException("Failed to create directory \"" + mosDir.getAbsolutePath() + "\"");
         }
-        System.out.print("Managed Objects: ");
-        // First make the top 100 directories.
-        for (long i = 0; i < generationParameters.getMaxMoCount(); i++) {
-            File topDir = getRandomDir(0, 999, mosDir);
-            File childDir = getRandomDir(0,100, topDir);
+        if (generationParameters.isPrecreateBucketDirectories()) {
+            getBucketDirectories().makeAllBucketDirs(generationParameters.getThreads());
+        }
+        long moCount = generationParameters.getMoCountToGenerate();
+        if (generationParameters.isResuming()) {
+            moCount -= resumeFromCheckpoint(generationParameters.getCheckpoint());
+        }
+        generateManagedObjects(mosDir, moCount, generationParameters.getThreads());
+    }
+
+    /**
+     * Add new MOs to an existing export, with IDs from the next MO ID.
+     * @param moCount Number of MOs to add
+     * @throws Exception
+     */
+    public void appendManagedObjects(long moCount) throws Exception {
+        generateManagedObjects(getMosDir(), moCount, generationParameters.getThreads());
+    }
+
+    private void generateManagedObjects(File mosDir, long moCount, int threads) throws Exception {
+        log.info("Generating " + moCount + " managed objects...");
+        try {
+            if (threads <= 1 || moCount < threads) {
+                generateManagedObjects(mosDir, moCount);
+            } else {
+                generateManagedObjectsInParallel(mosDir, moCount, threads);
+            }
+        } finally {
+            closeNonXmlContentGenerator();
+        }
+    }
+
+    /**
+     * Split the managed object count across a pool of worker threads, each of
+     * which generates its share of the MOs. The first failure stops the
+     * remaining workers and is rethrown.
+     * @param mosDir The managed-objects directory
+     * @param moCount Total number of MOs to generate
+     * @param threads Number of worker threads
+     * @throws Exception
+     */
+    protected void generateManagedObjectsInParallel(final File mosDir, long moCount, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        long perWorker = moCount / threads;
+        long remainder = moCount % threads;
+        try {
+            for (int i = 0; i < threads; i++) {
+                final long workerCount = perWorker + (i < remainder ? 1 : 0);
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        generateManagedObjects(mosDir, workerCount);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    log.error("generateManagedObjects(): " + cause.getClass().getSimpleName() +
+                            " in generation worker: " + cause.getMessage());
+                    if (cause instanceof Exception) {
+                        throw (Exception)cause;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Generate the specified number of MOs on the current thread.
+     * @param mosDir The managed-objects directory
+     * @param moCount Number of MOs to generate
+     * @throws Exception
+     */
+    protected void generateManagedObjects(File mosDir, long moCount) throws Exception {
+        OutputSink sink = generationParameters.getOutputSink();
+        GenerationCheckpoint checkpoint = generationParameters.getCheckpoint();
+        boolean resuming = generationParameters.isResuming();
+        long generated = 0;
+        while (generated < moCount) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Managed object generation interrupted");
+            }
             int moid = generationParameters.getNextMoId();
-            File moDir = new File(childDir, "" + moid + "");
-            if (!moDir.mkdirs()) {
-                throw new RuntimeException("Failed to create directory \"" + moDir.getAbsolutePath() + "\"");
+            if (resuming && checkpoint.isCompleted(moid)) {
+                continue;
+            }
+            long start = System.nanoTime();
+            File moDir = getMoDir(mosDir, moid);
+            if (!sink.makeNewDirectory(moDir)) {
+                if (!resuming) {
+                    throw new RuntimeException("Failed to create directory \"" + moDir.getAbsolutePath() + "\"");
+                }
+                // Left behind by the run being resumed, possibly half-written.
+                FileUtils.cleanDirectory(moDir);
+            }
+            metrics.recordLatency(Phase.DIRECTORY_CREATION, start);
+
+            makeManagedObject(moDir, moid, generationParameters.getMoType(moid));
+            metrics.countManagedObject();
+            if (checkpoint != null) {
+                checkpoint.markCompleted(moid);
+            }
+            generated++;
+        }
+    }
+
+    /**
+     * Pick up an earlier run from its checkpoint: register the MOs it
+     * completed and continue the MO IDs from the first incomplete MO.
+     * The registered MOs' titles are recovered from the seed.
+     * @param checkpoint The earlier run's checkpoint
+     * @return The number of MOs already complete.
+     */
+    public long resumeFromCheckpoint(GenerationCheckpoint checkpoint) {
+        long seed = generationParameters.getSeed();
+        long completed = 0;
+        for (int moid = checkpoint.getFirstMoId(); moid < checkpoint.getEndMoId(); moid++) {
+            if (checkpoint.isCompleted(moid)) {
+                String title = makeTitle(RandomStreams.forManagedObject(seed, moid));
+                generationParameters.addMo(moid, generationParameters.getMoType(moid), title);
+                completed++;
+            }
+        }
+        generationParameters.setNextMoId(checkpoint.getCompletedBelow());
+        log.info("Resuming after " + completed + " completed managed objects, from MO " +
+                checkpoint.getCompletedBelow());
+        return completed;
+    }
+
+    /**
+     * Add versions to an MO of an existing export. The new version files
+     * follow the MO's version content setting, the current content becomes
+     * the latest version and the new versions are added to the end of the
+     * version list in the MO's resource file. Only the MO's resource file
+     * is read.
+     * @param moDir The MO's directory
+     * @param moid The MO's ID
+     * @param versionCount Number of versions to add
+     * @param random The stream to draw the new versions from
+     * @return False if the directory doesn't hold an MO's resource file.
+     * @throws Exception
+     */
+    public boolean appendVersions(File moDir, int moid, int versionCount, SplittableRandom random)
+            throws Exception {
+        File resourceFile = new File(moDir, moid + ".resource");
+        if (!resourceFile.isFile()) {
+            return false;
+        }
+        byte[] resource = FileUtils.readFileToByteArray(resourceFile);
+        // ISO-8859-1 maps each byte to one char, so string indexes are byte offsets.
+        String resourceStr = new String(resource, "ISO-8859-1");
+        int versionsEnd = resourceStr.lastIndexOf("</versions>");
+        if (versionsEnd < 0) {
+            throw new RuntimeException("No version list in resource file \"" + resourceFile.getAbsolutePath() + "\"");
+        }
+        int existingCount = 0;
+        for (int i = resourceStr.indexOf("<versionEntry>"); i >= 0; i = resourceStr.indexOf("<versionEntry>", i + 1)) {
+            existingCount++;
+        }
+        String title = getResourceDisplayName(resource, resourceStr);
+        boolean nonXml = resourceStr.contains("<contentType>");
+
+        ArrayList<String> versionSpecs = new ArrayList<String>();
+        for (int i = 0; i < versionCount; i++) {
+            versionSpecs.add(getVersionSpec(existingCount + i));
+        }
+        if (nonXml) {
+            appendNonXmlVersions(moDir, moid, versionSpecs);
+        } else {
+            appendXmlVersions(moDir, moid, title, existingCount, versionSpecs, random);
+        }
+        metrics.countVersions(versionCount);
+
+        long start = System.nanoTime();
+        RenderBuffer buffer = new RenderBuffer(resource.length + 512 * versionCount);
+        buffer.append(resource, 0, versionsEnd);
+        String userName = "fakeexportuser";
+        for (String versionSpec : versionSpecs) {
+            GenerationHelper.makeVersionEntry(buffer, title, versionSpec, nonXml ? "nonxml" : "topic",
+                    userName, random);
+        }
+        buffer.append(resource, versionsEnd, resource.length - versionsEnd);
+        replaceFile(resourceFile);
+        GenerationHelper.writeFile(generationParameters.getOutputSink(), resourceFile, buffer);
+        metrics.recordLatency(Phase.RESOURCE_WRITING, start);
+        return true;
+    }
+
+    /**
+     * Get the display name from a resource file.
+     * @return The display name, null if the versions have none.
+     */
+    private static String getResourceDisplayName(byte[] resource, String resourceStr) throws IOException {
+        int start = resourceStr.indexOf("<displayName>");
+        if (start < 0) {
+            return null;
+        }
+        start += "<displayName>".length();
+        int end = resourceStr.indexOf("</displayName>", start);
+        return new String(resource, start, end - start, "UTF-8")
+                .replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    /**
+     * Write the files for new versions of an XML MO and make the latest
+     * version the MO's current content.
+     */
+    private void appendXmlVersions(File moDir, int moid, String title, int existingCount,
+                                   List<String> versionSpecs, SplittableRandom random) throws Exception {
+        OutputSink sink = generationParameters.getOutputSink();
+        File contentXml = new File(moDir, "content.xml");
+        if ("identical".equals(versionContent)) {
+            // Every version is the current content.
+            for (String versionSpec : versionSpecs) {
+                File verFile = new File(moDir, moid + "-" + versionSpec + ".xml");
+                if (!sink.linkFile(verFile, contentXml)) {
+                    copyFile(contentXml, verFile);
+                }
             }
+            return;
+        }
+        File verFile = null;
+        long baseSeed = 0;
+        if ("delta".equals(versionContent)) {
+            // Continue the MO's chain of changes, which depends only on the seed and the MO's ID.
+            SplittableRandom moRandom = RandomStreams.forManagedObject(generationParameters.getSeed(), moid);
+            makeTitle(moRandom);
+            baseSeed = moRandom.nextLong();
+        }
+        for (int i = 0; i < versionSpecs.size(); i++) {
+            verFile = new File(moDir, moid + "-" + versionSpecs.get(i) + ".xml");
+            if ("delta".equals(versionContent)) {
+                renderXmlDeltaContent(moid, verFile, title, baseSeed, existingCount + i);
+            } else {
+                renderXmlContent(moid, verFile, title, random);
+            }
+        }
+        // The content file may be a link to an old version so it is replaced
+        // rather than written over.
+        replaceFile(contentXml);
+        if (!sink.linkFile(contentXml, verFile)) {
+            copyFile(verFile, contentXml);
+        }
+    }
 
-            makeManagedObject(moDir, moid, MoType.XML);
+    /**
+     * Write the files for new versions of a non-XML MO. The new versions
+     * all have the MO's current content.
+     */
+    private void appendNonXmlVersions(File moDir, int moid, List<String> versionSpecs) throws Exception {
+        File contentFile = null;
+        File[] files = moDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith("content.")) {
+                    contentFile = file;
+                }
+            }
+        }
+        if (contentFile == null) {
+            throw new RuntimeException("No content file in MO directory \"" + moDir.getAbsolutePath() + "\"");
+        }
+        String extension = contentFile.getName().substring("content.".length());
+        OutputSink sink = generationParameters.getOutputSink();
+        for (String versionSpec : versionSpecs) {
+            File verFile = new File(moDir, moid + "-" + versionSpec + "." + extension);
+            if (!sink.linkFile(verFile, contentFile)) {
+                copyFile(contentFile, verFile);
+            }
+        }
+    }
 
+    /**
+     * Remove a file that is about to be written again, so that any other
+     * links to the file keep their content.
+     */
+    private static void replaceFile(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete \"" + file.getAbsolutePath() + "\"");
         }
+    }
 
+    private void copyFile(File from, File to) throws IOException {
+        OutputStream out = generationParameters.getOutputSink().newOutputStream(to);
+        try {
+            FileUtils.copyFile(from, out);
+        } finally {
+            out.close();
+        }
+    }
 
+    /**
+     * Regenerate a single, previously-generated managed object in place.
+     * Given the same seed, the result is identical to the original.
+     * @param moid The ID of the MO to regenerate
+     * @return The MO's directory
+     * @throws Exception
+     */
+    public File regenerateManagedObject(int moid) throws Exception {
+        File moDir = getMoDir(getMosDir(), moid);
+        if (moDir.exists()) {
+            FileUtils.cleanDirectory(moDir);
+        } else {
+            generationParameters.getOutputSink().makeDirectory(moDir);
+        }
+        try {
+            makeManagedObject(moDir, moid, generationParameters.getMoType(moid));
+        } finally {
+            closeNonXmlContentGenerator();
+        }
+        return moDir;
+    }
+
+    /**
+     * Get the title of an XML MO. This is the first thing drawn from the
+     * MO's random stream so the title of any MO can be recovered from the
+     * seed and its ID.
+     * @param random The MO's random stream
+     * @return The title.
+     */
+    public static String makeTitle(SplittableRandom random) {
+        return GenerationHelper.getRandomWords(random, 2,5);
     }
 
     protected void makeManagedObject(File moDir, int moid, MoType moType) throws Exception {
+        if (moType == MoType.NONXML) {
+            makeNonXmlManagedObject(moDir, moid);
+            return;
+        }
+        SplittableRandom random = RandomStreams.forManagedObject(generationParameters.getSeed(), moid);
         File contentXml = new File(moDir, "content.xml");
-        String title = GenerationHelper.getRandomWords(2,5);
-        makeXmlContent(moid, contentXml, title);
-        ManagedObject mo = this.generationParameters.addMo(moid, moType.XML, title);
-        ArrayList<String> versionSpecs = getVersions(moDir, mo);
-        GenerationHelper.makeResourceFileForXmlMo(moDir, mo, versionSpecs);
+        String title = makeTitle(random);
+        ManagedObject mo;
+        ArrayList<String> versionSpecs;
+        if ("distinct".equals(versionContent)) {
+            renderXmlContent(moid, contentXml, title, random);
+            mo = this.generationParameters.addMo(moid, moType.XML, title);
+            versionSpecs = getVersions(moDir, mo, random);
+        } else {
+            long baseSeed = random.nextLong();
+            mo = this.generationParameters.addMo(moid, moType.XML, title);
+            versionSpecs = getVersionSpecs(random);
+            if ("identical".equals(versionContent)) {
+                makeIdenticalVersions(moDir, mo, contentXml, versionSpecs, baseSeed);
+            } else {
+                makeDeltaVersions(moDir, mo, contentXml, versionSpecs, baseSeed);
+            }
+        }
+        metrics.countVersions(versionSpecs.size());
+        long start = System.nanoTime();
+        GenerationHelper.makeResourceFileForXmlMo(generationParameters.getOutputSink(), moDir, mo, versionSpecs, random);
+        metrics.recordLatency(Phase.RESOURCE_WRITING, start);
 
     }
 
+    /**
+     * Write the content of an XML MO once and link the version files to it.
+     * Sinks that can't link get each version written in full.
+     */
+    private void makeIdenticalVersions(File moDir, ManagedObject mo, File contentXml,
+                                       List<String> versionSpecs, long baseSeed) throws Exception {
+        OutputSink sink = generationParameters.getOutputSink();
+        renderXmlContent(mo.getID(), contentXml, mo.getDisplayName(), new SplittableRandom(baseSeed));
+        for (String versionSpec : versionSpecs) {
+            File verFile = new File(moDir, mo.getID() + "-" + versionSpec + ".xml");
+            if (!sink.linkFile(verFile, contentXml)) {
+                renderXmlContent(mo.getID(), verFile, mo.getDisplayName(), new SplittableRandom(baseSeed));
+            }
+        }
+    }
+
+    /**
+     * Write the versions of an XML MO as changes to a base document and link
+     * the content file to the latest version. Sinks that can't link get the
+     * content file written in full.
+     */
+    private void makeDeltaVersions(File moDir, ManagedObject mo, File contentXml,
+                                   List<String> versionSpecs, long baseSeed) throws Exception {
+        OutputSink sink = generationParameters.getOutputSink();
+        File verFile = null;
+        for (int i = 0; i < versionSpecs.size(); i++) {
+            verFile = new File(moDir, mo.getID() + "-" + versionSpecs.get(i) + ".xml");
+            renderXmlDeltaContent(mo.getID(), verFile, mo.getDisplayName(), baseSeed, i);
+        }
+        if (!sink.linkFile(contentXml, verFile)) {
+            renderXmlDeltaContent(mo.getID(), contentXml, mo.getDisplayName(), baseSeed, versionSpecs.size() - 1);
+        }
+    }
+
+    /**
+     * Make a non-XML managed object: its content file, a file for each
+     * version and its resource file.
+     * @param moDir The MO's directory
+     * @param moid The MO's ID
+     * @throws Exception
+     */
+    protected void makeNonXmlManagedObject(File moDir, int moid) throws Exception {
+        SplittableRandom random = RandomStreams.forManagedObject(generationParameters.getSeed(), moid);
+        OutputSink sink = generationParameters.getOutputSink();
+        NonXmlContentGenerator contentGenerator = getNonXmlContentGenerator();
+        String title = makeTitle(random);
+        int mimeType = contentGenerator.pickMimeType(random);
+        String extension = contentGenerator.getExtension(mimeType);
+        long size = contentGenerator.pickSize(random);
+        File contentFile = new File(moDir, "content." + extension);
+        contentGenerator.writeContent(sink, contentFile, mimeType, size);
+        ManagedObject mo = this.generationParameters.addMo(moid, MoType.NONXML, title);
+
+        ArrayList<String> versionSpecs = getVersionSpecs(random);
+        for (String versionSpec : versionSpecs) {
+            File verFile = new File(moDir, moid + "-" + versionSpec + "." + extension);
+            long versionSize = contentGenerator.pickSize(random);
+            // Unless each version is distinct, the versions share the current content.
+            if ("distinct".equals(versionContent) || !sink.linkFile(verFile, contentFile)) {
+                contentGenerator.writeContent(sink, verFile, mimeType,
+                        "distinct".equals(versionContent) ? versionSize : size);
+            }
+        }
+        metrics.countVersions(versionSpecs.size());
+        String fileName = title.replace(' ', '_') + "." + extension;
+        long start = System.nanoTime();
+        GenerationHelper.makeResourceFileForNonXmlMo(sink, moDir, mo, versionSpecs,
+                contentGenerator.getMimeType(mimeType), fileName, size, random);
+        metrics.recordLatency(Phase.RESOURCE_WRITING, start);
+    }
+
+    /**
+     * Get a random number of version specs (1.0, 1.1, ...).
+     * @param random The MO's random stream
+     * @return The version specs. There will always be at least one version.
+     */
+    protected ArrayList<String> getVersionSpecs(SplittableRandom random) {
+        ArrayList<String> versionSpecs = new ArrayList<String>();
+        int versionCount = Math.max(1, versions.sample(random));
+        for (int i = 0; i < versionCount; i++) {
+            versionSpecs.add(getVersionSpec(i));
+        }
+        return versionSpecs;
+    }
+
+    /**
+     * Get the spec of an MO's version: every third version starts a new
+     * major version (1.0, 1.1, 1.2, 2.0, ...).
+     * @param versionIndex Zero-based index of the version
+     * @return The version spec.
+     */
+    protected static String getVersionSpec(int versionIndex) {
+        return (1 + versionIndex / 3) + "." + (versionIndex % 3);
+    }
+
     /**
      * Get a set of randomly-generated versions for a managed object
      * @param moDir
      * @param mo
+     * @param random The MO's random stream
      * @return The versions. There will always be at least one version
      * @throws Exception
      */
-    public ArrayList<String> getVersions(File moDir, ManagedObject mo) throws Exception {
-        ArrayList<String> versionSpecs = new ArrayList<String>();
-        int majorVer = 1;
-        int minorVer = 0;
-        int versionCount = ThreadLocalRandom.current().nextInt(1, generationParameters.getMaxVersions() + 1);
-        for (int i = 0; i < versionCount; i++) {
-            if (i > 0 && i % 3 == 0) {
-                majorVer++;
-                minorVer = 0;
-            }
-            String versionSpec = majorVer + "." + minorVer;
-            minorVer++;
-            versionSpecs.add(versionSpec);
+    public ArrayList<String> getVersions(File moDir, ManagedObject mo, SplittableRandom random) throws Exception {
+        ArrayList<String> versionSpecs = getVersionSpecs(random);
+        for (String versionSpec : versionSpecs) {
             File verFile = new File(moDir, mo.getID() + "-" + versionSpec + ".xml");
-            makeXmlContent(mo.getID(), verFile, mo.getDisplayName());
+            renderXmlContent(mo.getID(), verFile, mo.getDisplayName(), random);
         }
         return versionSpecs;
     }
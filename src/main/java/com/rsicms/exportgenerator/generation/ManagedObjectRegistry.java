@@ -0,0 +1,362 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.api.MoType;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compact registry of the generated managed objects.
+ * <p>Rather than keeping a ManagedObject for every MO, the registry keeps
+ * the MO IDs of each type in an int array and each MO's display name as
+ * a reference to a run of word indexes in the word list, which is what
+ * generated titles and container names are made of. Names that aren't
+ * made of word-list words are kept as strings. MOREFs are only counted.
+ * ManagedObjects are created on demand when the registry is read.</p>
+ * <p>Safe to use from multiple generation threads.</p>
+ */
+public class ManagedObjectRegistry {
+
+    private final Map<MoType, MoTable> tables = new EnumMap<MoType, MoTable>(MoType.class);
+    private final AtomicLong morefCount = new AtomicLong();
+
+    public ManagedObjectRegistry() {
+        for (MoType moType : MoType.values()) {
+            if (moType != MoType.MOREF) {
+                tables.put(moType, new MoTable(moType));
+            }
+        }
+    }
+
+    /**
+     * Register a managed object.
+     * @param moid The MO's ID
+     * @param moType The MO's type
+     * @param displayName The MO's display name, may be null
+     * @return The managed object.
+     */
+    public ManagedObject add(int moid, MoType moType, String displayName) {
+        if (moType == MoType.MOREF) {
+            morefCount.incrementAndGet();
+        } else {
+            tables.get(moType).add(moid, displayName);
+        }
+        return new ManagedObject(moid, moType, displayName);
+    }
+
+    /**
+     * Find a registered managed object. MOREFs are not kept so can't be found.
+     * @param moid The MO's ID
+     * @return The managed object or null if there is no MO with the ID.
+     */
+    public ManagedObject get(int moid) {
+        for (MoTable table : tables.values()) {
+            ManagedObject mo = table.find(moid);
+            if (mo != null) {
+                return mo;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get a read-only view of the managed objects of a type. MOREFs are
+     * only counted, so there is no view of them: use
+     * getManagedObjectCount() to count them.
+     * @param moType The MO type, not MOREF
+     * @return List of managed objects.
+     * @throws IllegalArgumentException If the type is MOREF.
+     */
+    public List<ManagedObject> getManagedObjectsOfType(MoType moType) {
+        if (moType == MoType.MOREF) {
+            throw new IllegalArgumentException("MOREFs are counted but not kept");
+        }
+        return tables.get(moType);
+    }
+
+    /**
+     * @param moType The MO type
+     * @return Number of managed objects of the type registered.
+     */
+    public long getManagedObjectCount(MoType moType) {
+        if (moType == MoType.MOREF) {
+            return morefCount.get();
+        }
+        return tables.get(moType).size();
+    }
+
+    /**
+     * Put the managed objects of a type in ID order.
+     * @param moType The MO type
+     */
+    public void sortById(MoType moType) {
+        if (moType != MoType.MOREF) {
+            tables.get(moType).sortById();
+        }
+    }
+
+    /**
+     * @return Total number of managed objects registered, including MOREFs.
+     */
+    public long size() {
+        long size = morefCount.get();
+        for (MoTable table : tables.values()) {
+            size += table.size();
+        }
+        return size;
+    }
+
+    /**
+     * Get the approximate number of heap bytes the registry takes up.
+     * @return The number of bytes.
+     */
+    public long getHeapBytes() {
+        long bytes = 0;
+        for (MoTable table : tables.values()) {
+            bytes += table.getHeapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * The MOs of one type.
+     * <p>Reads far outnumber writes once the MOs have been generated, e.g.,
+     * when the browse tree is generated in parallel, so reads don't lock.
+     * They go through an immutable snapshot of the table, which is
+     * published after each change the first time the table is read. The
+     * table's arrays are only ever appended to, or replaced when sorting,
+     * so a snapshot can share them rather than copy them.</p>
+     */
+    private static class MoTable extends AbstractList<ManagedObject> {
+
+        // Name reference for MOs without a display name.
+        private static final long NO_NAME = Long.MIN_VALUE;
+
+        // Word count is kept in the low byte of a name reference.
+        private static final int MAX_NAME_WORDS = 255;
+
+        private final MoType moType;
+        // Guarded by this table's monitor.
+        private int[] ids = new int[1024];
+        // Name references: non-negative for (offset in nameWords << 8) | word count,
+        // negative for -(1 + index in names).
+        private long[] nameRefs = new long[1024];
+        private int count = 0;
+        private boolean sorted = true;
+        private int[] nameWords = new int[4096];
+        private int nameWordCount = 0;
+        private String[] names = new String[16];
+        private int nameCount = 0;
+
+        // The table as of the last read, or null if it has changed since.
+        private volatile Snapshot snapshot = null;
+
+        MoTable(MoType moType) {
+            this.moType = moType;
+        }
+
+        void add(int moid, String displayName) {
+            // Look the words up before taking the lock.
+            int[] words = displayName == null ? null : toWordIndexes(displayName);
+            synchronized (this) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                    nameRefs = Arrays.copyOf(nameRefs, count * 2);
+                }
+                if (count > 0 && moid < ids[count - 1]) {
+                    sorted = false;
+                }
+                ids[count] = moid;
+                if (displayName == null) {
+                    nameRefs[count] = NO_NAME;
+                } else if (words == null) {
+                    if (nameCount == names.length) {
+                        names = Arrays.copyOf(names, nameCount * 2);
+                    }
+                    names[nameCount++] = displayName;
+                    nameRefs[count] = -nameCount;
+                } else {
+                    if (nameWordCount + words.length > nameWords.length) {
+                        nameWords = Arrays.copyOf(nameWords, Math.max(nameWords.length * 2, nameWordCount + words.length));
+                    }
+                    System.arraycopy(words, 0, nameWords, nameWordCount, words.length);
+                    nameRefs[count] = ((long)nameWordCount << 8) | words.length;
+                    nameWordCount += words.length;
+                }
+                count++;
+                snapshot = null;
+            }
+        }
+
+        /**
+         * Get the word list indexes of the space-separated words of a name.
+         * @return The indexes or null if the name isn't made of words from the word list.
+         */
+        private static int[] toWordIndexes(String displayName) {
+            WordList wordList = GenerationHelper.getWordList();
+            int[] words = new int[8];
+            int wordCount = 0;
+            int wordStart = 0;
+            for (int i = 0; i <= displayName.length(); i++) {
+                if (i == displayName.length() || displayName.charAt(i) == ' ') {
+                    int ndx = i > wordStart ? wordList.indexOf(displayName, wordStart, i) : -1;
+                    if (ndx < 0 || wordCount == MAX_NAME_WORDS) {
+                        return null;
+                    }
+                    if (wordCount == words.length) {
+                        words = Arrays.copyOf(words, wordCount * 2);
+                    }
+                    words[wordCount++] = ndx;
+                    wordStart = i + 1;
+                }
+            }
+            return Arrays.copyOf(words, wordCount);
+        }
+
+        /**
+         * @return The current snapshot of the table, publishing a new one if
+         * the table has changed.
+         */
+        private Snapshot current() {
+            Snapshot current = snapshot;
+            if (current == null) {
+                synchronized (this) {
+                    if (snapshot == null) {
+                        snapshot = new Snapshot(this);
+                    }
+                    current = snapshot;
+                }
+            }
+            return current;
+        }
+
+        @Override
+        public ManagedObject get(int index) {
+            Snapshot current = current();
+            if (index < 0 || index >= current.count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + current.count);
+            }
+            return new RegisteredManagedObject(current, current.ids[index], current.nameRefs[index]);
+        }
+
+        @Override
+        public int size() {
+            return current().count;
+        }
+
+        /**
+         * Find an MO by ID, putting the table in ID order first if it isn't.
+         */
+        ManagedObject find(int moid) {
+            Snapshot current = current();
+            if (!current.sorted) {
+                sortById();
+                current = current();
+            }
+            int ndx = Arrays.binarySearch(current.ids, 0, current.count, moid);
+            return ndx >= 0 ? new RegisteredManagedObject(current, moid, current.nameRefs[ndx]) : null;
+        }
+
+        synchronized void sortById() {
+            if (sorted) {
+                return;
+            }
+            // Sort (ID, position) pairs then rearrange the name references to
+            // match, into new arrays as snapshots may be reading the old ones.
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = ((long)ids[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            int[] sortedIds = new int[ids.length];
+            long[] sortedRefs = new long[nameRefs.length];
+            for (int i = 0; i < count; i++) {
+                sortedIds[i] = (int)(keys[i] >> 32);
+                sortedRefs[i] = nameRefs[(int)keys[i]];
+            }
+            ids = sortedIds;
+            nameRefs = sortedRefs;
+            sorted = true;
+            snapshot = new Snapshot(this);
+        }
+
+        synchronized long getHeapBytes() {
+            long bytes = 4L * ids.length + 8L * nameRefs.length + 4L * nameWords.length + 4L * names.length;
+            for (int i = 0; i < nameCount; i++) {
+                // Rough size of a string and its character array.
+                bytes += 40 + 2L * names[i].length();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * A table as it was when the snapshot was taken. The arrays are shared
+     * with the table, which never changes the parts the snapshot covers.
+     */
+    private static final class Snapshot {
+        final MoType moType;
+        final int[] ids;
+        final long[] nameRefs;
+        final int count;
+        final boolean sorted;
+        final int[] nameWords;
+        final String[] names;
+
+        // Called with the table's monitor held.
+        Snapshot(MoTable table) {
+            this.moType = table.moType;
+            this.ids = table.ids;
+            this.nameRefs = table.nameRefs;
+            this.count = table.count;
+            this.sorted = table.sorted;
+            this.nameWords = table.nameWords;
+            this.names = table.names;
+        }
+
+        String decodeName(long nameRef) {
+            if (nameRef == MoTable.NO_NAME) {
+                return null;
+            }
+            if (nameRef < 0) {
+                return names[(int)(-nameRef - 1)];
+            }
+            WordList wordList = GenerationHelper.getWordList();
+            int start = (int)(nameRef >>> 8);
+            int wordCount = (int)(nameRef & 0xff);
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < wordCount; i++) {
+                if (i > 0) {
+                    name.append(' ');
+                }
+                wordList.appendWord(name, nameWords[start + i]);
+            }
+            return name.toString();
+        }
+    }
+
+    /**
+     * Managed object read from the registry. The display name is only
+     * made when it is asked for.
+     */
+    private static class RegisteredManagedObject extends ManagedObject {
+
+        private final Snapshot snapshot;
+        private final long nameRef;
+
+        RegisteredManagedObject(Snapshot snapshot, int moid, long nameRef) {
+            super(moid, snapshot.moType, null);
+            this.snapshot = snapshot;
+            this.nameRef = nameRef;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return snapshot.decodeName(nameRef);
+        }
+    }
+}
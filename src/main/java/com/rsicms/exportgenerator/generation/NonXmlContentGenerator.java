@@ -0,0 +1,184 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.api.OutputSink;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Makes the content files of non-XML managed objects.
+ * <p>The content isn't generated byte by byte. Instead, there is a sample
+ * blob for each MIME type, starting with the file signature for the type
+ * followed by random bytes, and each content file is made by copying the
+ * type's blob, repeated as needed, so that the copying can be done by the
+ * kernel. Alternatively, the content files can be sparse files of zero bytes.</p>
+ */
+public class NonXmlContentGenerator implements Closeable {
+
+    private static Log log = LogFactory.getLog(NonXmlContentGenerator.class);
+
+    // Largest sample blob. Content files longer than this repeat the blob.
+    private static final long MAX_BLOB_SIZE = 4 * 1024 * 1024;
+
+    private static final Map<String, String> EXTENSIONS = new HashMap<String, String>();
+    private static final Map<String, byte[]> SIGNATURES = new HashMap<String, byte[]>();
+
+    static {
+        addMimeType("image/jpeg", "jpg", new byte[] { (byte)0xff, (byte)0xd8, (byte)0xff, (byte)0xe0 });
+        addMimeType("image/png", "png", new byte[] { (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' });
+        addMimeType("image/gif", "gif", "GIF89a".getBytes(StandardCharsets.US_ASCII));
+        addMimeType("image/tiff", "tif", new byte[] { 'I', 'I', '*', 0 });
+        addMimeType("application/pdf", "pdf", "%PDF-1.4\n".getBytes(StandardCharsets.US_ASCII));
+        addMimeType("application/zip", "zip", new byte[] { 'P', 'K', 3, 4 });
+        addMimeType("application/msword", "doc",
+                new byte[] { (byte)0xd0, (byte)0xcf, 0x11, (byte)0xe0, (byte)0xa1, (byte)0xb1, 0x1a, (byte)0xe1 });
+        addMimeType("application/octet-stream", "bin", new byte[0]);
+    }
+
+    private static void addMimeType(String mimeType, String extension, byte[] signature) {
+        EXTENSIONS.put(mimeType, extension);
+        SIGNATURES.put(mimeType, signature);
+    }
+
+    private final String[] mimeTypes;
+    private final long minSize;
+    private final long maxSize;
+    private final FileChannel[] blobs;
+    private File blobDir = null;
+
+    public NonXmlContentGenerator(GenerationParameters generationParameters) throws IOException {
+        List<String> mimeTypeList = generationParameters.getBinaryMimeTypes();
+        if (mimeTypeList.isEmpty()) {
+            throw new RuntimeException("No MIME types specified for non-XML managed objects");
+        }
+        this.mimeTypes = mimeTypeList.toArray(new String[mimeTypeList.size()]);
+        this.minSize = Math.max(1, generationParameters.getBinaryMinSize());
+        this.maxSize = Math.max(this.minSize, generationParameters.getBinaryMaxSize());
+        this.blobs = new FileChannel[mimeTypes.length];
+
+        String payload = generationParameters.getBinaryPayload();
+        if ("blobs".equals(payload)) {
+            makeBlobs(generationParameters.getSeed());
+        } else if (!"sparse".equals(payload)) {
+            throw new RuntimeException("Unrecognized binary payload type \"" + payload + "\"");
+        }
+    }
+
+    private void makeBlobs(long seed) throws IOException {
+        blobDir = Files.createTempDirectory("export-blobs-").toFile();
+        long blobSize = Math.min(maxSize, MAX_BLOB_SIZE);
+        for (int i = 0; i < mimeTypes.length; i++) {
+            File blobFile = new File(blobDir, "blob-" + i + "." + getExtension(i));
+            writeBlob(blobFile, getSignature(mimeTypes[i]), blobSize, RandomStreams.forBlob(seed, i));
+            blobs[i] = new RandomAccessFile(blobFile, "r").getChannel();
+        }
+        log.info("Made " + mimeTypes.length + " sample blobs of " + blobSize + " bytes in \"" +
+                blobDir.getAbsolutePath() + "\"");
+    }
+
+    private static void writeBlob(File blobFile, byte[] signature, long blobSize, SplittableRandom random)
+            throws IOException {
+        byte[] bytes = new byte[(int)blobSize];
+        int pos = 0;
+        while (pos < bytes.length) {
+            long value = random.nextLong();
+            for (int i = 0; i < 8 && pos < bytes.length; i++) {
+                bytes[pos++] = (byte)(value >>> (i * 8));
+            }
+        }
+        System.arraycopy(signature, 0, bytes, 0, Math.min(signature.length, bytes.length));
+        OutputStream out = new FileOutputStream(blobFile);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] getSignature(String mimeType) {
+        byte[] signature = SIGNATURES.get(mimeType);
+        return signature == null ? new byte[0] : signature;
+    }
+
+    /**
+     * Choose the MIME type for a non-XML MO.
+     * @param random The MO's random stream
+     * @return Index of the MIME type.
+     */
+    public int pickMimeType(SplittableRandom random) {
+        return random.nextInt(0, mimeTypes.length);
+    }
+
+    public String getMimeType(int mimeTypeIndex) {
+        return mimeTypes[mimeTypeIndex];
+    }
+
+    /**
+     * Get the file extension for a MIME type, "bin" for unrecognized types.
+     * @param mimeTypeIndex Index of the MIME type
+     * @return The extension, without the ".".
+     */
+    public String getExtension(int mimeTypeIndex) {
+        String extension = EXTENSIONS.get(mimeTypes[mimeTypeIndex]);
+        return extension == null ? "bin" : extension;
+    }
+
+    /**
+     * Choose the size of a content file. Sizes are spread evenly on a log
+     * scale between the minimum and maximum sizes, so there are many more
+     * small files than large ones.
+     * @param random The MO's random stream
+     * @return The size in bytes.
+     */
+    public long pickSize(SplittableRandom random) {
+        double u = random.nextDouble();
+        if (maxSize == minSize) {
+            return minSize;
+        }
+        long size = Math.round(minSize * Math.pow((double)maxSize / minSize, u));
+        return Math.max(minSize, Math.min(maxSize, size));
+    }
+
+    /**
+     * Write a content file.
+     * @param sink The sink to write to
+     * @param file The file to write
+     * @param mimeTypeIndex Index of the content's MIME type
+     * @param size Size of the file in bytes
+     * @throws IOException
+     */
+    public void writeContent(OutputSink sink, File file, int mimeTypeIndex, long size) throws IOException {
+        sink.writePayload(file, blobs[mimeTypeIndex], size);
+    }
+
+    /**
+     * Close the sample blobs and remove them.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        for (FileChannel blob : blobs) {
+            if (blob != null) {
+                blob.close();
+            }
+        }
+        if (blobDir != null) {
+            FileUtils.deleteDirectory(blobDir);
+            blobDir = null;
+        }
+    }
+}
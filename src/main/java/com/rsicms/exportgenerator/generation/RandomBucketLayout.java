@@ -0,0 +1,54 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.api.BucketLayout;
+
+import java.util.SplittableRandom;
+
+/**
+ * The original bucket layout: each MO goes in a bucket drawn at random
+ * from the MO's layout stream, one of 1000 top-level buckets and one of
+ * 101 child buckets (0 to 100) within it.
+ * <p>The buckets fill unevenly, but an export generated with a given seed
+ * has the same layout as it always had.</p>
+ */
+public class RandomBucketLayout implements BucketLayout {
+
+    private static final int TOP_COUNT = 1000;
+    private static final int CHILD_COUNT = 101;
+
+    private final long seed;
+
+    /**
+     * @param seed The generation seed
+     */
+    public RandomBucketLayout(long seed) {
+        this.seed = seed;
+    }
+
+    public int getTopCount() {
+        return TOP_COUNT;
+    }
+
+    public int getChildCount() {
+        return CHILD_COUNT;
+    }
+
+    public int getBucket(int moid) {
+        SplittableRandom layoutRandom = RandomStreams.forManagedObjectLayout(seed, moid);
+        int top = layoutRandom.nextInt(0, TOP_COUNT);
+        int child = layoutRandom.nextInt(0, CHILD_COUNT);
+        return top * CHILD_COUNT + child;
+    }
+
+    public double getExpectedBucketDirectoryCount(long moCount) {
+        return expectedOccupied(TOP_COUNT * CHILD_COUNT, moCount) + expectedOccupied(TOP_COUNT, moCount);
+    }
+
+    /**
+     * The expected number of buckets that hold at least one of a number of
+     * items placed uniformly at random.
+     */
+    private static double expectedOccupied(long buckets, long items) {
+        return buckets * -Math.expm1(items * Math.log1p(-1.0 / buckets));
+    }
+}
@@ -0,0 +1,150 @@
+package com.rsicms.exportgenerator.generation;
+
+import java.util.SplittableRandom;
+
+/**
+ * Derives independent random streams from the generation seed.
+ * <p>Each managed object and each container gets its own stream that
+ * depends only on the seed and the object's ID (or the container's
+ * position in the browse tree), never on the order in which things
+ * are generated. That makes the output the same for sequential, parallel
+ * and sharded runs with the same seed and allows any single MO to be
+ * regenerated on its own.</p>
+ */
+public final class RandomStreams {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    // Domain constants so that, e.g., MO 1000 and container key 1000
+    // don't get the same stream.
+    private static final long MO_CONTENT_DOMAIN = 0x4d4f434f4e54454eL;
+    private static final long MO_LAYOUT_DOMAIN = 0x4d4f4c41594f5554L;
+    private static final long CONTAINER_DOMAIN = 0x434f4e5441494e52L;
+    private static final long BLOB_DOMAIN = 0x424c4f42424c4f42L;
+    private static final long INCREMENT_DOMAIN = 0x494e4352454d4e54L;
+
+    private RandomStreams() {
+    }
+
+    /**
+     * Get the stream for the content of a managed object (title, versions, text).
+     * @param seed Generation seed
+     * @param moid The MO's ID
+     * @return New random stream
+     */
+    public static SplittableRandom forManagedObject(long seed, int moid) {
+        return new SplittableRandom(deriveKey(seed ^ MO_CONTENT_DOMAIN, moid));
+    }
+
+    /**
+     * Get the stream used to place a managed object in the managed-objects
+     * directory tree.
+     * @param seed Generation seed
+     * @param moid The MO's ID
+     * @return New random stream
+     */
+    public static SplittableRandom forManagedObjectLayout(long seed, int moid) {
+        return new SplittableRandom(deriveKey(seed ^ MO_LAYOUT_DOMAIN, moid));
+    }
+
+    /**
+     * Get the key of the root of the browse tree.
+     * @param seed Generation seed
+     * @return The root container key.
+     */
+    public static long rootContainerKey(long seed) {
+        return mix64(seed ^ CONTAINER_DOMAIN);
+    }
+
+    /**
+     * Get the key for a child container from its parent's key and
+     * its position within the parent.
+     * @param parentKey Key of the parent container
+     * @param childIndex Zero-based position of the child container
+     * @return The child container key.
+     */
+    public static long childContainerKey(long parentKey, int childIndex) {
+        return deriveKey(parentKey, childIndex);
+    }
+
+    /**
+     * Get the stream for a container.
+     * @param containerKey The container's key
+     * @return New random stream
+     */
+    public static SplittableRandom forContainer(long containerKey) {
+        return new SplittableRandom(containerKey);
+    }
+
+    /**
+     * Get the stream for the content of a sample blob that non-XML MO
+     * content is copied from.
+     * @param seed Generation seed
+     * @param blobIndex Index of the blob
+     * @return New random stream
+     */
+    public static SplittableRandom forBlob(long seed, int blobIndex) {
+        return new SplittableRandom(deriveKey(seed ^ BLOB_DOMAIN, blobIndex));
+    }
+
+    /**
+     * Get the stream for the change a version makes to an MO's base content.
+     * @param baseSeed Seed of the MO's base content
+     * @param versionIndex Zero-based index of the version
+     * @return New random stream
+     */
+    public static SplittableRandom forVersion(long baseSeed, int versionIndex) {
+        return new SplittableRandom(deriveKey(baseSeed, versionIndex));
+    }
+
+    /**
+     * Get the stream for the changes an increment appended to an existing
+     * export makes to one of the export's MOs.
+     * @param seed Generation seed
+     * @param incrementId The first MO ID of the increment, which is
+     * different for every increment of an export
+     * @param moid The MO's ID
+     * @return New random stream
+     */
+    public static SplittableRandom forIncrement(long seed, int incrementId, int moid) {
+        return new SplittableRandom(deriveKey(incrementKey(seed, incrementId), moid));
+    }
+
+    /**
+     * Get the key of the root of the browse tree containers added by an
+     * increment appended to an existing export.
+     * @param seed Generation seed
+     * @param incrementId The first MO ID of the increment
+     * @return The increment's root container key.
+     */
+    public static long incrementContainerKey(long seed, int incrementId) {
+        return mix64(incrementKey(seed, incrementId) ^ CONTAINER_DOMAIN);
+    }
+
+    private static long incrementKey(long seed, int incrementId) {
+        return deriveKey(seed ^ INCREMENT_DOMAIN, incrementId);
+    }
+
+    private static long deriveKey(long base, long n) {
+        return mix64(base + (n + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Spread the bits of a 32-bit hash code.
+     */
+    static int mix32(int h) {
+        h = (h ^ (h >>> 16)) * 0x85ebca6b;
+        h = (h ^ (h >>> 13)) * 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The SplitMix64 finalizer: a bijective mix with good avalanche
+     * behavior.
+     */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
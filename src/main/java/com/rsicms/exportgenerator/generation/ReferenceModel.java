@@ -0,0 +1,132 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.distribution.ZipfSampler;
+
+import java.math.BigInteger;
+import java.util.SplittableRandom;
+
+/**
+ * Picks the XML MOs that containers refer to, by their index in the list
+ * of XML MOs.
+ * <p>With the "uniform" reference model (the default) every MO is equally
+ * likely to be picked by every container. With the "hotspot" model:</p>
+ * <ul>
+ * <li>Reuse is Zipf-skewed (referenceSkew): each MO has a popularity rank
+ * and the most popular MOs are referred to by a large share of the
+ * containers.</li>
+ * <li>A share of the MOs (orphanShare) are never referred to.</li>
+ * <li>References are clustered (referenceLocality): after the first, each
+ * of a container's MOs is, with that chance, within referenceWindow of
+ * the one before it in the list, so siblings tend to be nearby MOs.</li>
+ * </ul>
+ * <p>The popularity ranks are spread over the MOs by an affine permutation
+ * of the indexes derived from the seed, so the hot MOs are scattered
+ * through the IDs and the rank of any MO can be worked out in constant
+ * time. Nothing is stored per MO and the MO list is never copied.</p>
+ */
+public class ReferenceModel {
+
+    private final int moCount;
+    private final boolean hotSpot;
+    // Number of MOs that can be referred to; the MOs of higher rank are orphans.
+    private final int referencedCount;
+    private final ZipfSampler popularity;
+    private final double locality;
+    private final int window;
+    // The permutation from popularity rank to MO index: (rank * stride + offset) mod moCount.
+    private final long stride;
+    private final long strideInverse;
+    private final long offset;
+
+    /**
+     * @param generationParameters The generation's parameters
+     * @param moCount Number of XML MOs that can be referred to
+     */
+    public ReferenceModel(GenerationParameters generationParameters, int moCount) {
+        this.moCount = moCount;
+        String model = generationParameters.getReferenceModel();
+        this.hotSpot = "hotspot".equals(model);
+        if (!hotSpot || moCount < 1) {
+            this.referencedCount = moCount;
+            this.popularity = null;
+            this.locality = 0;
+            this.window = 0;
+            this.stride = 1;
+            this.strideInverse = 1;
+            this.offset = 0;
+            return;
+        }
+        double orphanShare = generationParameters.getOrphanShare();
+        this.referencedCount = (int)Math.max(1, Math.round(moCount * (1 - orphanShare)));
+        this.popularity = new ZipfSampler(referencedCount, generationParameters.getReferenceSkew());
+        this.locality = generationParameters.getReferenceLocality();
+        this.window = Math.max(1, generationParameters.getReferenceWindow());
+
+        SplittableRandom random = new SplittableRandom(generationParameters.getSeed() ^ 0x5245464d4f44454cL);
+        this.offset = random.nextInt(0, moCount);
+        long candidate = moCount == 1 ? 1 : random.nextInt(1, moCount);
+        while (BigInteger.valueOf(candidate).gcd(BigInteger.valueOf(moCount)).intValue() != 1) {
+            candidate = candidate % (moCount - 1) + 1;
+        }
+        this.stride = candidate;
+        this.strideInverse = BigInteger.valueOf(candidate).modInverse(BigInteger.valueOf(moCount)).longValue();
+    }
+
+    public int getMoCount() {
+        return moCount;
+    }
+
+    /**
+     * Pick the MOs a container refers to.
+     * @param random The container's random stream
+     * @param childMos Array to fill with the indexes of the picked MOs
+     */
+    public void pickReferences(SplittableRandom random, int[] childMos) {
+        if (!hotSpot) {
+            for (int i = 0; i < childMos.length; i++) {
+                childMos[i] = random.nextInt(0, moCount);
+            }
+            return;
+        }
+        for (int i = 0; i < childMos.length; i++) {
+            int index = -1;
+            if (i > 0 && random.nextDouble() < locality) {
+                int distance = random.nextInt(1, window + 1);
+                long near = childMos[i - 1] + (random.nextBoolean() ? distance : -distance);
+                near = ((near % moCount) + moCount) % moCount;
+                if (isReferenced((int)near)) {
+                    index = (int)near;
+                }
+            }
+            if (index < 0) {
+                index = getIndex(popularity.sample(random) - 1);
+            }
+            childMos[i] = index;
+        }
+    }
+
+    /**
+     * @param rank Zero-based popularity rank
+     * @return The index of the MO with that rank.
+     */
+    int getIndex(int rank) {
+        return (int)((rank * stride + offset) % moCount);
+    }
+
+    /**
+     * @param index The MO's index
+     * @return The MO's zero-based popularity rank.
+     */
+    int getRank(int index) {
+        return (int)(((index - offset + moCount) % moCount) * strideInverse % moCount);
+    }
+
+    /**
+     * @param index The MO's index
+     * @return False if the MO is an orphan that is never referred to.
+     */
+    public boolean isReferenced(int index) {
+        return getRank(index) < referencedCount;
+    }
+}
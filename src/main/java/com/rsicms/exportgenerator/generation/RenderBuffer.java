@@ -0,0 +1,334 @@
+package com.rsicms.exportgenerator.generation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Growable byte buffer that a complete file is rendered into as UTF-8
+ * before being written out in one go.
+ * <p>Text is escaped the same way the StAX writer escapes character data
+ * so that rendered files are identical to StAX-written ones. Characters
+ * that XML doesn't allow, which the StAX writer would write as they are,
+ * are rejected.</p>
+ * <p>The buffer also fills in {@link ByteTemplate}s: begin() appends the
+ * template's first segment and each fill method appends a slot value
+ * followed by the template's next segment.</p>
+ */
+public class RenderBuffer {
+
+    private static final byte[] AMP = { '&', 'a', 'm', 'p', ';' };
+    private static final byte[] LT = { '&', 'l', 't', ';' };
+    private static final byte[] GT = { '&', 'g', 't', ';' };
+    private static final byte[] QUOT = { '&', 'q', 'u', 'o', 't', ';' };
+
+    private byte[] buf;
+    private int count = 0;
+
+    private ByteTemplate template = null;
+    private int segment = 0;
+    private OutputStream stream = null;
+
+    public RenderBuffer() {
+        this(8192);
+    }
+
+    public RenderBuffer(int initialSize) {
+        this.buf = new byte[initialSize];
+    }
+
+    /**
+     * Empty the buffer, keeping its storage for reuse.
+     * @return This buffer
+     */
+    public RenderBuffer reset() {
+        count = 0;
+        template = null;
+        segment = 0;
+        return this;
+    }
+
+    /**
+     * @return Number of bytes in the buffer.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return The buffer's storage. Only the first size() bytes are content.
+     */
+    public byte[] getBytes() {
+        return buf;
+    }
+
+    /**
+     * @return The size of the buffer's storage.
+     */
+    public int capacity() {
+        return buf.length;
+    }
+
+    /**
+     * @return A copy of the buffer's content.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    /**
+     * Write the buffer's content to a stream with a single write.
+     * @param out Stream to write to
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    /**
+     * Get a stream that appends to this buffer, e.g., for a StAX writer.
+     * The same stream is returned each time.
+     * @return The stream.
+     */
+    public OutputStream asOutputStream() {
+        if (stream == null) {
+            stream = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    append((byte)b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    append(b, off, len);
+                }
+            };
+        }
+        return stream;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (count + needed > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + needed));
+        }
+    }
+
+    public RenderBuffer append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    public RenderBuffer append(byte[] bytes, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(bytes, off, buf, count, len);
+        count += len;
+        return this;
+    }
+
+    public RenderBuffer append(byte b) {
+        ensureCapacity(1);
+        buf[count++] = b;
+        return this;
+    }
+
+    /**
+     * Append the decimal representation of an int.
+     * @param value The value
+     * @return This buffer
+     */
+    public RenderBuffer appendInt(int value) {
+        if (value == Integer.MIN_VALUE) {
+            return appendText(Integer.toString(value));
+        }
+        ensureCapacity(11);
+        if (value < 0) {
+            buf[count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int pos = count + digits;
+        do {
+            buf[--pos] = (byte)('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        count += digits;
+        return this;
+    }
+
+    /**
+     * Append text as character data, escaping markup characters.
+     * @param text The text
+     * @return This buffer
+     */
+    public RenderBuffer appendText(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            i = appendChar(text, i, false);
+        }
+        return this;
+    }
+
+    /**
+     * Append characters as character data, escaping markup characters.
+     * @param chars Characters to append
+     * @param off Offset of the first character
+     * @param len Number of characters
+     * @return This buffer
+     */
+    public RenderBuffer appendText(char[] chars, int off, int len) {
+        ensureCapacity(len);
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = chars[i];
+            if (c < 0x80 && c >= 0x20 && c != '&' && c != '<' && c != '>') {
+                buf[count++] = (byte)c;
+            } else {
+                appendText(new String(chars, i, end - i));
+                break;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Append text as an attribute value, escaping markup characters
+     * and double quotes.
+     * @param text The text
+     * @return This buffer
+     */
+    public RenderBuffer appendAttributeValue(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            i = appendChar(text, i, true);
+        }
+        return this;
+    }
+
+    /**
+     * Append the character at the specified position as UTF-8, escaping it as needed.
+     * @return The position of the last character consumed.
+     */
+    private int appendChar(CharSequence text, int i, boolean escapeQuotes) {
+        char c = text.charAt(i);
+        ensureCapacity(6);
+        if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+            throw notAllowed(c);
+        } else if (c < 0x80) {
+            switch (c) {
+                case '&': return appendEscape(AMP, i);
+                case '<': return appendEscape(LT, i);
+                case '>': return appendEscape(GT, i);
+                case '"':
+                    if (escapeQuotes) {
+                        return appendEscape(QUOT, i);
+                    }
+                    // Fall through
+                default:
+                    buf[count++] = (byte)c;
+            }
+        } else if (c < 0x800) {
+            buf[count++] = (byte)(0xc0 | (c >> 6));
+            buf[count++] = (byte)(0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < text.length() &&
+                Character.isLowSurrogate(text.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, text.charAt(i + 1));
+            buf[count++] = (byte)(0xf0 | (cp >> 18));
+            buf[count++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+            buf[count++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+            buf[count++] = (byte)(0x80 | (cp & 0x3f));
+            return i + 1;
+        } else if (Character.isSurrogate(c) || c >= 0xfffe) {
+            throw notAllowed(c);
+        } else {
+            buf[count++] = (byte)(0xe0 | (c >> 12));
+            buf[count++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+            buf[count++] = (byte)(0x80 | (c & 0x3f));
+        }
+        return i;
+    }
+
+    private static IllegalArgumentException notAllowed(char c) {
+        return new IllegalArgumentException(String.format(Locale.ROOT, "Character U+%04X is not allowed in XML", (int)c));
+    }
+
+    private int appendEscape(byte[] escape, int i) {
+        System.arraycopy(escape, 0, buf, count, escape.length);
+        count += escape.length;
+        return i;
+    }
+
+    /**
+     * Start filling in a template by appending its first segment.
+     * @param template The template
+     * @return This buffer
+     */
+    public RenderBuffer begin(ByteTemplate template) {
+        if (this.template != null) {
+            throw new IllegalStateException("Template " + this.template + " has not been completed");
+        }
+        this.template = template;
+        this.segment = 0;
+        append(template.getSegment(0));
+        return completeIfLast();
+    }
+
+    /**
+     * Fill the current template slot with text.
+     * @param text The slot value
+     * @return This buffer
+     */
+    public RenderBuffer fill(CharSequence text) {
+        appendText(text);
+        return nextSegment();
+    }
+
+    /**
+     * Fill the current template slot with a number.
+     * @param value The slot value
+     * @return This buffer
+     */
+    public RenderBuffer fill(int value) {
+        appendInt(value);
+        return nextSegment();
+    }
+
+    /**
+     * Fill the current template slot with random words.
+     * @param random The random stream to draw from
+     * @param min Minimum number of words
+     * @param max Maximum number of words
+     * @return This buffer
+     */
+    public RenderBuffer fillWords(SplittableRandom random, int min, int max) {
+        GenerationHelper.getWordList().appendRandomWords(this, random, min, max);
+        return nextSegment();
+    }
+
+    /**
+     * Fill the current template slot with a given number of random words.
+     * @param random The random stream to draw from
+     * @param wordCount Number of words
+     * @return This buffer
+     */
+    public RenderBuffer fillWords(SplittableRandom random, int wordCount) {
+        GenerationHelper.getWordList().appendRandomWords(this, random, wordCount);
+        return nextSegment();
+    }
+
+    private RenderBuffer nextSegment() {
+        if (template == null) {
+            throw new IllegalStateException("No template to fill");
+        }
+        append(template.getSegment(++segment));
+        return completeIfLast();
+    }
+
+    private RenderBuffer completeIfLast() {
+        if (segment == template.getSlotCount()) {
+            template = null;
+        }
+        return this;
+    }
+}
@@ -0,0 +1,77 @@
+package com.rsicms.exportgenerator.generation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-thread state for rendering generated files: a stack of render
+ * buffers that are reused from file to file.
+ * <p>Each file is rendered in full into a buffer and then written with a
+ * single write, so rendering a file allocates no streams and, once the
+ * buffers have grown to the size of the largest file, no buffer storage.
+ * Buffers are taken and given back in stack order, so a file can be
+ * rendered while another is part way through, as the MOREF resource files
+ * are while their container's CA file is being rendered:</p>
+ * <pre>
+ * RenderContext context = RenderContext.get();
+ * RenderBuffer buffer = context.acquireBuffer();
+ * try {
+ *     ... render into buffer ...
+ *     GenerationHelper.writeFile(sink, file, buffer);
+ * } finally {
+ *     context.releaseBuffer(buffer);
+ * }
+ * </pre>
+ */
+public final class RenderContext {
+
+    // Buffers that have grown larger than this, e.g., for an unusually
+    // large topic, are dropped rather than kept for the life of the thread.
+    static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<RenderContext> contexts = new ThreadLocal<RenderContext>() {
+        @Override
+        protected RenderContext initialValue() {
+            return new RenderContext();
+        }
+    };
+
+    private final List<RenderBuffer> buffers = new ArrayList<RenderBuffer>();
+    private int depth = 0;
+
+    private RenderContext() {
+    }
+
+    /**
+     * @return The current thread's render context.
+     */
+    public static RenderContext get() {
+        return contexts.get();
+    }
+
+    /**
+     * Take an empty buffer to render a file into. It must be given back
+     * with releaseBuffer() once the file is written.
+     * @return The buffer.
+     */
+    public RenderBuffer acquireBuffer() {
+        if (depth == buffers.size()) {
+            buffers.add(new RenderBuffer());
+        }
+        return buffers.get(depth++).reset();
+    }
+
+    /**
+     * Give back the buffer most recently taken with acquireBuffer().
+     * @param buffer The buffer
+     */
+    public void releaseBuffer(RenderBuffer buffer) {
+        if (depth == 0 || buffers.get(depth - 1) != buffer) {
+            throw new IllegalStateException("Render buffers must be released in the reverse order they are acquired");
+        }
+        depth--;
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffers.set(depth, new RenderBuffer());
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.rsicms.exportgenerator.generation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * The words random text is made from, packed into a single character
+ * array with an offset table so that words can be written out without
+ * creating a string for each one.
+ * <p>The words are also kept encoded as UTF-8, and each word is checked
+ * once for characters that would need escaping in XML, so that the words
+ * that don't can be copied into a render buffer as they are.</p>
+ */
+public class WordList {
+
+    private char[] chars = new char[1024 * 1024];
+    private int[] offsets = new int[64 * 1024];
+    private int size = 0;
+    private int charCount = 0;
+
+    private final byte[] bytes;
+    private final int[] byteOffsets;
+    private final BitSet needsEscaping;
+
+    // Open-addressing hash table of word index + 1, built on first lookup.
+    private volatile int[] index = null;
+
+    /**
+     * Load a word list with one word per line. Lines starting with "#"
+     * are ignored.
+     * @param inStream Stream to read the words from
+     * @throws IOException
+     */
+    public WordList(InputStream inStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inStream, "UTF-8"));
+        String line = reader.readLine();
+        while (line != null) {
+            if (!line.startsWith("#")) {
+                add(line.trim());
+            }
+            line = reader.readLine();
+        }
+        chars = Arrays.copyOf(chars, charCount);
+        offsets = Arrays.copyOf(offsets, size + 1);
+        offsets[size] = charCount;
+
+        // Only the words that need no escaping are encoded. The others are
+        // always written through the escaping path.
+        byte[] encoded = new byte[charCount];
+        byteOffsets = new int[size + 1];
+        needsEscaping = new BitSet(size);
+        int byteCount = 0;
+        for (int ndx = 0; ndx < size; ndx++) {
+            byteOffsets[ndx] = byteCount;
+            for (int i = offsets[ndx]; i < offsets[ndx + 1]; i++) {
+                if (!isSafe(chars[i])) {
+                    needsEscaping.set(ndx);
+                    break;
+                }
+            }
+            if (!needsEscaping.get(ndx)) {
+                byte[] word = new String(chars, offsets[ndx], offsets[ndx + 1] - offsets[ndx]).
+                        getBytes(StandardCharsets.UTF_8);
+                if (byteCount + word.length > encoded.length) {
+                    encoded = Arrays.copyOf(encoded, Math.max(encoded.length * 2, byteCount + word.length));
+                }
+                System.arraycopy(word, 0, encoded, byteCount, word.length);
+                byteCount += word.length;
+            }
+        }
+        byteOffsets[size] = byteCount;
+        bytes = Arrays.copyOf(encoded, byteCount);
+    }
+
+    /**
+     * Determine if a character can be written as character data or in an
+     * attribute value as it is.
+     */
+    static boolean isSafe(char c) {
+        if (c < 0x80) {
+            return c >= 0x20 && c != '&' && c != '<' && c != '>' && c != '"';
+        }
+        // Surrogates are only safe in pairs, so leave them to the escaping path.
+        return !Character.isSurrogate(c) && c < 0xfffe;
+    }
+
+    private void add(String word) {
+        if (size + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        while (charCount + word.length() > chars.length) {
+            chars = Arrays.copyOf(chars, chars.length * 2);
+        }
+        offsets[size++] = charCount;
+        word.getChars(0, word.length(), chars, charCount);
+        charCount += word.length();
+    }
+
+    /**
+     * @return Number of words in the list.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a word as a string.
+     * @param ndx Index of the word
+     * @return The word.
+     */
+    public String getWord(int ndx) {
+        return new String(chars, offsets[ndx], offsets[ndx + 1] - offsets[ndx]);
+    }
+
+    /**
+     * Get the number of characters in a word.
+     * @param ndx Index of the word
+     * @return The word's length.
+     */
+    public int getWordLength(int ndx) {
+        return offsets[ndx + 1] - offsets[ndx];
+    }
+
+    /**
+     * Determine if a word has characters that need escaping in XML.
+     * @param ndx Index of the word
+     * @return True if the word can't be copied into XML as it is.
+     */
+    public boolean needsEscaping(int ndx) {
+        return needsEscaping.get(ndx);
+    }
+
+    /**
+     * Append a word to a string builder.
+     * @param builder The builder to append to
+     * @param ndx Index of the word
+     */
+    public void appendWord(StringBuilder builder, int ndx) {
+        builder.append(chars, offsets[ndx], offsets[ndx + 1] - offsets[ndx]);
+    }
+
+    /**
+     * Find a word in the list.
+     * @param text Text containing the word
+     * @param start Position of the word's first character
+     * @param end Position following the word's last character
+     * @return The index of the word or -1 if it is not in the list.
+     */
+    public int indexOf(CharSequence text, int start, int end) {
+        int[] table = getIndex();
+        int mask = table.length - 1;
+        int pos = hash(text, start, end) & mask;
+        while (table[pos] != 0) {
+            int ndx = table[pos] - 1;
+            if (matches(ndx, text, start, end)) {
+                return ndx;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int[] getIndex() {
+        int[] table = index;
+        if (table == null) {
+            synchronized (this) {
+                table = index;
+                if (table == null) {
+                    table = new int[Integer.highestOneBit(Math.max(size, 1)) * 4];
+                    int mask = table.length - 1;
+                    for (int ndx = 0; ndx < size; ndx++) {
+                        int pos = hash(ndx) & mask;
+                        while (table[pos] != 0) {
+                            if (sameWord(table[pos] - 1, ndx)) {
+                                // Duplicate word, keep the first.
+                                break;
+                            }
+                            pos = (pos + 1) & mask;
+                        }
+                        if (table[pos] == 0) {
+                            table[pos] = ndx + 1;
+                        }
+                    }
+                    index = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    private int hash(int ndx) {
+        int h = 0;
+        for (int i = offsets[ndx]; i < offsets[ndx + 1]; i++) {
+            h = 31 * h + chars[i];
+        }
+        return RandomStreams.mix32(h);
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        return RandomStreams.mix32(h);
+    }
+
+    private boolean matches(int ndx, CharSequence text, int start, int end) {
+        int off = offsets[ndx];
+        if (offsets[ndx + 1] - off != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (chars[off++] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameWord(int ndx1, int ndx2) {
+        int len = offsets[ndx1 + 1] - offsets[ndx1];
+        if (offsets[ndx2 + 1] - offsets[ndx2] != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (chars[offsets[ndx1] + i] != chars[offsets[ndx2] + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pick a random word.
+     * @param random The random stream to draw from
+     * @return The index of the word.
+     */
+    public int randomWord(SplittableRandom random) {
+        return random.nextInt(0, size);
+    }
+
+    /**
+     * Append a space-separated sequence of randomly-chosen words.
+     * @param builder The builder to append to
+     * @param random The random stream to draw from
+     * @param min Minimum number of words
+     * @param max Maximum number of words
+     */
+    public void appendRandomWords(StringBuilder builder, SplittableRandom random, int min, int max) {
+        int wordCount = random.nextInt(min, max + 1);
+        for (int i = 0; i < wordCount; i++) {
+            int ndx = randomWord(random);
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(chars, offsets[ndx], offsets[ndx + 1] - offsets[ndx]);
+        }
+    }
+
+    /**
+     * Append a space-separated sequence of randomly-chosen words to a render
+     * buffer as escaped character data. Makes the same random draws as
+     * appendRandomWords().
+     * @param buffer The buffer to append to
+     * @param random The random stream to draw from
+     * @param min Minimum number of words
+     * @param max Maximum number of words
+     */
+    public void appendRandomWords(RenderBuffer buffer, SplittableRandom random, int min, int max) {
+        appendRandomWords(buffer, random, random.nextInt(min, max + 1));
+    }
+
+    /**
+     * Append a given number of randomly-chosen words to a render buffer as
+     * escaped character data. Words that need no escaping are copied from
+     * the encoded words as they are.
+     * @param buffer The buffer to append to
+     * @param random The random stream to draw from
+     * @param wordCount Number of words
+     */
+    public void appendRandomWords(RenderBuffer buffer, SplittableRandom random, int wordCount) {
+        for (int i = 0; i < wordCount; i++) {
+            int ndx = randomWord(random);
+            if (i > 0) {
+                buffer.append((byte)' ');
+            }
+            if (needsEscaping.get(ndx)) {
+                buffer.appendText(chars, offsets[ndx], offsets[ndx + 1] - offsets[ndx]);
+            } else {
+                buffer.append(bytes, byteOffsets[ndx], byteOffsets[ndx + 1] - byteOffsets[ndx]);
+            }
+        }
+    }
+}
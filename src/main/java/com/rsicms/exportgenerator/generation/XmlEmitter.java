@@ -0,0 +1,262 @@
+package com.rsicms.exportgenerator.generation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Writes XML as UTF-8 straight into a render buffer, producing the same
+ * bytes as the JDK's StAX writer does for the same calls.
+ * <p>The emitter provides the part of the StAX writer that the generators
+ * use. Text and attribute values are escaped as the StAX writer escapes
+ * them, except for text that has already been checked: constants made with
+ * {@link #safe(String)}, numbers and the word list's words that need no
+ * escaping are copied into the buffer as they are. Unlike the StAX writer,
+ * the emitter rejects characters that XML doesn't allow, so its output is
+ * always well formed.</p>
+ * <p>Element and attribute names are expected to be constants. They must be
+ * ASCII XML names.</p>
+ */
+public final class XmlEmitter {
+
+    private static final byte[] XML_DECLARATION = "<?xml version=\"1.0\" ?>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] XMLNS = " xmlns:".getBytes(StandardCharsets.UTF_8);
+
+    private final RenderBuffer buffer;
+    private String[] openElements = new String[16];
+    private int depth = 0;
+    // The start tag of the last element started is still open for attributes.
+    private boolean startTagOpen = false;
+    private boolean emptyElement = false;
+
+    /**
+     * @param buffer The buffer to write to
+     */
+    public XmlEmitter(RenderBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Check that text can be written as character data or as an attribute
+     * value without escaping and encode it.
+     * @param text The text
+     * @return The text encoded as UTF-8.
+     * @throws IllegalArgumentException If the text has any characters that
+     * need escaping.
+     */
+    public static byte[] safe(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!WordList.isSafe(text.charAt(i))) {
+                throw new IllegalArgumentException("Text \"" + text + "\" needs escaping");
+            }
+        }
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The buffer the emitter writes to.
+     */
+    public RenderBuffer getBuffer() {
+        return buffer;
+    }
+
+    public XmlEmitter startDocument() {
+        buffer.append(XML_DECLARATION);
+        return this;
+    }
+
+    /**
+     * Close all the open elements.
+     * @return This emitter
+     */
+    public XmlEmitter endDocument() {
+        closeStartTag();
+        while (depth > 0) {
+            endElement();
+        }
+        return this;
+    }
+
+    public XmlEmitter startElement(String name) {
+        closeStartTag();
+        buffer.append((byte)'<');
+        appendName(name);
+        if (depth == openElements.length) {
+            openElements = Arrays.copyOf(openElements, depth * 2);
+        }
+        openElements[depth++] = name;
+        startTagOpen = true;
+        emptyElement = false;
+        return this;
+    }
+
+    /**
+     * Start an element that has attributes but no content. The element is
+     * ended by whatever is written next.
+     * @param name The element name
+     * @return This emitter
+     */
+    public XmlEmitter emptyElement(String name) {
+        closeStartTag();
+        buffer.append((byte)'<');
+        appendName(name);
+        startTagOpen = true;
+        emptyElement = true;
+        return this;
+    }
+
+    public XmlEmitter endElement() {
+        if (depth == 0) {
+            throw new IllegalStateException("No element to end");
+        }
+        closeStartTag();
+        String name = openElements[--depth];
+        openElements[depth] = null;
+        buffer.append((byte)'<').append((byte)'/');
+        appendName(name);
+        buffer.append((byte)'>');
+        return this;
+    }
+
+    /**
+     * Declare a namespace prefix on the current element.
+     * @param prefix The prefix
+     * @param namespaceUri The namespace URI, which is escaped
+     * @return This emitter
+     */
+    public XmlEmitter namespace(String prefix, CharSequence namespaceUri) {
+        startNamespace(prefix);
+        buffer.appendAttributeValue(namespaceUri).append((byte)'"');
+        return this;
+    }
+
+    /**
+     * Declare a namespace prefix with a URI made with safe() on the current element.
+     * @param prefix The prefix
+     * @param safeNamespaceUri The encoded namespace URI
+     * @return This emitter
+     */
+    public XmlEmitter namespace(String prefix, byte[] safeNamespaceUri) {
+        startNamespace(prefix);
+        buffer.append(safeNamespaceUri).append((byte)'"');
+        return this;
+    }
+
+    /**
+     * Add an attribute to the current element.
+     * @param name The attribute name
+     * @param value The attribute value, which is escaped
+     * @return This emitter
+     */
+    public XmlEmitter attribute(String name, CharSequence value) {
+        startAttribute(name);
+        buffer.appendAttributeValue(value).append((byte)'"');
+        return this;
+    }
+
+    /**
+     * Add an attribute with a value made with safe() to the current element.
+     * @param name The attribute name
+     * @param safeValue The encoded attribute value
+     * @return This emitter
+     */
+    public XmlEmitter attribute(String name, byte[] safeValue) {
+        startAttribute(name);
+        buffer.append(safeValue).append((byte)'"');
+        return this;
+    }
+
+    public XmlEmitter attribute(String name, int value) {
+        startAttribute(name);
+        buffer.appendInt(value).append((byte)'"');
+        return this;
+    }
+
+    /**
+     * Write character data.
+     * @param text The text, which is escaped
+     * @return This emitter
+     */
+    public XmlEmitter characters(CharSequence text) {
+        closeStartTag();
+        buffer.appendText(text);
+        return this;
+    }
+
+    /**
+     * Write character data made with safe().
+     * @param safeText The encoded text
+     * @return This emitter
+     */
+    public XmlEmitter characters(byte[] safeText) {
+        closeStartTag();
+        buffer.append(safeText);
+        return this;
+    }
+
+    public XmlEmitter characters(int value) {
+        closeStartTag();
+        buffer.appendInt(value);
+        return this;
+    }
+
+    /**
+     * Write a given number of randomly-chosen words as character data.
+     * Writes the same words as WordList.appendRandomWords().
+     * @param random The random stream to draw from
+     * @param wordCount Number of words
+     * @return This emitter
+     */
+    public XmlEmitter randomWords(SplittableRandom random, int wordCount) {
+        closeStartTag();
+        GenerationHelper.getWordList().appendRandomWords(buffer, random, wordCount);
+        return this;
+    }
+
+    private void startAttribute(String name) {
+        if (!startTagOpen) {
+            throw new IllegalStateException("No start tag to add attribute \"" + name + "\" to");
+        }
+        buffer.append((byte)' ');
+        appendName(name);
+        buffer.append((byte)'=').append((byte)'"');
+    }
+
+    private void startNamespace(String prefix) {
+        if (!startTagOpen) {
+            throw new IllegalStateException("No start tag to declare namespace prefix \"" + prefix + "\" on");
+        }
+        buffer.append(XMLNS);
+        appendName(prefix);
+        buffer.append((byte)'=').append((byte)'"');
+    }
+
+    private void closeStartTag() {
+        if (startTagOpen) {
+            if (emptyElement) {
+                buffer.append((byte)'/');
+            }
+            buffer.append((byte)'>');
+            startTagOpen = false;
+            emptyElement = false;
+        }
+    }
+
+    private void appendName(String name) {
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Empty XML name");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!isNameChar(c) || (i == 0 && (c == '-' || c == '.' || (c >= '0' && c <= '9')))) {
+                throw new IllegalArgumentException("\"" + name + "\" is not an ASCII XML name");
+            }
+            buffer.append((byte)c);
+        }
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == '-' || c == '_' || c == '.' || c == ':';
+    }
+}
@@ -0,0 +1,286 @@
+package com.rsicms.exportgenerator.metrics;
+
+import com.rsicms.exportgenerator.api.OutputSink;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, rates and latencies for a generation run.
+ * <p>The generators count the MOs, versions and containers they make and
+ * time the phases of the work; the file and byte counts come from the
+ * output sink. While the run is going a progress line with the counts and
+ * the rates over the last interval is reported at a fixed interval, and at
+ * the end the totals, overall rates and latency percentiles are written
+ * as metrics.json and metrics.csv.</p>
+ * <p>Everything is safe to update from any number of threads.</p>
+ */
+public class GenerationMetrics {
+
+    private static Log log = LogFactory.getLog(GenerationMetrics.class);
+
+    public static final String JSON_FILE_NAME = "metrics.json";
+    public static final String CSV_FILE_NAME = "metrics.csv";
+
+    /**
+     * The timed phases of generation.
+     */
+    public enum Phase {
+        TOPIC_RENDERING("topicRendering"),
+        RESOURCE_WRITING("resourceWriting"),
+        DIRECTORY_CREATION("directoryCreation");
+
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    private final LongAdder managedObjects = new LongAdder();
+    private final LongAdder versions = new LongAdder();
+    private final LongAdder containers = new LongAdder();
+    private final Map<Phase, LatencyHistogram> latencies = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+    private volatile OutputSink sink = null;
+    private volatile long startNanos = System.nanoTime();
+    private volatile long endNanos = 0;
+    private ScheduledExecutorService reporter = null;
+
+    // Counts as of the last progress report, for the interval rates.
+    private long[] lastCounts = new long[5];
+    private long lastReportNanos;
+
+    public GenerationMetrics() {
+        for (Phase phase : Phase.values()) {
+            latencies.put(phase, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Set the sink whose file and byte counts are reported.
+     * @param sink The output sink
+     */
+    public void setOutputSink(OutputSink sink) {
+        this.sink = sink;
+    }
+
+    public void countManagedObject() {
+        managedObjects.increment();
+    }
+
+    public void countVersions(int count) {
+        versions.add(count);
+    }
+
+    public void countContainer() {
+        containers.increment();
+    }
+
+    /**
+     * Record the time taken by one piece of work in a phase.
+     * @param phase The phase
+     * @param startNanos The System.nanoTime() when the work started
+     */
+    public void recordLatency(Phase phase, long startNanos) {
+        latencies.get(phase).record(System.nanoTime() - startNanos);
+    }
+
+    public long getManagedObjectCount() {
+        return managedObjects.sum();
+    }
+
+    public long getVersionCount() {
+        return versions.sum();
+    }
+
+    public long getContainerCount() {
+        return containers.sum();
+    }
+
+    public long getFileCount() {
+        OutputSink outputSink = this.sink;
+        return outputSink == null ? 0 : outputSink.getFileCount();
+    }
+
+    public long getByteCount() {
+        OutputSink outputSink = this.sink;
+        return outputSink == null ? 0 : outputSink.getByteCount();
+    }
+
+    public LatencyHistogram getLatencies(Phase phase) {
+        return latencies.get(phase);
+    }
+
+    /**
+     * @return Seconds from the start of the run to now, or to the end of
+     * the run once it has stopped.
+     */
+    public double getElapsedSeconds() {
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        return (end - startNanos) / 1e9;
+    }
+
+    /**
+     * Start the run's clock and the periodic progress reports.
+     * @param intervalSeconds Seconds between progress reports, 0 for no reports
+     */
+    public synchronized void start(long intervalSeconds) {
+        startNanos = System.nanoTime();
+        endNanos = 0;
+        lastReportNanos = startNanos;
+        lastCounts = getCounts();
+        if (intervalSeconds > 0 && reporter == null) {
+            reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "export-metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            reporter.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    report();
+                }
+            }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stop the run's clock and the progress reports.
+     */
+    public synchronized void stop() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        endNanos = System.nanoTime();
+    }
+
+    private long[] getCounts() {
+        return new long[] { getManagedObjectCount(), getVersionCount(), getContainerCount(),
+                getFileCount(), getByteCount() };
+    }
+
+    /**
+     * Report the counts so far and the rates since the last report.
+     */
+    synchronized void report() {
+        long now = System.nanoTime();
+        long[] counts = getCounts();
+        double seconds = Math.max(1e-9, (now - lastReportNanos) / 1e9);
+        log.info(String.format(Locale.ROOT,
+                "Progress: %d MOs (%.0f/s), %d versions (%.0f/s), %d containers (%.0f/s), " +
+                        "%d files (%.0f/s), %.1f MB (%.1f MB/s)",
+                counts[0], (counts[0] - lastCounts[0]) / seconds,
+                counts[1], (counts[1] - lastCounts[1]) / seconds,
+                counts[2], (counts[2] - lastCounts[2]) / seconds,
+                counts[3], (counts[3] - lastCounts[3]) / seconds,
+                counts[4] / 1e6, (counts[4] - lastCounts[4]) / 1e6 / seconds));
+        lastCounts = counts;
+        lastReportNanos = now;
+    }
+
+    /**
+     * Write the summary of the run, metrics.json and metrics.csv, to a directory.
+     * @param dir The directory, made if it doesn't exist
+     * @throws IOException
+     */
+    public void writeSummary(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Failed to create directory \"" + dir.getAbsolutePath() + "\"");
+        }
+        writeFile(new File(dir, JSON_FILE_NAME), toJson());
+        writeFile(new File(dir, CSV_FILE_NAME), toCsv());
+        log.info("Wrote generation metrics to \"" + dir.getAbsolutePath() + "\"");
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return The summary as a JSON object.
+     */
+    public String toJson() {
+        double seconds = getElapsedSeconds();
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append(String.format(Locale.ROOT, "  \"elapsedSeconds\": %.3f,\n", seconds));
+        json.append("  \"counters\": {\n");
+        String[] names = getCounterNames();
+        long[] counts = getCounts();
+        for (int i = 0; i < names.length; i++) {
+            json.append(String.format(Locale.ROOT, "    \"%s\": { \"count\": %d, \"ratePerSecond\": %.1f }%s\n",
+                    names[i], counts[i], rate(counts[i], seconds), i + 1 < names.length ? "," : ""));
+        }
+        json.append("  },\n");
+        json.append("  \"latencies\": {\n");
+        Phase[] phases = Phase.values();
+        for (int i = 0; i < phases.length; i++) {
+            LatencyHistogram histogram = latencies.get(phases[i]);
+            json.append(String.format(Locale.ROOT,
+                    "    \"%s\": { \"count\": %d, \"meanMicros\": %.1f, \"p50Micros\": %.1f, " +
+                            "\"p90Micros\": %.1f, \"p99Micros\": %.1f, \"maxMicros\": %.1f }%s\n",
+                    phases[i].getMetricName(), histogram.getCount(), histogram.getMean() / 1e3,
+                    histogram.getPercentile(0.5) / 1e3, histogram.getPercentile(0.9) / 1e3,
+                    histogram.getPercentile(0.99) / 1e3, histogram.getMax() / 1e3,
+                    i + 1 < phases.length ? "," : ""));
+        }
+        json.append("  }\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * @return The summary as CSV, one row per counter or timed phase.
+     */
+    public String toCsv() {
+        double seconds = getElapsedSeconds();
+        StringBuilder csv = new StringBuilder();
+        csv.append("metric,count,ratePerSecond,meanMicros,p50Micros,p90Micros,p99Micros,maxMicros\n");
+        String[] names = getCounterNames();
+        long[] counts = getCounts();
+        for (int i = 0; i < names.length; i++) {
+            csv.append(String.format(Locale.ROOT, "%s,%d,%.1f,,,,,\n", names[i], counts[i], rate(counts[i], seconds)));
+        }
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram histogram = latencies.get(phase);
+            csv.append(String.format(Locale.ROOT, "%s,%d,,%.1f,%.1f,%.1f,%.1f,%.1f\n",
+                    phase.getMetricName(), histogram.getCount(), histogram.getMean() / 1e3,
+                    histogram.getPercentile(0.5) / 1e3, histogram.getPercentile(0.9) / 1e3,
+                    histogram.getPercentile(0.99) / 1e3, histogram.getMax() / 1e3));
+        }
+        return csv.toString();
+    }
+
+    private static String[] getCounterNames() {
+        return new String[] { "managedObjects", "versions", "containers", "files", "bytes" };
+    }
+
+    private static double rate(long count, double seconds) {
+        return seconds <= 0 ? 0 : count / seconds;
+    }
+}
@@ -0,0 +1,170 @@
+package com.rsicms.exportgenerator.output;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Base superclass for sinks that stream the export into one or more
+ * rolling archive files rather than writing individual files.
+ * <p>Each file is collected in memory until it is closed and then
+ * written to the current archive as a single entry whose path is the
+ * file's path relative to the output directory. Payloads written with
+ * writePayload() have a known length, so they are streamed straight
+ * into their entry and never held in memory. When the current
+ * archive reaches the configured entry or byte limit a new archive is
+ * started. Directories are implied by the entry paths and are not
+ * written as separate entries.</p>
+ */
+public abstract class ArchiveOutputSink extends OutputSinkBase {
+
+    private static Log log = LogFactory.getLog(ArchiveOutputSink.class);
+
+    private final String archiveBaseName;
+    private final long maxEntries;
+    private final long maxBytes;
+
+    private OutputStream archiveOut = null;
+    private int archiveCount = 0;
+    private long archiveEntries = 0;
+    private long archiveBytes = 0;
+
+    /**
+     * @param rootDir The output directory. The archives are written to this directory.
+     * @param archiveBaseName Base name of the archive files, e.g. "rsuite-export"
+     * @param maxEntries Maximum entries per archive, 0 for no limit.
+     * @param maxBytes Maximum uncompressed bytes per archive, 0 for no limit.
+     */
+    public ArchiveOutputSink(File rootDir, String archiveBaseName, long maxEntries, long maxBytes) {
+        super(rootDir);
+        this.archiveBaseName = archiveBaseName;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return The archive file extension, including the ".".
+     */
+    protected abstract String getArchiveExtension();
+
+    /**
+     * Open a new archive.
+     * @param archiveFile The archive file
+     * @return Stream to write the entries to.
+     * @throws IOException
+     */
+    protected abstract OutputStream openArchive(File archiveFile) throws IOException;
+
+    /**
+     * Write one file to the archive.
+     * @param archiveOut The stream returned by openArchive()
+     * @param path Entry path
+     * @param data The file's content
+     * @param len Number of bytes of content
+     * @throws IOException
+     */
+    protected abstract void writeEntry(OutputStream archiveOut, String path, byte[] data, int len) throws IOException;
+
+    /**
+     * Write one file to the archive, streaming its content from a payload
+     * blob as OutputSink.writePayload() describes.
+     * @param archiveOut The stream returned by openArchive()
+     * @param path Entry path
+     * @param blob Channel to read the sample blob from, null for zero bytes
+     * @param length Length of the file in bytes
+     * @throws IOException
+     */
+    protected abstract void writePayloadEntry(OutputStream archiveOut, String path, FileChannel blob, long length)
+            throws IOException;
+
+    public boolean makeDirectory(File dir) throws IOException {
+        countDirectory();
+        return true;
+    }
+
+    public boolean makeNewDirectory(File dir) throws IOException {
+        return makeDirectory(dir);
+    }
+
+    public OutputStream newOutputStream(File file) throws IOException {
+        final String path = getRelativePath(file);
+        return countingStream(new ByteArrayOutputStream() {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    addEntry(path, buf, count);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stream the payload into an entry of its own rather than collecting it
+     * in memory, so that payloads of any size can be written.
+     */
+    @Override
+    public void writePayload(File file, FileChannel blob, long length) throws IOException {
+        String path = getRelativePath(file);
+        synchronized (this) {
+            startEntry(length);
+            writePayloadEntry(archiveOut, path, blob, length);
+            archiveEntries++;
+            archiveBytes += length;
+        }
+        countFile();
+        countBytes(length);
+    }
+
+    private synchronized void addEntry(String path, byte[] data, int len) throws IOException {
+        startEntry(len);
+        writeEntry(archiveOut, path, data, len);
+        archiveEntries++;
+        archiveBytes += len;
+    }
+
+    /**
+     * Make sure there is an archive to add an entry of a given length to,
+     * starting a new one if the entry would take the current one over its
+     * limits.
+     * @param len Uncompressed length of the entry
+     */
+    private void startEntry(long len) throws IOException {
+        if (archiveOut != null &&
+                ((maxEntries > 0 && archiveEntries >= maxEntries) ||
+                 (maxBytes > 0 && archiveBytes + len > maxBytes))) {
+            archiveOut.close();
+            archiveOut = null;
+        }
+        if (archiveOut == null) {
+            File archiveFile = new File(rootDir, String.format("%s-%04d%s",
+                    archiveBaseName, archiveCount++, getArchiveExtension()));
+            log.info("Starting archive \"" + archiveFile.getAbsolutePath() + "\"");
+            archiveOut = openArchive(archiveFile);
+            archiveEntries = 0;
+            archiveBytes = 0;
+        }
+    }
+
+    /**
+     * @return Number of archives started so far.
+     */
+    public synchronized int getArchiveCount() {
+        return archiveCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (archiveOut != null) {
+            archiveOut.close();
+            archiveOut = null;
+        }
+    }
+}
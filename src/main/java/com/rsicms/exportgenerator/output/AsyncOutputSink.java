@@ -0,0 +1,300 @@
+package com.rsicms.exportgenerator.output;
+
+import com.rsicms.exportgenerator.api.OutputSink;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Output sink that hands completed files to a set of writer threads so
+ * that content generation and file writing overlap.
+ * <p>Each file is collected in a pooled buffer until its stream is closed
+ * and then queued for one of the writer threads, which writes it to the
+ * underlying sink. The queue is bounded: when the writers fall behind,
+ * closing a file blocks until there is room in the queue. Directories
+ * are made immediately, on the calling thread, so a file's directory
+ * always exists by the time the file is written.</p>
+ * <p>If a write fails, the failure is reported to the generation threads
+ * the next time they open or close a file and by close(), so the first
+ * failure stops the whole run. A writer thread that stops for any other
+ * reason, e.g., an Error, is reported as a failure too, and nothing waits
+ * for room in the queue once no writer thread is left to make it.</p>
+ */
+public class AsyncOutputSink implements OutputSink {
+
+    private static Log log = LogFactory.getLog(AsyncOutputSink.class);
+
+    // Buffers that have grown beyond this are not kept for reuse.
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    // Queued to tell a writer thread to stop.
+    private static final WriteRequest END_OF_REQUESTS = new WriteRequest(null, null);
+
+    // How often a thread waiting for room in the queue checks that the
+    // writer threads are still running.
+    private static final long QUEUE_WAIT_MILLIS = 100;
+
+    private final OutputSink sink;
+    private final BlockingQueue<WriteRequest> queue;
+    private final ConcurrentLinkedQueue<PooledBuffer> bufferPool = new ConcurrentLinkedQueue<PooledBuffer>();
+    private final AtomicInteger pooledBufferCount = new AtomicInteger();
+    private final int maxPooledBuffers;
+    private final List<Thread> writers = new ArrayList<Thread>();
+    private final AtomicInteger liveWriters = new AtomicInteger();
+    private final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+    private boolean closed = false;
+
+    /**
+     * @param sink The sink the writer threads write to
+     * @param writerThreads Number of writer threads
+     * @param queueSize Maximum number of files waiting to be written
+     */
+    public AsyncOutputSink(OutputSink sink, int writerThreads, int queueSize) {
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<WriteRequest>(queueSize);
+        // Enough buffers for a full queue, the files being written and
+        // some being filled in.
+        this.maxPooledBuffers = queueSize + writerThreads * 2;
+        for (int i = 0; i < writerThreads; i++) {
+            Thread writer = new Thread(new Runnable() {
+                public void run() {
+                    writeQueuedFiles();
+                }
+            }, "export-writer-" + i);
+            writer.setDaemon(true);
+            writers.add(writer);
+            liveWriters.incrementAndGet();
+            writer.start();
+        }
+    }
+
+    /**
+     * @return The sink the files are written to.
+     */
+    public OutputSink getSink() {
+        return sink;
+    }
+
+    public boolean makeDirectory(File dir) throws IOException {
+        checkFailure();
+        return sink.makeDirectory(dir);
+    }
+
+    public boolean makeNewDirectory(File dir) throws IOException {
+        checkFailure();
+        return sink.makeNewDirectory(dir);
+    }
+
+    public OutputStream newOutputStream(final File file) throws IOException {
+        checkFailure();
+        PooledBuffer buffer = bufferPool.poll();
+        if (buffer == null) {
+            buffer = new PooledBuffer();
+        } else {
+            pooledBufferCount.decrementAndGet();
+        }
+        buffer.open(file);
+        return buffer;
+    }
+
+    /**
+     * The content is copied into a pooled buffer and queued, as the
+     * caller may reuse its buffer as soon as this returns.
+     */
+    public void writeFile(File file, byte[] content, int length) throws IOException {
+        OutputStream out = newOutputStream(file);
+        try {
+            out.write(content, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Payloads are copied by the underlying sink on the calling thread:
+     * there is no generated content to hand off.
+     */
+    public void writePayload(File file, FileChannel blob, long length) throws IOException {
+        checkFailure();
+        sink.writePayload(file, blob, length);
+    }
+
+    /**
+     * The link target may still be waiting for a writer thread so links
+     * are never made: the caller writes the file instead.
+     */
+    public boolean linkFile(File link, File target) throws IOException {
+        checkFailure();
+        return false;
+    }
+
+    private void enqueue(WriteRequest request) throws IOException {
+        checkFailure();
+        try {
+            while (!queue.offer(request, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+                if (liveWriters.get() == 0) {
+                    throw new IOException("No writer threads left to write \"" + request.file.getAbsolutePath() + "\"");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to queue \"" + request.file.getAbsolutePath() + "\"");
+        }
+    }
+
+    private void writeQueuedFiles() {
+        boolean ended = false;
+        try {
+            while (true) {
+                WriteRequest request;
+                try {
+                    request = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (request == END_OF_REQUESTS) {
+                    ended = true;
+                    return;
+                }
+                // Once a write has failed the remaining requests are discarded
+                // so that no generation thread blocks on a full queue.
+                if (failure.get() == null) {
+                    try {
+                        sink.writeFile(request.file, request.buffer.getBuffer(), request.buffer.size());
+                    } catch (Throwable e) {
+                        log.error("writeQueuedFiles(): " + e.getClass().getSimpleName() + " writing file \"" +
+                                request.file.getAbsolutePath() + "\": " + e.getMessage());
+                        failure.compareAndSet(null, e instanceof IOException ? (IOException)e : new IOException(e));
+                    }
+                }
+                release(request.buffer);
+            }
+        } finally {
+            if (!ended) {
+                failure.compareAndSet(null, new IOException("Writer thread " + Thread.currentThread().getName() +
+                        " stopped before all the files were written"));
+            }
+            liveWriters.decrementAndGet();
+        }
+    }
+
+    private void release(PooledBuffer buffer) {
+        if (buffer.capacity() <= MAX_POOLED_BUFFER_SIZE &&
+                pooledBufferCount.incrementAndGet() <= maxPooledBuffers) {
+            bufferPool.offer(buffer);
+        } else {
+            pooledBufferCount.decrementAndGet();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure.get();
+        if (e != null) {
+            throw new IOException("Asynchronous write failed: " + e.getMessage(), e);
+        }
+    }
+
+    public long getFileCount() {
+        return sink.getFileCount();
+    }
+
+    public long getDirectoryCount() {
+        return sink.getDirectoryCount();
+    }
+
+    public long getByteCount() {
+        return sink.getByteCount();
+    }
+
+    /**
+     * Wait for all the queued files to be written, stop the writer
+     * threads and close the underlying sink.
+     * @throws IOException If any write failed.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            for (int i = 0; i < writers.size(); i++) {
+                while (!queue.offer(END_OF_REQUESTS, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (liveWriters.get() == 0) {
+                        break;
+                    }
+                }
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Thread writer : writers) {
+                writer.interrupt();
+            }
+            throw new InterruptedIOException("Interrupted waiting for the writer threads to finish");
+        } finally {
+            sink.close();
+        }
+        checkFailure();
+    }
+
+    private static class WriteRequest {
+        final File file;
+        final PooledBuffer buffer;
+
+        WriteRequest(File file, PooledBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Buffer for one file that queues the file for writing when closed.
+     */
+    private class PooledBuffer extends ByteArrayOutputStream {
+
+        private File file = null;
+
+        PooledBuffer() {
+            super(8192);
+        }
+
+        void open(File file) {
+            this.file = file;
+            reset();
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (file != null) {
+                File toWrite = file;
+                file = null;
+                enqueue(new WriteRequest(toWrite, this));
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.rsicms.exportgenerator.output;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Output sink that writes the export to the file system.
+ */
+public class FileSystemOutputSink extends OutputSinkBase {
+
+    /**
+     * Reasons, as reported by the OS, for failing to make a hard link
+     * where the file system can't link or the link would cross devices.
+     */
+    private static final String[] LINK_UNSUPPORTED_REASONS = {
+            "cross-device", // EXDEV
+            "not supported", // ENOTSUP, EOPNOTSUPP
+            "not permitted", // EPERM, e.g., FUSE and some network mounts
+            "function not implemented", // ENOSYS
+            "too many links", // EMLINK
+            "different disk drive", // Windows ERROR_NOT_SAME_DEVICE
+            "incorrect function", // Windows ERROR_INVALID_FUNCTION, e.g., FAT
+    };
+
+    public FileSystemOutputSink(File rootDir) {
+        super(rootDir);
+    }
+
+    public boolean makeDirectory(File dir) throws IOException {
+        if (dir.isDirectory()) {
+            return false;
+        }
+        if (dir.mkdirs()) {
+            countDirectory();
+            return true;
+        }
+        // Another generation thread may have created the directory
+        // so only fail if the directory really isn't there.
+        if (!dir.isDirectory()) {
+            throw new IOException("Failed to create directory \"" + dir.getAbsolutePath() + "\"");
+        }
+        return false;
+    }
+
+    public boolean makeNewDirectory(File dir) throws IOException {
+        if (dir.mkdir()) {
+            countDirectory();
+            return true;
+        }
+        if (!dir.isDirectory()) {
+            throw new IOException("Failed to create directory \"" + dir.getAbsolutePath() + "\"");
+        }
+        return false;
+    }
+
+    public OutputStream newOutputStream(File file) throws IOException {
+        return countingStream(new FileOutputStream(file));
+    }
+
+    /**
+     * Write the file with positional writes on a channel, normally a
+     * single write, with no stream or copy of the content.
+     */
+    @Override
+    public void writeFile(File file, byte[] content, int length) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(content, 0, length);
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } finally {
+            channel.close();
+        }
+        countFile();
+        countBytes(length);
+    }
+
+    /**
+     * Make a hard link, returning false where the file system can't link
+     * the files so the caller writes the file instead. Any other failure,
+     * e.g., an existing link or a missing target, is thrown.
+     */
+    @Override
+    public boolean linkFile(File link, File target) throws IOException {
+        try {
+            Files.createLink(link.toPath(), target.toPath());
+        } catch (UnsupportedOperationException e) {
+            return false;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (AccessDeniedException e) {
+            // SMB and FAT mounts refuse hard links as access denied.
+            return false;
+        } catch (FileSystemException e) {
+            if (!isLinkUnsupported(e)) {
+                throw e;
+            }
+            return false;
+        }
+        countFile();
+        return true;
+    }
+
+    private static boolean isLinkUnsupported(FileSystemException e) {
+        String reason = e.getReason();
+        if (reason == null) {
+            return false;
+        }
+        reason = reason.toLowerCase();
+        for (String unsupported : LINK_UNSUPPORTED_REASONS) {
+            if (reason.contains(unsupported)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void writePayload(File file, FileChannel blob, long length) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            if (blob == null) {
+                // Extending the file leaves a hole rather than writing zeros.
+                out.setLength(length);
+            } else {
+                transferBlob(blob, out.getChannel(), length);
+            }
+        } finally {
+            out.close();
+        }
+        countFile();
+        countBytes(length);
+    }
+}
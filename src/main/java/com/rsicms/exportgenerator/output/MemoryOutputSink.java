@@ -0,0 +1,84 @@
+package com.rsicms.exportgenerator.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Output sink that keeps the export in memory. Intended for tests
+ * and small generations.
+ */
+public class MemoryOutputSink extends OutputSinkBase {
+
+    private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+    private final Set<String> directories = ConcurrentHashMap.newKeySet();
+
+    public MemoryOutputSink(File rootDir) {
+        super(rootDir);
+    }
+
+    public boolean makeDirectory(File dir) throws IOException {
+        boolean created = false;
+        String path = getRelativePath(dir);
+        while (!"".equals(path) && directories.add(path)) {
+            countDirectory();
+            created = true;
+            int pos = path.lastIndexOf('/');
+            path = pos < 0 ? "" : path.substring(0, pos);
+        }
+        return created;
+    }
+
+    public boolean makeNewDirectory(File dir) throws IOException {
+        return makeDirectory(dir);
+    }
+
+    public OutputStream newOutputStream(File file) throws IOException {
+        final String path = getRelativePath(file);
+        return countingStream(new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                files.put(path, toByteArray());
+            }
+        });
+    }
+
+    @Override
+    public boolean linkFile(File link, File target) throws IOException {
+        byte[] content = files.get(getRelativePath(target));
+        if (content == null) {
+            throw new IOException("Link target \"" + target.getAbsolutePath() + "\" does not exist");
+        }
+        files.put(getRelativePath(link), content);
+        countFile();
+        return true;
+    }
+
+    /**
+     * Get the content of a file.
+     * @param path Path of the file relative to the output directory
+     * @return The file's bytes or null if there is no such file.
+     */
+    public byte[] getFile(String path) {
+        return files.get(path);
+    }
+
+    /**
+     * @return The relative paths of all the files written, in sorted order.
+     */
+    public Set<String> getFilePaths() {
+        return new TreeSet<String>(files.keySet());
+    }
+
+    /**
+     * @return The relative paths of all the directories made, in sorted order.
+     */
+    public Set<String> getDirectoryPaths() {
+        return new TreeSet<String>(directories);
+    }
+}
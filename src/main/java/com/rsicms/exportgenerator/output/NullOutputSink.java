@@ -0,0 +1,51 @@
+package com.rsicms.exportgenerator.output;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Output sink that discards everything written to it but keeps the
+ * counts. Used to measure the cost of generation without any file
+ * system cost.
+ */
+public class NullOutputSink extends OutputSinkBase {
+
+    public NullOutputSink(File rootDir) {
+        super(rootDir);
+    }
+
+    public boolean makeDirectory(File dir) throws IOException {
+        countDirectory();
+        return true;
+    }
+
+    public boolean makeNewDirectory(File dir) throws IOException {
+        return makeDirectory(dir);
+    }
+
+    public OutputStream newOutputStream(File file) throws IOException {
+        return countingStream(NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+
+    @Override
+    public boolean linkFile(File link, File target) throws IOException {
+        countFile();
+        return true;
+    }
+
+    @Override
+    public void writeFile(File file, byte[] content, int length) throws IOException {
+        countFile();
+        countBytes(length);
+    }
+
+    @Override
+    public void writePayload(File file, FileChannel blob, long length) throws IOException {
+        countFile();
+        countBytes(length);
+    }
+}
@@ -0,0 +1,175 @@
+package com.rsicms.exportgenerator.output;
+
+import com.rsicms.exportgenerator.api.OutputSink;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Base superclass for output sinks. Keeps the file, directory
+ * and byte counts.
+ */
+public abstract class OutputSinkBase implements OutputSink {
+
+    protected final File rootDir;
+
+    private final LongAdder fileCount = new LongAdder();
+    private final LongAdder directoryCount = new LongAdder();
+    private final LongAdder byteCount = new LongAdder();
+
+    /**
+     * @param rootDir The output directory. Paths of files within the output
+     * directory are relative to this directory.
+     */
+    public OutputSinkBase(File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    public long getFileCount() {
+        return fileCount.sum();
+    }
+
+    public long getDirectoryCount() {
+        return directoryCount.sum();
+    }
+
+    public long getByteCount() {
+        return byteCount.sum();
+    }
+
+    protected void countFile() {
+        fileCount.increment();
+    }
+
+    protected void countDirectory() {
+        directoryCount.increment();
+    }
+
+    protected void countBytes(long bytes) {
+        byteCount.add(bytes);
+    }
+
+    /**
+     * Get the path of a file or directory relative to the output directory,
+     * using "/" as the separator. Files that are not within the output
+     * directory get their absolute path.
+     * @param file The file
+     * @return The relative path.
+     */
+    public String getRelativePath(File file) {
+        String rootPath = rootDir.getAbsolutePath();
+        String path = file.getAbsolutePath();
+        if (path.equals(rootPath)) {
+            return "";
+        }
+        if (path.startsWith(rootPath + File.separator)) {
+            path = path.substring(rootPath.length() + 1);
+        }
+        return path.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Wrap a stream so that the bytes written to it are counted.
+     * @param out The stream to wrap
+     * @return The counting stream.
+     */
+    protected OutputStream countingStream(OutputStream out) {
+        countFile();
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                countBytes(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                countBytes(len);
+            }
+        };
+    }
+
+    /**
+     * Write the file through a stream from newOutputStream().
+     */
+    public void writeFile(File file, byte[] content, int length) throws IOException {
+        OutputStream out = newOutputStream(file);
+        try {
+            out.write(content, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the payload through a stream from newOutputStream().
+     */
+    public void writePayload(File file, FileChannel blob, long length) throws IOException {
+        OutputStream out = newOutputStream(file);
+        try {
+            copyPayload(blob, out, length);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Copy a payload to a stream, as writePayload() writes it to a file.
+     * The stream is not closed.
+     * @param blob Channel to read the sample blob from, null for zero bytes
+     * @param out Stream to write to
+     * @param length Number of bytes to write
+     * @throws IOException
+     */
+    protected static void copyPayload(FileChannel blob, OutputStream out, long length) throws IOException {
+        if (blob == null) {
+            byte[] zeros = new byte[(int)Math.min(length, 64 * 1024)];
+            for (long written = 0; written < length; written += zeros.length) {
+                out.write(zeros, 0, (int)Math.min(zeros.length, length - written));
+            }
+        } else {
+            transferBlob(blob, Channels.newChannel(out), length);
+        }
+    }
+
+    /**
+     * Copy a blob, repeated as needed, to a channel.
+     * @param blob Channel to read the blob from
+     * @param out Channel to write to
+     * @param length Number of bytes to write
+     * @throws IOException
+     */
+    protected static void transferBlob(FileChannel blob, WritableByteChannel out, long length) throws IOException {
+        long blobSize = blob.size();
+        if (blobSize == 0) {
+            throw new IOException("Payload blob is empty");
+        }
+        long written = 0;
+        while (written < length) {
+            long position = written % blobSize;
+            long transferred = blob.transferTo(position, Math.min(blobSize - position, length - written), out);
+            if (transferred <= 0) {
+                throw new IOException("Payload blob transfer made no progress after " + written + " bytes");
+            }
+            written += transferred;
+        }
+    }
+
+    /**
+     * Sinks can't make links unless they say otherwise.
+     */
+    public boolean linkFile(File link, File target) throws IOException {
+        return false;
+    }
+
+    public void close() throws IOException {
+        // Nothing to do by default.
+    }
+}
@@ -0,0 +1,72 @@
+package com.rsicms.exportgenerator.output;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output sink that streams the export into rolling tar archives,
+ * optionally gzip-compressed.
+ */
+public class TarOutputSink extends ArchiveOutputSink {
+
+    private final int compressionLevel;
+
+    /**
+     * @param rootDir The output directory
+     * @param maxEntries Maximum entries per archive, 0 for no limit.
+     * @param maxBytes Maximum uncompressed bytes per archive, 0 for no limit.
+     * @param compressionLevel Deflater compression level (1-9, -1 for the
+     * default level) for gzip compression of the archives. The archives are
+     * not compressed if 0.
+     */
+    public TarOutputSink(File rootDir, long maxEntries, long maxBytes, int compressionLevel) {
+        super(rootDir, "rsuite-export", maxEntries, maxBytes);
+        this.compressionLevel = compressionLevel;
+    }
+
+    protected String getArchiveExtension() {
+        return compressionLevel == 0 ? ".tar" : ".tar.gz";
+    }
+
+    protected OutputStream openArchive(File archiveFile) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(archiveFile), 65536);
+        if (compressionLevel != 0) {
+            out = new GZIPOutputStream(out, 65536) {
+                {
+                    def.setLevel(compressionLevel);
+                }
+            };
+        }
+        TarArchiveOutputStream tarOut = new TarArchiveOutputStream(out, "UTF-8");
+        tarOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tarOut.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        return tarOut;
+    }
+
+    protected void writeEntry(OutputStream archiveOut, String path, byte[] data, int len) throws IOException {
+        TarArchiveOutputStream tarOut = (TarArchiveOutputStream)archiveOut;
+        TarArchiveEntry entry = new TarArchiveEntry(path);
+        entry.setSize(len);
+        tarOut.putArchiveEntry(entry);
+        tarOut.write(data, 0, len);
+        tarOut.closeArchiveEntry();
+    }
+
+    protected void writePayloadEntry(OutputStream archiveOut, String path, FileChannel blob, long length)
+            throws IOException {
+        TarArchiveOutputStream tarOut = (TarArchiveOutputStream)archiveOut;
+        TarArchiveEntry entry = new TarArchiveEntry(path);
+        entry.setSize(length);
+        tarOut.putArchiveEntry(entry);
+        copyPayload(blob, tarOut, length);
+        tarOut.closeArchiveEntry();
+    }
+}
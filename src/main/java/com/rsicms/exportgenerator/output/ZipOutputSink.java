@@ -0,0 +1,83 @@
+package com.rsicms.exportgenerator.output;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Output sink that streams the export into rolling zip archives.
+ */
+public class ZipOutputSink extends ArchiveOutputSink {
+
+    private final int compressionLevel;
+
+    /**
+     * @param rootDir The output directory
+     * @param maxEntries Maximum entries per archive, 0 for no limit.
+     * @param maxBytes Maximum uncompressed bytes per archive, 0 for no limit.
+     * @param compressionLevel Deflater compression level (1-9, -1 for the
+     * default level). Entries are stored uncompressed if 0.
+     */
+    public ZipOutputSink(File rootDir, long maxEntries, long maxBytes, int compressionLevel) {
+        super(rootDir, "rsuite-export", maxEntries, maxBytes);
+        this.compressionLevel = compressionLevel;
+    }
+
+    protected String getArchiveExtension() {
+        return ".zip";
+    }
+
+    protected OutputStream openArchive(File archiveFile) throws IOException {
+        ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile), 65536));
+        if (compressionLevel == 0) {
+            zipOut.setMethod(ZipOutputStream.STORED);
+        } else {
+            zipOut.setMethod(ZipOutputStream.DEFLATED);
+            zipOut.setLevel(compressionLevel < 0 ? Deflater.DEFAULT_COMPRESSION : compressionLevel);
+        }
+        return zipOut;
+    }
+
+    protected void writeEntry(OutputStream archiveOut, String path, byte[] data, int len) throws IOException {
+        ZipOutputStream zipOut = (ZipOutputStream)archiveOut;
+        ZipEntry entry = new ZipEntry(path);
+        if (compressionLevel == 0) {
+            // Stored entries need the size and CRC up front.
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, len);
+            entry.setSize(len);
+            entry.setCompressedSize(len);
+            entry.setCrc(crc.getValue());
+        }
+        zipOut.putNextEntry(entry);
+        zipOut.write(data, 0, len);
+        zipOut.closeEntry();
+    }
+
+    protected void writePayloadEntry(OutputStream archiveOut, String path, FileChannel blob, long length)
+            throws IOException {
+        ZipOutputStream zipOut = (ZipOutputStream)archiveOut;
+        ZipEntry entry = new ZipEntry(path);
+        entry.setSize(length);
+        if (compressionLevel == 0) {
+            // Stored entries need the CRC up front, so the payload is read twice.
+            CheckedOutputStream crcOut = new CheckedOutputStream(NullOutputStream.NULL_OUTPUT_STREAM, new CRC32());
+            copyPayload(blob, crcOut, length);
+            entry.setCompressedSize(length);
+            entry.setCrc(crcOut.getChecksum().getValue());
+        }
+        zipOut.putNextEntry(entry);
+        copyPayload(blob, zipOut, length);
+        zipOut.closeEntry();
+    }
+}
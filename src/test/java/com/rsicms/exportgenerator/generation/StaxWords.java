@@ -0,0 +1,50 @@
+package com.rsicms.exportgenerator.generation;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.util.SplittableRandom;
+
+/**
+ * Writes random words to a StAX writer, as the generators did before they
+ * used the XML emitter, so that the emitter's output and speed can be
+ * compared with StAX's.
+ */
+class StaxWords {
+
+    private StaxWords() {
+    }
+
+    /**
+     * Write a space-separated sequence of randomly-chosen words as
+     * character data. Makes the same random draws as
+     * WordList.appendRandomWords().
+     * @param writer The writer to write to
+     * @param random The random stream to draw from
+     * @param min Minimum number of words
+     * @param max Maximum number of words
+     * @throws XMLStreamException
+     */
+    static void writeRandomWords(XMLStreamWriter writer, SplittableRandom random, int min, int max)
+            throws XMLStreamException {
+        writeRandomWords(writer, random, random.nextInt(min, max + 1));
+    }
+
+    /**
+     * Write a given number of randomly-chosen words as character data.
+     * @param writer The writer to write to
+     * @param random The random stream to draw from
+     * @param wordCount Number of words
+     * @throws XMLStreamException
+     */
+    static void writeRandomWords(XMLStreamWriter writer, SplittableRandom random, int wordCount)
+            throws XMLStreamException {
+        WordList wordList = GenerationHelper.getWordList();
+        for (int i = 0; i < wordCount; i++) {
+            int ndx = wordList.randomWord(random);
+            if (i > 0) {
+                writer.writeCharacters(" ");
+            }
+            writer.writeCharacters(wordList.getWord(ndx));
+        }
+    }
+}
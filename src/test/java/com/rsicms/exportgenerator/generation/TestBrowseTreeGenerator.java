@@ -0,0 +1,153 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.api.MoType;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the planned, fork/join generation of the browse tree.
+ */
+public class TestBrowseTreeGenerator {
+
+    private static final Pattern MOREF_HREF = Pattern.compile("<moref [^>]*href=\"([0-9]+)\"");
+    private static final Pattern NESTED_ID = Pattern.compile("<id>([^<]*)</id>");
+
+    /**
+     * Generate a browse tree over a number of XML MOs.
+     * @return The browse tree's files, by path relative to the output directory.
+     */
+    private TreeMap<String, String> generateBrowseTree(File outDir, int threads, int xmlMoCount) throws Exception {
+        Properties props = new Properties();
+        props.setProperty("outdir", outDir.getAbsolutePath());
+        props.setProperty("seed", "17");
+        props.setProperty("threads", "" + threads);
+        props.setProperty("browseWidth", "4");
+        props.setProperty("browseDepth", "3");
+        props.setProperty("maxContainerChildren", "8");
+        GenerationParameters genParms = new GenerationParameters(props);
+        genParms.setOutputDirectory(outDir);
+        new File(outDir, "rsuite.content").mkdirs();
+        // Register the MOs out of order, as parallel generation does.
+        int[] moids = new int[xmlMoCount];
+        for (int i = 0; i < xmlMoCount; i++) {
+            moids[i] = genParms.getNextMoId();
+        }
+        for (int i = xmlMoCount - 1; i >= 0; i--) {
+            genParms.addMo(moids[i], MoType.XML, "topic " + i);
+        }
+        new DefaultBrowseTreeGenerator(genParms).generateBrowseTree();
+        genParms.getOutputSink().close();
+
+        TreeMap<String, String> files = new TreeMap<String, String>();
+        Collection<File> found = FileUtils.listFiles(new File(outDir, "rsuite.content"), null, true);
+        for (File file : found) {
+            files.put(outDir.toURI().relativize(file.toURI()).getPath(),
+                    FileUtils.readFileToString(file, "UTF-8"));
+        }
+        return files;
+    }
+
+    /**
+     * Check that each container's MOREFs refer only to registered MOs or to
+     * the container's child containers and that its rsuite.node file lists
+     * all its children.
+     * @return The IDs of the MOs referred to.
+     */
+    private Set<Integer> checkMembership(File outDir, TreeMap<String, String> files, int xmlMoCount)
+            throws Exception {
+        Set<Integer> referenced = new HashSet<Integer>();
+        for (String path : files.keySet()) {
+            if (!path.endsWith("/rsuite.node")) {
+                continue;
+            }
+            String node = files.get(path);
+            Matcher matcher = NESTED_ID.matcher(node.substring(node.indexOf("<nestedIds>"), node.indexOf("</nestedIds>")));
+            int nestedIdCount = 0;
+            while (matcher.find()) {
+                nestedIdCount++;
+            }
+
+            File containerDir = new File(outDir, path).getParentFile();
+            Set<Integer> childContainers = new HashSet<Integer>();
+            String caFile = null;
+            for (File child : containerDir.listFiles()) {
+                if (child.isDirectory()) {
+                    for (String name : child.list()) {
+                        if (name.matches("[0-9]+\\.xml")) {
+                            childContainers.add(Integer.parseInt(name.substring(0, name.length() - 4)));
+                        }
+                    }
+                } else if (child.getName().endsWith(".xml")) {
+                    caFile = files.get(outDir.toURI().relativize(child.toURI()).getPath());
+                }
+            }
+            if (caFile == null) {
+                // The root container has no CA file, only child containers.
+                assertEquals("Children of " + path, childContainers.size(), nestedIdCount);
+                continue;
+            }
+            int morefCount = 0;
+            matcher = MOREF_HREF.matcher(caFile);
+            while (matcher.find()) {
+                int moid = Integer.parseInt(matcher.group(1));
+                morefCount++;
+                if (moid < GenerationParameters.FIRST_MO_ID + xmlMoCount) {
+                    referenced.add(moid);
+                } else {
+                    assertTrue("MOREF to unknown MO " + moid + " in " + path, childContainers.remove(moid));
+                }
+            }
+            assertTrue("Child containers without MOREFs in " + path, childContainers.isEmpty());
+            assertEquals("Children of " + path, morefCount, nestedIdCount);
+        }
+        return referenced;
+    }
+
+    @Test
+    public void testBrowseTreeDoesNotDependOnThreads() throws Exception {
+        File sequentialDir = Files.createTempDirectory("rsi-tree-seq-").toFile();
+        File parallelDir = Files.createTempDirectory("rsi-tree-par-").toFile();
+        try {
+            TreeMap<String, String> sequential = generateBrowseTree(sequentialDir, 1, 200);
+            TreeMap<String, String> parallel = generateBrowseTree(parallelDir, 6, 200);
+            assertTrue("No containers generated", sequential.size() > 10);
+            assertEquals(sequential.keySet(), parallel.keySet());
+            for (String path : sequential.keySet()) {
+                assertEquals("File " + path + " differs", sequential.get(path), parallel.get(path));
+            }
+            assertFalse(checkMembership(parallelDir, parallel, 200).isEmpty());
+        } finally {
+            FileUtils.deleteDirectory(sequentialDir);
+            FileUtils.deleteDirectory(parallelDir);
+        }
+    }
+
+    @Test
+    public void testBrowseTreeWithFewMos() throws Exception {
+        for (int xmlMoCount = 0; xmlMoCount <= 1; xmlMoCount++) {
+            File outDir = Files.createTempDirectory("rsi-tree-few-").toFile();
+            try {
+                TreeMap<String, String> files = generateBrowseTree(outDir, 3, xmlMoCount);
+                assertTrue(files.containsKey("rsuite.content/rsuite.node"));
+                assertEquals(xmlMoCount, checkMembership(outDir, files, xmlMoCount).size());
+            } finally {
+                FileUtils.deleteDirectory(outDir);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.ExportGenerator;
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.api.BucketLayout;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the layouts of the managed-objects bucket directories.
+ */
+public class TestBucketLayout {
+
+    @Test
+    public void testRandomLayoutIsUnchanged() throws Exception {
+        BucketLayout layout = new RandomBucketLayout(42);
+        assertEquals(1000, layout.getTopCount());
+        assertEquals(101, layout.getChildCount());
+        for (int moid = 1000; moid < 2000; moid++) {
+            SplittableRandom layoutRandom = RandomStreams.forManagedObjectLayout(42, moid);
+            int top = layoutRandom.nextInt(0, 1000);
+            int child = layoutRandom.nextInt(0, 101);
+            assertEquals(top * 101 + child, layout.getBucket(moid));
+        }
+    }
+
+    @Test
+    public void testBalancedLayout() throws Exception {
+        BucketLayout layout = new BalancedBucketLayout(10, 5);
+        // Breadth-first: the first MOs each get a top-level bucket of their own.
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * 5, layout.getBucket(GenerationParameters.FIRST_MO_ID + i));
+        }
+        assertEquals(1, layout.getBucket(GenerationParameters.FIRST_MO_ID + 10));
+        assertEquals(0, layout.getBucket(GenerationParameters.FIRST_MO_ID + 50));
+
+        // Any run of IDs is spread evenly over the buckets.
+        for (int start : new int[] { 1000, 1003, 1234567 }) {
+            for (int count : new int[] { 7, 50, 123, 1000 }) {
+                int[] buckets = new int[50];
+                int[] tops = new int[10];
+                for (int moid = start; moid < start + count; moid++) {
+                    int bucket = layout.getBucket(moid);
+                    buckets[bucket]++;
+                    tops[bucket / 5]++;
+                }
+                assertTrue(spread(buckets) <= 1);
+                assertTrue(spread(tops) <= 1);
+            }
+        }
+        assertEquals(7 + 7, layout.getExpectedBucketDirectoryCount(7), 0);
+        assertEquals(10 + 50, layout.getExpectedBucketDirectoryCount(1000), 0);
+    }
+
+    @Test
+    public void testBalancedExport() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-buckets-").toFile();
+        try {
+            Properties props = new Properties();
+            props.setProperty("outdir", outDir.getAbsolutePath());
+            props.setProperty("seed", "3");
+            props.setProperty("maxXmlMOs", "40");
+            props.setProperty("maxBinaryMOs", "5");
+            props.setProperty("browseWidth", "2");
+            props.setProperty("browseDepth", "1");
+            props.setProperty("threads", "3");
+            props.setProperty("bucketLayout", "balanced");
+            props.setProperty("bucketTopCount", "4");
+            props.setProperty("bucketChildCount", "3");
+            File propsFile = new File(outDir, "generation.properties");
+            FileOutputStream out = new FileOutputStream(propsFile);
+            try {
+                props.store(out, null);
+            } finally {
+                out.close();
+            }
+            new ExportGenerator(propsFile).generateExport();
+
+            File mosDir = new File(outDir, "rsuite.content/managed-objects");
+            assertEquals(4, mosDir.list().length);
+            int[] counts = new int[12];
+            for (int top = 0; top < 4; top++) {
+                File topDir = new File(mosDir, "" + top);
+                assertEquals(3, topDir.list().length);
+                for (int child = 0; child < 3; child++) {
+                    counts[top * 3 + child] = new File(topDir, "" + child).list().length;
+                }
+            }
+            // 45 MOs over 12 buckets.
+            assertTrue(spread(counts) <= 1);
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    private static int spread(int[] counts) {
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int count : counts) {
+            min = Math.min(min, count);
+            max = Math.max(max, count);
+        }
+        return max - min;
+    }
+}
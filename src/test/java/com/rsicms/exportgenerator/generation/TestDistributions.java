@@ -0,0 +1,163 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.ExportGenerator;
+import com.rsicms.exportgenerator.distribution.Distribution;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the content shape distributions.
+ */
+public class TestDistributions {
+
+    private static final int SAMPLES = 200000;
+
+    @Test
+    public void testUniformMatchesNextInt() throws Exception {
+        Distribution uniform = Distribution.parse("uniform(7,30)");
+        SplittableRandom a = new SplittableRandom(3);
+        SplittableRandom b = new SplittableRandom(3);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(a.nextInt(7, 31), uniform.sample(b));
+        }
+        assertEquals(18.5, uniform.getMean(), 0);
+        assertEquals(4, Distribution.parse(" fixed( 4 ) ").sample(a));
+    }
+
+    @Test
+    public void testAliasSampling() throws Exception {
+        // The share of each value drawn matches its weight.
+        Distribution empirical = Distribution.parse("empirical(1:50,2:30,5:15,20:5)");
+        int[] counts = new int[21];
+        SplittableRandom random = new SplittableRandom(11);
+        for (int i = 0; i < SAMPLES; i++) {
+            counts[empirical.sample(random)]++;
+        }
+        assertShare(0.50, counts[1]);
+        assertShare(0.30, counts[2]);
+        assertShare(0.15, counts[5]);
+        assertShare(0.05, counts[20]);
+        assertEquals(1 * 0.5 + 2 * 0.3 + 5 * 0.15 + 20 * 0.05, empirical.getMean(), 1e-9);
+
+        Distribution zipf = Distribution.parse("zipf(1,10)");
+        counts = new int[11];
+        for (int i = 0; i < SAMPLES; i++) {
+            counts[zipf.sample(random)]++;
+        }
+        double harmonic = 0;
+        for (int k = 1; k <= 10; k++) {
+            harmonic += 1.0 / k;
+        }
+        assertShare(1 / harmonic, counts[1]);
+        assertShare(0.1 / harmonic, counts[10]);
+        assertEquals(0, counts[0]);
+    }
+
+    @Test
+    public void testContinuousDistributions() throws Exception {
+        Distribution normal = Distribution.parse("normal(20,4)");
+        assertEquals(4, normal.getMin());
+        assertEquals(36, normal.getMax());
+        assertEquals(20, normal.getMean(), 0.01);
+        assertEquals(20, sampleMean(normal), 0.1);
+
+        Distribution logNormal = Distribution.parse("lognormal(2,0.75)");
+        assertEquals(1, logNormal.getMin());
+        // The mean of a log-normal is exp(mu + sigma^2 / 2), a little less once the tail is cut off.
+        assertEquals(Math.exp(2 + 0.75 * 0.75 / 2), logNormal.getMean(), 0.5);
+        assertEquals(logNormal.getMean(), sampleMean(logNormal), 0.1);
+        assertTrue(logNormal.getMax() > 100);
+    }
+
+    @Test
+    public void testInvalidDistributions() throws Exception {
+        for (String spec : new String[] { "uniform(9,1)", "gamma(1,2)", "normal(1)", "empirical(1)",
+                "empirical(1:0)", "zipf(-1,5)", "uniform", "lognormal(1,0)" }) {
+            try {
+                Distribution.parse(spec);
+                fail("Parsed \"" + spec + "\"");
+            } catch (RuntimeException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testDistributionsShapeContent() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-distributions-").toFile();
+        try {
+            Properties props = new Properties();
+            props.setProperty("outdir", outDir.getAbsolutePath());
+            props.setProperty("seed", "17");
+            props.setProperty("maxXmlMOs", "30");
+            props.setProperty("maxBinaryMOs", "0");
+            props.setProperty("browseWidth", "2");
+            props.setProperty("browseDepth", "1");
+            props.setProperty("paragraphsDistribution", "fixed(3)");
+            props.setProperty("paragraphWordsDistribution", "fixed(5)");
+            props.setProperty("versionsDistribution", "empirical(1:1,4:1)");
+            props.setProperty("containerChildrenDistribution", "fixed(2)");
+            File propsFile = new File(outDir, "generation.properties");
+            FileOutputStream out = new FileOutputStream(propsFile);
+            try {
+                props.store(out, null);
+            } finally {
+                out.close();
+            }
+            new ExportGenerator(propsFile).generateExport();
+
+            int mos = 0;
+            for (File contentXml : FileUtils.listFiles(outDir, new String[] { "xml" }, true)) {
+                if (!contentXml.getName().equals("content.xml")) {
+                    continue;
+                }
+                mos++;
+                String content = FileUtils.readFileToString(contentXml, "UTF-8");
+                String[] paragraphs = content.split("<p class=\"- topic/p \">");
+                assertEquals(4, paragraphs.length);
+                for (int i = 1; i < paragraphs.length; i++) {
+                    String text = paragraphs[i].substring(0, paragraphs[i].indexOf("</p>"));
+                    assertEquals(5, text.split(" ").length);
+                }
+                String[] versionFiles = contentXml.getParentFile().list();
+                // The content, the resource and either 1 or 4 versions.
+                assertTrue(versionFiles.length == 3 || versionFiles.length == 6);
+            }
+            assertEquals(30, mos);
+            for (File caFile : FileUtils.listFiles(new File(outDir, "rsuite.content"), new String[] { "xml" }, true)) {
+                String ca = FileUtils.readFileToString(caFile, "UTF-8");
+                if (ca.contains("<rs_ca_map")) {
+                    // The MOs plus any child containers.
+                    assertTrue(ca.split("<moref ").length - 1 >= 2);
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    private static double sampleMean(Distribution distribution) {
+        SplittableRandom random = new SplittableRandom(5);
+        long total = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            total += distribution.sample(random);
+        }
+        return (double)total / SAMPLES;
+    }
+
+    private static void assertShare(double expected, int count) {
+        double share = (double)count / SAMPLES;
+        assertTrue("Expected a share of about " + expected + ", got " + share,
+                Math.abs(share - expected) < 0.005);
+    }
+}
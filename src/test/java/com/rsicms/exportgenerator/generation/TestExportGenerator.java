@@ -3,15 +3,34 @@ package com.rsicms.exportgenerator.generation;
 import com.rsicms.exportgenerator.ExportGenerator;
 import com.rsicms.exportgenerator.GenerationParameters;
 import com.rsicms.exportgenerator.api.MoType;
+import com.rsicms.exportgenerator.metrics.GenerationMetrics;
+import com.rsicms.exportgenerator.output.FileSystemOutputSink;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.FalseFileFilter;
+import org.apache.commons.io.filefilter.NameFileFilter;
+import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.junit.Test;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test the general managed object generator API
@@ -33,6 +52,42 @@ public class TestExportGenerator {
         return new File(props.getFile());
     }
 
+    /**
+     * Make a copy of the tiny generation properties that writes to the specified
+     * output directory.
+     */
+    private File makePropsFile(File outDir, String... overrides) throws Exception {
+        Properties props = new Properties();
+        FileInputStream in = new FileInputStream(getPropsFile());
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        props.setProperty("outdir", outDir.getAbsolutePath());
+        for (int i = 0; i + 1 < overrides.length; i += 2) {
+            props.setProperty(overrides[i], overrides[i + 1]);
+        }
+        File propsFile = new File(outDir, "generation.properties");
+        FileOutputStream out = new FileOutputStream(propsFile);
+        try {
+            props.store(out, null);
+        } finally {
+            out.close();
+        }
+        return propsFile;
+    }
+
+    /**
+     * Files in the output directory that describe the run rather than being
+     * part of the export, so differ from run to run.
+     */
+    private static boolean isRunFile(String path) {
+        return "generation.properties".equals(path) || GenerationMetrics.JSON_FILE_NAME.equals(path) ||
+                GenerationMetrics.CSV_FILE_NAME.equals(path) ||
+                path.startsWith(GenerationCheckpoint.CHECKPOINT_FILE_NAME);
+    }
+
     @Test
     public void testGenerationParametersMoHandling() throws Exception {
 
@@ -42,7 +97,7 @@ public class TestExportGenerator {
         ManagedObject mo = genParms.getManagedObject(moid);
         assertNotNull("Didn't get an MO back", mo);
         assertEquals("MO ID doesn't match", mo.getID(), moid);
-        ArrayList<ManagedObject> xmlMOs = genParms.getManagedObjectsOfType(MoType.XML);
+        List<ManagedObject> xmlMOs = genParms.getManagedObjectsOfType(MoType.XML);
         assertNotNull("Didn't get MO list back", xmlMOs);
         assertEquals("Expected 1 XML MO", xmlMOs.size(), 1);
         genParms.getOutputDirectory().delete();
@@ -72,4 +127,463 @@ public class TestExportGenerator {
         exporter.generateExport();
 
     }
+
+    @Test
+    public void testParallelManagedObjectGeneration() throws Exception {
+        GenerationParameters genParms = new GenerationParameters(getPropsFile());
+        File outDir = Files.createTempDirectory("rsi-parallel-").toFile();
+        genParms.setOutputDirectory(outDir);
+        genParms.setProperty("threads", "4");
+        try {
+            DitaManagedObjectGenerator moGenerator = new DitaManagedObjectGenerator(genParms);
+            moGenerator.generateManagedObjects();
+            List<ManagedObject> xmlMOs = genParms.getManagedObjectsOfType(MoType.XML);
+            assertEquals("Unexpected XML MO count", genParms.getMaxXmlMOs(), xmlMOs.size());
+            assertEquals("Unexpected non-XML MO count", genParms.getMaxBinaryMOs(),
+                    genParms.getManagedObjectsOfType(MoType.NONXML).size());
+            Set<Integer> ids = new HashSet<Integer>();
+            for (ManagedObject mo : xmlMOs) {
+                ids.add(mo.getID());
+            }
+            assertEquals("MO IDs are not unique", xmlMOs.size(), ids.size());
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    @Test
+    public void testShardedGeneration() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-sharded-").toFile();
+        File unshardedDir = Files.createTempDirectory("rsi-unsharded-").toFile();
+        try {
+            File propsFile = makePropsFile(outDir, "seed", "7");
+            for (int i = 0; i < 2; i++) {
+                ExportGenerator shardExporter = new ExportGenerator(propsFile);
+                shardExporter.generateShard(i, 2);
+            }
+            ExportGenerator merger = new ExportGenerator(propsFile);
+            merger.mergeShards(new ArrayList<File>());
+            GenerationParameters genParms = merger.getGenerationParameters();
+            List<ManagedObject> xmlMOs = genParms.getManagedObjectsOfType(MoType.XML);
+            assertEquals("Unexpected XML MO count", genParms.getMaxXmlMOs(), xmlMOs.size());
+            assertEquals("Unexpected non-XML MO count", genParms.getMaxBinaryMOs(),
+                    genParms.getManagedObjectsOfType(MoType.NONXML).size());
+            for (ManagedObject mo : xmlMOs) {
+                assertTrue("MO ID " + mo.getID() + " outside of the shard ranges",
+                        mo.getID() >= GenerationParameters.FIRST_MO_ID &&
+                        mo.getID() < GenerationParameters.FIRST_MO_ID + genParms.getMaxMoCount());
+            }
+            assertTrue("No ids.xml file", new File(outDir, "ids.xml").exists());
+
+            // The merged export is the same as an unsharded one:
+            new ExportGenerator(makePropsFile(unshardedDir, "seed", "7")).generateExport();
+            for (File file : FileUtils.listFiles(unshardedDir, null, true)) {
+                String path = unshardedDir.toURI().relativize(file.toURI()).getPath();
+                if (!isRunFile(path)) {
+                    assertTrue("File " + path + " differs", FileUtils.contentEquals(file, new File(outDir, path)));
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+            FileUtils.deleteDirectory(unshardedDir);
+        }
+    }
+
+    @Test
+    public void testSeededGenerationIsReproducible() throws Exception {
+        File sequentialDir = Files.createTempDirectory("rsi-seq-").toFile();
+        File parallelDir = Files.createTempDirectory("rsi-par-").toFile();
+        try {
+            new ExportGenerator(makePropsFile(sequentialDir, "seed", "42", "threads", "1")).generateExport();
+            new ExportGenerator(makePropsFile(parallelDir, "seed", "42", "threads", "4")).generateExport();
+
+            Collection<File> files = FileUtils.listFiles(sequentialDir, null, true);
+            assertEquals("Different number of files",
+                    files.size(), FileUtils.listFiles(parallelDir, null, true).size());
+            for (File file : files) {
+                if (isRunFile(file.getName())) {
+                    continue;
+                }
+                String path = sequentialDir.toURI().relativize(file.toURI()).getPath();
+                File parallelFile = new File(parallelDir, path);
+                assertTrue("File " + path + " differs", FileUtils.contentEquals(file, parallelFile));
+            }
+
+            // Any MO can be regenerated on its own:
+            GenerationParameters genParms = new GenerationParameters(makePropsFile(sequentialDir, "seed", "42"));
+            genParms.setOutputDirectory(sequentialDir);
+            DitaManagedObjectGenerator moGenerator = new DitaManagedObjectGenerator(genParms);
+            File moDir = moGenerator.regenerateManagedObject(GenerationParameters.FIRST_MO_ID + 3);
+            String path = sequentialDir.toURI().relativize(moDir.toURI()).getPath();
+            File[] moFiles = moDir.listFiles();
+            assertNotNull(moFiles);
+            for (File file : moFiles) {
+                assertTrue("Regenerated file " + file.getName() + " differs",
+                        FileUtils.contentEquals(file, new File(new File(parallelDir, path), file.getName())));
+            }
+        } finally {
+            FileUtils.deleteDirectory(sequentialDir);
+            FileUtils.deleteDirectory(parallelDir);
+        }
+    }
+
+    @Test
+    public void testNonXmlManagedObjects() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-nonxml-").toFile();
+        try {
+            GenerationParameters genParms = new GenerationParameters(makePropsFile(outDir,
+                    "seed", "3", "maxXmlMOs", "5", "maxBinaryMOs", "15",
+                    "binaryMinSize", "100", "binaryMaxSize", "20000", "binaryMimeTypes", "image/png,application/pdf"));
+            genParms.setOutputDirectory(outDir);
+            new DitaManagedObjectGenerator(genParms).generateManagedObjects();
+
+            List<ManagedObject> nonXmlMOs = genParms.getManagedObjectsOfType(MoType.NONXML);
+            assertEquals("Unexpected non-XML MO count", 15, nonXmlMOs.size());
+            for (ManagedObject mo : nonXmlMOs) {
+                assertEquals(MoType.NONXML, genParms.getMoType(mo.getID()));
+                Collection<File> files = FileUtils.listFiles(outDir, null, true);
+                File content = null;
+                File resource = null;
+                for (File file : files) {
+                    if (file.getParentFile().getName().equals("" + mo.getID())) {
+                        if (file.getName().startsWith("content.")) {
+                            content = file;
+                        } else if (file.getName().endsWith(".resource")) {
+                            resource = file;
+                        }
+                    }
+                }
+                assertNotNull("No content file for MO " + mo.getID(), content);
+                assertNotNull("No resource file for MO " + mo.getID(), resource);
+                assertTrue("Unexpected content size " + content.length(),
+                        content.length() >= 100 && content.length() <= 20000);
+                String resourceXml = FileUtils.readFileToString(resource, "UTF-8");
+                assertTrue("No content size in resource file",
+                        resourceXml.contains("<size>" + content.length() + "</size>"));
+                byte[] header = new byte[4];
+                FileInputStream in = new FileInputStream(content);
+                try {
+                    assertEquals(4, in.read(header));
+                } finally {
+                    in.close();
+                }
+                if (content.getName().endsWith(".png")) {
+                    assertTrue(resourceXml.contains("<contentType>image/png</contentType>"));
+                    assertEquals('P', header[1]);
+                } else {
+                    assertTrue("Unexpected content file " + content.getName(), content.getName().endsWith(".pdf"));
+                    assertEquals("%PDF", new String(header, "US-ASCII"));
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    @Test
+    public void testVersionContent() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-versions-").toFile();
+        try {
+            for (String versionContent : new String[] { "identical", "delta" }) {
+                File modeDir = new File(outDir, versionContent);
+                modeDir.mkdirs();
+                GenerationParameters genParms = new GenerationParameters(makePropsFile(modeDir,
+                        "seed", "5", "maxXmlMOs", "10", "maxBinaryMOs", "0", "maxVersions", "4",
+                        "versionContent", versionContent));
+                genParms.setOutputDirectory(modeDir);
+                new DitaManagedObjectGenerator(genParms).generateManagedObjects();
+
+                int versionFileCount = 0;
+                for (File contentXml : FileUtils.listFiles(modeDir, new String[] { "xml" }, true)) {
+                    if (!contentXml.getName().equals("content.xml")) {
+                        continue;
+                    }
+                    File moDir = contentXml.getParentFile();
+                    String content = FileUtils.readFileToString(contentXml, "UTF-8");
+                    List<String> versions = new ArrayList<String>();
+                    File latest = null;
+                    for (File verFile : moDir.listFiles()) {
+                        if (verFile.getName().startsWith(moDir.getName() + "-")) {
+                            versions.add(FileUtils.readFileToString(verFile, "UTF-8"));
+                            if (latest == null || verFile.getName().compareTo(latest.getName()) > 0) {
+                                latest = verFile;
+                            }
+                            versionFileCount++;
+                        }
+                    }
+                    assertTrue("No versions for MO " + moDir.getName(), !versions.isEmpty());
+                    if (versionContent.equals("identical")) {
+                        for (String version : versions) {
+                            assertEquals(content, version);
+                        }
+                        assertEquals(versions.size() + 1,
+                                ((Number) Files.getAttribute(contentXml.toPath(), "unix:nlink")).intValue());
+                    } else {
+                        assertEquals(FileUtils.readFileToString(latest, "UTF-8"), content);
+                        assertEquals(versions.size(), new HashSet<String>(versions).size());
+                        assertTrue(content.endsWith("</body></topic>"));
+                        DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(contentXml);
+                    }
+                }
+                assertTrue("No version files generated", versionFileCount > 0);
+            }
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    @Test
+    public void testGenerationMetricsSummary() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-metrics-").toFile();
+        try {
+            ExportGenerator exporter = new ExportGenerator(makePropsFile(outDir,
+                    "seed", "11", "output", "null", "metricsInterval", "0"));
+            exporter.generateExport();
+            GenerationParameters genParms = exporter.getGenerationParameters();
+            GenerationMetrics metrics = genParms.getMetrics();
+            assertEquals(genParms.getMoCountToGenerate(), metrics.getManagedObjectCount());
+            assertEquals(genParms.getManagedObjectsOfType(MoType.CA).size(), metrics.getContainerCount());
+            assertEquals(genParms.getOutputSink().getFileCount(), metrics.getFileCount());
+            assertEquals(metrics.getManagedObjectCount(),
+                    metrics.getLatencies(GenerationMetrics.Phase.RESOURCE_WRITING).getCount());
+            assertTrue(metrics.getVersionCount() >= metrics.getManagedObjectCount());
+
+            String json = FileUtils.readFileToString(new File(outDir, GenerationMetrics.JSON_FILE_NAME), "UTF-8");
+            assertTrue(json, json.contains("\"managedObjects\": { \"count\": " + metrics.getManagedObjectCount() + ","));
+            String csv = FileUtils.readFileToString(new File(outDir, GenerationMetrics.CSV_FILE_NAME), "UTF-8");
+            assertTrue(csv, csv.startsWith("metric,count,"));
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    @Test
+    public void testExportEstimate() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-estimate-").toFile();
+        try {
+            File propsFile = makePropsFile(outDir, "seed", "13", "metricsInterval", "0");
+            // A sample as big as the export gives exact file and byte counts.
+            ExportEstimator estimator = new ExportEstimator(new GenerationParameters(propsFile), 1000).estimate();
+            ExportEstimator sampled = new ExportEstimator(new GenerationParameters(propsFile), 4).estimate();
+            assertEquals("Output directory written to by estimate", 1, outDir.list().length);
+
+            ExportGenerator exporter = new ExportGenerator(propsFile);
+            exporter.generateExport();
+            GenerationParameters genParms = exporter.getGenerationParameters();
+            long files = 0;
+            long bytes = 0;
+            for (File file : FileUtils.listFiles(outDir, null, true)) {
+                if (!isRunFile(file.getName())) {
+                    files++;
+                    bytes += file.length();
+                }
+            }
+            long directories = FileUtils.listFilesAndDirs(outDir, FalseFileFilter.INSTANCE, TrueFileFilter.INSTANCE).size() - 1;
+
+            assertEquals(genParms.getMaxMoCount(), estimator.getManagedObjectCount());
+            assertEquals(genParms.getManagedObjectsOfType(MoType.CA).size(), estimator.getContainerCount());
+            assertEquals(genParms.getManagedObjectCount(MoType.MOREF), estimator.getMorefCount());
+            assertEquals(files, (long)estimator.getFiles().getValue());
+            assertEquals(0, estimator.getFiles().getMargin(), 0);
+            assertEquals(bytes, (long)estimator.getBytes().getValue());
+            assertEquals(0, estimator.getBytes().getMargin(), 0);
+            // The bucket directories are an expected count.
+            assertEquals(directories, estimator.getDirectories().getValue(), 2);
+            assertEquals(files + directories, estimator.getInodes().getValue(), 2);
+
+            assertEquals(estimator.getContainerCount(), sampled.getContainerCount());
+            assertTrue(sampled.getBytes().getMargin() > 0);
+            assertTrue("Bytes " + bytes + " outside " + sampled.getBytes(),
+                    sampled.getBytes().getLow() <= bytes && bytes <= sampled.getBytes().getHigh());
+            assertTrue("Files " + files + " outside " + sampled.getFiles(),
+                    sampled.getFiles().getLow() <= files && files <= sampled.getFiles().getHigh());
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    @Test
+    public void testResumeGeneration() throws Exception {
+        File completeDir = Files.createTempDirectory("rsi-complete-").toFile();
+        File resumedDir = Files.createTempDirectory("rsi-resumed-").toFile();
+        try {
+            new ExportGenerator(makePropsFile(completeDir, "seed", "42")).generateExport();
+
+            File propsFile = makePropsFile(resumedDir, "seed", "42", "threads", "1",
+                    "checkpointInterval", "0.000001");
+            ExportGenerator exporter = new ExportGenerator(propsFile);
+            // Fail part way through the MOs, leaving a half-written MO behind.
+            exporter.getGenerationParameters().setOutputSink(new FileSystemOutputSink(resumedDir) {
+                private int files = 0;
+
+                @Override
+                public OutputStream newOutputStream(File file) throws IOException {
+                    checkFailure(file);
+                    return super.newOutputStream(file);
+                }
+
+                @Override
+                public void writeFile(File file, byte[] content, int length) throws IOException {
+                    checkFailure(file);
+                    super.writeFile(file, content, length);
+                }
+
+                private synchronized void checkFailure(File file) throws IOException {
+                    if (++files > 25) {
+                        throw new IOException("Simulated failure writing \"" + file.getAbsolutePath() + "\"");
+                    }
+                }
+            });
+            boolean failed = false;
+            try {
+                exporter.generateExport();
+            } catch (Exception e) {
+                failed = true;
+            }
+            assertTrue("Generation didn't fail", failed);
+            GenerationCheckpoint checkpoint = GenerationCheckpoint.read(resumedDir, 0);
+            assertEquals(GenerationCheckpoint.PHASE_MANAGED_OBJECTS, checkpoint.getPhase());
+            assertTrue(checkpoint.getCompletedCount() > 0);
+            assertFalse(new File(resumedDir, "ids.xml").exists());
+
+            new ExportGenerator(propsFile).resumeExport();
+            assertEquals(GenerationCheckpoint.PHASE_DONE, GenerationCheckpoint.read(resumedDir, 0).getPhase());
+
+            Collection<File> files = FileUtils.listFiles(completeDir, null, true);
+            int exportFiles = 0;
+            for (File file : files) {
+                if (isRunFile(file.getName())) {
+                    continue;
+                }
+                exportFiles++;
+                String path = completeDir.toURI().relativize(file.toURI()).getPath();
+                assertTrue("File " + path + " differs", FileUtils.contentEquals(file, new File(resumedDir, path)));
+            }
+            int resumedFiles = 0;
+            for (File file : FileUtils.listFiles(resumedDir, null, true)) {
+                if (!isRunFile(file.getName())) {
+                    resumedFiles++;
+                }
+            }
+            assertEquals("Different number of files", exportFiles, resumedFiles);
+        } finally {
+            FileUtils.deleteDirectory(completeDir);
+            FileUtils.deleteDirectory(resumedDir);
+        }
+    }
+
+    @Test
+    public void testAppendIncrement() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-append-").toFile();
+        File copyDir = Files.createTempDirectory("rsi-append-copy-").toFile();
+        try {
+            String[] params = { "seed", "12", "versionContent", "delta", "maxVersions", "3",
+                    "appendMOs", "6", "appendVersionFraction", "0.5", "appendMaxVersions", "2" };
+            new ExportGenerator(makePropsFile(outDir, params)).generateExport();
+            int firstNewId = ExportAppender.readIdsXml(new File(outDir, "ids.xml"));
+            Collection<File> resourceFiles = FileUtils.listFiles(new File(outDir, "rsuite.content/managed-objects"),
+                    new String[] { "resource" }, true);
+            List<String> resources = new ArrayList<String>();
+            List<String> contents = new ArrayList<String>();
+            for (File resourceFile : resourceFiles) {
+                resources.add(FileUtils.readFileToString(resourceFile, "UTF-8"));
+                File contentXml = new File(resourceFile.getParentFile(), "content.xml");
+                contents.add(contentXml.exists() ? FileUtils.readFileToString(contentXml, "UTF-8") : null);
+            }
+            String rootNode = FileUtils.readFileToString(new File(outDir, "rsuite.content/rsuite.node"), "UTF-8");
+            FileUtils.copyDirectory(outDir, copyDir);
+
+            GenerationParameters genParms = new GenerationParameters(makePropsFile(outDir, params));
+            genParms.setOutputDirectory(outDir);
+            ExportAppender appender = new ExportAppender(genParms);
+            appender.append();
+            assertTrue("No MOs got new versions", appender.getUpdatedManagedObjectCount() > 0);
+            // The new MOs come first, then the new containers and MOREFs.
+            assertTrue(ExportAppender.readIdsXml(new File(outDir, "ids.xml")) > firstNewId + 6);
+            assertTrue(new File(outDir, "rsuite.content/managed-objects").exists());
+            assertEquals(6, genParms.getManagedObjectCount() - genParms.getManagedObjectCount(MoType.CA) -
+                    genParms.getManagedObjectCount(MoType.MOREF));
+
+            int updated = 0;
+            int added = 0;
+            int i = 0;
+            for (File resourceFile : resourceFiles) {
+                File moDir = resourceFile.getParentFile();
+                int before = countVersionEntries(resources.get(i));
+                int after = countVersionEntries(FileUtils.readFileToString(resourceFile, "UTF-8"));
+                DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(resourceFile);
+                File contentXml = new File(moDir, "content.xml");
+                if (after > before) {
+                    updated++;
+                    added += after - before;
+                    if (contentXml.exists()) {
+                        // The current content is the latest version and the old versions are unchanged.
+                        File latest = new File(moDir, moDir.getName() + "-" +
+                                ManagedObjectGeneratorBase.getVersionSpec(after - 1) + ".xml");
+                        assertTrue(FileUtils.contentEquals(latest, contentXml));
+                        File previous = new File(moDir, moDir.getName() + "-" +
+                                ManagedObjectGeneratorBase.getVersionSpec(before - 1) + ".xml");
+                        assertEquals(contents.get(i), FileUtils.readFileToString(previous, "UTF-8"));
+                        DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(contentXml);
+                    }
+                    for (int v = 0; v < after; v++) {
+                        String prefix = moDir.getName() + "-" + ManagedObjectGeneratorBase.getVersionSpec(v) + ".";
+                        boolean found = false;
+                        for (String name : moDir.list()) {
+                            found |= name.startsWith(prefix);
+                        }
+                        assertTrue("No file for version " + prefix, found);
+                    }
+                } else {
+                    assertEquals(resources.get(i), FileUtils.readFileToString(resourceFile, "UTF-8"));
+                }
+                i++;
+            }
+            assertEquals(appender.getUpdatedManagedObjectCount(), updated);
+            assertEquals(appender.getAddedVersionCount(), added);
+            String newRootNode = FileUtils.readFileToString(new File(outDir, "rsuite.content/rsuite.node"), "UTF-8");
+            assertTrue(newRootNode.length() > rootNode.length());
+            DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(outDir, "rsuite.content/rsuite.node"));
+
+            // The same increment appended to a copy of the export is the same.
+            new ExportGenerator(makePropsFile(copyDir, params)).appendExport();
+            for (File file : FileUtils.listFiles(outDir, null, true)) {
+                if (isRunFile(file.getName())) {
+                    continue;
+                }
+                String path = outDir.toURI().relativize(file.toURI()).getPath();
+                assertTrue("File " + path + " differs", FileUtils.contentEquals(file, new File(copyDir, path)));
+            }
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+            FileUtils.deleteDirectory(copyDir);
+        }
+    }
+
+    @Test
+    public void testAppendWithWriterThreads() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-append-async-").toFile();
+        try {
+            String[] params = { "seed", "11", "maxXmlMOs", "300", "writerThreads", "2",
+                    "appendVersionFraction", "1.0", "appendMaxVersions", "2" };
+            new ExportGenerator(makePropsFile(outDir, params)).generateExport();
+            ExportGenerator appender = new ExportGenerator(makePropsFile(outDir, params));
+            appender.appendExport();
+            assertTrue(appender.verifyExport());
+            for (File contentXml : FileUtils.listFiles(new File(outDir, "rsuite.content/managed-objects"),
+                    new NameFileFilter("content.xml"), TrueFileFilter.INSTANCE)) {
+                DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(contentXml);
+            }
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    private static int countVersionEntries(String resource) {
+        int count = 0;
+        for (int i = resource.indexOf("<versionEntry>"); i >= 0; i = resource.indexOf("<versionEntry>", i + 1)) {
+            count++;
+        }
+        return count;
+    }
 }
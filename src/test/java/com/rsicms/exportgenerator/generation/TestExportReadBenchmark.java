@@ -0,0 +1,76 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.ExportGenerator;
+import com.rsicms.exportgenerator.GenerationParameters;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.commons.io.filefilter.FileFileFilter;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the export read benchmark.
+ */
+public class TestExportReadBenchmark {
+
+    @Test
+    public void testReadStrategies() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-read-").toFile();
+        try {
+            Properties props = new Properties();
+            props.setProperty("outdir", outDir.getAbsolutePath());
+            props.setProperty("seed", "5");
+            props.setProperty("maxXmlMOs", "30");
+            props.setProperty("maxBinaryMOs", "5");
+            props.setProperty("browseWidth", "3");
+            props.setProperty("browseDepth", "3");
+            props.setProperty("maxContainerChildren", "5");
+            File propsFile = new File(outDir, "generation.properties");
+            FileOutputStream out = new FileOutputStream(propsFile);
+            try {
+                props.store(out, null);
+            } finally {
+                out.close();
+            }
+            new ExportGenerator(propsFile).generateExport();
+
+            File contentDir = new File(outDir, "rsuite.content");
+            File mosDir = new File(contentDir, "managed-objects");
+            long moFiles = FileUtils.listFiles(mosDir, null, true).size();
+            long moBytes = FileUtils.sizeOfDirectory(mosDir);
+            long treeFiles = FileUtils.listFiles(contentDir, null, true).size() - moFiles;
+            long treeBytes = FileUtils.sizeOfDirectory(contentDir) - moBytes;
+            int containers = 0;
+            for (File dir : FileUtils.listFilesAndDirs(contentDir, FileFileFilter.FILE, DirectoryFileFilter.DIRECTORY)) {
+                if (dir.isDirectory() && new File(dir, "rsuite.node").isFile() && !dir.equals(contentDir)) {
+                    containers++;
+                }
+            }
+            assertTrue(containers > 0);
+
+            for (String strategy : new String[] { "stream", "nio", "mmap" }) {
+                props.setProperty("readStrategy", strategy);
+                props.setProperty("readThreads", "2");
+                GenerationParameters genParms = new GenerationParameters(props);
+                genParms.setOutputDirectory(outDir);
+                ExportReadBenchmark benchmark = new ExportReadBenchmark(genParms).run();
+                assertEquals(strategy, 0, benchmark.getErrorCount());
+                assertEquals(strategy, moFiles, benchmark.getManagedObjectsResult().getFileCount());
+                assertEquals(strategy, moBytes, benchmark.getManagedObjectsResult().getByteCount());
+                assertEquals(strategy, moFiles, benchmark.getManagedObjectsResult().getLatencies().getCount());
+                assertEquals(strategy, treeFiles, benchmark.getBrowseTreeResult().getFileCount());
+                assertEquals(strategy, treeBytes, benchmark.getBrowseTreeResult().getByteCount());
+                assertEquals(strategy, containers, benchmark.getContainerCount());
+            }
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.ExportGenerator;
+import com.rsicms.exportgenerator.GenerationParameters;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the export verifier.
+ */
+public class TestExportVerifier {
+
+    @Test
+    public void testConcurrentBitSet() throws Exception {
+        ExportVerifier.ConcurrentBitSet bits = new ExportVerifier.ConcurrentBitSet(200);
+        assertTrue(bits.set(3));
+        assertFalse(bits.set(3));
+        assertTrue(bits.set(64));
+        assertTrue(bits.set(199));
+        assertTrue(bits.get(64));
+        assertFalse(bits.get(65));
+        assertEquals(3, bits.nextSetBit(0));
+        assertEquals(64, bits.nextSetBit(4));
+        assertEquals(199, bits.nextSetBit(65));
+        assertEquals(-1, bits.nextSetBit(200));
+    }
+
+    @Test
+    public void testVerifyExport() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-verify-").toFile();
+        try {
+            Properties props = new Properties();
+            props.setProperty("outdir", outDir.getAbsolutePath());
+            props.setProperty("seed", "5");
+            props.setProperty("maxXmlMOs", "30");
+            props.setProperty("maxBinaryMOs", "5");
+            props.setProperty("browseWidth", "3");
+            props.setProperty("browseDepth", "2");
+            props.setProperty("maxContainerChildren", "5");
+            props.setProperty("maxVersions", "3");
+            props.setProperty("threads", "3");
+            File propsFile = new File(outDir, "generation.properties");
+            FileOutputStream out = new FileOutputStream(propsFile);
+            try {
+                props.store(out, null);
+            } finally {
+                out.close();
+            }
+            ExportGenerator generator = new ExportGenerator(propsFile);
+            generator.generateExport();
+            assertTrue(generator.verifyExport());
+
+            GenerationParameters genParms = new GenerationParameters(propsFile);
+            genParms.setOutputDirectory(outDir);
+            ExportVerifier verifier = new ExportVerifier(genParms);
+            assertTrue(verifier.verify());
+            assertEquals(35, verifier.getManagedObjectCount());
+            assertTrue(verifier.getContainerCount() > 0);
+            assertTrue(verifier.getMorefCount() > 0);
+            assertTrue(verifier.getByteCount() > 0);
+
+            // Drop a version file, point a MOREF at another MOREF and reuse a MOREF ID.
+            File versionFile = null;
+            for (File file : FileUtils.listFiles(new File(outDir, "rsuite.content/managed-objects"), null, true)) {
+                if (file.getName().matches("\\d+-1\\.0\\.xml")) {
+                    versionFile = file;
+                    break;
+                }
+            }
+            assertTrue(versionFile.delete());
+            File caFile = null;
+            for (File file : FileUtils.listFiles(new File(outDir, "rsuite.content"), new String[] { "xml" }, true)) {
+                if (FileUtils.readFileToString(file, "UTF-8").split("<moref ").length > 2) {
+                    caFile = file;
+                    break;
+                }
+            }
+            String ca = FileUtils.readFileToString(caFile, "UTF-8");
+            Matcher moref = Pattern.compile("<moref r:rsuiteId=\"(\\d+)\"([^>]*) href=\"\\d+\"").matcher(ca);
+            assertTrue(moref.find());
+            String morefId = moref.group(1);
+            ca = ca.substring(0, moref.start()) + "<moref r:rsuiteId=\"" + morefId + "\"" + moref.group(2) +
+                    " href=\"" + morefId + "\"" + ca.substring(moref.end());
+            int next = ca.indexOf("<moref r:rsuiteId=\"", moref.start() + 1);
+            int end = ca.indexOf('"', next + "<moref r:rsuiteId=\"".length());
+            ca = ca.substring(0, next) + "<moref r:rsuiteId=\"" + morefId + ca.substring(end);
+            FileUtils.writeStringToFile(caFile, ca, "UTF-8");
+
+            verifier = new ExportVerifier(genParms);
+            assertFalse(verifier.verify());
+            String problems = verifier.getProblems().toString();
+            assertTrue(problems, problems.contains("has no file for version 1.0"));
+            assertTrue(problems, problems.contains("MOREF refers to " + morefId + ", which is not an MO or container"));
+            assertTrue(problems, problems.contains("has ID " + morefId + ", which is already in use"));
+
+            // IDs at or past the one in ids.xml were never handed out.
+            FileUtils.writeStringToFile(new File(outDir, "ids.xml"), "<ids>10</ids>", "UTF-8");
+            verifier = new ExportVerifier(genParms);
+            assertFalse(verifier.verify());
+            List<String> idProblems = verifier.getProblems();
+            assertEquals(ExportVerifier.MAX_REPORTED_PROBLEMS, idProblems.size());
+            assertTrue(verifier.getProblemCount() > idProblems.size());
+            assertTrue(idProblems.toString().contains("which is not below the next ID 10 in ids.xml"));
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+}
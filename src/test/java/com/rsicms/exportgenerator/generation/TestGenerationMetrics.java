@@ -0,0 +1,76 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.metrics.GenerationMetrics;
+import com.rsicms.exportgenerator.metrics.LatencyHistogram;
+import com.rsicms.exportgenerator.output.NullOutputSink;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the generation metrics.
+ */
+public class TestGenerationMetrics {
+
+    @Test
+    public void testLatencyHistogramPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+        for (long nanos = 1; nanos <= 100000; nanos++) {
+            histogram.record(nanos);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 0.001);
+        assertWithin(50000, histogram.getPercentile(0.5));
+        assertWithin(90000, histogram.getPercentile(0.9));
+        assertWithin(99000, histogram.getPercentile(0.99));
+        assertEquals(100000, histogram.getPercentile(1.0));
+
+        histogram.record(-5);
+        assertEquals(0, histogram.getPercentile(0.000001));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + ", got " + actual,
+                actual >= expected && actual <= expected * 1.125);
+    }
+
+    @Test
+    public void testCountsAndSummary() throws Exception {
+        GenerationMetrics metrics = new GenerationMetrics();
+        NullOutputSink sink = new NullOutputSink(new File("."));
+        metrics.setOutputSink(sink);
+        metrics.start(0);
+        for (int i = 0; i < 10; i++) {
+            metrics.countManagedObject();
+            metrics.countVersions(3);
+            long start = System.nanoTime();
+            OutputStream out = sink.newOutputStream(new File("file-" + i));
+            out.write(new byte[100]);
+            out.close();
+            metrics.recordLatency(GenerationMetrics.Phase.TOPIC_RENDERING, start);
+        }
+        metrics.countContainer();
+        metrics.stop();
+
+        assertEquals(10, metrics.getManagedObjectCount());
+        assertEquals(30, metrics.getVersionCount());
+        assertEquals(1, metrics.getContainerCount());
+        assertEquals(10, metrics.getFileCount());
+        assertEquals(1000, metrics.getByteCount());
+        assertEquals(10, metrics.getLatencies(GenerationMetrics.Phase.TOPIC_RENDERING).getCount());
+        assertEquals(0, metrics.getLatencies(GenerationMetrics.Phase.RESOURCE_WRITING).getCount());
+
+        String json = metrics.toJson();
+        assertTrue(json, json.contains("\"versions\": { \"count\": 30,"));
+        assertTrue(json, json.contains("\"topicRendering\": { \"count\": 10,"));
+        String csv = metrics.toCsv();
+        assertTrue(csv, csv.contains("\nbytes,1000,"));
+        assertEquals(1 + 5 + GenerationMetrics.Phase.values().length, csv.split("\n").length);
+    }
+}
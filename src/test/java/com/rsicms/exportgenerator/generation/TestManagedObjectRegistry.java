@@ -0,0 +1,141 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.api.MoType;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the compact managed object registry.
+ */
+public class TestManagedObjectRegistry {
+
+    @Test
+    public void testDisplayNames() throws Exception {
+        ManagedObjectRegistry registry = new ManagedObjectRegistry();
+        SplittableRandom random = new SplittableRandom(17);
+        String[] titles = new String[1000];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = ManagedObjectGeneratorBase.makeTitle(random);
+            registry.add(1000 + i, MoType.XML, titles[i]);
+        }
+        registry.add(5000, MoType.CA, "Thing 1");
+        registry.add(5001, MoType.CA, "/");
+        registry.add(5002, MoType.CA, null);
+        registry.add(5003, MoType.CA, "");
+
+        List<ManagedObject> xmlMos = registry.getManagedObjectsOfType(MoType.XML);
+        assertEquals(titles.length, xmlMos.size());
+        for (int i = 0; i < titles.length; i++) {
+            assertEquals(1000 + i, xmlMos.get(i).getID());
+            assertEquals(titles[i], xmlMos.get(i).getDisplayName());
+        }
+        assertEquals("Thing 1", registry.get(5000).getDisplayName());
+        assertEquals("/", registry.get(5001).getDisplayName());
+        assertNull(registry.get(5002).getDisplayName());
+        assertEquals("", registry.get(5003).getDisplayName());
+        assertEquals(MoType.CA, registry.get(5003).getMoType());
+    }
+
+    @Test
+    public void testLookupAndCounts() throws Exception {
+        ManagedObjectRegistry registry = new ManagedObjectRegistry();
+        // Out of order, as parallel generation registers them:
+        for (int moid = 1999; moid >= 1000; moid--) {
+            registry.add(moid, MoType.XML, "MO " + moid);
+        }
+        for (int moid = 2000; moid < 2500; moid++) {
+            registry.add(moid, MoType.MOREF, null);
+        }
+        assertEquals(1500, registry.size());
+        assertEquals(500, registry.getManagedObjectCount(MoType.MOREF));
+        assertEquals(1000, registry.getManagedObjectCount(MoType.XML));
+        assertEquals(0, registry.getManagedObjectCount(MoType.CA));
+        try {
+            registry.getManagedObjectsOfType(MoType.MOREF);
+            fail("MOREFs have no view");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertNull("MOREFs are not kept", registry.get(2000));
+
+        ManagedObject mo = registry.get(1234);
+        assertNotNull(mo);
+        assertEquals("MO 1234", mo.getDisplayName());
+
+        registry.sortById(MoType.XML);
+        List<ManagedObject> xmlMos = registry.getManagedObjectsOfType(MoType.XML);
+        for (int i = 0; i < xmlMos.size(); i++) {
+            assertEquals(1000 + i, xmlMos.get(i).getID());
+            assertEquals("MO " + (1000 + i), xmlMos.get(i).getDisplayName());
+        }
+        assertEquals("MO 1234", registry.get(1234).getDisplayName());
+    }
+
+    @Test
+    public void testReadsWhileRegistering() throws Exception {
+        final ManagedObjectRegistry registry = new ManagedObjectRegistry();
+        final List<ManagedObject> xmlMos = registry.getManagedObjectsOfType(MoType.XML);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread[] readers = new Thread[3];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread() {
+                @Override
+                public void run() {
+                    while (!done.get() && failure.get() == null) {
+                        int size = xmlMos.size();
+                        if (size == 0) {
+                            continue;
+                        }
+                        ManagedObject mo = xmlMos.get(size - 1);
+                        // Names that are and aren't made of word-list words.
+                        String expected = mo.getID() % 2 == 0 ? "MO " + mo.getID() : "A";
+                        if (!expected.equals(mo.getDisplayName())) {
+                            failure.set("MO " + mo.getID() + " has name " + mo.getDisplayName());
+                        }
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        try {
+            for (int moid = 20999; moid >= 1000; moid--) {
+                registry.add(moid, MoType.XML, moid % 2 == 0 ? "MO " + moid : "A");
+                if (moid % 1000 == 0) {
+                    registry.sortById(MoType.XML);
+                }
+            }
+        } finally {
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        assertNull(failure.get());
+        assertEquals(20000, xmlMos.size());
+        assertEquals("MO 20998", registry.get(20998).getDisplayName());
+        assertEquals("A", registry.get(1001).getDisplayName());
+    }
+
+    @Test
+    public void testHeapBytesPerMo() throws Exception {
+        ManagedObjectRegistry registry = new ManagedObjectRegistry();
+        int moCount = 100000;
+        for (int moid = 1000; moid < 1000 + moCount; moid++) {
+            registry.add(moid, MoType.XML, ManagedObjectGeneratorBase.makeTitle(new SplittableRandom(moid)));
+        }
+        double bytesPerMo = (double)registry.getHeapBytes() / moCount;
+        // IDs, name references and on average 3.5 title words, plus growth headroom.
+        assertTrue("Registry uses " + bytesPerMo + " bytes per MO", bytesPerMo < 48);
+    }
+}
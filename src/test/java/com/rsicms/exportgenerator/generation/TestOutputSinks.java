@@ -0,0 +1,406 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.api.BrowseTreeGenerator;
+import com.rsicms.exportgenerator.api.MoType;
+import com.rsicms.exportgenerator.api.OutputSink;
+import com.rsicms.exportgenerator.output.ArchiveOutputSink;
+import com.rsicms.exportgenerator.output.AsyncOutputSink;
+import com.rsicms.exportgenerator.output.FileSystemOutputSink;
+import com.rsicms.exportgenerator.output.MemoryOutputSink;
+import com.rsicms.exportgenerator.output.NullOutputSink;
+import com.rsicms.exportgenerator.output.TarOutputSink;
+import com.rsicms.exportgenerator.output.ZipOutputSink;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test generation through the different output sinks.
+ */
+public class TestOutputSinks {
+
+    private GenerationParameters getGenerationParameters(String outputType) throws Exception {
+        URL props = TestOutputSinks.class.getResource("/tiny-generation.properties");
+        assertNotNull("Didn't get props file", props);
+        GenerationParameters genParms = new GenerationParameters(new File(props.getFile()));
+        genParms.setOutputDirectory(new File("export"));
+        genParms.setProperty("output", outputType);
+        genParms.setProperty("seed", "1234");
+        return genParms;
+    }
+
+    private OutputSink generate(GenerationParameters genParms) throws Exception {
+        new DitaManagedObjectGenerator(genParms).generateManagedObjects();
+        BrowseTreeGenerator browseGenerator = new DefaultBrowseTreeGenerator(genParms);
+        browseGenerator.generateBrowseTree();
+        OutputSink sink = genParms.getOutputSink();
+        sink.close();
+        return sink;
+    }
+
+    @Test
+    public void testMemoryOutputSink() throws Exception {
+        GenerationParameters genParms = getGenerationParameters("memory");
+        MemoryOutputSink sink = (MemoryOutputSink)generate(genParms);
+
+        assertFalse("Nothing written", sink.getFilePaths().isEmpty());
+        assertTrue("No managed-objects directory",
+                sink.getDirectoryPaths().contains("rsuite.content/managed-objects"));
+        assertNotNull("No root rsuite.node", sink.getFile("rsuite.content/rsuite.node"));
+        int contentCount = 0;
+        for (String path : sink.getFilePaths()) {
+            if (path.endsWith("/content.xml")) {
+                contentCount++;
+            }
+        }
+        assertEquals("Expected a content.xml per XML MO",
+                genParms.getManagedObjectsOfType(MoType.XML).size(), contentCount);
+        assertEquals(sink.getFilePaths().size(), sink.getFileCount());
+        long byteCount = 0;
+        for (String path : sink.getFilePaths()) {
+            byteCount += sink.getFile(path).length;
+        }
+        assertEquals(byteCount, sink.getByteCount());
+    }
+
+    @Test
+    public void testNullOutputSinkCounts() throws Exception {
+        OutputSink memorySink = generate(getGenerationParameters("memory"));
+        OutputSink nullSink = generate(getGenerationParameters("null"));
+        assertEquals("File counts differ", memorySink.getFileCount(), nullSink.getFileCount());
+        assertEquals("Byte counts differ", memorySink.getByteCount(), nullSink.getByteCount());
+    }
+
+    @Test
+    public void testZipOutputSink() throws Exception {
+        MemoryOutputSink memorySink = (MemoryOutputSink)generate(getGenerationParameters("memory"));
+        File outDir = Files.createTempDirectory("rsi-zip-").toFile();
+        try {
+            GenerationParameters genParms = getGenerationParameters("zip");
+            genParms.setOutputDirectory(outDir);
+            genParms.setProperty("archiveMaxEntries", "10");
+            genParms.setProperty("archiveCompression", "6");
+            ArchiveOutputSink zipSink = (ArchiveOutputSink)generate(genParms);
+            assertTrue("Expected rolling archives", zipSink.getArchiveCount() > 1);
+
+            int entryCount = 0;
+            for (File archive : FileUtils.listFiles(outDir, new String[] {"zip"}, false)) {
+                ZipFile zipFile = new ZipFile(archive);
+                try {
+                    Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                    while (entries.hasMoreElements()) {
+                        ZipEntry entry = entries.nextElement();
+                        byte[] expected = memorySink.getFile(entry.getName());
+                        assertNotNull("Unexpected entry " + entry.getName(), expected);
+                        InputStream in = zipFile.getInputStream(entry);
+                        try {
+                            assertArrayEquals("Entry " + entry.getName() + " differs", expected, IOUtils.toByteArray(in));
+                        } finally {
+                            in.close();
+                        }
+                        entryCount++;
+                    }
+                } finally {
+                    zipFile.close();
+                }
+            }
+            assertEquals("Missing entries", memorySink.getFilePaths().size(), entryCount);
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    @Test
+    public void testTarOutputSink() throws Exception {
+        MemoryOutputSink memorySink = (MemoryOutputSink)generate(getGenerationParameters("memory"));
+        File outDir = Files.createTempDirectory("rsi-tar-").toFile();
+        try {
+            GenerationParameters genParms = getGenerationParameters("tar");
+            genParms.setOutputDirectory(outDir);
+            genParms.setProperty("archiveCompression", "1");
+            ArchiveOutputSink tarSink = (ArchiveOutputSink)generate(genParms);
+            assertEquals(1, tarSink.getArchiveCount());
+
+            int entryCount = 0;
+            TarArchiveInputStream tarIn = new TarArchiveInputStream(new GZIPInputStream(
+                    new FileInputStream(new File(outDir, "rsuite-export-0000.tar.gz"))));
+            try {
+                TarArchiveEntry entry;
+                while ((entry = tarIn.getNextTarEntry()) != null) {
+                    byte[] expected = memorySink.getFile(entry.getName());
+                    assertNotNull("Unexpected entry " + entry.getName(), expected);
+                    assertArrayEquals("Entry " + entry.getName() + " differs", expected, IOUtils.toByteArray(tarIn));
+                    entryCount++;
+                }
+            } finally {
+                tarIn.close();
+            }
+            assertEquals("Missing entries", memorySink.getFilePaths().size(), entryCount);
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    /**
+     * Read the entries of the archives in a directory.
+     * @return The content of each entry, by entry path.
+     */
+    private Map<String, byte[]> readArchives(File outDir) throws Exception {
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        for (File archive : FileUtils.listFiles(outDir, new String[] {"zip"}, false)) {
+            ZipFile zipFile = new ZipFile(archive);
+            try {
+                Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+                while (zipEntries.hasMoreElements()) {
+                    ZipEntry entry = zipEntries.nextElement();
+                    InputStream in = zipFile.getInputStream(entry);
+                    try {
+                        entries.put(entry.getName(), IOUtils.toByteArray(in));
+                    } finally {
+                        in.close();
+                    }
+                }
+            } finally {
+                zipFile.close();
+            }
+        }
+        for (File archive : FileUtils.listFiles(outDir, new String[] {"tar"}, false)) {
+            TarArchiveInputStream tarIn = new TarArchiveInputStream(new FileInputStream(archive));
+            try {
+                TarArchiveEntry entry;
+                while ((entry = tarIn.getNextTarEntry()) != null) {
+                    entries.put(entry.getName(), IOUtils.toByteArray(tarIn));
+                }
+            } finally {
+                tarIn.close();
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    public void testArchivePayloads() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-payload-").toFile();
+        File blobFile = File.createTempFile("rsi-blob-", ".bin");
+        try {
+            byte[] blob = new byte[1000];
+            new Random(3).nextBytes(blob);
+            FileUtils.writeByteArrayToFile(blobFile, blob);
+            // Longer than the blob and not a whole number of blobs.
+            int length = 2 * 1024 * 1024 + 123;
+            byte[] expected = new byte[length];
+            for (int i = 0; i < length; i++) {
+                expected[i] = blob[i % blob.length];
+            }
+
+            ArchiveOutputSink[] sinks = { new ZipOutputSink(outDir, 0, 0, 0), new ZipOutputSink(outDir, 0, 0, 6),
+                    new TarOutputSink(outDir, 0, 0, 0) };
+            for (ArchiveOutputSink sink : sinks) {
+                FileChannel blobChannel = FileChannel.open(blobFile.toPath(), StandardOpenOption.READ);
+                try {
+                    sink.writePayload(new File(outDir, "a/content.bin"), blobChannel, length);
+                    sink.writePayload(new File(outDir, "b/content.bin"), null, 5000);
+                    sink.writeFile(new File(outDir, "b/b.resource"), "<res/>".getBytes("UTF-8"), 6);
+                    sink.close();
+                } finally {
+                    blobChannel.close();
+                }
+                assertEquals(3, sink.getFileCount());
+                assertEquals(length + 5000 + 6, sink.getByteCount());
+
+                Map<String, byte[]> entries = readArchives(outDir);
+                assertEquals(3, entries.size());
+                assertArrayEquals(expected, entries.get("a/content.bin"));
+                assertArrayEquals(new byte[5000], entries.get("b/content.bin"));
+                assertEquals("<res/>", new String(entries.get("b/b.resource"), "UTF-8"));
+                FileUtils.cleanDirectory(outDir);
+            }
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+            blobFile.delete();
+        }
+    }
+
+    @Test
+    public void testBucketDirectoryManager() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-buckets-").toFile();
+        try {
+            OutputSink sink = new FileSystemOutputSink(outDir);
+            File mosDir = new File(outDir, "managed-objects");
+            BucketDirectoryManager buckets = new BucketDirectoryManager(sink, mosDir, 10, 5);
+            buckets.makeAllBucketDirs(4);
+            assertTrue("Bucket directory not made", new File(new File(mosDir, "9"), "4").isDirectory());
+            long dirCount = sink.getDirectoryCount();
+
+            // Known buckets are not made again:
+            File bucketDir = buckets.getBucketDir(3, 2);
+            assertEquals("Bucket directory made again", dirCount, sink.getDirectoryCount());
+            assertTrue("New MO directory not made", sink.makeNewDirectory(new File(bucketDir, "1000")));
+            assertFalse("Existing MO directory made again", sink.makeNewDirectory(new File(bucketDir, "1000")));
+
+            // The largest layouts cost nothing until their buckets are used.
+            buckets = new BucketDirectoryManager(sink, mosDir, Integer.MAX_VALUE, 1);
+            assertTrue(buckets.getBucketDir(Integer.MAX_VALUE - 1, 0).isDirectory());
+            try {
+                new BucketDirectoryManager(sink, mosDir, 100000, 100000);
+                fail("Bucket count overflow accepted");
+            } catch (RuntimeException e) {
+                // Expected
+            }
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    @Test
+    public void testWriteFile() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-write-").toFile();
+        try {
+            byte[] content = "<ids>1234</ids>AND SOME SLACK".getBytes("UTF-8");
+            OutputSink[] sinks = { new FileSystemOutputSink(outDir), new MemoryOutputSink(outDir),
+                    new NullOutputSink(outDir) };
+            for (OutputSink sink : sinks) {
+                File file = new File(outDir, "ids.xml");
+                // Rewriting a file replaces all of it.
+                sink.writeFile(file, "<ids>99999999</ids>".getBytes("UTF-8"), 19);
+                sink.writeFile(file, content, 15);
+                assertEquals(2, sink.getFileCount());
+                assertEquals(34, sink.getByteCount());
+            }
+            assertEquals("<ids>1234</ids>", FileUtils.readFileToString(new File(outDir, "ids.xml"), "UTF-8"));
+            assertEquals("<ids>1234</ids>", new String(((MemoryOutputSink)sinks[1]).getFile("ids.xml"), "UTF-8"));
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    @Test
+    public void testLinkFile() throws Exception {
+        File outDir = Files.createTempDirectory("rsi-link-").toFile();
+        try {
+            OutputSink sink = new FileSystemOutputSink(outDir);
+            File target = new File(outDir, "1000-1.0.xml");
+            sink.writeFile(target, "<topic/>".getBytes("UTF-8"), 8);
+            File link = new File(outDir, "content.xml");
+            assertTrue(sink.linkFile(link, target));
+            assertEquals("<topic/>", FileUtils.readFileToString(link, "UTF-8"));
+            assertEquals(2, sink.getFileCount());
+            // Only a file system that can't link is left to the caller to
+            // write; an existing link or a missing target is an error.
+            try {
+                sink.linkFile(link, target);
+                fail("Expected FileAlreadyExistsException");
+            } catch (FileAlreadyExistsException e) {
+                // Expected
+            }
+            try {
+                sink.linkFile(new File(outDir, "other.xml"), new File(outDir, "missing.xml"));
+                fail("Expected NoSuchFileException");
+            } catch (NoSuchFileException e) {
+                // Expected
+            }
+            assertEquals(2, sink.getFileCount());
+        } finally {
+            FileUtils.deleteDirectory(outDir);
+        }
+    }
+
+    @Test
+    public void testAsyncOutputSink() throws Exception {
+        MemoryOutputSink expected = (MemoryOutputSink)generate(getGenerationParameters("memory"));
+
+        GenerationParameters genParms = getGenerationParameters("memory");
+        genParms.setProperty("threads", "4");
+        genParms.setProperty("writerThreads", "2");
+        genParms.setProperty("writerQueueSize", "4");
+        AsyncOutputSink asyncSink = (AsyncOutputSink)generate(genParms);
+        MemoryOutputSink sink = (MemoryOutputSink)asyncSink.getSink();
+
+        assertEquals("Different files written", expected.getFilePaths(), sink.getFilePaths());
+        for (String path : expected.getFilePaths()) {
+            assertArrayEquals("File " + path + " differs", expected.getFile(path), sink.getFile(path));
+        }
+        assertEquals(expected.getByteCount(), asyncSink.getByteCount());
+    }
+
+    @Test
+    public void testAsyncOutputSinkWriteFailure() throws Exception {
+        OutputSink failingSink = new NullOutputSink(new File("export")) {
+            @Override
+            public OutputStream newOutputStream(File file) throws IOException {
+                throw new IOException("Disk full");
+            }
+
+            @Override
+            public void writeFile(File file, byte[] content, int length) throws IOException {
+                throw new IOException("Disk full");
+            }
+        };
+        GenerationParameters genParms = getGenerationParameters("null");
+        genParms.setProperty("threads", "2");
+        genParms.setOutputSink(new AsyncOutputSink(failingSink, 2, 2));
+        try {
+            generate(genParms);
+            fail("Write failure not reported");
+        } catch (IOException e) {
+            assertTrue("Unexpected exception: " + e.getMessage(), e.getMessage().contains("Disk full"));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testAsyncOutputSinkWriterError() throws Exception {
+        OutputSink failingSink = new NullOutputSink(new File("export")) {
+            @Override
+            public void writeFile(File file, byte[] content, int length) throws IOException {
+                throw new StackOverflowError("Too deep");
+            }
+        };
+        AsyncOutputSink sink = new AsyncOutputSink(failingSink, 1, 2);
+        byte[] content = "<topic/>".getBytes("UTF-8");
+        try {
+            // More files than the queue holds: without a writer thread to
+            // take them, queueing them would wait for ever.
+            for (int i = 0; i < 100; i++) {
+                sink.writeFile(new File("export", i + ".xml"), content, content.length);
+            }
+            fail("Writer thread error not reported");
+        } catch (IOException e) {
+            assertTrue("Unexpected exception: " + e.getMessage(), e.getMessage().contains("Too deep"));
+        }
+        try {
+            sink.close();
+            fail("Writer thread error not reported on close");
+        } catch (IOException e) {
+            assertTrue("Unexpected exception: " + e.getMessage(), e.getMessage().contains("Too deep"));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.distribution.ZipfSampler;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the models of which MOs containers refer to.
+ */
+public class TestReferenceModel {
+
+    private static final int MO_COUNT = 10000;
+
+    private static GenerationParameters makeParameters(String... settings) {
+        Properties props = new Properties();
+        props.setProperty("seed", "23");
+        for (int i = 0; i + 1 < settings.length; i += 2) {
+            props.setProperty(settings[i], settings[i + 1]);
+        }
+        return new GenerationParameters(props);
+    }
+
+    @Test
+    public void testUniformMatchesNextInt() throws Exception {
+        ReferenceModel model = new ReferenceModel(makeParameters(), MO_COUNT);
+        SplittableRandom a = new SplittableRandom(7);
+        SplittableRandom b = new SplittableRandom(7);
+        int[] childMos = new int[50];
+        model.pickReferences(b, childMos);
+        for (int childMo : childMos) {
+            assertEquals(a.nextInt(0, MO_COUNT), childMo);
+        }
+    }
+
+    @Test
+    public void testZipfSampler() throws Exception {
+        ZipfSampler sampler = new ZipfSampler(1000000, 1.2);
+        SplittableRandom random = new SplittableRandom(1);
+        int samples = 500000;
+        int ones = 0;
+        int twos = 0;
+        for (int i = 0; i < samples; i++) {
+            int rank = sampler.sample(random);
+            assertTrue(rank >= 1 && rank <= 1000000);
+            if (rank == 1) {
+                ones++;
+            } else if (rank == 2) {
+                twos++;
+            }
+        }
+        // Rank 2 is 2^-1.2 as likely as rank 1.
+        assertEquals(Math.pow(2, -1.2), (double)twos / ones, 0.02);
+    }
+
+    @Test
+    public void testHotSpotReferences() throws Exception {
+        ReferenceModel model = new ReferenceModel(makeParameters("referenceModel", "hotspot",
+                "referenceSkew", "1", "orphanShare", "0.2", "referenceLocality", "0.6", "referenceWindow", "10"),
+                MO_COUNT);
+        for (int rank = 0; rank < MO_COUNT; rank++) {
+            assertEquals(rank, model.getRank(model.getIndex(rank)));
+        }
+        int orphans = 0;
+        for (int index = 0; index < MO_COUNT; index++) {
+            if (!model.isReferenced(index)) {
+                orphans++;
+            }
+        }
+        assertEquals(2000, orphans);
+
+        int[] references = new int[MO_COUNT];
+        int[] childMos = new int[20];
+        SplittableRandom random = new SplittableRandom(3);
+        int pairs = 0;
+        int nearPairs = 0;
+        int containers = 20000;
+        for (int c = 0; c < containers; c++) {
+            model.pickReferences(random, childMos);
+            for (int i = 0; i < childMos.length; i++) {
+                references[childMos[i]]++;
+                assertTrue("Orphan " + childMos[i] + " referred to", model.isReferenced(childMos[i]));
+                if (i > 0) {
+                    pairs++;
+                    int distance = Math.abs(childMos[i] - childMos[i - 1]);
+                    if (Math.min(distance, MO_COUNT - distance) <= 10) {
+                        nearPairs++;
+                    }
+                }
+            }
+        }
+        // The most popular MO is referred to by a large share of the containers.
+        int hottest = references[model.getIndex(0)];
+        double mean = (double)containers * childMos.length / MO_COUNT;
+        assertTrue("Hottest MO only referred to " + hottest + " times", hottest > 100 * mean);
+        // About the locality share of siblings are near each other, less those whose near MO is an orphan.
+        double nearShare = (double)nearPairs / pairs;
+        assertTrue("Near sibling share " + nearShare, nearShare > 0.45 && nearShare < 0.65);
+    }
+}
@@ -0,0 +1,46 @@
+package com.rsicms.exportgenerator.generation;
+
+import org.junit.Test;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.StringWriter;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the packed word list.
+ */
+public class TestWordList {
+
+    @Test
+    public void testStreamedWordsMatchStringWords() throws Exception {
+        WordList wordList = GenerationHelper.getWordList();
+        assertTrue("Word list not loaded", wordList.size() > 200000);
+
+        XMLOutputFactory factory = XMLOutputFactory.newInstance();
+        RenderBuffer buffer = new RenderBuffer();
+        for (long seed = 0; seed < 500; seed++) {
+            StringWriter expected = new StringWriter();
+            XMLStreamWriter writer = factory.createXMLStreamWriter(expected);
+            writer.writeCharacters(GenerationHelper.getRandomWords(new SplittableRandom(seed), 7, 30));
+            writer.close();
+
+            wordList.appendRandomWords(buffer.reset(), new SplittableRandom(seed), 7, 30);
+            String actual = new String(buffer.toByteArray(), "UTF-8");
+
+            assertEquals("Streamed words differ for seed " + seed, expected.toString(), actual);
+        }
+    }
+
+    @Test
+    public void testWordAccess() throws Exception {
+        WordList wordList = GenerationHelper.getWordList();
+        for (int ndx = 0; ndx < wordList.size(); ndx += 997) {
+            assertEquals(wordList.getWord(ndx).length(), wordList.getWordLength(ndx));
+        }
+        assertEquals("A", wordList.getWord(0));
+    }
+}
@@ -0,0 +1,457 @@
+package com.rsicms.exportgenerator.generation;
+
+import com.rsicms.exportgenerator.GenerationParameters;
+import com.rsicms.exportgenerator.api.MoType;
+import com.rsicms.exportgenerator.distribution.Distribution;
+import org.junit.Test;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Differential tests of the byte-level renderers and the XML emitter
+ * against the equivalent StAX-written documents.
+ */
+public class TestXmlRendering {
+
+    private static final String[] AWKWARD_TITLES = {
+            "plain title", "</words>", "Tom & Jerry", "\"quoted\" > 'single'", "café € 😀"
+    };
+
+    private final XMLOutputFactory factory = XMLOutputFactory.newInstance();
+
+    private String render(RenderBuffer buffer) {
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void writeVersionEntry(XMLStreamWriter writer, String title, String versionSpec,
+                                   String moTagName, String userName, SplittableRandom random) throws Exception {
+        writer.writeStartElement("versionEntry");
+        if (null != title) {
+            writer.writeStartElement("displayName");
+            writer.writeCharacters(title);
+            writer.writeEndElement();
+        }
+        writer.writeStartElement("dtCommitted");
+        writer.writeCharacters("2010-12-16T20:05:41.000Z");
+        writer.writeEndElement();
+        writer.writeStartElement("entryType");
+        writer.writeCharacters("2");
+        writer.writeEndElement();
+        writer.writeStartElement("lmd");
+        writer.writeCharacters("");
+        writer.writeEndElement();
+        writer.writeStartElement("localName");
+        writer.writeCharacters(moTagName);
+        writer.writeEndElement();
+        writer.writeStartElement("namespaceUri");
+        writer.writeCharacters("");
+        writer.writeEndElement();
+        writer.writeStartElement("note");
+        writer.writeCharacters(GenerationHelper.getRandomWords(random, 1, 4));
+        writer.writeEndElement();
+        writer.writeStartElement("revision");
+        writer.writeCharacters(versionSpec);
+        writer.writeEndElement();
+        writer.writeStartElement("transactionId");
+        writer.writeCharacters("0");
+        writer.writeEndElement();
+        writer.writeStartElement("userId");
+        writer.writeCharacters(userName);
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private String writeResourceFile(ManagedObject mo, List<String> versionSpecs, SplittableRandom random)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = factory.createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument();
+        writer.writeStartElement("contentResource");
+        writer.writeStartElement("acl");
+        writer.writeStartElement("role");
+        writer.writeAttribute("name", "RSuiteAdministrator");
+        writer.writeCharacters("admin");
+        writer.writeEndElement();
+        writer.writeStartElement("role");
+        writer.writeAttribute("name", "RSuiteEditor");
+        writer.writeCharacters("edit,copy,delete");
+        writer.writeEndElement();
+        writer.writeStartElement("role");
+        writer.writeAttribute("name", "*");
+        writer.writeCharacters("list,view,reuse");
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEmptyElement("aliases");
+        writer.writeStartElement("systemMetadata");
+        writer.writeStartElement("id");
+        writer.writeCharacters("" + mo.getID());
+        writer.writeEndElement();
+        writer.writeStartElement("username");
+        writer.writeCharacters("fakeexportuser");
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeStartElement("versions");
+        for (String versionSpec : versionSpecs) {
+            writeVersionEntry(writer, mo.getDisplayName(), versionSpec, "topic", "fakeexportuser", random);
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String writeRSuiteNodeFile(ManagedObject container, List<ManagedObject> children,
+                                       SplittableRandom random) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = factory.createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument();
+        writer.writeStartElement("contentResource");
+        writer.writeStartElement("nestedIds");
+        for (ManagedObject child : children) {
+            writer.writeStartElement("id");
+            writer.writeCharacters(child.getDisplayName());
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeStartElement("systemMetadata");
+        writer.writeStartElement("createdate");
+        writer.writeCharacters("2016-09-27T16:30:04.490Z");
+        writer.writeEndElement();
+        writer.writeStartElement("id");
+        writer.writeCharacters("" + container.getID());
+        writer.writeEndElement();
+        writer.writeStartElement("username");
+        writer.writeCharacters("system");
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeStartElement("versions");
+        writeVersionEntry(writer, container.getDisplayName(), "1.0", "rs_ca", "fakeexportuser", random);
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testResourceFileMatchesStax() throws Exception {
+        List<String> versionSpecs = Arrays.asList("1.0", "1.1", "1.2", "2.0");
+        RenderBuffer buffer = new RenderBuffer(16);
+        for (long seed = 0; seed < 200; seed++) {
+            String title = seed < AWKWARD_TITLES.length ? AWKWARD_TITLES[(int)seed] :
+                    GenerationHelper.getRandomWords(new SplittableRandom(-seed), 2, 5);
+            ManagedObject mo = new ManagedObject(1000 + (int)seed, MoType.XML, seed % 7 == 6 ? null : title);
+            String expected = writeResourceFile(mo, versionSpecs, new SplittableRandom(seed));
+            GenerationHelper.renderResourceFile(buffer.reset(), mo, versionSpecs, new SplittableRandom(seed));
+            assertEquals("Resource file differs for seed " + seed, expected, render(buffer));
+        }
+    }
+
+    @Test
+    public void testRSuiteNodeFileMatchesStax() throws Exception {
+        RenderBuffer buffer = new RenderBuffer(16);
+        for (long seed = 0; seed < 200; seed++) {
+            SplittableRandom titles = new SplittableRandom(-seed);
+            ManagedObject container = new ManagedObject(4 + (int)seed, MoType.CA,
+                    seed < AWKWARD_TITLES.length ? AWKWARD_TITLES[(int)seed] : GenerationHelper.getRandomWords(titles, 1, 4));
+            List<ManagedObject> children = new ArrayList<ManagedObject>();
+            for (int i = 0; i < seed % 12; i++) {
+                children.add(new ManagedObject(2000 + i, MoType.XML, GenerationHelper.getRandomWords(titles, 1, 4)));
+            }
+            String expected = writeRSuiteNodeFile(container, children, new SplittableRandom(seed));
+            DefaultBrowseTreeGenerator.renderRSuiteNodeFile(buffer.reset(), container, children, new SplittableRandom(seed));
+            assertEquals("rsuite.node file differs for seed " + seed, expected, render(buffer));
+        }
+    }
+
+    private String writeTopic(int moid, String title, Distribution paragraphs, Distribution paragraphWords,
+                              SplittableRandom random) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = factory.createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument();
+        writer.writeStartElement("topic");
+        writer.writeNamespace("r", "http://www.rsuitecms.com/rsuite/ns/metadata");
+        writer.writeNamespace("ditaarch", "http://dita.oasis-open.org/architecture/2005/");
+        writer.writeAttribute("id", "topic-" + moid);
+        writer.writeAttribute("class", "- topic/topic ");
+        writer.writeAttribute("r", "http://www.rsuitecms.com/rsuite/ns/metadata", "rsuiteId", "" + moid);
+        writer.writeAttribute("ditaarch:DITAArchVersion","1.2");
+        writer.writeAttribute("domains", "(topic hi-d) (topic ut-d) (topic indexing-d) (topic hazard-d) (topic abbrev-d) (topic pr-d) (topic sw-d) (topic ui-d)");
+        writer.writeStartElement("title");
+        writer.writeAttribute("class", "- topic/title ");
+        writer.writeCharacters(title);
+        writer.writeEndElement();
+        writer.writeStartElement("body");
+        writer.writeAttribute("class", "- topic/body ");
+        int paraCnt = Math.max(1, paragraphs.sample(random));
+        for (int i = 0; i < paraCnt; i++) {
+            writer.writeStartElement("p");
+            writer.writeAttribute("class", "- topic/p ");
+            StaxWords.writeRandomWords(writer, random, paragraphWords.sample(random));
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String writeContainerDoc(ManagedObject container, List<ManagedObject> morefs,
+                                     List<ManagedObject> children) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = factory.createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument();
+        writer.writeStartElement("rs_ca_map");
+        writer.writeAttribute("xmlns:ditaarch", "http://dita.oasis-open.org/architecture/2005/");
+        writer.writeAttribute("class", "- map/map rs_ca_map/rs_ca_map ");
+        writer.writeAttribute("domains", "(map rs_ca_map) (map rs_ca-d) (props rs_ca-d-att)");
+        writer.writeAttribute("ditaarch:DITAArchVersion", "1.2");
+        writer.writeStartElement("rs_ca");
+        writer.writeAttribute("xmlns:r", "http://www.rsuitecms.com/rsuite/ns/metadata");
+        writer.writeAttribute("type", "ca");
+        writer.writeAttribute("class", "+ map/topicref rs_ca-d/rs_ca ");
+        writer.writeAttribute("r:rsuiteId", "" + container.getID());
+        for (int i = 0; i < morefs.size(); i++) {
+            writer.writeEmptyElement("moref");
+            writer.writeAttribute("r:rsuiteId", "" + morefs.get(i).getID());
+            writer.writeAttribute("class", "+ map/topicref rs_ca-d/rs_moref ");
+            writer.writeAttribute("href", "" + children.get(i).getID());
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testTopicMatchesStax() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("paragraphsDistribution", "uniform(0,4)");
+        props.setProperty("paragraphWordsDistribution", "uniform(0,40)");
+        GenerationParameters generationParameters = new GenerationParameters(props);
+        DitaManagedObjectGenerator generator = new DitaManagedObjectGenerator(generationParameters);
+        Distribution paragraphs = generationParameters.getParagraphsDistribution();
+        Distribution paragraphWords = generationParameters.getParagraphWordsDistribution();
+        RenderBuffer buffer = new RenderBuffer(16);
+        for (long seed = 0; seed < 200; seed++) {
+            String title = seed < AWKWARD_TITLES.length ? AWKWARD_TITLES[(int)seed] :
+                    GenerationHelper.getRandomWords(new SplittableRandom(-seed), 2, 5);
+            String expected = writeTopic(1000 + (int)seed, title, paragraphs, paragraphWords, new SplittableRandom(seed));
+            generator.renderTopic(buffer.reset(), 1000 + (int)seed, title, new SplittableRandom(seed));
+            assertEquals("Topic differs for seed " + seed, expected, render(buffer));
+        }
+    }
+
+    @Test
+    public void testContainerDocMatchesStax() throws Exception {
+        RenderBuffer buffer = new RenderBuffer(16);
+        for (int childCount = 0; childCount < 20; childCount++) {
+            ManagedObject container = new ManagedObject(4 + childCount, MoType.CA, "container " + childCount);
+            List<ManagedObject> morefs = new ArrayList<ManagedObject>();
+            List<ManagedObject> children = new ArrayList<ManagedObject>();
+            for (int i = 0; i < childCount; i++) {
+                morefs.add(new ManagedObject(5000 + i, MoType.MOREF, null));
+                children.add(new ManagedObject(999 + i * 37, MoType.XML, null));
+            }
+            String expected = writeContainerDoc(container, morefs, children);
+            DefaultBrowseTreeGenerator.renderContainerDoc(buffer.reset(), container, morefs, children);
+            assertEquals("CA file differs for " + childCount + " children", expected, render(buffer));
+        }
+    }
+
+    /**
+     * Make the same random sequence of calls to a StAX writer and an
+     * emitter, covering every emitter method and awkward text.
+     */
+    @Test
+    public void testEmitterMatchesStax() throws Exception {
+        String[] names = { "a", "topic", "r:rsuiteId", "x-y.z_1" };
+        String[] texts = { "", "plain", "</words>", "a & b", "\"quoted\" 'single'", "tab\tnew\nline\r",
+                "café € 😀", "]]>" };
+        for (long seed = 0; seed < 500; seed++) {
+            SplittableRandom random = new SplittableRandom(seed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XMLStreamWriter writer = factory.createXMLStreamWriter(out, "UTF-8");
+            XmlEmitter xml = new XmlEmitter(new RenderBuffer(1));
+
+            writer.writeStartDocument();
+            xml.startDocument();
+            writer.writeStartElement("root");
+            xml.startElement("root");
+            int depth = 1;
+            boolean startTagOpen = true;
+            int calls = random.nextInt(1, 60);
+            for (int call = 0; call < calls; call++) {
+                String name = names[random.nextInt(names.length)];
+                String text = texts[random.nextInt(texts.length)];
+                int value = random.nextInt(-5, 100000);
+                switch (random.nextInt(startTagOpen ? 12 : 7)) {
+                    case 0:
+                    case 1:
+                        writer.writeStartElement(name);
+                        xml.startElement(name);
+                        depth++;
+                        startTagOpen = true;
+                        break;
+                    case 2:
+                        writer.writeEmptyElement(name);
+                        xml.emptyElement(name);
+                        startTagOpen = true;
+                        break;
+                    case 3:
+                        if (depth > 1) {
+                            writer.writeEndElement();
+                            xml.endElement();
+                            depth--;
+                            startTagOpen = false;
+                        }
+                        break;
+                    case 4:
+                        writer.writeCharacters(text);
+                        xml.characters(text);
+                        startTagOpen = false;
+                        break;
+                    case 5:
+                        writer.writeCharacters("" + value);
+                        xml.characters(value);
+                        startTagOpen = false;
+                        break;
+                    case 6:
+                        long wordSeed = random.nextLong();
+                        int wordCount = random.nextInt(0, 20);
+                        StaxWords.writeRandomWords(writer, new SplittableRandom(wordSeed), wordCount);
+                        xml.randomWords(new SplittableRandom(wordSeed), wordCount);
+                        startTagOpen = false;
+                        break;
+                    case 7:
+                        writer.writeAttribute(name, text);
+                        xml.attribute(name, text);
+                        break;
+                    case 8:
+                        writer.writeAttribute(name, "" + value);
+                        xml.attribute(name, value);
+                        break;
+                    case 9:
+                        writer.writeAttribute(name, "- topic/p ");
+                        xml.attribute(name, XmlEmitter.safe("- topic/p "));
+                        break;
+                    case 10:
+                        writer.writeNamespace("ns" + value, "urn:x?a=" + text);
+                        xml.namespace("ns" + value, "urn:x?a=" + text);
+                        break;
+                    default:
+                        writer.writeNamespace("r", "http://www.rsuitecms.com/rsuite/ns/metadata");
+                        xml.namespace("r", XmlEmitter.safe("http://www.rsuitecms.com/rsuite/ns/metadata"));
+                        break;
+                }
+            }
+            writer.writeEndDocument();
+            xml.endDocument();
+            writer.close();
+            assertEquals("Emitted XML differs for seed " + seed,
+                    new String(out.toByteArray(), StandardCharsets.UTF_8), render(xml.getBuffer()));
+        }
+    }
+
+    @Test
+    public void testEmitterRejectsIllFormedOutput() throws Exception {
+        XmlEmitter xml = new XmlEmitter(new RenderBuffer());
+        String[] notAllowed = { "bell \u0007", "\ufffe", "unpaired \ud83d surrogate" };
+        for (String text : notAllowed) {
+            try {
+                xml.characters(text);
+                fail("Text \"" + text + "\" written");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        try {
+            XmlEmitter.safe("a < b");
+            fail("Text needing escaping accepted as safe");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            xml.startElement("1st");
+            fail("Bad element name written");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            xml.attribute("id", 1);
+            fail("Attribute written outside a start tag");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testWordsNeedingEscaping() throws Exception {
+        WordList wordList = GenerationHelper.getWordList();
+        for (int ndx = 0; ndx < wordList.size(); ndx++) {
+            String word = wordList.getWord(ndx);
+            boolean markup = word.indexOf('&') >= 0 || word.indexOf('<') >= 0 ||
+                    word.indexOf('>') >= 0 || word.indexOf('"') >= 0;
+            assertEquals("Escaping of \"" + word + "\"", markup, wordList.needsEscaping(ndx));
+        }
+        // The word list has a word that is markup.
+        int ndx = wordList.indexOf("</words>", 0, 8);
+        assertTrue(ndx >= 0 && wordList.needsEscaping(ndx));
+    }
+
+    @Test
+    public void testRenderContext() throws Exception {
+        RenderContext context = RenderContext.get();
+        assertSame(context, RenderContext.get());
+        RenderBuffer outer = context.acquireBuffer();
+        outer.appendText("outer");
+        // A file rendered while another is part way through gets its own buffer.
+        RenderBuffer inner = context.acquireBuffer();
+        assertNotSame(outer, inner);
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(inner.asOutputStream(), "UTF-8");
+        writer.writeStartElement("p");
+        writer.writeCharacters("a < b");
+        writer.writeEndElement();
+        writer.close();
+        assertEquals("<p>a &lt; b</p>", new String(inner.toByteArray(), "UTF-8"));
+        try {
+            context.releaseBuffer(outer);
+            fail("Buffer released out of order");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        context.releaseBuffer(inner);
+        assertEquals("outer", new String(outer.toByteArray(), "UTF-8"));
+        context.releaseBuffer(outer);
+        // The buffers are reused, emptied.
+        RenderBuffer again = context.acquireBuffer();
+        assertSame(outer, again);
+        assertEquals(0, again.size());
+        context.releaseBuffer(again);
+    }
+
+    @Test
+    public void testAppendInt() throws Exception {
+        RenderBuffer buffer = new RenderBuffer(1);
+        int[] values = { 0, 7, 10, 999, 1000, -1, -45, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        for (int value : values) {
+            assertEquals("" + value, render(buffer.reset().appendInt(value)));
+        }
+    }
+}